@@ -50,6 +50,9 @@ dependencies {
     // Kubernetes
     implementation(libs.bundles.kubernetes)
 
+    // Object storage
+    implementation(libs.bundles.object.storage)
+
     // Monitoring
     implementation(libs.bundles.monitoring)
 
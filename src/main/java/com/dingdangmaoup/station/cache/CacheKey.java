@@ -32,6 +32,18 @@ public class CacheKey implements Serializable {
                 .build();
     }
 
+    /**
+     * Blob key carrying the repository it was pulled through; the repository is not part of
+     * the cache key, it only selects the repository policy
+     */
+    public static CacheKey forBlob(String repository, String digest) {
+        return CacheKey.builder()
+                .type("blob")
+                .repository(repository)
+                .digest(digest)
+                .build();
+    }
+
     public String toRedisKey() {
         if ("manifest".equals(type)) {
             return String.format("cache:manifest:%s:%s", repository, reference);
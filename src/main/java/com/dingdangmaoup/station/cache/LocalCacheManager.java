@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.Optional;
 
 @Slf4j
@@ -14,6 +15,7 @@ import java.util.Optional;
 public class LocalCacheManager {
 
     private final Cache<String, Object> localCache;
+    private final RepositoryPolicies repositoryPolicies;
 
     public Mono<Optional<CacheEntry>> get(CacheKey key) {
         return Mono.fromCallable(() -> {
@@ -29,7 +31,15 @@ public class LocalCacheManager {
 
     public Mono<Void> put(CacheKey key, CacheEntry entry) {
         return Mono.fromRunnable(() -> {
-            localCache.put(key.toRedisKey(), entry);
+            Optional<Duration> ttl = repositoryPolicies.localTtl(key);
+            if (ttl.isPresent()) {
+                // The cache is built with variable expiry, so the per-entry put is always available
+                localCache.policy().expireVariably().ifPresentOrElse(
+                        expiry -> expiry.put(key.toRedisKey(), entry, ttl.get()),
+                        () -> localCache.put(key.toRedisKey(), entry));
+            } else {
+                localCache.put(key.toRedisKey(), entry);
+            }
             log.debug("Local cache PUT: {}", key);
         });
     }
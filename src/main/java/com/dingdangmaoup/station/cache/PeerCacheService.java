@@ -1,11 +1,13 @@
 package com.dingdangmaoup.station.cache;
 
 import com.dingdangmaoup.station.coordination.ConsistentHashManager;
+import com.dingdangmaoup.station.grpc.HealthCheckResponse;
 import com.dingdangmaoup.station.grpc.ManifestData;
 import com.dingdangmaoup.station.grpc.client.StationGrpcClient;
 import com.dingdangmaoup.station.metrics.CacheMetrics;
 import com.dingdangmaoup.station.node.discovery.NodeDiscoveryService;
 import com.dingdangmaoup.station.node.discovery.NodeInfo;
+import com.dingdangmaoup.station.storage.BlobStream;
 import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -18,8 +20,11 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service for querying peer nodes using consistent hashing
@@ -34,6 +39,9 @@ public class PeerCacheService {
     private final StationGrpcClient grpcClient;
     private final CacheMetrics cacheMetrics;
 
+    // Last reported status of each peer; peers not polled yet count as healthy
+    private final Map<String, HealthCheckResponse.Status> peerStatus = new ConcurrentHashMap<>();
+
     @Value("${station.node.id}")
     private String currentNodeId;
 
@@ -60,6 +68,42 @@ public class PeerCacheService {
                 .subscribe();
     }
 
+    /**
+     * Periodically poll peer health, so reads avoid peers that are degraded or down
+     */
+    @Scheduled(fixedDelayString = "${station.discovery.health-check-interval:10s}")
+    public void scheduledPeerHealthCheck() {
+        nodeDiscoveryService.discoverNodes()
+                .filter(node -> !node.getNodeId().equals(currentNodeId))
+                .flatMap(node -> grpcClient.healthCheck(node)
+                        .doOnNext(health -> updatePeerStatus(node.getNodeId(), health.getStatus())))
+                .doOnError(e -> log.error("Failed to check peer health", e))
+                .subscribe();
+    }
+
+    /**
+     * Find a healthy peer holding a blob, to serve a read this node's degraded storage should not
+     */
+    public Mono<Optional<NodeInfo>> findHealthyPeerWithBlob(String digest) {
+        return getPeerNodesForKey(String.format("blob:%s", digest))
+                .flatMapMany(Flux::fromIterable)
+                .filter(node -> rank(node) == 0)
+                .concatMap(node -> grpcClient.hasBlob(node, digest)
+                        .filter(Boolean::booleanValue)
+                        .map(exists -> node))
+                .next()
+                .doOnNext(node -> cacheMetrics.recordOffloadedRead())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    /**
+     * Read a range of a blob from a peer found by {@link #findHealthyPeerWithBlob}
+     */
+    public Flux<DataBuffer> readBlob(NodeInfo node, String digest, long offset, long length) {
+        return grpcClient.getBlob(node, digest, offset, length);
+    }
+
     /**
      * Query peer nodes for a manifest using consistent hashing
      */
@@ -109,7 +153,7 @@ public class PeerCacheService {
     /**
      * Query peer nodes for a blob using consistent hashing
      */
-    public Mono<Optional<Flux<DataBuffer>>> queryPeersForBlob(String digest) {
+    public Mono<Optional<BlobStream>> queryPeersForBlob(String digest) {
         String key = String.format("blob:%s", digest);
 
         Timer.Sample peerTimer = cacheMetrics.startPeerCacheTimer();
@@ -118,20 +162,23 @@ public class PeerCacheService {
                 .flatMap(peers -> {
                     if (peers.isEmpty()) {
                         log.debug("No peer nodes available for blob query");
-                        return Mono.just(Optional.<Flux<DataBuffer>>empty());
+                        return Mono.just(Optional.<BlobStream>empty());
                     }
 
                     log.debug("Querying {} peer nodes for blob {}", peers.size(), digest);
 
                     // Try each peer in order
                     return tryPeersSequentiallyForBlob(peers, node ->
-                        grpcClient.hasBlob(node, digest)
-                                .flatMap(exists -> {
-                                    if (exists) {
-                                        Flux<DataBuffer> blobStream = grpcClient.getBlob(node, digest);
+                        grpcClient.statBlob(node, digest)
+                                .flatMap(stat -> {
+                                    if (stat.getExists()) {
+                                        BlobStream blobStream = BlobStream.builder()
+                                                .size(stat.getSize())
+                                                .data(grpcClient.getBlob(node, digest))
+                                                .build();
                                         return Mono.just(Optional.of(blobStream));
                                     }
-                                    return Mono.just(Optional.<Flux<DataBuffer>>empty());
+                                    return Mono.just(Optional.<BlobStream>empty());
                                 })
                     );
                 })
@@ -152,6 +199,34 @@ public class PeerCacheService {
                 });
     }
 
+    /**
+     * Query a specific node for a blob, e.g. the node the L2 cache says fetched it
+     */
+    public Mono<Optional<BlobStream>> queryNodeForBlob(String nodeId, String digest) {
+        if (nodeId == null || nodeId.equals(currentNodeId)) {
+            return Mono.just(Optional.empty());
+        }
+
+        return nodeDiscoveryService.getNode(nodeId)
+                .flatMap(node -> grpcClient.statBlob(node, digest)
+                        .map(stat -> {
+                            if (!stat.getExists()) {
+                                return Optional.<BlobStream>empty();
+                            }
+                            log.info("Cache HIT at L3 (Peer {}): blob {}", nodeId, digest);
+                            cacheMetrics.recordPeerCacheHit();
+                            return Optional.of(BlobStream.builder()
+                                    .size(stat.getSize())
+                                    .data(grpcClient.getBlob(node, digest))
+                                    .build());
+                        }))
+                .defaultIfEmpty(Optional.empty())
+                .onErrorResume(error -> {
+                    log.error("Error querying node {} for blob", nodeId, error);
+                    return Mono.just(Optional.empty());
+                });
+    }
+
     /**
      * Get peer nodes for a given key using consistent hashing
      * Uses the cached hash ring (refreshed periodically in background)
@@ -167,16 +242,47 @@ public class PeerCacheService {
             // Get nodes for this key (ordered by consistent hash)
             List<NodeInfo> candidateNodes = consistentHashManager.getNodesForKey(key, 3);
 
-            // Filter out current node
-            List<NodeInfo> peerNodes = candidateNodes.stream()
+            // Filter out current node; degraded and unhealthy peers are tried last
+            List<NodeInfo> peerNodes = orderByHealth(candidateNodes.stream()
                     .filter(node -> !node.getNodeId().equals(currentNodeId))
-                    .toList();
+                    .toList());
 
             log.debug("Consistent hash for key '{}' returned {} peer nodes", key, peerNodes.size());
             return peerNodes;
         });
     }
 
+    void updatePeerStatus(String nodeId, HealthCheckResponse.Status status) {
+        HealthCheckResponse.Status previous = peerStatus.put(nodeId, status);
+        if (previous != null && previous != status) {
+            log.info("Peer {} is now {}", nodeId, status);
+        }
+    }
+
+    /**
+     * Healthy peers first, then degraded, then unhealthy or draining; hash order within each group
+     */
+    List<NodeInfo> orderByHealth(List<NodeInfo> peers) {
+        return peers.stream()
+                .sorted(Comparator.comparingInt(this::rank))
+                .toList();
+    }
+
+    /**
+     * Read preference of a peer by its last reported status, lower first
+     */
+    int rank(NodeInfo node) {
+        HealthCheckResponse.Status status = peerStatus.get(node.getNodeId());
+        if (status == null) {
+            return 0;
+        }
+        return switch (status) {
+            case DEGRADED -> 1;
+            case UNHEALTHY, DRAINING -> 2;
+            default -> 0;
+        };
+    }
+
     /**
      * Try peers sequentially until one succeeds
      */
@@ -202,9 +308,9 @@ public class PeerCacheService {
     /**
      * Try peers sequentially for blob streaming
      */
-    private Mono<Optional<Flux<DataBuffer>>> tryPeersSequentiallyForBlob(
+    private Mono<Optional<BlobStream>> tryPeersSequentiallyForBlob(
             List<NodeInfo> peers,
-            java.util.function.Function<NodeInfo, Mono<Optional<Flux<DataBuffer>>>> operation) {
+            java.util.function.Function<NodeInfo, Mono<Optional<BlobStream>>> operation) {
         if (peers.isEmpty()) {
             return Mono.just(Optional.empty());
         }
@@ -20,6 +20,7 @@ public class RedisCacheManager {
     private final ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
     private final CacheProperties cacheProperties;
     private final ObjectMapper objectMapper ;
+    private final RepositoryPolicies repositoryPolicies;
 
     public Mono<Optional<CacheEntry>> get(CacheKey key) {
         return reactiveRedisTemplate.opsForValue()
@@ -45,9 +46,10 @@ public class RedisCacheManager {
     public Mono<Void> put(CacheKey key, CacheEntry entry) {
         return Mono.fromCallable(() -> objectMapper.writeValueAsString(entry))
                 .flatMap(json -> {
-                    Duration ttl = "manifest".equals(key.getType())
-                            ? cacheProperties.getRedis().getManifestTtl()
-                            : cacheProperties.getRedis().getBlobTtl();
+                    Duration ttl = repositoryPolicies.redisTtl(key)
+                            .orElseGet(() -> "manifest".equals(key.getType())
+                                    ? cacheProperties.getRedis().getManifestTtl()
+                                    : cacheProperties.getRedis().getBlobTtl());
                     return reactiveRedisTemplate.opsForValue()
                             .set(key.toRedisKey(), json, ttl);
                 })
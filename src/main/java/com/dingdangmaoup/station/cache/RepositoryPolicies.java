@@ -0,0 +1,137 @@
+package com.dingdangmaoup.station.cache;
+
+import com.dingdangmaoup.station.config.properties.CacheProperties;
+import com.dingdangmaoup.station.config.properties.CacheProperties.RepositoryPolicy;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the {@link RepositoryPolicy} of a repository: pinning, max age, cache TTL overrides
+ * and disk quota. Rules are tried in configuration order and the first matching pattern wins.
+ * Resolved repositories are memoized in a bounded cache, so a client probing random repository
+ * names cannot grow it without limit.
+ */
+@Slf4j
+@Component
+public class RepositoryPolicies {
+
+    private static final Optional<RepositoryPolicy> NONE = Optional.empty();
+    private static final int MAX_RESOLVED = 10_000;
+
+    private final List<Rule> rules;
+    private final Cache<String, Optional<RepositoryPolicy>> resolved = Caffeine.newBuilder()
+            .maximumSize(MAX_RESOLVED)
+            .build();
+
+    private record Rule(Pattern pattern, RepositoryPolicy policy) {
+    }
+
+    public RepositoryPolicies(CacheProperties cacheProperties) {
+        List<Rule> compiled = new ArrayList<>();
+        for (RepositoryPolicy policy : cacheProperties.getPolicies()) {
+            if (policy.getPattern() == null || policy.getPattern().isBlank()) {
+                log.warn("Ignoring repository policy without a pattern");
+                continue;
+            }
+            compiled.add(new Rule(compile(policy.getPattern().trim()), policy));
+            log.info("Repository policy {}: pinned={}, maxAge={}, localTtl={}, redisTtl={}, quota={}",
+                    policy.getPattern(), policy.isPinned(), policy.getMaxAge(), policy.getLocalTtl(),
+                    policy.getRedisTtl(), policy.getQuota());
+        }
+        this.rules = List.copyOf(compiled);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * The policy of a repository, if any rule matches it
+     */
+    public Optional<RepositoryPolicy> policyFor(String repository) {
+        if (rules.isEmpty() || repository == null) {
+            return NONE;
+        }
+        return resolved.get(repository, name -> rules.stream()
+                .filter(rule -> rule.pattern().matcher(name).matches())
+                .map(Rule::policy)
+                .findFirst());
+    }
+
+    /**
+     * The policy governing content shared by several repositories: a pinning rule if any of them
+     * is pinned, otherwise the first matching rule
+     */
+    public Optional<RepositoryPolicy> policyFor(Collection<String> repositories) {
+        Optional<RepositoryPolicy> first = NONE;
+        for (String repository : repositories) {
+            Optional<RepositoryPolicy> policy = policyFor(repository);
+            if (policy.isPresent() && policy.get().isPinned()) {
+                return policy;
+            }
+            if (first.isEmpty()) {
+                first = policy;
+            }
+        }
+        return first;
+    }
+
+    public boolean isPinned(Collection<String> repositories) {
+        return policyFor(repositories).map(RepositoryPolicy::isPinned).orElse(false);
+    }
+
+    /**
+     * Local cache TTL override for the entry's repository
+     */
+    public Optional<Duration> localTtl(CacheKey key) {
+        return policyFor(key.getRepository()).map(RepositoryPolicy::getLocalTtl);
+    }
+
+    /**
+     * Redis TTL override for the entry's repository
+     */
+    public Optional<Duration> redisTtl(CacheKey key) {
+        return policyFor(key.getRepository()).map(RepositoryPolicy::getRedisTtl);
+    }
+
+    /**
+     * Rules with a disk quota, in configuration order
+     */
+    public List<RepositoryPolicy> quotaPolicies() {
+        return rules.stream()
+                .map(Rule::policy)
+                .filter(policy -> policy.getQuota() != null)
+                .toList();
+    }
+
+    /**
+     * Translate a repository glob into a regex: {@code **} spans path segments, {@code *} and
+     * {@code ?} stay within one
+     */
+    static Pattern compile(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,47 @@
+package com.dingdangmaoup.station.cache;
+
+import com.dingdangmaoup.station.metrics.NodeMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Node-local request coalescing (single-flight) for small results such as manifests.
+ * Concurrent callers for the same key share one execution of the loader and receive its result.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RequestCoalescer {
+
+    private final Map<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+    private final NodeMetrics nodeMetrics;
+
+    /**
+     * Run the loader for the key, or join an execution already in progress.
+     * The shared execution keeps running if the caller that started it cancels.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> coalesce(String key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> {
+            boolean[] started = new boolean[1];
+            Mono<?> shared = inFlight.computeIfAbsent(key, k -> {
+                started[0] = true;
+                return Mono.defer(loader)
+                        .doFinally(signal -> inFlight.remove(k))
+                        .cache();
+            });
+
+            if (!started[0]) {
+                log.debug("Coalescing request for {}", key);
+                nodeMetrics.recordCoalescedRequest();
+            }
+            return (Mono<T>) shared;
+        });
+    }
+}
@@ -0,0 +1,429 @@
+package com.dingdangmaoup.station.cache.eviction;
+
+import com.dingdangmaoup.station.cache.RepositoryPolicies;
+import com.dingdangmaoup.station.cache.eviction.policy.AgedLfuPolicy;
+import com.dingdangmaoup.station.cache.eviction.policy.EvictionPolicy;
+import com.dingdangmaoup.station.cache.eviction.policy.GdsfPolicy;
+import com.dingdangmaoup.station.cache.eviction.policy.SampledLruPolicy;
+import com.dingdangmaoup.station.config.properties.CacheProperties.RepositoryPolicy;
+import com.dingdangmaoup.station.config.properties.EvictionProperties;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.FileSystemManifestStorage;
+import com.dingdangmaoup.station.storage.index.BlobFrequency;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import com.dingdangmaoup.station.storage.index.ImageReferenceGraph;
+import com.dingdangmaoup.station.storage.index.SampledDigests;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Frees disk space by evicting blobs in the order chosen by the configured {@link EvictionPolicy},
+ * optionally guarded by a TinyLFU admission filter.
+ * <p>
+ * In image-aware mode eviction works on whole images, using the {@link ImageReferenceGraph}:
+ * orphan blobs that no cached manifest references go first, in policy order, and only then are
+ * the coldest images removed, each with the layers no other cached image shares. Base layers
+ * used by many images stay resident, and an image is never left with its manifest cached but
+ * its layers gone. Orphans are tracked as they appear, from newly indexed blobs and from the
+ * references the graph drops, so a run does not have to scan the whole index to find them. Like
+ * blobs outside image-aware mode, orphans and images are sampled rather than listed each run.
+ * <p>
+ * {@link RepositoryPolicies} are honoured throughout: images of pinned repositories are never
+ * evicted, and {@link #enforceRepositoryPolicies} applies the max-age and quota rules.
+ */
+@Slf4j
+@Component
+public class BlobEvictor {
+
+    private final BlobStorage blobStorage;
+    private final BlobIndex blobIndex;
+    private final FileSystemManifestStorage manifestStorage;
+    private final ImageReferenceGraph imageGraph;
+    private final RepositoryPolicies repositoryPolicies;
+    private final EvictionPolicy policy;
+    private final BlobFrequency admission;
+    private final int sampleSize;
+    private final boolean imageAware;
+    private final long gracePeriodMillis;
+    // Blobs that may have no referencing manifest; a superset, each is re-checked when sampled
+    private final SampledDigests orphanCandidates = new SampledDigests();
+    private volatile boolean orphansSeeded;
+
+    public BlobEvictor(BlobStorage blobStorage, BlobIndex blobIndex, FileSystemManifestStorage manifestStorage,
+                       ImageReferenceGraph imageGraph, RepositoryPolicies repositoryPolicies,
+                       BlobFrequency blobFrequency, EvictionProperties evictionProperties) {
+        this.blobStorage = blobStorage;
+        this.blobIndex = blobIndex;
+        this.manifestStorage = manifestStorage;
+        this.imageGraph = imageGraph;
+        this.repositoryPolicies = repositoryPolicies;
+        this.sampleSize = Math.max(1, evictionProperties.getSampleSize());
+        this.imageAware = evictionProperties.isImageAware();
+        this.gracePeriodMillis = evictionProperties.getGracePeriod().toMillis();
+        this.policy = switch (evictionProperties.getPolicy()) {
+            case LRU -> new SampledLruPolicy();
+            case LFU -> new AgedLfuPolicy(evictionProperties.getLfuHalfLife());
+            case GDSF -> new GdsfPolicy();
+        };
+        this.admission = evictionProperties.getAdmission() == EvictionProperties.Admission.TINY_LFU
+                ? blobFrequency
+                : null;
+
+        blobIndex.addAccessListener(this::onAccess);
+        if (imageAware) {
+            imageGraph.addUnreferencedListener(this::onUnreferenced);
+        }
+        log.info("Blob eviction policy: {} (sample size {}, admission {}, image-aware {})",
+                policy.name(), sampleSize, evictionProperties.getAdmission(), imageAware);
+    }
+
+    /**
+     * Evict blobs until at least {@code bytesToFree} bytes are freed or nothing is left to evict.
+     *
+     * @param candidate a blob that was just stored and caused the eviction, or null. With TinyLFU
+     *                  admission it is evicted itself when it is less popular than the first victim;
+     *                  in image-aware mode the image it belongs to is weighed against the first image.
+     * @return bytes freed
+     */
+    public Mono<Long> evict(long bytesToFree, String candidate) {
+        return Mono.defer(() -> {
+            AtomicLong freedBytes = new AtomicLong();
+            AtomicInteger evictedCount = new AtomicInteger();
+            AtomicInteger attempts = new AtomicInteger();
+            AtomicReference<String> pendingCandidate = new AtomicReference<>(candidate);
+            // Bounds the loop if deletes keep failing
+            int maxAttempts = blobIndex.size() * 2 + imageGraph.size() + 1;
+
+            Mono<Boolean> evictOne = Mono.defer(() -> {
+                attempts.incrementAndGet();
+                if (!imageAware) {
+                    BlobIndexEntry victim = nextVictim(blobIndex.sample(sampleSize), pendingCandidate);
+                    if (victim == null) {
+                        return Mono.just(false);
+                    }
+                    // A pinned blob costs an attempt, so a fully pinned store ends the loop
+                    return isPinnedBlob(victim.getDigest())
+                            ? Mono.just(true)
+                            : evictBlob(victim, freedBytes, evictedCount).thenReturn(true);
+                }
+
+                long now = System.currentTimeMillis();
+                BlobIndexEntry orphan = nextVictim(sampleOrphans(now), pendingCandidate);
+                if (orphan != null) {
+                    return evictBlob(orphan, freedBytes, evictedCount).thenReturn(true);
+                }
+                // A sample with nothing to evict means most images are in their grace period or pinned
+                String image = coldestImage(imageGraph.sampleImages(sampleSize), now);
+                if (image == null) {
+                    return Mono.just(false);
+                }
+                return evictImage(admitImage(image, pendingCandidate), freedBytes, evictedCount).thenReturn(true);
+            });
+
+            return evictOne
+                    .repeat(() -> freedBytes.get() < bytesToFree && attempts.get() < maxAttempts)
+                    .takeWhile(progressed -> progressed)
+                    .then(Mono.fromSupplier(() -> {
+                        log.info("Eviction completed ({}): freed {} bytes by evicting {} blobs",
+                                policy.name(), freedBytes.get(), evictedCount.get());
+                        return freedBytes.get();
+                    }));
+        });
+    }
+
+    private Mono<Boolean> evictBlob(BlobIndexEntry victim, AtomicLong freedBytes, AtomicInteger evictedCount) {
+        return blobStorage.delete(victim.getDigest())
+                .doOnNext(deleted -> {
+                    if (deleted) {
+                        freedBytes.addAndGet(victim.getSize());
+                        evictedCount.incrementAndGet();
+                        policy.onEvicted(victim);
+                        log.debug("Evicted blob: {} ({} bytes)", victim.getDigest(), victim.getSize());
+                    }
+                })
+                .onErrorResume(error -> {
+                    log.warn("Failed to evict blob: {}", victim.getDigest(), error);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * Apply the max-age and quota rules of the repository policies: evict images unused for
+     * longer than their repository's max age, then the coldest images of every rule whose
+     * repositories together exceed its quota. Pinned images are left alone.
+     *
+     * @return bytes freed
+     */
+    public Mono<Long> enforceRepositoryPolicies() {
+        if (repositoryPolicies.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return Mono.defer(() -> {
+            long now = System.currentTimeMillis();
+            Set<String> victims = new LinkedHashSet<>();
+            Map<RepositoryPolicy, List<String>> quotaImages = new IdentityHashMap<>();
+
+            for (String image : imageGraph.images()) {
+                Optional<RepositoryPolicy> match = repositoryPolicies.policyFor(manifestStorage.repositories(image));
+                if (match.isEmpty() || match.get().isPinned()) {
+                    continue;
+                }
+                RepositoryPolicy policy = match.get();
+                long idle = now - lastAccess(image);
+                if (policy.getMaxAge() != null && idle > policy.getMaxAge().toMillis()) {
+                    victims.add(image);
+                } else if (policy.getQuota() != null && idle >= gracePeriodMillis) {
+                    quotaImages.computeIfAbsent(policy, key -> new ArrayList<>()).add(image);
+                }
+            }
+            int expired = victims.size();
+            quotaImages.forEach((policy, images) -> selectOverQuota(policy, images, victims));
+
+            if (victims.isEmpty()) {
+                return Mono.just(0L);
+            }
+            AtomicLong freedBytes = new AtomicLong();
+            AtomicInteger evictedCount = new AtomicInteger();
+            return Flux.fromIterable(victims)
+                    .concatMap(image -> evictImage(image, freedBytes, evictedCount))
+                    .then(Mono.fromSupplier(() -> {
+                        log.info("Repository policies: evicted {} expired and {} over-quota images, freed {} bytes ({} blobs)",
+                                expired, victims.size() - expired, freedBytes.get(), evictedCount.get());
+                        return freedBytes.get();
+                    }));
+        });
+    }
+
+    /**
+     * Add the coldest images of a quota rule to the victims until the blobs its remaining images
+     * reference fit the quota
+     */
+    private void selectOverQuota(RepositoryPolicy policy, List<String> images, Set<String> victims) {
+        Map<String, Long> blobSizes = new HashMap<>();
+        for (String image : images) {
+            for (String blob : imageGraph.children(image)) {
+                blobIndex.get(blob).ifPresent(entry -> blobSizes.put(blob, entry.getSize()));
+            }
+        }
+        long used = blobSizes.values().stream().mapToLong(Long::longValue).sum();
+        long quota = policy.getQuota().toBytes();
+        if (used <= quota) {
+            return;
+        }
+
+        images.sort(Comparator.comparingLong(this::lastAccess));
+        for (String image : images) {
+            if (used <= quota) {
+                break;
+            }
+            victims.add(image);
+            // Only blobs no surviving image references are freed
+            for (String blob : imageGraph.children(image)) {
+                Long size = blobSizes.get(blob);
+                if (size != null && victims.containsAll(imageGraph.referrers(blob))) {
+                    used -= size;
+                    blobSizes.remove(blob);
+                }
+            }
+        }
+        log.info("Repositories matching {} use more than their {} quota, evicting their coldest images",
+                policy.getPattern(), policy.getQuota());
+    }
+
+    /**
+     * Whether the blob belongs to an image of a pinned repository
+     */
+    private boolean isPinnedBlob(String digest) {
+        if (repositoryPolicies.isEmpty()) {
+            return false;
+        }
+        for (String manifest : imageGraph.referrers(digest)) {
+            if (repositoryPolicies.isPinned(manifestStorage.repositories(manifest))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evict an image manifest, then the blobs it referenced that no remaining manifest references
+     */
+    private Mono<Void> evictImage(String image, AtomicLong freedBytes, AtomicInteger evictedCount) {
+        List<String> blobs = imageGraph.children(image);
+        return manifestStorage.evictManifest(image)
+                .flatMapMany(manifestBytes -> {
+                    freedBytes.addAndGet(manifestBytes);
+                    return Flux.fromIterable(blobs);
+                })
+                .filter(digest -> !imageGraph.isReferenced(digest))
+                .concatMap(digest -> Mono.justOrEmpty(blobIndex.get(digest)))
+                .concatMap(entry -> evictBlob(entry, freedBytes, evictedCount))
+                .filter(deleted -> deleted)
+                .count()
+                .doOnNext(deleted -> log.debug("Evicted image {}: {} of {} blobs deleted, the rest is shared",
+                        image, deleted, blobs.size()))
+                .onErrorResume(error -> {
+                    log.warn("Failed to evict image: {}", image, error);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * A random sample of the indexed blobs no stored manifest references, past the grace period.
+     * Samples the tracked candidates rather than the index, dropping those that were deleted or
+     * gained a referrer.
+     */
+    private List<BlobIndexEntry> sampleOrphans(long now) {
+        if (!orphansSeeded) {
+            // Blobs indexed and manifests stored before the listeners saw them; once is enough
+            orphansSeeded = true;
+            for (BlobIndexEntry entry : blobIndex.entries()) {
+                if (!imageGraph.isReferenced(entry.getDigest())) {
+                    orphanCandidates.add(entry.getDigest());
+                }
+            }
+        }
+
+        List<BlobIndexEntry> orphans = new ArrayList<>(sampleSize);
+        for (String digest : orphanCandidates.sample(sampleSize)) {
+            Optional<BlobIndexEntry> entry = blobIndex.get(digest);
+            if (entry.isEmpty() || imageGraph.isReferenced(digest)) {
+                orphanCandidates.remove(digest);
+                // A listener may have re-added it between the check and the removal
+                trackIfOrphan(digest);
+            } else if (now - Math.max(entry.get().getCreatedAt(), entry.get().getLastAccess())
+                    >= gracePeriodMillis) {
+                orphans.add(entry.get());
+            }
+        }
+        return orphans;
+    }
+
+    private void trackIfOrphan(String digest) {
+        if (!imageGraph.isReferenced(digest) && blobIndex.contains(digest)) {
+            orphanCandidates.add(digest);
+        }
+    }
+
+    private void onUnreferenced(String digest) {
+        trackIfOrphan(digest);
+    }
+
+    /**
+     * The coldest image of a sample, by the latest use of its manifest or any of its layers,
+     * leaving out images inside the grace period and images of pinned repositories
+     */
+    private String coldestImage(List<String> images, long now) {
+        String coldest = null;
+        long coldestAccess = Long.MAX_VALUE;
+        for (String image : images) {
+            long lastAccess = lastAccess(image);
+            if (now - lastAccess >= gracePeriodMillis && lastAccess < coldestAccess
+                    && !repositoryPolicies.isPinned(manifestStorage.repositories(image))) {
+                coldest = image;
+                coldestAccess = lastAccess;
+            }
+        }
+        return coldest;
+    }
+
+    private long lastAccess(String image) {
+        long lastAccess = imageGraph.lastAccess(image);
+        for (String blob : imageGraph.children(image)) {
+            Optional<BlobIndexEntry> entry = blobIndex.get(blob);
+            if (entry.isPresent()) {
+                lastAccess = Math.max(lastAccess, entry.get().getLastAccess());
+            }
+        }
+        return lastAccess;
+    }
+
+    /**
+     * The policy's victim among the sample, or the pending candidate if TinyLFU rates it lower.
+     * The candidate is only consumed once it has been compared against a victim; in image-aware
+     * mode a candidate that belongs to a cached image is left for {@link #admitImage}.
+     */
+    private BlobIndexEntry nextVictim(List<BlobIndexEntry> sample, AtomicReference<String> pendingCandidate) {
+        BlobIndexEntry victim = policy.selectVictim(sample, System.currentTimeMillis());
+
+        String candidate = pendingCandidate.get();
+        if (candidate == null || admission == null || victim == null) {
+            return victim;
+        }
+        if (imageAware && imageGraph.isReferenced(candidate)) {
+            // Evicting the candidate alone would leave its image half-evicted
+            return victim;
+        }
+        pendingCandidate.set(null);
+        if (candidate.equals(victim.getDigest())) {
+            return victim;
+        }
+
+        Optional<BlobIndexEntry> candidateEntry = blobIndex.get(candidate);
+        if (candidateEntry.isPresent() && !admission.admit(candidate, victim.getDigest())) {
+            log.debug("TinyLFU rejected blob {} in favour of resident blob {}", candidate, victim.getDigest());
+            return candidateEntry.get();
+        }
+        return victim;
+    }
+
+    /**
+     * TinyLFU at image granularity: the image the pending candidate arrived with is evicted instead
+     * of the coldest image when it is requested less often. An image is as popular as its most
+     * requested blob.
+     */
+    private String admitImage(String victim, AtomicReference<String> pendingCandidate) {
+        String candidate = pendingCandidate.getAndSet(null);
+        if (candidate == null || admission == null) {
+            return victim;
+        }
+        // The newest image referencing the candidate is the one being pulled
+        String candidateImage = null;
+        for (String image : imageGraph.referrers(candidate)) {
+            if (candidateImage == null || imageGraph.lastAccess(image) > imageGraph.lastAccess(candidateImage)) {
+                candidateImage = image;
+            }
+        }
+        if (candidateImage == null || candidateImage.equals(victim) || imageGraph.isIndex(candidateImage)
+                || repositoryPolicies.isPinned(manifestStorage.repositories(candidateImage))) {
+            return victim;
+        }
+        if (imageFrequency(candidateImage) > imageFrequency(victim)) {
+            return victim;
+        }
+        log.debug("TinyLFU rejected image {} in favour of resident image {}", candidateImage, victim);
+        return candidateImage;
+    }
+
+    private int imageFrequency(String image) {
+        int frequency = 0;
+        for (String blob : imageGraph.children(image)) {
+            frequency = Math.max(frequency, admission.frequency(blob));
+        }
+        return frequency;
+    }
+
+    private void onAccess(BlobIndexEntry entry) {
+        policy.onAccess(entry);
+        if (imageAware && !imageGraph.isReferenced(entry.getDigest())) {
+            orphanCandidates.add(entry.getDigest());
+        }
+    }
+}
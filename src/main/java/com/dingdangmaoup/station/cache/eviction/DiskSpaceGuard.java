@@ -0,0 +1,183 @@
+package com.dingdangmaoup.station.cache.eviction;
+
+import com.dingdangmaoup.station.config.properties.EvictionProperties;
+import com.dingdangmaoup.station.storage.BlobCommittedEvent;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps disk usage between the eviction watermarks and admits downloads against reserved headroom.
+ * <p>
+ * Every blob commit checks usage; once it crosses the high watermark a single drain evicts down to
+ * the low watermark. Downloads of known size reserve their bytes up front and only
+ * start if they fit without eating into the headroom (evicting synchronously first if needed), so
+ * ingest does not run into ENOSPC halfway through a multi-GB layer.
+ */
+@Slf4j
+@Component
+public class DiskSpaceGuard {
+
+    private final BlobStorage blobStorage;
+    private final BlobEvictor blobEvictor;
+    private final EvictionProperties evictionProperties;
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicReference<Mono<Long>> activeDrain = new AtomicReference<>();
+
+    public DiskSpaceGuard(BlobStorage blobStorage, BlobEvictor blobEvictor, EvictionProperties evictionProperties) {
+        this.blobStorage = blobStorage;
+        this.blobEvictor = blobEvictor;
+        this.evictionProperties = evictionProperties;
+    }
+
+    @EventListener
+    public void onBlobCommitted(BlobCommittedEvent event) {
+        checkWatermarks(event.digest())
+                .subscribe(
+                        freed -> { },
+                        error -> log.error("Eviction after commit of {} failed", event.digest(), error));
+    }
+
+    /**
+     * Start (or join) a drain to the low watermark if usage is above the high watermark
+     *
+     * @param candidate the blob whose commit triggered the check, subject to admission; may be null
+     * @return bytes freed
+     */
+    public Mono<Long> checkWatermarks(String candidate) {
+        if (!evictionProperties.isEnabled()) {
+            return Mono.just(0L);
+        }
+
+        return usage().flatMap(usage -> {
+            if (usage.percent() <= evictionProperties.getHighWatermark()) {
+                return Mono.just(0L);
+            }
+            log.info("Storage usage {}% above high watermark {}%, draining to {}%",
+                    String.format("%.1f", usage.percent()), evictionProperties.getHighWatermark(),
+                    evictionProperties.getLowWatermark());
+            return drain(candidate);
+        });
+    }
+
+    /**
+     * Reserve space for a download of {@code bytes}. Completes once the bytes fit above the reserved
+     * headroom, evicting first if necessary; errors with {@link StorageException} if they cannot.
+     * Bytes written should be reported to the returned reservation as they land, and it must be
+     * released when the download commits or fails.
+     */
+    public Mono<Reservation> reserve(long bytes) {
+        if (bytes <= 0) {
+            // Unknown size: nothing to reserve against, rely on the watermarks
+            return Mono.just(new Reservation(0));
+        }
+
+        return Mono.defer(() -> {
+            Reservation reservation = new Reservation(bytes);
+            return blobStorage.getAvailableSpace()
+                    .flatMap(available -> {
+                        long shortfall = reservedBytes.get() + evictionProperties.getReservedHeadroom().toBytes()
+                                - available;
+                        if (shortfall <= 0) {
+                            return Mono.just(reservation);
+                        }
+                        if (!evictionProperties.isEnabled()) {
+                            return Mono.error(new StorageException("Insufficient disk space for " + bytes + " bytes"));
+                        }
+
+                        log.info("Download of {} bytes needs {} bytes of headroom freed first", bytes, shortfall);
+                        // A download is waiting on this eviction, so it runs at ingest rather than background priority
+                        return blobEvictor.evict(shortfall, null)
+                                .contextWrite(IoPriority.INGEST.context())
+                                .flatMap(freed -> freed >= shortfall
+                                        ? Mono.just(reservation)
+                                        : Mono.error(new StorageException("Insufficient disk space for " + bytes
+                                        + " bytes (freed " + freed + " of " + shortfall + ")")));
+                    })
+                    .doOnError(error -> reservation.release());
+        });
+    }
+
+    /**
+     * Bytes reserved by downloads in progress
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    private Mono<Long> drain(String candidate) {
+        Mono<Long> running = activeDrain.get();
+        if (running != null) {
+            return running;
+        }
+
+        // Usage above the high watermark is pressure, not housekeeping: the drain runs at ingest
+        // priority so neither busy clients (the yield rule) nor degraded disks (shedding) hold it back
+        Mono<Long> created = usage()
+                .flatMap(usage -> blobEvictor.evict(usage.bytesAbove(evictionProperties.getLowWatermark()), candidate))
+                .contextWrite(IoPriority.INGEST.context())
+                .doFinally(signal -> activeDrain.set(null))
+                .cache();
+        if (!activeDrain.compareAndSet(null, created)) {
+            Mono<Long> raced = activeDrain.get();
+            return raced != null ? raced : Mono.just(0L);
+        }
+        return created;
+    }
+
+    /**
+     * Cache usage relative to the space it may grow into. Reserved bytes of downloads in progress
+     * count as used.
+     */
+    private Mono<Usage> usage() {
+        return blobStorage.getAvailableSpace()
+                .zipWith(blobStorage.getTotalSize(), (available, used) -> {
+                    long reserved = reservedBytes.get();
+                    return new Usage(used + reserved, available + used);
+                });
+    }
+
+    private record Usage(long used, long capacity) {
+
+        double percent() {
+            return capacity > 0 ? (double) used / capacity * 100 : 0;
+        }
+
+        long bytesAbove(int percent) {
+            return Math.max(0, used - capacity * percent / 100);
+        }
+    }
+
+    /**
+     * Space held for a download in progress. Bytes that reach the disk leave the available space,
+     * so they are released from the reservation as they are written rather than counted twice.
+     */
+    public class Reservation {
+
+        private final AtomicLong outstanding;
+
+        private Reservation(long bytes) {
+            this.outstanding = new AtomicLong(bytes);
+            reservedBytes.addAndGet(bytes);
+        }
+
+        /**
+         * Record bytes of the download written to disk
+         */
+        public void written(long bytes) {
+            long before = outstanding.getAndUpdate(remaining -> Math.max(0, remaining - bytes));
+            reservedBytes.addAndGet(-Math.min(before, bytes));
+        }
+
+        public void release() {
+            reservedBytes.addAndGet(-outstanding.getAndSet(0));
+        }
+    }
+}
@@ -1,27 +1,29 @@
 package com.dingdangmaoup.station.cache.eviction;
 
 import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.placement.BlobPlacement;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import com.dingdangmaoup.station.storage.scheduler.IoScheduler;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Stream;
 
 /**
- * Scheduled cache eviction based on storage thresholds
+ * Periodic eviction safety net and temp file cleanup
  */
 @Slf4j
 @Component
@@ -30,18 +32,14 @@ import java.util.stream.Stream;
 public class EvictionScheduler {
 
     private final BlobStorage blobStorage;
-
-    @Value("${station.storage.base-path:/data/station}")
-    private String basePath;
-
-    @Value("${station.storage.temp-dir:${station.storage.base-path}/temp}")
-    private String tempDir;
-
-    @Value("${station.eviction.threshold:90}")
-    private int thresholdPercent;
+    private final DiskSpaceGuard diskSpaceGuard;
+    private final BlobPlacement blobPlacement;
+    private final BlobEvictor blobEvictor;
+    private final IoScheduler ioScheduler;
+    private final StorageSchedulers storageSchedulers;
 
     /**
-     * Check storage usage and evict if necessary (runs every hour)
+     * Safety-net watermark check; commits already trigger one as blobs land
      */
     @Scheduled(fixedDelayString = "${station.eviction.check-interval:3600000}") // 1 hour
     public void checkAndEvict() {
@@ -49,37 +47,40 @@ public class EvictionScheduler {
 
         blobStorage.getAvailableSpace()
                 .zipWith(blobStorage.getTotalSize())
-                .flatMap(tuple -> {
-                    long availableSpace = tuple.getT1();
-                    long usedSpace = tuple.getT2();
-                    long totalSpace = availableSpace + usedSpace;
-
-                    double usagePercent = (double) usedSpace / totalSpace * 100;
-
-                    log.info("Storage usage: {}% ({} / {} bytes), available: {} bytes",
-                            usagePercent, usedSpace, totalSpace, availableSpace);
-
-                    if (usagePercent > thresholdPercent) {
-                        log.warn("Storage usage ({}%) exceeds threshold ({}%), starting eviction",
-                                usagePercent, thresholdPercent);
-                        return evictOldestBlobs(usedSpace - (totalSpace * thresholdPercent / 100));
-                    }
-
-                    return Mono.empty();
-                })
+                .doOnNext(tuple -> log.info("Storage usage: {} bytes used, {} bytes available, {} bytes reserved",
+                        tuple.getT2(), tuple.getT1(), diskSpaceGuard.getReservedBytes()))
+                .then(diskSpaceGuard.checkWatermarks(null))
                 .doOnError(error -> log.error("Error during eviction check", error))
                 .subscribe();
     }
 
     /**
-     * Clean up orphaned files in temp directory (runs every hour)
+     * Apply the max-age and quota rules of the repository policies
+     */
+    @Scheduled(fixedDelayString = "${station.eviction.policy-interval:10m}",
+            initialDelayString = "${station.eviction.policy-interval:10m}")
+    public void enforceRepositoryPolicies() {
+        blobEvictor.enforceRepositoryPolicies()
+                .contextWrite(IoPriority.BACKGROUND.context())
+                .doOnError(error -> log.error("Error enforcing repository policies", error))
+                .subscribe();
+    }
+
+    /**
+     * Clean up orphaned files in the temp directories of all storage roots (runs every hour)
      */
     @Scheduled(fixedDelayString = "${station.eviction.check-interval:3600000}")
     public void cleanupOrphans() {
         log.debug("Running orphan cleanup");
+        Flux.fromIterable(blobPlacement.getTempDirectories())
+                .concatMap(directory -> ioScheduler.schedule(
+                        Mono.fromRunnable(() -> cleanupOrphans(directory)).subscribeOn(storageSchedulers.blocking()),
+                        IoPriority.BACKGROUND))
+                .doOnError(error -> log.error("Error during orphan cleanup", error))
+                .subscribe();
+    }
 
-        Path tempDownloadsDir = Paths.get(tempDir, "downloads");
-
+    private void cleanupOrphans(Path tempDownloadsDir) {
         if (!Files.exists(tempDownloadsDir)) {
             return;
         }
@@ -91,7 +92,7 @@ public class EvictionScheduler {
                     .toList();
 
             if (!orphans.isEmpty()) {
-                log.info("Found {} orphaned temp files, cleaning up", orphans.size());
+                log.info("Found {} orphaned temp files in {}, cleaning up", orphans.size(), tempDownloadsDir);
 
                 orphans.forEach(path -> {
                     try {
@@ -107,48 +108,6 @@ public class EvictionScheduler {
         }
     }
 
-    private Mono<Void> evictOldestBlobs(long bytesToFree) {
-        return Mono.fromRunnable(() -> {
-            Path blobsPath = Paths.get(basePath, "blobs", "sha256");
-
-            if (!Files.exists(blobsPath)) {
-                return;
-            }
-
-            try (Stream<Path> files = Files.walk(blobsPath)) {
-                List<Path> sortedFiles = files
-                        .filter(Files::isRegularFile)
-                        .sorted(Comparator.comparing(this::getLastAccessTime))
-                        .toList();
-
-                long freedBytes = 0;
-                int evictedCount = 0;
-
-                for (Path file : sortedFiles) {
-                    if (freedBytes >= bytesToFree) {
-                        break;
-                    }
-
-                    try {
-                        long fileSize = Files.size(file);
-                        Files.delete(file);
-                        freedBytes += fileSize;
-                        evictedCount++;
-                        log.debug("Evicted blob: {} ({} bytes)", file.getFileName(), fileSize);
-                    } catch (IOException e) {
-                        log.warn("Failed to evict blob: {}", file, e);
-                    }
-                }
-
-                log.info("Eviction completed: freed {} bytes by evicting {} blobs",
-                        freedBytes, evictedCount);
-
-            } catch (IOException e) {
-                log.error("Error during blob eviction", e);
-            }
-        });
-    }
-
     private boolean isOlderThanOneHour(Path path) {
         try {
             BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
@@ -159,14 +118,4 @@ public class EvictionScheduler {
             return false;
         }
     }
-
-    private Instant getLastAccessTime(Path path) {
-        try {
-            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-            return attrs.lastAccessTime().toInstant();
-        } catch (IOException e) {
-            log.warn("Failed to read file attributes: {}", path, e);
-            return Instant.MIN;
-        }
-    }
 }
@@ -0,0 +1,34 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Evicts the least frequently used blob of the sample. Hit counts decay by half for every
+ * half-life since the last access, so blobs that were popular long ago do not stay forever.
+ */
+public class AgedLfuPolicy implements EvictionPolicy {
+
+    private final double halfLifeMillis;
+
+    public AgedLfuPolicy(Duration halfLife) {
+        this.halfLifeMillis = Math.max(1, halfLife.toMillis());
+    }
+
+    @Override
+    public String name() {
+        return "lfu";
+    }
+
+    @Override
+    public BlobIndexEntry selectVictim(List<BlobIndexEntry> sample, long now) {
+        return EvictionPolicy.lowest(sample, entry -> agedFrequency(entry, now));
+    }
+
+    double agedFrequency(BlobIndexEntry entry, long now) {
+        double age = Math.max(0, now - entry.getLastAccess());
+        return (entry.getHits() + 1) * Math.pow(0.5, age / halfLifeMillis);
+    }
+}
@@ -0,0 +1,50 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Chooses which blob to evict next.
+ * <p>
+ * Policies work on a small random sample of the blob index rather than a full ordering,
+ * so evicting n blobs costs O(n * sample size) regardless of how many blobs are stored.
+ */
+public interface EvictionPolicy {
+
+    String name();
+
+    /**
+     * Pick the victim among the sampled entries, or null if the sample is empty
+     */
+    BlobIndexEntry selectVictim(List<BlobIndexEntry> sample, long now);
+
+    /**
+     * Called for every blob read and every newly stored blob
+     */
+    default void onAccess(BlobIndexEntry entry) {
+    }
+
+    /**
+     * Called after a victim has been deleted
+     */
+    default void onEvicted(BlobIndexEntry entry) {
+    }
+
+    /**
+     * Pick the entry with the lowest score
+     */
+    static BlobIndexEntry lowest(List<BlobIndexEntry> sample, ToDoubleFunction<BlobIndexEntry> score) {
+        BlobIndexEntry victim = null;
+        double lowest = Double.MAX_VALUE;
+        for (BlobIndexEntry entry : sample) {
+            double value = score.applyAsDouble(entry);
+            if (victim == null || value < lowest) {
+                victim = entry;
+                lowest = value;
+            }
+        }
+        return victim;
+    }
+}
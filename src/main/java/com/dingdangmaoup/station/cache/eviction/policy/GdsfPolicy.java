@@ -0,0 +1,48 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+
+import java.util.List;
+
+/**
+ * GreedyDual-Size-Frequency. Each blob's priority is {@code L + frequency / size}, set when it is
+ * accessed; the victim is the lowest priority, and L is raised to the victim's priority so that
+ * blobs not touched for a while eventually fall below newly accessed ones.
+ * <p>
+ * With a cost of 1 per blob this maximises hit ratio per byte of disk: a 1 KB config read ten
+ * times outranks a 5 GB layer read ten times.
+ */
+public class GdsfPolicy implements EvictionPolicy {
+
+    private volatile double inflation;
+
+    @Override
+    public String name() {
+        return "gdsf";
+    }
+
+    @Override
+    public BlobIndexEntry selectVictim(List<BlobIndexEntry> sample, long now) {
+        return EvictionPolicy.lowest(sample, this::priority);
+    }
+
+    @Override
+    public void onAccess(BlobIndexEntry entry) {
+        entry.setPriority(inflation + frequencyPerByte(entry));
+    }
+
+    @Override
+    public void onEvicted(BlobIndexEntry entry) {
+        inflation = Math.max(inflation, priority(entry));
+    }
+
+    private double priority(BlobIndexEntry entry) {
+        double priority = entry.getPriority();
+        // Not accessed since startup: priority as of L = 0
+        return priority > 0 ? priority : frequencyPerByte(entry);
+    }
+
+    private static double frequencyPerByte(BlobIndexEntry entry) {
+        return (entry.getHits() + 1) / (double) Math.max(1, entry.getSize());
+    }
+}
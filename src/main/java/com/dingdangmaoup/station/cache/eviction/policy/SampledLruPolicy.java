@@ -0,0 +1,21 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+
+import java.util.List;
+
+/**
+ * Evicts the least recently accessed blob of the sample
+ */
+public class SampledLruPolicy implements EvictionPolicy {
+
+    @Override
+    public String name() {
+        return "lru";
+    }
+
+    @Override
+    public BlobIndexEntry selectVictim(List<BlobIndexEntry> sample, long now) {
+        return EvictionPolicy.lowest(sample, BlobIndexEntry::getLastAccess);
+    }
+}
@@ -0,0 +1,76 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+/**
+ * TinyLFU admission filter: a count-min sketch of recent access frequencies. A newly stored blob
+ * only displaces a resident one if it has been requested more often, so a one-off pull of a huge
+ * layer cannot flush hot base layers. Counters saturate at 15 and are halved periodically so the
+ * sketch tracks recent popularity.
+ */
+public class TinyLfuAdmission {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final int[] counters;
+    private final int mask;
+    private final int resetThreshold;
+    private int additions;
+
+    /**
+     * @param capacity expected number of distinct blobs
+     */
+    public TinyLfuAdmission(int capacity) {
+        int width = Integer.highestOneBit(Math.max(64, capacity - 1) << 1);
+        this.counters = new int[DEPTH * width];
+        this.mask = width - 1;
+        this.resetThreshold = 10 * width;
+    }
+
+    public synchronized void increment(String key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(hash, row);
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= resetThreshold) {
+            reset();
+        }
+    }
+
+    public synchronized int frequency(String key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Whether the candidate is worth keeping over the victim
+     */
+    public boolean admit(String candidate, String victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 32;
+        return row * (mask + 1) + ((int) h & mask);
+    }
+
+    private void reset() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+        additions >>>= 1;
+    }
+}
@@ -2,6 +2,7 @@ package com.dingdangmaoup.station.config;
 
 import com.dingdangmaoup.station.config.properties.CacheProperties;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.CacheManager;
@@ -36,6 +37,7 @@ public class CacheConfig {
     @Bean
     public com.github.benmanes.caffeine.cache.Cache<String, Object> localCache() {
         long maxWeightBytes = cacheProperties.getLocal().getMaxSize().toBytes();
+        long ttlNanos = cacheProperties.getLocal().getTtl().toNanos();
 
         return Caffeine.newBuilder()
                 .maximumWeight(maxWeightBytes)
@@ -44,7 +46,23 @@ public class CacheConfig {
                     int valueSize = estimateObjectSize(value);
                     return keySize + valueSize;
                 })
-                .expireAfterWrite(cacheProperties.getLocal().getTtl())
+                // Variable expiry so repository policies can override the TTL per entry
+                .expireAfter(new Expiry<String, Object>() {
+                    @Override
+                    public long expireAfterCreate(String key, Object value, long currentTime) {
+                        return ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Object value, long currentTime, long currentDuration) {
+                        return ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
                 .recordStats()
                 .build();
     }
@@ -6,6 +6,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.unit.DataSize;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Cache configuration properties
@@ -25,6 +27,11 @@ public class CacheProperties {
      */
     private Redis redis = new Redis();
 
+    /**
+     * Per-repository policies; the first rule whose pattern matches a repository applies
+     */
+    private List<RepositoryPolicy> policies = new ArrayList<>();
+
     @Data
     public static class Local {
         /**
@@ -60,4 +67,39 @@ public class CacheProperties {
          */
         private Duration indexTtl = Duration.ofHours(1);
     }
+
+    @Data
+    public static class RepositoryPolicy {
+        /**
+         * Repository name pattern: {@code *} matches within one path segment, {@code **} across
+         * segments, e.g. {@code library/*} or {@code ci/**}
+         */
+        private String pattern;
+
+        /**
+         * Never evict images of matching repositories from disk
+         */
+        private boolean pinned = false;
+
+        /**
+         * Images unused for longer than this are evicted even without disk pressure (unset: no limit)
+         */
+        private Duration maxAge;
+
+        /**
+         * Local cache TTL override for matching repositories (unset: station.cache.local.ttl)
+         */
+        private Duration localTtl;
+
+        /**
+         * Redis TTL override for matching repositories' manifests and blobs (unset: the per-type default)
+         */
+        private Duration redisTtl;
+
+        /**
+         * Disk budget shared by all matching repositories; the coldest of their images are evicted
+         * beyond it (unset: no quota)
+         */
+        private DataSize quota;
+    }
 }
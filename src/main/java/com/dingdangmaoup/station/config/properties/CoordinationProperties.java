@@ -23,5 +23,7 @@ public class CoordinationProperties {
     public static class LockConfig {
         private Duration ttl = Duration.ofSeconds(30);
         private Duration waitTimeout = Duration.ofSeconds(10);
+        private Duration renewInterval = Duration.ofSeconds(10);
+        private Duration releaseWaitTimeout = Duration.ofMinutes(10);
     }
 }
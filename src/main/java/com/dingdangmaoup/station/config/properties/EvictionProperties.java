@@ -0,0 +1,88 @@
+package com.dingdangmaoup.station.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Disk eviction configuration
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "station.eviction")
+public class EvictionProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Usage percentage that starts eviction, checked after every blob commit
+     */
+    private int highWatermark = 90;
+
+    /**
+     * Usage percentage eviction drains down to
+     */
+    private int lowWatermark = 80;
+
+    /**
+     * Free space kept in reserve: downloads of known size are only admitted if they fit
+     * without eating into it, evicting first if necessary
+     */
+    private DataSize reservedHeadroom = DataSize.ofGigabytes(2);
+
+    /**
+     * Which blobs to evict first
+     */
+    private Policy policy = Policy.GDSF;
+
+    /**
+     * Blobs sampled from the index per eviction; larger samples approximate the exact
+     * policy order more closely at a higher cost per victim
+     */
+    private int sampleSize = 16;
+
+    /**
+     * Evict by image: orphan blobs no cached manifest references go first, then whole cold
+     * images with the layers no other cached image shares. When false, blobs are evicted
+     * individually in policy order, regardless of the images they belong to.
+     */
+    private boolean imageAware = true;
+
+    /**
+     * Orphan blobs and images stored or used more recently than this are never evicted,
+     * so an image is not taken apart while it is still being pulled
+     */
+    private Duration gracePeriod = Duration.ofMinutes(10);
+
+    /**
+     * Admission filter guarding resident blobs against one-off pulls
+     */
+    private Admission admission = Admission.TINY_LFU;
+
+    /**
+     * Half-life of access counts for the LFU policy
+     */
+    private Duration lfuHalfLife = Duration.ofDays(1);
+
+    /**
+     * Expected number of distinct blobs, sizes the TinyLFU frequency sketch
+     */
+    private int sketchCapacity = 100_000;
+
+    public enum Policy {
+        /** Least recently used */
+        LRU,
+        /** Least frequently used, with counts decaying over time */
+        LFU,
+        /** GreedyDual-Size-Frequency: favours small, frequently used blobs */
+        GDSF
+    }
+
+    public enum Admission {
+        NONE,
+        TINY_LFU
+    }
+}
@@ -0,0 +1,87 @@
+package com.dingdangmaoup.station.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * S3-compatible object store shared by the cluster, between local disk and Docker Hub
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "station.storage.object-store")
+public class ObjectStoreProperties {
+
+    /**
+     * Look up missing blobs in the object store and write committed blobs back to it
+     */
+    private boolean enabled = false;
+
+    /**
+     * Endpoint of an S3-compatible service (MinIO, Ceph RGW, ...); empty uses AWS S3 for the region
+     */
+    private String endpoint = "";
+
+    private String region = "us-east-1";
+
+    private String bucket = "station";
+
+    /**
+     * Key prefix, so several clusters can share a bucket
+     */
+    private String prefix = "blobs/";
+
+    /**
+     * Static credentials; empty uses the default AWS credential chain (environment, profile, IAM role)
+     */
+    private String accessKey = "";
+
+    private String secretKey = "";
+
+    /**
+     * Address buckets as {@code endpoint/bucket} rather than {@code bucket.endpoint}; most
+     * self-hosted stores need this
+     */
+    private boolean pathStyle = true;
+
+    /**
+     * Create the bucket at startup if it does not exist
+     */
+    private boolean createBucket = false;
+
+    /**
+     * Multipart upload part size; blobs written back from disk below this size are uploaded in one request
+     */
+    private DataSize partSize = DataSize.ofMegabytes(16);
+
+    /**
+     * Parts of one blob uploaded in parallel
+     */
+    private int uploadConcurrency = 4;
+
+    /**
+     * Size of the byte ranges a blob is downloaded in
+     */
+    private DataSize rangeSize = DataSize.ofMegabytes(8);
+
+    /**
+     * Ranges of one blob downloaded in parallel
+     */
+    private int downloadConcurrency = 4;
+
+    /**
+     * Upload blobs committed to local disk that the object store does not have yet
+     */
+    private boolean writeBack = true;
+
+    /**
+     * Blobs written back in parallel
+     */
+    private int writeBackConcurrency = 2;
+
+    /**
+     * Connections to the object store
+     */
+    private int maxConnections = 64;
+}
@@ -0,0 +1,65 @@
+package com.dingdangmaoup.station.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Disk I/O priority classes: limits per class and how background work yields to client reads
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "station.storage.io")
+public class StorageIoProperties {
+
+    /**
+     * Client blob reads from the registry API and peer nodes
+     */
+    private IoClass foreground = new IoClass();
+
+    /**
+     * Blob writes from downloads and pushes, and evictions making room for them
+     */
+    private IoClass ingest = new IoClass();
+
+    /**
+     * Eviction, policy enforcement, orphan cleanup, reconciliation and tier migration
+     */
+    private IoClass background = new IoClass(2, DataSize.ofMegabytes(64));
+
+    /**
+     * Background work waits while at least this many foreground operations are in flight; 0 disables
+     */
+    private int backgroundYieldThreshold = 8;
+
+    /**
+     * Longest background work yields to foreground load before it is admitted anyway,
+     * so eviction cannot starve under sustained load
+     */
+    private Duration maxYield = Duration.ofSeconds(2);
+
+    @Data
+    public static class IoClass {
+
+        /**
+         * Operations of the class in flight at once; 0 is unlimited
+         */
+        private int maxConcurrency;
+
+        /**
+         * Bytes per second the class may read or write; unset is unlimited
+         */
+        private DataSize bandwidth;
+
+        public IoClass() {
+        }
+
+        public IoClass(int maxConcurrency, DataSize bandwidth) {
+            this.maxConcurrency = maxConcurrency;
+            this.bandwidth = bandwidth;
+        }
+    }
+}
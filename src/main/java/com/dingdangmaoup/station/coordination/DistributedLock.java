@@ -4,21 +4,92 @@ import com.dingdangmaoup.station.config.properties.CoordinationProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
- * Redis-based distributed lock implementation
+ * Redis-based distributed lock implementation.
+ * <p>
+ * Locks are leases: {@link #withLease} renews the lease while the protected action runs, releases
+ * it with an atomic compare-and-delete, and hands the action a fencing token that increases with
+ * every acquisition of the same key.
+ * <p>
+ * The token only fences resources that check it themselves. {@link #checkLease} is a check against
+ * Redis ahead of a commit, which narrows but does not close the window in which an expired holder
+ * can still act; use it only where a late duplicate commit is harmless.
  */
 @Slf4j
 @Component
 public class DistributedLock {
 
+  /**
+   * How long fencing counters outlive their last acquisition. Must exceed any realistic lease,
+   * otherwise a restarted counter could hand out a token lower than a stale holder's.
+   */
+  private static final Duration FENCING_TOKEN_RETENTION = Duration.ofDays(1);
+
+  /**
+   * KEYS[1] lock key, KEYS[2] fencing counter; ARGV[1] owner, ARGV[2] ttl ms, ARGV[3] counter retention ms.
+   * Returns the fencing token, or 0 if the lock is held.
+   */
+  private static final RedisScript<Long> ACQUIRE_SCRIPT = RedisScript.of("""
+      if redis.call('exists', KEYS[1]) == 1 then
+        return 0
+      end
+      local token = redis.call('incr', KEYS[2])
+      redis.call('pexpire', KEYS[2], ARGV[3])
+      redis.call('set', KEYS[1], ARGV[1] .. ':' .. token, 'PX', ARGV[2])
+      return token
+      """, Long.class);
+
+  /**
+   * KEYS[1] lock key; ARGV[1] expected value, ARGV[2] ttl ms
+   */
+  private static final RedisScript<Long> RENEW_SCRIPT = RedisScript.of("""
+      if redis.call('get', KEYS[1]) == ARGV[1] then
+        return redis.call('pexpire', KEYS[1], ARGV[2])
+      end
+      return 0
+      """, Long.class);
+
+  /**
+   * KEYS[1] lock key; ARGV[1] expected value, ARGV[2] release channel
+   */
+  private static final RedisScript<Long> RELEASE_SCRIPT = RedisScript.of("""
+      if redis.call('get', KEYS[1]) == ARGV[1] then
+        redis.call('del', KEYS[1])
+        redis.call('publish', ARGV[2], ARGV[1])
+        return 1
+      end
+      return 0
+      """, Long.class);
+
+  /**
+   * KEYS[1] lock key; ARGV[1] owner prefix ("nodeId:"), ARGV[2] release channel
+   */
+  private static final RedisScript<Long> RELEASE_OWNED_SCRIPT = RedisScript.of("""
+      local value = redis.call('get', KEYS[1])
+      if value and string.sub(value, 1, string.len(ARGV[1])) == ARGV[1] then
+        redis.call('del', KEYS[1])
+        redis.call('publish', ARGV[2], value)
+        return 1
+      end
+      return 0
+      """, Long.class);
+
   private final ReactiveRedisTemplate<String, String> reactiveRedisTemplate;
   private final Duration lockTtl;
   private final Duration waitTimeout;
+  private final Duration renewInterval;
+  private final Duration releaseWaitTimeout;
 
   @Value("${station.node.id}")
   private String nodeId;
@@ -28,49 +99,113 @@ public class DistributedLock {
     this.reactiveRedisTemplate = reactiveRedisTemplate;
     this.lockTtl = coordinationProperties.getLock().getTtl();
     this.waitTimeout = coordinationProperties.getLock().getWaitTimeout();
+    this.renewInterval = coordinationProperties.getLock().getRenewInterval();
+    this.releaseWaitTimeout = coordinationProperties.getLock().getReleaseWaitTimeout();
   }
 
   /**
    * Acquire a distributed lock
    */
   public Mono<Boolean> acquireLock(String lockKey) {
-    String redisKey = "lock:" + lockKey;
-    return reactiveRedisTemplate.opsForValue()
-        .setIfAbsent(redisKey, nodeId, lockTtl)
-        .doOnNext(acquired -> {
-          if (acquired) {
-            log.debug("Acquired lock: {} by node: {}", lockKey, nodeId);
-          } else {
-            log.debug("Failed to acquire lock: {} (held by another node)", lockKey);
+    return acquireLease(lockKey).hasElement();
+  }
+
+  /**
+   * Acquire a lease on a distributed lock, emitting nothing if another holder has it.
+   * The lease expires after the lock TTL unless renewed; see {@link #withLease}.
+   */
+  public Mono<LockLease> acquireLease(String lockKey) {
+    String redisKey = redisKey(lockKey);
+    return reactiveRedisTemplate.execute(ACQUIRE_SCRIPT,
+            List.of(redisKey, fencingKey(lockKey)),
+            List.of(nodeId, String.valueOf(lockTtl.toMillis()),
+                String.valueOf(FENCING_TOKEN_RETENTION.toMillis())))
+        .next()
+        .defaultIfEmpty(0L)
+        .flatMap(token -> {
+          if (token > 0) {
+            log.debug("Acquired lock: {} by node: {} (fencing token {})", lockKey, nodeId, token);
+            return Mono.just(new LockLease(lockKey, redisKey, nodeId, token));
           }
+          log.debug("Failed to acquire lock: {} (held by another node)", lockKey);
+          return Mono.empty();
         });
   }
 
   /**
-   * Release a distributed lock
+   * Release a distributed lock held by this node
    */
   public Mono<Boolean> releaseLock(String lockKey) {
-    String redisKey = "lock:" + lockKey;
-    return reactiveRedisTemplate.opsForValue()
-        .get(redisKey)
-        .flatMap(owner -> {
-          if (nodeId.equals(owner)) {
-            return reactiveRedisTemplate.delete(redisKey)
-                .map(count -> count > 0)
-                .doOnNext(released -> {
-                  if (released) {
-                    log.debug("Released lock: {} by node: {}", lockKey, nodeId);
-                  }
-                });
+    return reactiveRedisTemplate.execute(RELEASE_OWNED_SCRIPT,
+            List.of(redisKey(lockKey)), List.of(nodeId + ":", releaseChannel(lockKey)))
+        .next()
+        .map(count -> count > 0)
+        .defaultIfEmpty(false)
+        .doOnNext(released -> {
+          if (released) {
+            log.debug("Released lock: {} by node: {}", lockKey, nodeId);
           } else {
-            log.warn("Cannot release lock: {} (owned by: {}, current: {})",
-                lockKey, owner, nodeId);
-            return Mono.just(false);
+            log.warn("Cannot release lock: {} (not held by node: {})", lockKey, nodeId);
           }
-        })
+        });
+  }
+
+  /**
+   * Release a lease. Atomic compare-and-delete, so an expired lease never deletes the lock of
+   * the holder that took over.
+   */
+  public Mono<Boolean> release(LockLease lease) {
+    return reactiveRedisTemplate.execute(RELEASE_SCRIPT,
+            List.of(lease.getRedisKey()), List.of(lease.lockValue(), releaseChannel(lease.getLockKey())))
+        .next()
+        .map(count -> count > 0)
+        .defaultIfEmpty(false)
+        .doOnNext(released -> {
+          if (released) {
+            log.debug("Released lock: {} (fencing token {})", lease.getLockKey(), lease.getFencingToken());
+          } else {
+            log.warn("Lease on lock: {} (fencing token {}) had already expired",
+                lease.getLockKey(), lease.getFencingToken());
+          }
+        });
+  }
+
+  /**
+   * Extend a lease by the lock TTL, emitting false if it is no longer held
+   */
+  public Mono<Boolean> renew(LockLease lease) {
+    return reactiveRedisTemplate.execute(RENEW_SCRIPT,
+            List.of(lease.getRedisKey()),
+            List.of(lease.lockValue(), String.valueOf(lockTtl.toMillis())))
+        .next()
+        .map(result -> result > 0)
         .defaultIfEmpty(false);
   }
 
+  /**
+   * Complete if the lease still holds its lock, error with {@link LockException} otherwise.
+   * Work done under a lease calls this right before committing, so a holder whose lease expired
+   * and was taken over by a newer fencing token usually stops there. The lease can still expire
+   * between this check and the commit; callers needing a strict guarantee must pass the fencing
+   * token to the resource and have it reject stale tokens.
+   */
+  public Mono<Void> checkLease(LockLease lease) {
+    if (lease.isLost()) {
+      return Mono.error(new LockException("Lease lost on lock: " + lease.getLockKey()));
+    }
+    return reactiveRedisTemplate.opsForValue()
+        .get(lease.getRedisKey())
+        .defaultIfEmpty("")
+        .flatMap(value -> {
+          if (value.equals(lease.lockValue())) {
+            return Mono.<Void>empty();
+          }
+          lease.markLost();
+          return Mono.error(new LockException("Lease lost on lock: " + lease.getLockKey()
+              + " (fencing token " + lease.getFencingToken() + ", current: " + value + ")"));
+        });
+  }
+
   /**
    * Attempts to acquire a distributed lock for the given lock key.
    *
@@ -80,7 +215,7 @@ public class DistributedLock {
   }
 
   /**
-   * Try to acquire lock with retry
+   * Try to acquire lock, waiting for the holder to release it
    */
   public Mono<Boolean> tryAcquireLock(String lockKey, Duration timeout) {
     return acquireLock(lockKey)
@@ -88,29 +223,124 @@ public class DistributedLock {
           if (acquired) {
             return Mono.just(true);
           }
+          return awaitRelease(lockKey).then(Mono.<Boolean>empty());
+        })
+        .repeatWhenEmpty(attempts -> attempts)
+        .timeout(timeout)
+        .onErrorReturn(false);
+  }
 
-          return Mono.delay(Duration.ofMillis(100))
-              .flatMap(tick -> tryAcquireLock(lockKey, timeout.minus(Duration.ofMillis(100))))
-              .timeout(timeout)
-              .onErrorReturn(false);
-        });
+  /**
+   * Complete once the lock is free.
+   * <p>
+   * Waiters subscribe to the lock's release channel before checking the lock, so a release
+   * between the check and the subscription is not missed. Leases that expire instead of being
+   * released publish nothing; those are picked up by re-checking the lock every renew interval.
+   */
+  public Mono<Void> awaitRelease(String lockKey) {
+    String redisKey = redisKey(lockKey);
+    return reactiveRedisTemplate.listenToChannelLater(releaseChannel(lockKey))
+        .flatMap(messages -> {
+          Mono<Object> released = messages.next().cast(Object.class);
+          Mono<Object> expired = Flux.interval(Duration.ZERO, renewInterval)
+              .concatMap(tick -> reactiveRedisTemplate.hasKey(redisKey))
+              .filter(held -> !held)
+              .next()
+              .cast(Object.class);
+          return Mono.firstWithSignal(released, expired);
+        })
+        .doOnNext(signal -> log.debug("Lock: {} released", lockKey))
+        .then();
   }
 
   /**
    * Execute action with lock
    */
   public <T> Mono<T> withLock(String lockKey, Mono<T> action) {
-    return acquireLock(lockKey)
-        .flatMap(acquired -> {
-          if (!acquired) {
-            return Mono.error(new LockException("Failed to acquire lock: " + lockKey));
-          }
+    return withLease(lockKey, lease -> action);
+  }
+
+  /**
+   * Execute action with a lease on the lock. The lease is renewed while the action runs and
+   * released when it terminates or is cancelled.
+   */
+  public <T> Mono<T> withLease(String lockKey, Function<LockLease, Mono<T>> action) {
+    return acquireLease(lockKey)
+        .switchIfEmpty(Mono.error(() -> new LockException("Failed to acquire lock: " + lockKey)))
+        .flatMap(lease -> withRenewal(lease, action));
+  }
 
-          return action
-              .doFinally(signalType -> releaseLock(lockKey).subscribe());
+  private <T> Mono<T> withRenewal(LockLease lease, Function<LockLease, Mono<T>> action) {
+    return Mono.defer(() -> {
+      Disposable watchdog = startWatchdog(lease);
+      return Mono.defer(() -> action.apply(lease))
+          .doFinally(signalType -> {
+            watchdog.dispose();
+            release(lease).subscribe();
+          });
+    });
+  }
+
+  /**
+   * Execute action with a lease on the lock, or - if another holder has it - wait for the
+   * holder to finish and run {@code afterRelease} instead. The waiter does not take the lock:
+   * {@code afterRelease} is expected to pick up what the holder produced (cache, peers), so a
+   * herd of requests for the same artifact turns into cache hits rather than lock failures.
+   */
+  public <T> Mono<T> withLeaseOrAwait(String lockKey, Function<LockLease, Mono<T>> action,
+      Supplier<Mono<T>> afterRelease) {
+    return acquireLease(lockKey)
+        .map(lease -> withRenewal(lease, action))
+        .switchIfEmpty(Mono.fromSupplier(() -> {
+          log.debug("Lock: {} held by another node, waiting for release", lockKey);
+          return awaitRelease(lockKey)
+              .timeout(releaseWaitTimeout, Mono.error(() ->
+                  new LockException("Timed out waiting for lock: " + lockKey)))
+              .then(Mono.defer(afterRelease));
+        }))
+        .flatMap(result -> result);
+  }
+
+  /**
+   * Renew the lease every renew interval until disposed or until a renewal finds it gone
+   */
+  private Disposable startWatchdog(LockLease lease) {
+    return Flux.interval(renewInterval)
+        .concatMap(tick -> renew(lease)
+            .onErrorResume(error -> {
+              // Transient Redis failure - keep trying until the TTL runs out
+              log.warn("Failed to renew lease on lock: {}: {}", lease.getLockKey(), error.getMessage());
+              return Mono.just(true);
+            }))
+        .takeUntil(renewed -> !renewed)
+        .subscribe(renewed -> {
+          if (!renewed) {
+            lease.markLost();
+            log.warn("Lease on lock: {} (fencing token {}) expired before it could be renewed",
+                lease.getLockKey(), lease.getFencingToken());
+          }
         });
   }
 
+  /**
+   * Same key as nodes that predate leases use, so old and new nodes still exclude each other
+   * during a rolling deploy
+   */
+  private static String redisKey(String lockKey) {
+    return "lock:" + lockKey;
+  }
+
+  /**
+   * The hash tag is the whole lock key, which puts the counter in the lock's cluster slot
+   */
+  private static String fencingKey(String lockKey) {
+    return "{lock:" + lockKey + "}:fence";
+  }
+
+  private static String releaseChannel(String lockKey) {
+    return "lock:released:" + lockKey;
+  }
+
   public static class LockException extends RuntimeException {
 
     public LockException(String message) {
@@ -0,0 +1,37 @@
+package com.dingdangmaoup.station.coordination;
+
+import lombok.Getter;
+
+/**
+ * A held distributed lock.
+ * <p>
+ * The fencing token increases monotonically for each acquisition of the same lock key, so a
+ * resource can reject writes from a holder whose lease has since expired and been re-acquired.
+ */
+@Getter
+public class LockLease {
+
+  private final String lockKey;
+  private final String redisKey;
+  private final String owner;
+  private final long fencingToken;
+  private volatile boolean lost;
+
+  LockLease(String lockKey, String redisKey, String owner, long fencingToken) {
+    this.lockKey = lockKey;
+    this.redisKey = redisKey;
+    this.owner = owner;
+    this.fencingToken = fencingToken;
+  }
+
+  /**
+   * Value stored under the lock key while this lease holds it
+   */
+  String lockValue() {
+    return owner + ":" + fencingToken;
+  }
+
+  void markLost() {
+    this.lost = true;
+  }
+}
@@ -1,13 +1,16 @@
 package com.dingdangmaoup.station.docker;
 
 import com.dingdangmaoup.station.config.properties.DockerProperties;
+import com.dingdangmaoup.station.storage.BlobStream;
 import lombok.Builder;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
@@ -88,43 +91,41 @@ public class DockerHubClient {
      * Stream blob from Docker Hub
      */
     public Flux<DataBuffer> streamBlob(String repository, String digest) {
+        return openBlob(repository, digest)
+                .flatMapMany(BlobStream::getData);
+    }
+
+    /**
+     * Open a blob stream from Docker Hub, following the CDN redirect if any.
+     * The returned stream carries the upstream Content-Length so callers can
+     * start responding before the body has been read.
+     */
+    public Mono<BlobStream> openBlob(String repository, String digest) {
         return authService.getAuthToken(repository)
-                .flatMapMany(token -> dockerHubWebClient.get()
+                .flatMap(token -> dockerHubWebClient.get()
                         .uri("/v2/{name}/blobs/{digest}", repository, digest)
                         .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                        .exchangeToFlux(response -> {
-                            log.debug("Response status for blob {}: {}", digest, response.statusCode());
-
-                            if (response.statusCode().is3xxRedirection()) {
-                                String location = response.headers().asHttpHeaders().getFirst(HttpHeaders.LOCATION);
-                                log.debug("Blob {} redirected to: {}", digest, location);
-
-                                if (location != null) {
-                                    try {
-                                        URI cdnUri = URI.create(location);
-                                        return WebClient.create()
-                                                .get()
-                                                .uri(cdnUri)
-                                                .retrieve()
-                                                .bodyToFlux(DataBuffer.class)
-                                                .doOnSubscribe(s -> log.debug("Streaming blob {} from CDN: {}", digest, location))
-                                                .doOnComplete(() -> log.debug("Completed streaming blob {} from CDN", digest))
-                                                .doOnError(err -> log.error("Error streaming blob {} from CDN", digest, err));
-                                    } catch (Exception e) {
-                                        log.error("Failed to parse redirect URI: {}", location, e);
-                                        return Flux.error(e);
-                                    }
-                                }
-                            }
-
-                            // No redirect, stream directly
-                            return response.bodyToFlux(DataBuffer.class)
-                                    .doOnSubscribe(s -> log.debug("Streaming blob {} directly", digest))
-                                    .doOnNext(buffer -> log.debug("Received buffer of {} bytes for blob {}",
-                                            buffer.readableByteCount(), digest))
-                                    .doOnComplete(() -> log.debug("Completed streaming blob {}", digest))
-                                    .doOnError(err -> log.error("Error streaming blob {}", digest, err));
-                        }))
+                        .retrieve()
+                        .toEntityFlux(DataBuffer.class))
+                .flatMap(entity -> {
+                    log.debug("Response status for blob {}: {}", digest, entity.getStatusCode());
+
+                    if (entity.getStatusCode().is3xxRedirection()) {
+                        String location = entity.getHeaders().getFirst(HttpHeaders.LOCATION);
+                        log.debug("Blob {} redirected to: {}", digest, location);
+
+                        if (location != null) {
+                            Flux<DataBuffer> redirectBody = entity.getBody() != null ? entity.getBody() : Flux.empty();
+                            return redirectBody
+                                    .doOnNext(DataBufferUtils.releaseConsumer())
+                                    .then(Mono.defer(() -> openCdnBlob(digest, location)));
+                        }
+                    }
+
+                    // No redirect, stream directly
+                    log.debug("Streaming blob {} directly", digest);
+                    return Mono.just(toBlobStream(digest, entity));
+                })
                 .retryWhen(Retry.backoff(
                         dockerProperties.getRetry().getMaxAttempts(),
                         dockerProperties.getRetry().getBackoffDelay())
@@ -134,6 +135,36 @@ public class DockerHubClient {
                                 ex.getStatusCode().value(), ex));
     }
 
+    private Mono<BlobStream> openCdnBlob(String digest, String location) {
+        URI cdnUri;
+        try {
+            cdnUri = URI.create(location);
+        } catch (Exception e) {
+            log.error("Failed to parse redirect URI: {}", location, e);
+            return Mono.error(e);
+        }
+
+        log.debug("Streaming blob {} from CDN: {}", digest, location);
+        return WebClient.create()
+                .get()
+                .uri(cdnUri)
+                .retrieve()
+                .toEntityFlux(DataBuffer.class)
+                .map(entity -> toBlobStream(digest, entity));
+    }
+
+    private BlobStream toBlobStream(String digest, ResponseEntity<Flux<DataBuffer>> entity) {
+        Flux<DataBuffer> body = entity.getBody() != null ? entity.getBody() : Flux.empty();
+        long size = entity.getHeaders().getContentLength();
+
+        return BlobStream.builder()
+                .size(size)
+                .data(body
+                        .doOnComplete(() -> log.debug("Completed streaming blob {}", digest))
+                        .doOnError(err -> log.error("Error streaming blob {}", digest, err)))
+                .build();
+    }
+
     /**
      * Check if blob exists
      */
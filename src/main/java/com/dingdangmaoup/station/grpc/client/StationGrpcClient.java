@@ -2,11 +2,12 @@ package com.dingdangmaoup.station.grpc.client;
 
 import com.dingdangmaoup.station.grpc.*;
 import com.dingdangmaoup.station.node.discovery.NodeInfo;
+import com.dingdangmaoup.station.storage.buffer.BlobBuffers;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -25,7 +26,11 @@ public class StationGrpcClient {
 
     private final Map<String, ManagedChannel> channelCache = new ConcurrentHashMap<>();
     private final Map<String, ReactorStationServiceGrpc.ReactorStationServiceStub> stubCache = new ConcurrentHashMap<>();
-    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final BlobBuffers blobBuffers;
+
+    public StationGrpcClient(BlobBuffers blobBuffers) {
+        this.blobBuffers = blobBuffers;
+    }
 
     /**
      * Check if a peer node has a manifest
@@ -72,6 +77,14 @@ public class StationGrpcClient {
      * Check if a peer node has a blob
      */
     public Mono<Boolean> hasBlob(NodeInfo node, String digest) {
+        return statBlob(node, digest)
+                .map(BlobResponse::getExists);
+    }
+
+    /**
+     * Check if a peer node has a blob, returning its size when it does
+     */
+    public Mono<BlobResponse> statBlob(NodeInfo node, String digest) {
         return getStub(node)
                 .flatMap(stub -> {
                     BlobRequest request = BlobRequest.newBuilder()
@@ -79,36 +92,43 @@ public class StationGrpcClient {
                             .build();
 
                     return stub.hasBlob(Mono.just(request))
-                            .map(BlobResponse::getExists)
                             .timeout(Duration.ofSeconds(5))
                             .doOnError(error -> log.error("Error checking blob on node {}: {}",
                                     node.getNodeId(), error.getMessage()));
                 })
-                .onErrorReturn(false);
+                .onErrorReturn(BlobResponse.newBuilder()
+                        .setExists(false)
+                        .build());
     }
 
     /**
-     * Stream blob from a peer node
+     * Stream blob from a peer node. Chunks are copied into pooled buffers the subscriber must release.
      */
     public Flux<DataBuffer> getBlob(NodeInfo node, String digest) {
+        return getBlob(node, digest, 0, 0);
+    }
+
+    /**
+     * Stream a range of a blob from a peer node; a length of 0 reads to the end of the blob
+     */
+    public Flux<DataBuffer> getBlob(NodeInfo node, String digest, long offset, long length) {
         return getStub(node)
                 .flatMapMany(stub -> {
                     BlobRequest request = BlobRequest.newBuilder()
                             .setDigest(digest)
+                            .setOffset(offset)
+                            .setLength(length)
                             .build();
 
                     return stub.getBlob(Mono.just(request))
-                            .map(blobData -> {
-                                byte[] bytes = blobData.getChunk().toByteArray();
-                                DataBuffer buffer = bufferFactory.wrap(bytes);
-                                return buffer;
-                            })
+                            .map(blobData -> blobBuffers.copyOf(blobData.getChunk().asReadOnlyByteBuffer()))
                             .timeout(Duration.ofMinutes(5))
                             .doOnComplete(() -> log.debug("Completed streaming blob {} from node {}",
                                     digest, node.getNodeId()));
                 })
                 .doOnError(error -> log.error("Error streaming blob from node {}: {}",
-                        node.getNodeId(), error.getMessage()));
+                        node.getNodeId(), error.getMessage()))
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
     }
 
     /**
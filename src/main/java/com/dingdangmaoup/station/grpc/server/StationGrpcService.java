@@ -5,6 +5,7 @@ import com.dingdangmaoup.station.cache.CacheKey;
 import com.dingdangmaoup.station.cache.MultiLevelCacheManager;
 import com.dingdangmaoup.station.grpc.*;
 import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
@@ -27,6 +28,7 @@ public class StationGrpcService extends ReactorStationServiceGrpc.StationService
 
     private final BlobStorage blobStorage;
     private final MultiLevelCacheManager cacheManager;
+    private final StorageLatencyMonitor latencyMonitor;
 
     @Value("${station.node.id}")
     private String nodeId;
@@ -120,7 +122,8 @@ public class StationGrpcService extends ReactorStationServiceGrpc.StationService
 
             Flux<DataBuffer> dataFlux;
             if (offset > 0 || length > 0) {
-                dataFlux = blobStorage.getBlob(digest, offset, length);
+                // length 0 means "to the end of the blob"
+                dataFlux = blobStorage.getBlob(digest, offset, length > 0 ? length : Long.MAX_VALUE);
             } else {
                 dataFlux = blobStorage.getBlob(digest);
             }
@@ -136,16 +139,20 @@ public class StationGrpcService extends ReactorStationServiceGrpc.StationService
                                 .setOffset(offset)
                                 .build();
                     })
-                    .doOnError(error -> log.error("Error streaming blob: {}", digest, error));
+                    .doOnError(error -> log.error("Error streaming blob: {}", digest, error))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
         });
     }
 
     @Override
     public Mono<HealthCheckResponse> healthCheck(Mono<HealthCheckRequest> request) {
         return request.map(req -> {
-            // Simple health check - can be enhanced with actual metrics
+            // Degraded nodes still serve, but peers should read from them only as a last resort
             return HealthCheckResponse.newBuilder()
-                    .setStatus(HealthCheckResponse.Status.HEALTHY)
+                    .setStatus(latencyMonitor.isDegraded()
+                            ? HealthCheckResponse.Status.DEGRADED
+                            : HealthCheckResponse.Status.HEALTHY)
+                    .setReadLatencyMicros(latencyMonitor.getReadLatency().toNanos() / 1000)
                     .setCacheUsagePercent(0)
                     .setRequestsPerSecond(0)
                     .setTotalCachedBlobs(0)
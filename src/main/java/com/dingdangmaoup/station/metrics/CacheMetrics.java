@@ -20,6 +20,7 @@ public class CacheMetrics {
     private final Counter peerCacheHits;
     private final Counter peerCacheMisses;
     private final Counter dockerHubHits;
+    private final Counter offloadedReads;
 
     private final Timer localCacheLatency;
     private final Timer redisCacheLatency;
@@ -62,6 +63,10 @@ public class CacheMetrics {
                 .description("Number of Docker Hub fetches")
                 .register(meterRegistry);
 
+        this.offloadedReads = Counter.builder("station.cache.offloaded")
+                .description("Number of locally stored blobs served from a peer while storage is degraded")
+                .register(meterRegistry);
+
         this.localCacheLatency = Timer.builder("station.cache.latency")
                 .tag("level", "local")
                 .description("Local cache operation latency")
@@ -111,6 +116,10 @@ public class CacheMetrics {
         dockerHubHits.increment();
     }
 
+    public void recordOffloadedRead() {
+        offloadedReads.increment();
+    }
+
     public Timer.Sample startLocalCacheTimer() {
         return Timer.start();
     }
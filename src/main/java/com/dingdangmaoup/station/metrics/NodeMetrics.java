@@ -17,7 +17,8 @@ public class NodeMetrics {
 
     private final Counter blobDownloadCounter;
     private final Counter manifestDownloadCounter;
-    private final AtomicLong totalBlobBytes = new AtomicLong(0);
+    private final Counter coalescedRequestCounter;
+    private final Counter blobDownloadBytesCounter;
     private final AtomicLong activeNodeCount = new AtomicLong(0);
 
     public NodeMetrics(MeterRegistry meterRegistry) {
@@ -29,8 +30,13 @@ public class NodeMetrics {
                 .description("Total number of manifest downloads")
                 .register(meterRegistry);
 
-        Gauge.builder("station.blob.total_bytes", totalBlobBytes, AtomicLong::get)
-                .description("Total bytes of cached blobs")
+        this.coalescedRequestCounter = Counter.builder("station.request.coalesced")
+                .description("Number of requests that joined an in-flight fetch instead of starting their own")
+                .register(meterRegistry);
+
+        this.blobDownloadBytesCounter = Counter.builder("station.blob.download.bytes")
+                .description("Total bytes of blobs downloaded from Docker Hub")
+                .baseUnit("bytes")
                 .register(meterRegistry);
 
         Gauge.builder("station.node.active_count", activeNodeCount, AtomicLong::get)
@@ -40,18 +46,18 @@ public class NodeMetrics {
 
     public void recordBlobDownload(long bytes) {
         blobDownloadCounter.increment();
-        totalBlobBytes.addAndGet(bytes);
+        blobDownloadBytesCounter.increment(bytes);
     }
 
     public void recordManifestDownload() {
         manifestDownloadCounter.increment();
     }
 
-    public void setActiveNodeCount(long count) {
-        activeNodeCount.set(count);
+    public void recordCoalescedRequest() {
+        coalescedRequestCounter.increment();
     }
 
-    public long getTotalBlobBytes() {
-        return totalBlobBytes.get();
+    public void setActiveNodeCount(long count) {
+        activeNodeCount.set(count);
     }
 }
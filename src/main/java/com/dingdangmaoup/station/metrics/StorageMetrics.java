@@ -0,0 +1,34 @@
+package com.dingdangmaoup.station.metrics;
+
+import com.dingdangmaoup.station.storage.FileSystemManifestStorage;
+import com.dingdangmaoup.station.storage.StorageUsage;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Storage usage gauges, read from the running counters kept by the stores
+ */
+@Component
+public class StorageMetrics {
+
+    public StorageMetrics(MeterRegistry meterRegistry, BlobIndex blobIndex,
+                          FileSystemManifestStorage manifestStorage) {
+        register(meterRegistry, "blob", blobIndex.getUsage());
+        register(meterRegistry, "manifest", manifestStorage.getUsage());
+    }
+
+    private static void register(MeterRegistry meterRegistry, String type, StorageUsage usage) {
+        Gauge.builder("station.storage.bytes", usage, StorageUsage::getBytes)
+                .tag("type", type)
+                .description("Bytes stored on this node")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        Gauge.builder("station.storage.objects", usage, StorageUsage::getCount)
+                .tag("type", type)
+                .description("Number of objects stored on this node")
+                .register(meterRegistry);
+    }
+}
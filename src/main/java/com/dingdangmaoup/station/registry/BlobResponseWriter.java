@@ -0,0 +1,302 @@
+package com.dingdangmaoup.station.registry;
+
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import com.dingdangmaoup.station.storage.scheduler.IoScheduler;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes blobs to HTTP responses.
+ * Handles full reads, single and multi-range requests (206 Partial Content),
+ * and zero-copy (sendfile) transfer for file-backed blobs.
+ */
+@Slf4j
+@Component
+public class BlobResponseWriter {
+
+    private static final String BYTES_UNIT = "bytes";
+    // Distinct ranges served as multipart/byteranges; requests for more get the whole blob
+    private static final int MAX_MULTIPART_RANGES = 16;
+    // One zero-copy serve in this many probes the disk for its read latency
+    private static final int PROBE_EVERY = 32;
+
+    private final BlobStorage blobStorage;
+    private final boolean zeroCopyEnabled;
+    private final IoScheduler ioScheduler;
+    private final StorageLatencyMonitor latencyMonitor;
+    private final StorageSchedulers storageSchedulers;
+    private final AtomicLong zeroCopyServes = new AtomicLong();
+
+    public BlobResponseWriter(
+            BlobStorage blobStorage,
+            @Value("${station.storage.zero-copy:true}") boolean zeroCopyEnabled,
+            IoScheduler ioScheduler,
+            StorageLatencyMonitor latencyMonitor,
+            StorageSchedulers storageSchedulers) {
+        this.blobStorage = blobStorage;
+        this.zeroCopyEnabled = zeroCopyEnabled;
+        this.ioScheduler = ioScheduler;
+        this.latencyMonitor = latencyMonitor;
+        this.storageSchedulers = storageSchedulers;
+    }
+
+    /**
+     * Reads a byte range of a blob
+     */
+    @FunctionalInterface
+    public interface BlobReader {
+        /**
+         * @param offset starting byte offset
+         * @param length exact number of bytes to emit
+         */
+        Flux<DataBuffer> read(long offset, long length);
+    }
+
+    /**
+     * Write a locally stored blob to the response, honoring any Range header on the request
+     */
+    public Mono<Void> write(ServerHttpRequest request, ServerHttpResponse response, String digest, long size) {
+        BlobReader storedReader = (offset, length) -> offset == 0 && length == size
+                ? blobStorage.getBlob(digest)
+                : blobStorage.getBlob(digest, offset, length);
+        return serve(request, response, digest, size, storedReader, true);
+    }
+
+    /**
+     * Write a blob that is not (yet) committed to storage, e.g. one still being downloaded,
+     * honoring any Range header on the request. A negative size means the size is unknown:
+     * the response is then chunked and ranges are ignored.
+     */
+    public Mono<Void> write(ServerHttpRequest request, ServerHttpResponse response, String digest, long size,
+                            BlobReader reader) {
+        if (size < 0) {
+            HttpHeaders headers = response.getHeaders();
+            headers.set("Docker-Content-Digest", digest);
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            log.debug("Streaming blob {} of unknown size", digest);
+            return response.writeWith(reader.read(0, Long.MAX_VALUE));
+        }
+        return serve(request, response, digest, size, reader, false);
+    }
+
+    /**
+     * Whether the request asks for a byte range of the blob
+     */
+    public boolean isRangeRequest(ServerHttpRequest request) {
+        return request.getHeaders().getFirst(HttpHeaders.RANGE) != null;
+    }
+
+    /**
+     * Set the headers advertising range support on HEAD responses
+     */
+    public void applyHeadHeaders(HttpHeaders headers, String digest, long size) {
+        headers.set("Docker-Content-Digest", digest);
+        headers.set(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        headers.setETag("\"" + digest + "\"");
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentLength(size);
+    }
+
+    private Mono<Void> serve(ServerHttpRequest request, ServerHttpResponse response, String digest, long size,
+                             BlobReader reader, boolean fileBacked) {
+        HttpHeaders headers = response.getHeaders();
+        headers.set("Docker-Content-Digest", digest);
+        headers.set(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        headers.setETag("\"" + digest + "\"");
+
+        List<HttpRange> ranges = resolveRanges(request, digest);
+        List<long[]> regions = toRegions(ranges, size);
+        if (!ranges.isEmpty() && regions.isEmpty()) {
+            log.debug("Unsatisfiable range {} for blob {} ({} bytes)", ranges, digest, size);
+            response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            headers.set(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+            return response.setComplete();
+        }
+        if (regions.isEmpty() || regions.size() > MAX_MULTIPART_RANGES) {
+            if (!regions.isEmpty()) {
+                log.debug("Ignoring {} ranges for blob {}, serving full content", regions.size(), digest);
+            }
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            headers.setContentLength(size);
+            return writeRegion(response, digest, 0, size, reader, fileBacked);
+        }
+
+        response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+
+        if (regions.size() == 1) {
+            long start = regions.get(0)[0];
+            long length = regions.get(0)[1];
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            headers.setContentLength(length);
+            headers.set(HttpHeaders.CONTENT_RANGE, contentRange(start, length, size));
+            log.debug("Serving blob {} range {}-{}", digest, start, start + length - 1);
+            return writeRegion(response, digest, start, length, reader, fileBacked);
+        }
+
+        return writeMultipart(response, digest, size, regions, reader);
+    }
+
+    /**
+     * Parse the Range header. Invalid headers, and ranges guarded by a non-matching If-Range,
+     * are ignored so that the full blob is served as RFC 9110 requires.
+     */
+    private List<HttpRange> resolveRanges(ServerHttpRequest request, String digest) {
+        String rangeHeader = request.getHeaders().getFirst(HttpHeaders.RANGE);
+        if (rangeHeader == null || rangeHeader.isBlank()) {
+            return List.of();
+        }
+
+        String ifRange = request.getHeaders().getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals("\"" + digest + "\"")) {
+            log.debug("If-Range {} does not match blob {}, serving full content", ifRange, digest);
+            return List.of();
+        }
+
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring invalid Range header '{}': {}", rangeHeader, e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Convert ranges into [start, length] pairs in ascending order, dropping the unsatisfiable
+     * ones and coalescing overlapping and adjacent ones (RFC 9110 section 14.2), so that no byte
+     * is sent twice however the ranges were written
+     */
+    private List<long[]> toRegions(List<HttpRange> ranges, long size) {
+        List<long[]> regions = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
+            try {
+                long start = range.getRangeStart(size);
+                long end = range.getRangeEnd(size);
+                if (start < size && end >= start) {
+                    regions.add(new long[]{start, end - start + 1});
+                }
+            } catch (IllegalArgumentException e) {
+                // Unsatisfiable range (start beyond end of blob)
+            }
+        }
+
+        regions.sort(Comparator.comparingLong(region -> region[0]));
+        List<long[]> coalesced = new ArrayList<>(regions.size());
+        for (long[] region : regions) {
+            long[] previous = coalesced.isEmpty() ? null : coalesced.getLast();
+            if (previous != null && region[0] <= previous[0] + previous[1]) {
+                previous[1] = Math.max(previous[1], region[0] + region[1] - previous[0]);
+            } else {
+                coalesced.add(region);
+            }
+        }
+        return coalesced;
+    }
+
+    private Mono<Void> writeMultipart(ServerHttpResponse response, String digest, long size, List<long[]> regions,
+                                      BlobReader reader) {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        DataBufferFactory bufferFactory = response.bufferFactory();
+
+        List<Flux<DataBuffer>> parts = new ArrayList<>(regions.size() * 2 + 1);
+        long contentLength = 0;
+
+        for (long[] region : regions) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(region[0], region[1], size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeader.length + region[1];
+
+            parts.add(Flux.defer(() -> Flux.just(bufferFactory.wrap(partHeader))));
+            parts.add(Flux.defer(() -> reader.read(region[0], region[1])));
+        }
+
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+        parts.add(Flux.defer(() -> Flux.just(bufferFactory.wrap(closing))));
+
+        HttpHeaders headers = response.getHeaders();
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        headers.setContentLength(contentLength);
+
+        log.debug("Serving blob {} as {} byte ranges", digest, regions.size());
+        return response.writeWith(Flux.concat(parts));
+    }
+
+    /**
+     * Write [start, start + length) of a blob, via sendfile when the blob is file-backed
+     */
+    private Mono<Void> writeRegion(ServerHttpResponse response, String digest, long start, long length,
+                                   BlobReader reader, boolean fileBacked) {
+        if (fileBacked && zeroCopyEnabled && response instanceof ZeroCopyHttpOutputMessage zeroCopyResponse) {
+            return blobStorage.getBlobFile(digest)
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty())
+                    .flatMap(file -> {
+                        if (file.isPresent()) {
+                            log.debug("Serving blob {} via zero-copy from {}", digest, file.get());
+                            // sendfile bypasses the blob streams, so a sampled serve accounts for its disk
+                            // access as a foreground read here; the network transfer itself holds no slot
+                            Mono<Void> probe = zeroCopyServes.getAndIncrement() % PROBE_EVERY == 0
+                                    ? ioScheduler.schedule(probeFirstByte(file.get(), start), IoPriority.FOREGROUND)
+                                    : Mono.empty();
+                            return probe.then(zeroCopyResponse.writeWith(file.get(), start, length))
+                                    // Deleted behind the index's back: drop the entry so the blob is fetched again
+                                    .onErrorMap(NoSuchFileException.class,
+                                            e -> blobStorage.blobFileMissing(digest, e));
+                        }
+                        return response.writeWith(reader.read(start, length));
+                    });
+        }
+
+        return response.writeWith(reader.read(start, length));
+    }
+
+    /**
+     * sendfile never reports how long the disk took, so read the first byte of the region (which
+     * sendfile then finds in the page cache) and record that as the read's time to first byte.
+     * Costs a blocking-pool hop, an open and a close, hence only for a sample of the serves.
+     */
+    private Mono<Void> probeFirstByte(Path file, long position) {
+        return Mono.<Void>fromCallable(() -> {
+            long started = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.read(ByteBuffer.allocate(1), position);
+            }
+            latencyMonitor.record(StorageLatencyMonitor.Operation.READ, System.nanoTime() - started);
+            return null;
+        }).subscribeOn(storageSchedulers.blocking());
+    }
+
+    private static String contentRange(long start, long length, long size) {
+        return BYTES_UNIT + " " + start + "-" + (start + length - 1) + "/" + size;
+    }
+}
@@ -4,11 +4,19 @@ import com.dingdangmaoup.station.cache.CacheEntry;
 import com.dingdangmaoup.station.cache.CacheKey;
 import com.dingdangmaoup.station.cache.MultiLevelCacheManager;
 import com.dingdangmaoup.station.cache.PeerCacheService;
+import com.dingdangmaoup.station.cache.RequestCoalescer;
 import com.dingdangmaoup.station.coordination.DistributedLock;
+import com.dingdangmaoup.station.coordination.LockLease;
 import com.dingdangmaoup.station.docker.DockerHubClient;
 import com.dingdangmaoup.station.metrics.NodeMetrics;
+import com.dingdangmaoup.station.registry.BlobResponseWriter;
 import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.BlobStream;
 import com.dingdangmaoup.station.storage.ManifestStorage;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
+import com.dingdangmaoup.station.storage.inflight.InFlightBlob;
+import com.dingdangmaoup.station.storage.inflight.InFlightBlobDownloads;
+import com.dingdangmaoup.station.storage.objectstore.ObjectStoreBlobStorage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,6 +31,8 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Optional;
+
 /**
  * Docker Registry API v2
  */
@@ -39,6 +49,11 @@ public class RegistryController {
     private final DockerHubClient dockerHubClient;
     private final DistributedLock distributedLock;
     private final NodeMetrics nodeMetrics;
+    private final BlobResponseWriter blobResponseWriter;
+    private final RequestCoalescer requestCoalescer;
+    private final InFlightBlobDownloads inFlightDownloads;
+    private final StorageLatencyMonitor latencyMonitor;
+    private final Optional<ObjectStoreBlobStorage> objectStore;
 
     @Value("${station.node.id}")
     private String nodeId;
@@ -86,7 +101,8 @@ public class RegistryController {
 
                     // L1 & L2 miss - try storage (L2.5: file system)
                     log.info("Cache MISS at L1/L2 for manifest: {}:{}, checking storage", fullName, reference);
-                    return manifestStorage.getManifest(fullName, reference)
+                    // Concurrent misses for the same manifest share one storage/peer/Docker Hub lookup
+                    return requestCoalescer.coalesce(key.toRedisKey(), () -> manifestStorage.getManifest(fullName, reference)
                             .flatMap(storageResult -> {
                                 if (storageResult.isPresent()) {
                                     // Found in storage - restore to cache
@@ -141,7 +157,7 @@ public class RegistryController {
                                         fullName, reference);
 
                                 String lockKey = "manifest:" + fullName + ":" + reference;
-                                return distributedLock.withLock(lockKey,
+                                return distributedLock.withLeaseOrAwait(lockKey, lease ->
                                         dockerHubClient.getManifest(fullName, reference)
                                                 .flatMap(manifestResponse -> {
                                                     nodeMetrics.recordManifestDownload();
@@ -164,10 +180,12 @@ public class RegistryController {
                                                             .header("Docker-Content-Digest", manifestResponse.getDigest())
                                                             .contentType(MediaType.parseMediaType(manifestResponse.getContentType()))
                                                             .body(manifestResponse.getContent()));
-                                                })
+                                                }),
+                                        // Another node fetched it while we waited - it is in L2 now
+                                        () -> getReleasedManifest(fullName, reference, key)
                                 );
                             });
-                            });
+                            }));
                 })
                 .onErrorResume(error -> {
                     log.error("Error fetching manifest {}:{}", fullName, reference, error);
@@ -175,6 +193,27 @@ public class RegistryController {
                 });
     }
 
+    /**
+     * Serve a manifest that another node fetched from Docker Hub while this one waited for the lock
+     */
+    private Mono<ResponseEntity<String>> getReleasedManifest(String fullName, String reference, CacheKey key) {
+        return cacheManager.get(key)
+                .map(optEntry -> {
+                    if (optEntry.isPresent()) {
+                        CacheEntry entry = optEntry.get();
+                        log.info("Cache HIT for manifest: {}:{} after lock release", fullName, reference);
+
+                        String content = entry.getData() != null ? entry.getData().toString() : "";
+                        return ResponseEntity.ok()
+                                .header("Docker-Content-Digest", entry.getDigest())
+                                .contentType(MediaType.parseMediaType(entry.getContentType()))
+                                .body(content);
+                    }
+                    log.info("Manifest {}:{} not cached after lock release", fullName, reference);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).<String>build();
+                });
+    }
+
     /**
      * HEAD manifest (check if exists)
      */
@@ -191,16 +230,25 @@ public class RegistryController {
         CacheKey key = CacheKey.forManifest(fullName, reference);
 
         return cacheManager.get(key)
-                .map(optEntry -> {
+                .flatMap(optEntry -> {
                     if (optEntry.isPresent()) {
                         CacheEntry entry = optEntry.get();
-                        return ResponseEntity.ok()
+                        return Mono.just(ResponseEntity.ok()
                                 .header("Docker-Content-Digest", entry.getDigest())
                                 .contentType(MediaType.parseMediaType(entry.getContentType()))
                                 .contentLength(entry.getSize())
-                                .build();
+                                .<Void>build());
                     }
-                    return ResponseEntity.<Void>status(HttpStatus.NOT_FOUND).build();
+                    // Answered from the storage's in-memory manifest index, no disk read
+                    return manifestStorage.exists(fullName, reference)
+                            .flatMap(exists -> exists
+                                    ? manifestStorage.getMetadata(fullName, reference)
+                                            .map(metadata -> ResponseEntity.ok()
+                                                    .header("Docker-Content-Digest", metadata.getDigest())
+                                                    .contentType(MediaType.parseMediaType(metadata.getContentType()))
+                                                    .contentLength(metadata.getSize())
+                                                    .<Void>build())
+                                    : Mono.just(ResponseEntity.<Void>status(HttpStatus.NOT_FOUND).build()));
                 });
     }
 
@@ -215,6 +263,7 @@ public class RegistryController {
             @PathVariable(required = false) String namespace,
             @PathVariable String name,
             @PathVariable String digest,
+            ServerHttpRequest request,
             ServerHttpResponse response) {
 
         String fullName = (namespace != null) ? namespace + "/" + name : name;
@@ -226,73 +275,192 @@ public class RegistryController {
                         // Blob exists locally (L1 - storage)
                         log.info("Blob HIT: {}", digest);
                         return blobStorage.getMetadata(digest)
-                                .flatMap(metadata -> {
-                                    response.getHeaders().setContentType(MediaType.APPLICATION_OCTET_STREAM);
-                                    response.getHeaders().setContentLength(metadata.getSize());
-                                    response.getHeaders().set("Docker-Content-Digest", digest);
-
-                                    Flux<DataBuffer> dataFlux = blobStorage.getBlob(digest);
-                                    return response.writeWith(dataFlux);
-                                });
+                                .flatMap(metadata -> latencyMonitor.isDegraded()
+                                        ? serveOffloaded(request, response, digest, metadata.getSize())
+                                        : blobResponseWriter.write(request, response, digest, metadata.getSize()))
+                                .onErrorResume(error -> !response.isCommitted(),
+                                        error -> refetchIfVanished(request, response, fullName, digest, error));
                     }
 
-                    // Blob miss locally - try L3 (peer nodes) with consistent hashing
-                    log.info("Blob MISS locally: {}, checking peers (L3)", digest);
-                    return peerCacheService.queryPeersForBlob(digest)
-                            .flatMap(peerResult -> {
-                                if (peerResult.isPresent()) {
-                                    log.info("Found blob {} in peer cache", digest);
-                                    Flux<DataBuffer> peerDataFlux = peerResult.get();
-
-                                    return blobStorage.saveBlob(digest, peerDataFlux)
-                                            .flatMap(metadata -> {
-                                                CacheKey key = CacheKey.forBlob(digest);
-                                                CacheEntry entry = CacheEntry.forBlob(digest, metadata.getSize(), nodeId);
-
-                                                return cacheManager.put(key, entry)
-                                                        .then(blobStorage.getMetadata(digest));
-                                            })
-                                            .flatMap(metadata -> {
-                                                response.getHeaders().setContentType(MediaType.APPLICATION_OCTET_STREAM);
-                                                response.getHeaders().setContentLength(metadata.getSize());
-                                                response.getHeaders().set("Docker-Content-Digest", digest);
-
-                                                return response.writeWith(blobStorage.getBlob(digest));
-                                            });
-                                }
-
-                                // L3 miss - fetch from Docker Hub (L4)
-                                log.info("Blob MISS at all peer nodes: {}, fetching from Docker Hub (L4)", digest);
-
-                                String lockKey = "blob:" + digest;
-                                return distributedLock.withLock(lockKey,
-                                        blobStorage.saveBlob(digest, dockerHubClient.streamBlob(fullName, digest))
-                                                .flatMap(metadata -> {
-                                                    nodeMetrics.recordBlobDownload(metadata.getSize());
-
-                                                    CacheKey key = CacheKey.forBlob(digest);
-                                                    CacheEntry entry = CacheEntry.forBlob(digest, metadata.getSize(), nodeId);
-
-                                                    return cacheManager.put(key, entry)
-                                                            .then(blobStorage.getMetadata(digest));
-                                                })
-                                                .flatMap(metadata -> {
-                                                    response.getHeaders().setContentType(MediaType.APPLICATION_OCTET_STREAM);
-                                                    response.getHeaders().setContentLength(metadata.getSize());
-                                                    response.getHeaders().set("Docker-Content-Digest", digest);
-
-                                                    return response.writeWith(blobStorage.getBlob(digest));
-                                                })
-                                );
-                            });
+                    return serveMiss(request, response, fullName, digest);
                 })
                 .onErrorResume(error -> {
                     log.error("Error fetching blob: {}", digest, error);
+                    if (response.isCommitted()) {
+                        // Bytes already sent - abort the connection so the client sees a truncated transfer
+                        return Mono.error(error);
+                    }
                     response.setStatusCode(HttpStatus.NOT_FOUND);
                     return response.setComplete();
                 });
     }
 
+    /**
+     * Blob miss locally - join the shared download for this digest, or start it
+     */
+    private Mono<Void> serveMiss(ServerHttpRequest request, ServerHttpResponse response, String fullName,
+                                 String digest) {
+        InFlightBlob download = inFlightDownloads.join(digest, started -> fetchBlob(fullName, digest, started));
+        return serveInFlight(request, response, download);
+    }
+
+    /**
+     * A local read failed before anything was sent. If storage dropped the blob because its file
+     * had gone from disk, fetch it again instead of failing the pull
+     */
+    private Mono<Void> refetchIfVanished(ServerHttpRequest request, ServerHttpResponse response, String fullName,
+                                         String digest, Throwable error) {
+        return blobStorage.exists(digest).flatMap(indexed -> {
+            if (indexed) {
+                return Mono.error(error);
+            }
+            log.warn("Blob {} vanished from local storage, fetching it again", digest);
+            response.getHeaders().clear();
+            response.setStatusCode(null);
+            return serveMiss(request, response, fullName, digest);
+        });
+    }
+
+    /**
+     * Local storage is degraded: serve a stored blob from a healthy peer that also holds it,
+     * falling back to the local copy when none does
+     */
+    private Mono<Void> serveOffloaded(ServerHttpRequest request, ServerHttpResponse response, String digest, long size) {
+        return peerCacheService.findHealthyPeerWithBlob(digest)
+                .flatMap(peer -> {
+                    if (peer.isEmpty()) {
+                        return blobResponseWriter.write(request, response, digest, size);
+                    }
+                    log.info("Storage degraded, serving blob {} from peer {}", digest, peer.get().getNodeId());
+                    return blobResponseWriter.write(request, response, digest, size,
+                            (offset, length) -> peerCacheService.readBlob(peer.get(), digest, offset, length));
+                });
+    }
+
+    /**
+     * Fetch a missing blob from L3 (peer nodes), the shared object store if configured, or L4
+     * (Docker Hub) into the shared download. Runs once per digest per node, however many requests
+     * are waiting for it.
+     */
+    private Mono<Long> fetchBlob(String fullName, String digest, InFlightBlob download) {
+        log.info("Blob MISS locally: {}, checking peers (L3)", digest);
+        return peerCacheService.queryPeersForBlob(digest)
+                .flatMap(peerResult -> {
+                    if (peerResult.isPresent()) {
+                        log.info("Found blob {} in peer cache", digest);
+                        return download.ingest(peerResult.get())
+                                .then(cacheBlob(fullName, digest, false));
+                    }
+
+                    return fetchStoredBlob(fullName, digest, download);
+                });
+    }
+
+    /**
+     * L3 miss - pull the blob from the shared object store, or fetch it from Docker Hub (L4)
+     */
+    private Mono<Long> fetchStoredBlob(String fullName, String digest, InFlightBlob download) {
+        Mono<Optional<BlobStream>> stored = objectStore
+                .map(store -> store.open(digest))
+                .orElseGet(() -> Mono.just(Optional.empty()));
+        return stored.flatMap(storeResult -> {
+            if (storeResult.isPresent()) {
+                log.info("Found blob {} in object store", digest);
+                return download.ingest(storeResult.get())
+                        .then(cacheBlob(fullName, digest, false));
+            }
+
+            log.info("Blob MISS at all peer nodes: {}, fetching from Docker Hub (L4)", digest);
+
+            String lockKey = "blob:" + digest;
+            return distributedLock.withLeaseOrAwait(lockKey,
+                    lease -> dockerHubClient.openBlob(fullName, digest)
+                            .flatMap(upstream -> download.ingest(checkLeaseBeforeCommit(upstream, lease))
+                                    .then(cacheBlob(fullName, digest, true))),
+                    () -> fetchReleasedBlob(fullName, digest, download)
+            );
+        });
+    }
+
+    /**
+     * Another node fetched the blob from Docker Hub while this one waited for the lock.
+     * Pull it from the node recorded in L2, falling back to the consistent-hash peers.
+     */
+    private Mono<Long> fetchReleasedBlob(String fullName, String digest, InFlightBlob download) {
+        return cacheManager.get(CacheKey.forBlob(digest))
+                .flatMap(optEntry -> optEntry.isPresent()
+                        ? peerCacheService.queryNodeForBlob(optEntry.get().getNodeId(), digest)
+                        : Mono.just(Optional.<BlobStream>empty()))
+                .flatMap(owner -> owner.isPresent()
+                        ? Mono.just(owner)
+                        : peerCacheService.queryPeersForBlob(digest))
+                .flatMap(peerResult -> {
+                    if (peerResult.isEmpty()) {
+                        log.info("Blob {} not available from peers after lock release", digest);
+                        return Mono.<Long>empty();
+                    }
+                    log.info("Fetching blob {} from peer after lock release", digest);
+                    return download.ingest(peerResult.get())
+                            .then(cacheBlob(fullName, digest, false));
+                });
+    }
+
+    /**
+     * Check the lease once the upstream is drained, so a download that outlived its lock
+     * usually fails before the commit instead of duplicating the work of the node that took
+     * the lock over.
+     * <p>
+     * This is a check-then-act: a lease that expires between the check and the rename still
+     * commits. That is tolerated because the commit goes to this node's own disk and only after
+     * the content matched the digest; the lock only keeps nodes from fetching the same blob from
+     * Docker Hub at once, and a late commit writes the same bytes the new holder does.
+     */
+    private BlobStream checkLeaseBeforeCommit(BlobStream upstream, LockLease lease) {
+        return BlobStream.builder()
+                .size(upstream.getSize())
+                .data(upstream.getData()
+                        .concatWith(distributedLock.checkLease(lease).then(Mono.<DataBuffer>empty())))
+                .build();
+    }
+
+    /**
+     * Serve a blob from a shared download. Bytes are streamed to the client as they land in the
+     * temp file; ranges are served as soon as the requested bytes are available.
+     */
+    private Mono<Void> serveInFlight(ServerHttpRequest request, ServerHttpResponse response, InFlightBlob download) {
+        String digest = download.getDigest();
+        return download.size()
+                .flatMap(size -> {
+                    if (size < 0 && blobResponseWriter.isRangeRequest(request)) {
+                        // Ranges need the total size - wait for the commit and serve from storage
+                        return download.completion()
+                                .then(Mono.defer(() -> blobStorage.getMetadata(digest)))
+                                .flatMap(metadata -> blobResponseWriter.write(request, response, digest,
+                                        metadata.getSize()));
+                    }
+                    return blobResponseWriter.write(request, response, digest, size, download::read);
+                });
+    }
+
+    /**
+     * Register a freshly committed blob in the cache, emitting its size. The repository it was
+     * pulled through selects the repository policy for its TTLs.
+     */
+    private Mono<Long> cacheBlob(String fullName, String digest, boolean fromDockerHub) {
+        return Mono.defer(() -> blobStorage.getMetadata(digest))
+                .flatMap(metadata -> {
+                    if (fromDockerHub) {
+                        nodeMetrics.recordBlobDownload(metadata.getSize());
+                    }
+
+                    CacheKey key = CacheKey.forBlob(fullName, digest);
+                    CacheEntry entry = CacheEntry.forBlob(digest, metadata.getSize(), nodeId);
+
+                    return cacheManager.put(key, entry)
+                            .thenReturn(metadata.getSize());
+                });
+    }
+
     /**
      * HEAD blob (check if exists)
      */
@@ -308,10 +476,9 @@ public class RegistryController {
                     if (exists) {
                         return blobStorage.getMetadata(digest)
                                 .map(metadata -> ResponseEntity.ok()
-                                        .header("Docker-Content-Digest", digest)
-                                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                                        .contentLength(metadata.getSize())
-                                        .build());
+                                        .headers(headers -> blobResponseWriter.applyHeadHeaders(
+                                                headers, digest, metadata.getSize()))
+                                        .<Void>build());
                     }
                     return Mono.just(ResponseEntity.<Void>status(HttpStatus.NOT_FOUND).build());
                 });
@@ -0,0 +1,7 @@
+package com.dingdangmaoup.station.storage;
+
+/**
+ * Published after a blob has been committed to local storage
+ */
+public record BlobCommittedEvent(String digest, long size) {
+}
@@ -13,4 +13,5 @@ public class BlobMetadata {
     private Instant createdAt;
     private Instant lastAccessedAt;
     private String contentType;
+    private boolean verified;
 }
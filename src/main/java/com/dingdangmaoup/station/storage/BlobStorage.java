@@ -4,6 +4,9 @@ import org.springframework.core.io.buffer.DataBuffer;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
 public interface BlobStorage {
 
     /**
@@ -15,6 +18,37 @@ public interface BlobStorage {
      */
     Mono<BlobMetadata> saveBlob(String digest, Flux<DataBuffer> data);
 
+    /**
+     * Save a blob while streaming it through to the caller.
+     * Each buffer is emitted as soon as it has been written to the temporary file, and the
+     * returned Flux completes only after the blob has been committed to its final location.
+     * Cancelling the Flux aborts the save. The caller owns (and must release) the emitted buffers.
+     *
+     * @param digest the blob digest (SHA256)
+     * @param data   the blob data stream
+     * @return Flux emitting the blob data as it is persisted
+     */
+    default Flux<DataBuffer> saveBlobStreaming(String digest, Flux<DataBuffer> data) {
+        return saveBlobStreaming(digest, data, partialFile -> { });
+    }
+
+    /**
+     * Save a blob while streaming it through to the caller, reporting the temporary file being written.
+     * Every byte emitted so far is readable from that file until the blob is committed, which lets
+     * concurrent readers tail an in-progress download. Storages that do not write through a local
+     * file never invoke the listener.
+     *
+     * @param digest              the blob digest (SHA256)
+     * @param data                the blob data stream
+     * @param partialFileListener invoked with the temporary file before the first buffer is emitted
+     * @return Flux emitting the blob data as it is persisted
+     */
+    default Flux<DataBuffer> saveBlobStreaming(String digest, Flux<DataBuffer> data,
+                                               Consumer<Path> partialFileListener) {
+        return saveBlob(digest, data)
+                .thenMany(Flux.defer(() -> getBlob(digest)));
+    }
+
     /**
      * Get a blob from storage
      *
@@ -28,11 +62,34 @@ public interface BlobStorage {
      *
      * @param digest the blob digest
      * @param offset starting byte offset
-     * @param length number of bytes to read
+     * @param length number of bytes to read; the last chunk is trimmed so exactly this many bytes
+     *               are emitted (fewer if the blob ends first)
      * @return Flux emitting the blob data chunk
      */
     Flux<DataBuffer> getBlob(String digest, long offset, long length);
 
+    /**
+     * Resolve the local file backing a blob, for zero-copy (sendfile) transfer
+     *
+     * @param digest the blob digest
+     * @return Mono emitting the blob file path, or empty if the blob is not stored as a plain file
+     */
+    default Mono<Path> getBlobFile(String digest) {
+        return Mono.empty();
+    }
+
+    /**
+     * Report that the file returned by {@link #getBlobFile} has gone from disk, so the blob is
+     * forgotten and fetched again instead of failing every later read
+     *
+     * @param digest the blob digest
+     * @param cause  the error raised when opening the file
+     * @return the error to fail the read with
+     */
+    default StorageException blobFileMissing(String digest, Throwable cause) {
+        return new StorageException("Blob not found: " + digest, cause);
+    }
+
     /**
      * Check if a blob exists
      *
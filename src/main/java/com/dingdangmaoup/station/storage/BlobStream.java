@@ -0,0 +1,25 @@
+package com.dingdangmaoup.station.storage;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+/**
+ * A blob being streamed from an upstream source (peer node or Docker Hub)
+ */
+@Data
+@Builder
+public class BlobStream {
+
+    /**
+     * Size advertised by the source, or -1 if unknown
+     */
+    private long size;
+
+    private Flux<DataBuffer> data;
+
+    public boolean hasKnownSize() {
+        return size >= 0;
+    }
+}
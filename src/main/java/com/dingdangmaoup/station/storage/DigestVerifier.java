@@ -0,0 +1,76 @@
+package com.dingdangmaoup.station.storage;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Incrementally hashes blob content as it is written and checks it against the expected digest.
+ * Buffers are hashed through read-only views, so their read position is left untouched for the writer.
+ */
+public class DigestVerifier {
+
+    private final String expectedDigest;
+    private final String expectedHash;
+    private final MessageDigest messageDigest;
+    private long bytes;
+
+    public DigestVerifier(String expectedDigest) {
+        int colonIndex = expectedDigest.indexOf(':');
+        if (colonIndex == -1) {
+            throw new IllegalArgumentException("Invalid digest format (missing ':'): " + expectedDigest);
+        }
+
+        this.expectedDigest = expectedDigest;
+        this.expectedHash = expectedDigest.substring(colonIndex + 1).toLowerCase();
+        this.messageDigest = newMessageDigest(expectedDigest.substring(0, colonIndex));
+    }
+
+    /**
+     * Hash the readable bytes of a buffer
+     */
+    public void update(DataBuffer buffer) {
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            while (iterator.hasNext()) {
+                ByteBuffer byteBuffer = iterator.next();
+                bytes += byteBuffer.remaining();
+                messageDigest.update(byteBuffer);
+            }
+        }
+    }
+
+    /**
+     * Number of bytes hashed so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Complete the hash and throw if it does not match the expected digest
+     */
+    public void verify() {
+        String actualHash = HexFormat.of().formatHex(messageDigest.digest());
+        if (!actualHash.equals(expectedHash)) {
+            throw new StorageException("Digest mismatch for blob " + expectedDigest
+                    + ": content hashes to " + actualHash + " (" + bytes + " bytes)");
+        }
+    }
+
+    private static MessageDigest newMessageDigest(String algorithm) {
+        String jcaName = switch (algorithm) {
+            case "sha256" -> "SHA-256";
+            case "sha384" -> "SHA-384";
+            case "sha512" -> "SHA-512";
+            default -> throw new StorageException("Unsupported digest algorithm: " + algorithm);
+        };
+        try {
+            return MessageDigest.getInstance(jcaName);
+        } catch (NoSuchAlgorithmException e) {
+            throw new StorageException("Digest algorithm not available: " + jcaName, e);
+        }
+    }
+}
@@ -1,200 +1,825 @@
 package com.dingdangmaoup.station.storage;
 
+import com.dingdangmaoup.station.storage.buffer.BlobBuffers;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
+import com.dingdangmaoup.station.storage.index.BlobFrequency;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import com.dingdangmaoup.station.storage.ingest.IngestWriter;
+import com.dingdangmaoup.station.storage.placement.BlobPlacement;
+import com.dingdangmaoup.station.storage.placement.StorageRoot;
+import com.dingdangmaoup.station.storage.placement.StorageTier;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import com.dingdangmaoup.station.storage.scheduler.IoScheduler;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import com.dingdangmaoup.station.storage.segment.SegmentStore;
+import com.dingdangmaoup.station.storage.tier.ColdBlobReadEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
-import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.Instant;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Slf4j
 @Component
 public class FileSystemBlobStorage implements BlobStorage {
 
-    private final String basePath;
-    private final String tempDir;
-    private final int chunkSize;
-    private final DefaultDataBufferFactory bufferFactory;
+    private static final String VERIFIED_ATTRIBUTE = "station.verified";
+    // Largest slice of a migration copied before it is paced
+    private static final long MIGRATION_CHUNK_BYTES = 4L * 1024 * 1024;
+
+    private final BlobBuffers blobBuffers;
+    private final StorageSchedulers storageSchedulers;
+    private final IoScheduler ioScheduler;
+    private final StorageLatencyMonitor latencyMonitor;
+    private final BlobIndex blobIndex;
+    private final BlobPlacement blobPlacement;
+    private final ApplicationEventPublisher eventPublisher;
+    private final IngestWriter ingestWriter;
+    // Blobs up to the threshold are packed into segments instead of getting a file each; null if disabled
+    private final SegmentStore smallBlobs;
+    private final long smallBlobThreshold;
+    private final double compactionMinGarbage;
+    private final BlobFrequency blobFrequency;
+    // Blobs requested at least this often are ingested through the page cache even with direct I/O on
+    private final int directIoHotFrequency;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
 
     public FileSystemBlobStorage(
             @Value("${station.storage.base-path:/data/station}") String basePath,
-            @Value("${station.storage.temp-dir:${station.storage.base-path}/temp}") String tempDir,
-            @Value("${station.storage.blob-chunk-size:65536}") int chunkSize) {
-        this.basePath = basePath;
-        this.tempDir = tempDir;
-        this.chunkSize = chunkSize;
-        this.bufferFactory = new DefaultDataBufferFactory();
+            @Value("${station.storage.segments.small-blob-threshold:64KB}") DataSize smallBlobThreshold,
+            @Value("${station.storage.segments.segment-size:64MB}") DataSize segmentSize,
+            @Value("${station.storage.segments.compaction-min-garbage:0.5}") double compactionMinGarbage,
+            @Value("${station.storage.ingest.direct-io-hot-frequency:2}") int directIoHotFrequency,
+            BlobIndex blobIndex,
+            BlobFrequency blobFrequency,
+            BlobPlacement blobPlacement,
+            ApplicationEventPublisher eventPublisher,
+            IngestWriter ingestWriter,
+            BlobBuffers blobBuffers,
+            StorageSchedulers storageSchedulers,
+            IoScheduler ioScheduler,
+            StorageLatencyMonitor latencyMonitor) {
+        this.blobBuffers = blobBuffers;
+        this.storageSchedulers = storageSchedulers;
+        this.ioScheduler = ioScheduler;
+        this.latencyMonitor = latencyMonitor;
+        this.blobFrequency = blobFrequency;
+        this.directIoHotFrequency = directIoHotFrequency;
+        this.blobIndex = blobIndex;
+        this.blobPlacement = blobPlacement;
+        this.eventPublisher = eventPublisher;
+        this.ingestWriter = ingestWriter;
+        this.smallBlobThreshold = smallBlobThreshold.toBytes();
+        this.compactionMinGarbage = compactionMinGarbage;
+        this.smallBlobs = this.smallBlobThreshold > 0
+                ? SegmentStore.open(Paths.get(basePath, "segments", "blobs"), segmentSize.toBytes(),
+                        ingestWriter.getDurability() != IngestWriter.Durability.NONE)
+                : null;
+    }
+
+    /**
+     * Load the blob index, rebuilding it from the blob directories if it was never persisted
+     */
+    @PostConstruct
+    public void initializeIndex() {
+        if (!blobIndex.load()) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Scan the blob directories into a fresh index. Prefix directories are scanned in parallel.
+     */
+    private void rebuildIndex() {
+        long start = System.currentTimeMillis();
+
+        List<BlobIndexEntry> entries = new ArrayList<>(packedEntries());
+        entries.addAll(listPrefixDirs().parallelStream()
+                .flatMap(dir -> scanPrefixDir(dir, ScanThrottle.unlimited()).stream())
+                .toList());
+        blobIndex.replaceAll(entries);
+
+        log.info("Rebuilt blob index from disk: {} blobs in {} ms",
+                entries.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Bring the index (and with it the usage counters) back in line with the blob directories:
+     * index blobs found on disk but missing from the index, and drop entries whose file is gone
+     * from every root. Entries created after the scan started are left alone.
+     *
+     * @return number of corrected entries
+     */
+    public int reconcileIndex(ScanThrottle throttle) {
+        long scanStart = System.currentTimeMillis();
+        Set<String> onDisk = new HashSet<>();
+        int corrections = 0;
+
+        List<BlobIndexEntry> found = new ArrayList<>(packedEntries());
+        for (Path prefixDir : listPrefixDirs()) {
+            found.addAll(scanPrefixDir(prefixDir, throttle));
+        }
+        for (BlobIndexEntry entry : found) {
+            onDisk.add(entry.getDigest());
+            if (!blobIndex.contains(entry.getDigest())) {
+                blobIndex.put(entry);
+                corrections++;
+            }
+        }
+
+        for (BlobIndexEntry entry : blobIndex.entries()) {
+            // The roots are scanned one after the other, so a blob migrated from a root not scanned yet
+            // to one already scanned was seen on neither: look for it again before dropping it
+            if (entry.getCreatedAt() < scanStart && !onDisk.contains(entry.getDigest())
+                    && !isOnDisk(entry.getDigest())) {
+                blobIndex.remove(entry.getDigest());
+                corrections++;
+            }
+        }
+
+        blobIndex.recalculateUsage();
+        return corrections;
+    }
+
+    /**
+     * Index entries for the packed small blobs; these were verified before being packed
+     */
+    private List<BlobIndexEntry> packedEntries() {
+        if (smallBlobs == null) {
+            return List.of();
+        }
+        List<BlobIndexEntry> entries = new ArrayList<>();
+        for (String digest : smallBlobs.keys()) {
+            smallBlobs.entry(digest).ifPresent(entry -> entries.add(new BlobIndexEntry(
+                    digest, entry.length(), entry.timestamp(), entry.timestamp(), 0, true)));
+        }
+        return entries;
+    }
+
+    /**
+     * Persist the blob index on the blocking pool rather than the scheduler thread, which
+     * heartbeats and health checks share
+     */
+    @Scheduled(fixedDelayString = "${station.storage.index.snapshot-interval:5m}",
+            initialDelayString = "${station.storage.index.snapshot-interval:5m}")
+    public void snapshotIndex() {
+        Mono.fromRunnable(blobIndex::snapshot)
+                .subscribeOn(storageSchedulers.blocking())
+                .subscribe(
+                        v -> { },
+                        error -> log.error("Blob index snapshot failed", error));
+    }
+
+    /**
+     * Reclaim blob segments that are mostly evicted blobs. Each rewrite is background I/O paced
+     * to the background bandwidth, on the blocking pool rather than the scheduler thread.
+     */
+    @Scheduled(fixedDelayString = "${station.storage.segments.compaction-interval:10m}",
+            initialDelayString = "${station.storage.segments.compaction-interval:10m}")
+    public void compactSegments() {
+        if (smallBlobs == null || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        Flux.fromIterable(smallBlobs.compactionCandidates(compactionMinGarbage))
+                .concatMap(segmentId -> ioScheduler.schedule(
+                                Mono.fromCallable(() -> smallBlobs.compactSegment(segmentId))
+                                        .subscribeOn(storageSchedulers.blocking()),
+                                IoPriority.BACKGROUND)
+                        .delayUntil(scanned -> ioScheduler.pace(Math.max(scanned, 0), IoPriority.BACKGROUND)))
+                .filter(scanned -> scanned >= 0)
+                .count()
+                .doFinally(signal -> compacting.set(false))
+                .subscribe(
+                        compacted -> {
+                            if (compacted > 0) {
+                                log.info("Compacted {} blob segments", compacted);
+                            }
+                        },
+                        error -> log.error("Blob segment compaction failed", error));
+    }
+
+    @PreDestroy
+    public void close() {
+        if (smallBlobs != null) {
+            smallBlobs.close();
+        }
+    }
+
+    private List<Path> listPrefixDirs() {
+        List<Path> prefixDirs = new ArrayList<>();
+        for (StorageRoot root : blobPlacement.getRoots()) {
+            Path blobsPath = root.getPath().resolve("blobs");
+            if (!root.isHealthy() || !Files.isDirectory(blobsPath)) {
+                continue;
+            }
+
+            try (Stream<Path> algorithms = Files.list(blobsPath)) {
+                for (Path algorithmDir : algorithms.filter(Files::isDirectory).toList()) {
+                    try (Stream<Path> prefixes = Files.list(algorithmDir)) {
+                        prefixes.filter(Files::isDirectory).forEach(prefixDirs::add);
+                    }
+                }
+            } catch (IOException e) {
+                throw new StorageException("Failed to scan blob directories in " + root, e);
+            }
+        }
+        return prefixDirs;
+    }
+
+    private List<BlobIndexEntry> scanPrefixDir(Path prefixDir, ScanThrottle throttle) {
+        String algorithm = prefixDir.getParent().getFileName().toString();
+        List<BlobIndexEntry> entries = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(prefixDir)) {
+            for (Path file : files.toList()) {
+                throttle.acquire();
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (!attrs.isRegularFile()) {
+                        continue;
+                    }
+                    String digest = algorithm + ":" + file.getFileName();
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    entries.add(new BlobIndexEntry(digest, attrs.size(), modified, modified, 0,
+                            isVerified(file, digest)));
+                } catch (IOException e) {
+                    log.warn("Failed to read blob attributes: {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to scan blob directory: {}", prefixDir, e);
+        }
+        return entries;
     }
 
     @Override
     public Mono<BlobMetadata> saveBlob(String digest, Flux<DataBuffer> data) {
         return Mono.defer(() -> {
             try {
-                Path tempFile = getTempPath(UUID.randomUUID().toString());
-                Path finalPath = getBlobPath(digest);
+                StorageRoot root = blobPlacement.place(digest);
+                Path tempFile = root.getTempDirectory().resolve(UUID.randomUUID().toString());
+                Path finalPath = root.resolve(blobRelativePath(digest));
+                DigestVerifier verifier = new DigestVerifier(digest);
 
                 Files.createDirectories(finalPath.getParent());
+                boolean direct = isColdIngest(digest);
+                FileChannel channel = ingestWriter.open(tempFile, direct);
 
                 log.debug("Saving blob {} to temporary file: {}", digest, tempFile);
 
-                return DataBufferUtils.write(data, tempFile, StandardOpenOption.CREATE_NEW)
+                return ingestWriter.write(ioScheduler.transfer(data, IoPriority.INGEST).doOnNext(verifier::update),
+                                channel, direct, root.getScheduler())
+                        .doOnNext(DataBufferUtils::release)
+                        .then(Mono.defer(() -> ingestWriter.syncFile(channel, tempFile)))
                         .then(Mono.defer(() -> {
-                            try {
-                                Files.move(tempFile, finalPath, StandardCopyOption.ATOMIC_MOVE,
-                                        StandardCopyOption.REPLACE_EXISTING);
-
-                                long size = Files.size(finalPath);
-                                log.info("Successfully saved blob {} ({} bytes)", digest, size);
-
-                                return Mono.just(BlobMetadata.builder()
-                                        .digest(digest)
-                                        .size(size)
-                                        .createdAt(Instant.now())
-                                        .lastAccessedAt(Instant.now())
-                                        .build());
-                            } catch (IOException e) {
-                                log.error("Failed to move blob {} to final location", digest, e);
-                                return Mono.error(new StorageException("Failed to save blob", e));
-                            }
+                            closeChannel(channel);
+                            return commit(digest, tempFile, finalPath, verifier);
                         }))
                         .onErrorResume(error -> {
                             // Clean up temp file on error
-                            try {
-                                Files.deleteIfExists(tempFile);
-                            } catch (IOException e) {
-                                log.warn("Failed to cleanup temp file: {}", tempFile, e);
-                            }
-                            return Mono.error(new StorageException("Failed to save blob", error));
+                            closeChannel(channel);
+                            deleteTempFile(tempFile);
+                            blobPlacement.reportError(root, error);
+                            return Mono.error(error instanceof StorageException
+                                    ? error
+                                    : new StorageException("Failed to save blob", error));
+                        })
+                        .doOnCancel(() -> {
+                            closeChannel(channel);
+                            deleteTempFile(tempFile);
                         });
+            } catch (StorageException e) {
+                return Mono.error(e);
             } catch (Exception e) {
                 return Mono.error(new StorageException("Failed to initialize blob save", e));
             }
-        }).subscribeOn(Schedulers.boundedElastic());
+        }).subscribeOn(blobPlacement.scheduler(digest));
+    }
+
+    @Override
+    public Flux<DataBuffer> saveBlobStreaming(String digest, Flux<DataBuffer> data,
+                                              Consumer<Path> partialFileListener) {
+        return Flux.defer(() -> {
+            StorageRoot root;
+            Path tempFile;
+            Path finalPath;
+            DigestVerifier verifier;
+            FileChannel channel;
+            boolean direct = isColdIngest(digest);
+
+            try {
+                root = blobPlacement.place(digest);
+                tempFile = root.getTempDirectory().resolve(UUID.randomUUID().toString());
+                finalPath = root.resolve(blobRelativePath(digest));
+                verifier = new DigestVerifier(digest);
+                Files.createDirectories(finalPath.getParent());
+                channel = ingestWriter.open(tempFile, direct);
+            } catch (StorageException e) {
+                return Flux.error(e);
+            } catch (IOException e) {
+                return Flux.error(new StorageException("Failed to initialize blob save", e));
+            }
+
+            log.debug("Streaming blob {} through temporary file: {}", digest, tempFile);
+            partialFileListener.accept(tempFile);
+
+            AtomicBoolean committed = new AtomicBoolean(false);
+
+            // The ingest writer emits each buffer (unreleased) once it has been written,
+            // so the same bytes reach the caller and the temp file without an extra copy
+            return ingestWriter.write(ioScheduler.transfer(data, IoPriority.INGEST).doOnNext(verifier::update),
+                            channel, direct, root.getScheduler())
+                    .concatWith(ingestWriter.syncFile(channel, tempFile)
+                            .then(Mono.defer(() -> {
+                                closeChannel(channel);
+                                return commit(digest, tempFile, finalPath, verifier);
+                            }))
+                            .doOnNext(metadata -> committed.set(true))
+                            .then(Mono.<DataBuffer>empty()))
+                    .onErrorMap(error -> !(error instanceof StorageException),
+                            error -> new StorageException("Failed to save blob", error))
+                    .doOnError(error -> blobPlacement.reportError(root, error))
+                    .doFinally(signalType -> {
+                        closeChannel(channel);
+                        if (!committed.get()) {
+                            log.debug("Blob {} stream-through ended with {}, discarding temp file", digest, signalType);
+                            deleteTempFile(tempFile);
+                        }
+                    });
+        }).subscribeOn(blobPlacement.scheduler(digest));
+    }
+
+    /**
+     * Check the content hashed while writing against the digest, then atomically move the temp
+     * file into its content-addressed location, or pack it into a segment if it is small.
+     * A mismatching blob is never committed.
+     * The blob is only indexed once the rename is durable (per the ingest durability mode).
+     */
+    private Mono<BlobMetadata> commit(String digest, Path tempFile, Path finalPath, DigestVerifier verifier) {
+        boolean packed = smallBlobs != null && verifier.getBytes() <= smallBlobThreshold;
+        return Mono.fromCallable(() -> {
+            try {
+                try {
+                    verifier.verify();
+                } catch (StorageException e) {
+                    log.warn("Rejecting blob {}: {}", digest, e.getMessage());
+                    throw e;
+                }
+                if (packed) {
+                    smallBlobs.put(digest, Files.readAllBytes(tempFile));
+                    Files.delete(tempFile);
+                    return true;
+                }
+                boolean verified = markVerified(tempFile, digest);
+
+                Files.move(tempFile, finalPath, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                return verified;
+            } catch (IOException e) {
+                log.error("Failed to move blob {} to final location", digest, e);
+                throw new StorageException("Failed to save blob", e);
+            }
+        })
+                .flatMap(verified -> packed
+                        ? Mono.just(verified)
+                        : ingestWriter.syncDirectory(finalPath.getParent()).thenReturn(verified))
+                .map(verified -> {
+                    long size = verifier.getBytes();
+                    log.info("Successfully saved blob {} ({} bytes, digest verified)", digest, size);
+
+                    long now = System.currentTimeMillis();
+                    BlobIndexEntry entry = new BlobIndexEntry(digest, size, now, now, 0, verified);
+                    blobIndex.put(entry);
+                    eventPublisher.publishEvent(new BlobCommittedEvent(digest, size));
+                    return entry.toMetadata();
+                })
+                .subscribeOn(storageSchedulers.blocking());
+    }
+
+    /**
+     * Record the verified digest in an extended attribute so reads never need to re-hash.
+     * Best effort: filesystems without user xattrs just report the blob as unverified.
+     */
+    private boolean markVerified(Path file, String digest) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return false;
+        }
+        try {
+            view.write(VERIFIED_ATTRIBUTE, StandardCharsets.US_ASCII.encode(digest));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Cannot record verified digest on {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isVerified(Path file, String digest) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return false;
+        }
+        try {
+            ByteBuffer value = ByteBuffer.allocate(view.size(VERIFIED_ATTRIBUTE));
+            view.read(VERIFIED_ATTRIBUTE, value);
+            value.flip();
+            return digest.equals(StandardCharsets.US_ASCII.decode(value).toString());
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private void deleteTempFile(Path tempFile) {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            log.warn("Failed to cleanup temp file: {}", tempFile, e);
+        }
+    }
+
+    private void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close file channel", e);
+        }
     }
 
     @Override
     public Flux<DataBuffer> getBlob(String digest) {
-        return Mono.fromCallable(() -> getBlobPath(digest))
-                .flatMapMany(path -> {
-                    if (!Files.exists(path)) {
+        return ioScheduler.read(latencyMonitor.timeRead(readBlob(digest)), IoPriority.FOREGROUND);
+    }
+
+    @Override
+    public Flux<DataBuffer> getBlob(String digest, long offset, long length) {
+        return ioScheduler.read(latencyMonitor.timeRead(readBlob(digest, offset, length)), IoPriority.FOREGROUND);
+    }
+
+    private Flux<DataBuffer> readBlob(String digest) {
+        if (isPacked(digest)) {
+            return readPacked(digest, 0, Long.MAX_VALUE);
+        }
+        return Mono.fromCallable(() -> locate(digest))
+                .flatMapMany(location -> {
+                    if (!blobIndex.contains(digest)) {
                         return Flux.error(new StorageException("Blob not found: " + digest));
                     }
 
-                    log.debug("Reading blob {} from: {}", digest, path);
+                    log.debug("Reading blob {} from: {}", digest, location.path());
+                    blobIndex.recordAccess(digest);
+                    notifyColdRead(digest, location);
 
-                    return DataBufferUtils.read(path, bufferFactory, chunkSize)
+                    return DataBufferUtils.read(location.path(), blobBuffers.bufferFactory(), chunkSize(digest, -1))
+                            .onErrorMap(NoSuchFileException.class, e -> removedOnDisk(digest, e))
                             .doOnComplete(() -> log.debug("Completed reading blob {}", digest))
-                            .doOnError(error -> log.error("Error reading blob {}", digest, error));
+                            .doOnError(error -> log.error("Error reading blob {}", digest, error))
+                            .doOnError(error -> blobPlacement.reportError(location.root(), error));
                 })
-                .subscribeOn(Schedulers.boundedElastic());
+                .subscribeOn(blobPlacement.scheduler(digest));
     }
 
-    @Override
-    public Flux<DataBuffer> getBlob(String digest, long offset, long length) {
-        return Mono.fromCallable(() -> getBlobPath(digest))
-                .flatMapMany(path -> {
-                    if (!Files.exists(path)) {
+    private Flux<DataBuffer> readBlob(String digest, long offset, long length) {
+        if (isPacked(digest)) {
+            return readPacked(digest, offset, length);
+        }
+        return Mono.fromCallable(() -> locate(digest))
+                .flatMapMany(location -> {
+                    if (!blobIndex.contains(digest)) {
                         return Flux.error(new StorageException("Blob not found: " + digest));
                     }
 
                     log.debug("Reading blob {} range: offset={}, length={}", digest, offset, length);
-
-                    try {
-                        AsynchronousFileChannel channel = AsynchronousFileChannel.open(path,
-                                StandardOpenOption.READ);
-
-                        return DataBufferUtils.readAsynchronousFileChannel(
-                                        () -> channel, offset, bufferFactory, chunkSize)
-                                .take((long) Math.ceil((double) length / chunkSize))
-                                .doFinally(signalType -> {
-                                    try {
-                                        channel.close();
-                                    } catch (IOException e) {
-                                        log.warn("Failed to close file channel", e);
-                                    }
-                                });
-                    } catch (IOException e) {
-                        return Flux.error(new StorageException("Failed to open blob file", e));
+                    if (offset == 0) {
+                        blobIndex.recordAccess(digest);
+                        notifyColdRead(digest, location);
                     }
+
+                    // The channel is closed by DataBufferUtils when the read terminates or is cancelled;
+                    // takeUntilByteCount slices the last chunk so exactly `length` bytes are emitted
+                    Flux<DataBuffer> chunks = DataBufferUtils.readAsynchronousFileChannel(
+                            () -> AsynchronousFileChannel.open(location.path(), StandardOpenOption.READ),
+                            offset, blobBuffers.bufferFactory(), chunkSize(digest, length));
+                    return DataBufferUtils.takeUntilByteCount(chunks, length)
+                            .onErrorMap(NoSuchFileException.class, e -> removedOnDisk(digest, e))
+                            .doOnError(error -> log.error("Error reading blob {} range", digest, error))
+                            .doOnError(error -> blobPlacement.reportError(location.root(), error));
+                })
+                .subscribeOn(blobPlacement.scheduler(digest));
+    }
+
+    @Override
+    public Mono<Path> getBlobFile(String digest) {
+        if (isPacked(digest)) {
+            return Mono.empty();
+        }
+        Mono<Path> path = Mono.fromCallable(() -> locate(digest))
+                .filter(location -> blobIndex.contains(digest))
+                .doOnNext(location -> {
+                    blobIndex.recordAccess(digest);
+                    notifyColdRead(digest, location);
                 })
-                .subscribeOn(Schedulers.boundedElastic());
+                .map(BlobLocation::path);
+        // Locating a blob across several roots stats files, which must not happen on the caller's thread
+        return blobPlacement.getRoots().size() > 1 ? path.subscribeOn(blobPlacement.scheduler(digest)) : path;
+    }
+
+    @Override
+    public StorageException blobFileMissing(String digest, Throwable cause) {
+        return removedOnDisk(digest, cause);
     }
 
     @Override
     public Mono<Boolean> exists(String digest) {
-        return Mono.fromCallable(() -> Files.exists(getBlobPath(digest)))
-                .subscribeOn(Schedulers.boundedElastic());
+        return Mono.fromSupplier(() -> blobIndex.contains(digest));
     }
 
     @Override
     public Mono<BlobMetadata> getMetadata(String digest) {
-        return Mono.fromCallable(() -> {
-            Path path = getBlobPath(digest);
-            if (!Files.exists(path)) {
-                throw new StorageException("Blob not found: " + digest);
-            }
+        return Mono.fromCallable(() -> blobIndex.get(digest)
+                .map(BlobIndexEntry::toMetadata)
+                .orElseThrow(() -> new StorageException("Blob not found: " + digest)));
+    }
+
+    /**
+     * Chunk size for the blob's size class; a range read is sized by the range when it is shorter
+     */
+    private int chunkSize(String digest, long length) {
+        long size = blobIndex.get(digest).map(BlobIndexEntry::getSize).orElse(-1L);
+        return blobBuffers.chunkSize(size >= 0 && length >= 0 ? Math.min(size, length) : size);
+    }
+
+    /**
+     * Whether a blob about to be ingested is a one-off that should bypass the page cache
+     */
+    private boolean isColdIngest(String digest) {
+        return ingestWriter.isDirectIo() && blobFrequency.frequency(digest) < directIoHotFrequency;
+    }
+
+    private boolean isPacked(String digest) {
+        return smallBlobs != null && smallBlobs.contains(digest);
+    }
+
+    /**
+     * Whether the blob is packed or has a file on any root, healthy or not
+     */
+    private boolean isOnDisk(String digest) {
+        if (isPacked(digest)) {
+            return true;
+        }
+        Path relative = blobRelativePath(digest);
+        return blobPlacement.getRoots().stream().anyMatch(root -> Files.exists(root.resolve(relative)));
+    }
+
+    /**
+     * Read [offset, offset + length) of a packed blob: a single positional read of the whole blob
+     */
+    private Flux<DataBuffer> readPacked(String digest, long offset, long length) {
+        return Mono.fromCallable(() -> smallBlobs.get(digest)
+                        .orElseThrow(() -> new StorageException("Blob not found: " + digest)))
+                .flatMapMany(bytes -> {
+                    if (offset == 0) {
+                        blobIndex.recordAccess(digest);
+                    }
+                    int from = (int) Math.min(offset, bytes.length);
+                    int to = (int) Math.min(bytes.length, from + Math.min(length, Integer.MAX_VALUE));
+                    return Flux.just(blobBuffers.bufferFactory().wrap(ByteBuffer.wrap(bytes, from, to - from)));
+                })
+                .subscribeOn(storageSchedulers.blocking());
+    }
 
-            return BlobMetadata.builder()
-                    .digest(digest)
-                    .size(Files.size(path))
-                    .createdAt(Instant.ofEpochMilli(Files.getLastModifiedTime(path).toMillis()))
-                    .lastAccessedAt(Instant.now())
-                    .build();
-        }).subscribeOn(Schedulers.boundedElastic());
+    /**
+     * The index said the blob exists but the file is gone (deleted outside the cache): drop the entry
+     */
+    private StorageException removedOnDisk(String digest, Throwable cause) {
+        log.warn("Blob {} is indexed but missing on disk, removing it from the index", digest);
+        blobIndex.remove(digest);
+        return new StorageException("Blob not found: " + digest, cause);
     }
 
     @Override
     public Mono<Boolean> delete(String digest) {
-        return Mono.fromCallable(() -> {
-            Path path = getBlobPath(digest);
-            boolean deleted = Files.deleteIfExists(path);
+        return ioScheduler.schedule(Mono.fromCallable(() -> {
+            long start = System.nanoTime();
+            Path relative = blobRelativePath(digest);
+            blobIndex.remove(digest);
+            boolean deleted = smallBlobs != null && smallBlobs.delete(digest);
+            // A blob may have copies on several roots if one was unavailable when it was written
+            for (StorageRoot root : blobPlacement.rank(digest)) {
+                deleted |= Files.deleteIfExists(root.resolve(relative));
+            }
+            latencyMonitor.record(StorageLatencyMonitor.Operation.DELETE, System.nanoTime() - start);
             if (deleted) {
                 log.info("Deleted blob: {}", digest);
             }
             return deleted;
-        }).subscribeOn(Schedulers.boundedElastic());
+        }).subscribeOn(blobPlacement.scheduler(digest)), IoPriority.FOREGROUND);
     }
 
     @Override
     public Mono<Long> getTotalSize() {
-        return Mono.fromCallable(() -> {
-            Path blobsPath = Paths.get(basePath, "blobs");
-            if (!Files.exists(blobsPath)) {
-                return 0L;
-            }
-
-            return Files.walk(blobsPath)
-                    .filter(Files::isRegularFile)
-                    .mapToLong(path -> {
-                        try {
-                            return Files.size(path);
-                        } catch (IOException e) {
-                            log.warn("Failed to get size of file: {}", path, e);
-                            return 0L;
-                        }
-                    })
-                    .sum();
-        }).subscribeOn(Schedulers.boundedElastic());
+        return Mono.fromSupplier(() -> blobIndex.getUsage().getBytes());
     }
 
     @Override
     public Mono<Long> getAvailableSpace() {
-        return Mono.fromCallable(() -> {
-            Path path = Paths.get(basePath);
-            return Files.getFileStore(path).getUsableSpace();
-        }).subscribeOn(Schedulers.boundedElastic());
+        return Mono.fromCallable(blobPlacement::getAvailableSpace)
+                .subscribeOn(storageSchedulers.blocking());
+    }
+
+    /**
+     * Find the blob's file: with several roots, the first healthy root in the blob's preference
+     * order that has it (a copy lands elsewhere if its preferred root was down when written)
+     */
+    private BlobLocation locate(String digest) {
+        Path relative = blobRelativePath(digest);
+        List<StorageRoot> ranked = blobPlacement.rank(digest);
+        if (ranked.size() > 1) {
+            for (StorageRoot root : ranked) {
+                Path path = root.resolve(relative);
+                if (Files.exists(path)) {
+                    return new BlobLocation(root, path);
+                }
+            }
+        }
+        StorageRoot root = ranked.getFirst();
+        return new BlobLocation(root, root.resolve(relative));
+    }
+
+    private record BlobLocation(StorageRoot root, Path path) {
+    }
+
+    private record Migration(BlobLocation source, BlobLocation destination, Path tempFile) {
+    }
+
+    private record MigrationChannels(FileChannel source, FileChannel target, long size) {
+
+        static MigrationChannels open(Migration migration) throws IOException {
+            FileChannel source = FileChannel.open(migration.source().path(), StandardOpenOption.READ);
+            try {
+                FileChannel target = FileChannel.open(migration.tempFile(),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                return new MigrationChannels(source, target, source.size());
+            } catch (IOException e) {
+                source.close();
+                throw e;
+            }
+        }
+    }
+
+    private void notifyColdRead(String digest, BlobLocation location) {
+        if (location.root().getTier() == StorageTier.COLD) {
+            eventPublisher.publishEvent(new ColdBlobReadEvent(digest));
+        }
+    }
+
+    /**
+     * The tier holding the blob's file; empty for packed blobs, which never leave the segments,
+     * and blobs not on disk. Stats files, so call it off the event loop.
+     */
+    public Optional<StorageTier> tierOf(String digest) {
+        if (isPacked(digest) || !blobIndex.contains(digest)) {
+            return Optional.empty();
+        }
+        BlobLocation location = locate(digest);
+        return Files.exists(location.path()) ? Optional.of(location.root().getTier()) : Optional.empty();
+    }
+
+    /**
+     * Move a blob's file to its preferred root on another tier. The copy is made durable (per the
+     * ingest durability mode) and renamed into place before the source is deleted, so the blob
+     * stays readable throughout; reads already streaming from the source keep their open file.
+     *
+     * @return true if the blob was moved, false if it is packed, gone or already on that tier
+     */
+    public Mono<Boolean> migrate(String digest, StorageTier target) {
+        Mono<Boolean> migration = Mono.fromCallable(() -> planMigration(digest, target))
+                .flatMap(planned -> planned.isEmpty()
+                        ? Mono.just(false)
+                        : copyPaced(digest, planned.get())
+                                .then(ingestWriter.syncDirectory(planned.get().destination().path().getParent()))
+                                .then(Mono.fromCallable(() -> finishMigration(digest, planned.get()))))
+                .subscribeOn(storageSchedulers.blocking());
+        return ioScheduler.schedule(migration, IoPriority.BACKGROUND);
+    }
+
+    /**
+     * Where a blob moves to, or empty if it is packed, gone or already on the target tier
+     */
+    private Optional<Migration> planMigration(String digest, StorageTier target) throws IOException {
+        Optional<StorageTier> current = tierOf(digest);
+        if (current.isEmpty() || current.get() == target) {
+            return Optional.empty();
+        }
+        BlobLocation source = locate(digest);
+        StorageRoot destination = blobPlacement.rank(digest, target).getFirst();
+        Path finalPath = destination.resolve(blobRelativePath(digest));
+        Path tempFile = destination.getTempDirectory().resolve(UUID.randomUUID().toString());
+        Files.createDirectories(finalPath.getParent());
+        return Optional.of(new Migration(source, new BlobLocation(destination, finalPath), tempFile));
+    }
+
+    /**
+     * Copy the blob into a temp file on the destination in chunks paced to the background bandwidth,
+     * then rename it into place. A migration competes with clients for both disks, so it must not
+     * copy a multi-GB layer in one burst.
+     */
+    private Mono<Void> copyPaced(String digest, Migration migration) {
+        Path tempFile = migration.tempFile();
+        StorageRoot destination = migration.destination().root();
+        AtomicLong position = new AtomicLong();
+
+        return Mono.using(
+                        () -> MigrationChannels.open(migration),
+                        channels -> Mono.fromCallable(() -> {
+                                    long remaining = channels.size() - position.get();
+                                    if (remaining <= 0) {
+                                        return 0L;
+                                    }
+                                    long copied = channels.source().transferTo(position.get(),
+                                            Math.min(remaining, MIGRATION_CHUNK_BYTES), channels.target());
+                                    if (copied <= 0) {
+                                        throw new IOException("Source ended after " + position.get() + " of "
+                                                + channels.size() + " bytes");
+                                    }
+                                    position.addAndGet(copied);
+                                    return copied;
+                                })
+                                // Pacing delays resume on a timer thread; copy on the blocking scheduler
+                                .subscribeOn(storageSchedulers.blocking())
+                                .delayUntil(copied -> ioScheduler.pace(copied, IoPriority.BACKGROUND))
+                                .repeat(() -> position.get() < channels.size())
+                                .publishOn(storageSchedulers.blocking())
+                                .then(Mono.fromCallable(() -> {
+                                    if (ingestWriter.getDurability() != IngestWriter.Durability.NONE) {
+                                        channels.target().force(false);
+                                    }
+                                    return true;
+                                })),
+                        channels -> {
+                            closeChannel(channels.source());
+                            closeChannel(channels.target());
+                        })
+                .then(Mono.fromCallable(() -> {
+                    if (isVerified(migration.source().path(), digest)) {
+                        markVerified(tempFile, digest);
+                    }
+                    Files.move(tempFile, migration.destination().path(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    return true;
+                }))
+                .onErrorMap(error -> {
+                    deleteTempFile(tempFile);
+                    blobPlacement.reportError(destination, error);
+                    return new StorageException("Failed to copy blob " + digest + " to " + destination, error);
+                })
+                .then();
     }
 
-    private Path getBlobPath(String digest) {
+    /**
+     * Drop the source once the rename is durable
+     */
+    private boolean finishMigration(String digest, Migration migration) throws IOException {
+        BlobLocation source = migration.source();
+        BlobLocation destination = migration.destination();
+        Files.deleteIfExists(source.path());
+        if (!blobIndex.contains(digest)) {
+            // Evicted while it was being copied: do not leave an unindexed copy behind
+            Files.deleteIfExists(destination.path());
+            return false;
+        }
+        blobIndex.get(digest).ifPresent(BlobIndexEntry::resetColdHits);
+        log.debug("Moved blob {} from {} to {}", digest, source.root(), destination.root());
+        return true;
+    }
+
+    private Path blobRelativePath(String digest) {
         // Parse digest format: "sha256:abc123..." -> algorithm="sha256", hash="abc123..."
         int colonIndex = digest.indexOf(':');
         if (colonIndex == -1) {
@@ -210,10 +835,6 @@ public class FileSystemBlobStorage implements BlobStorage {
 
         String prefix = hash.substring(0, 2);
 
-        return Paths.get(basePath, "blobs", algorithm, prefix, hash);
-    }
-
-    private Path getTempPath(String tempId) {
-        return Paths.get(tempDir, "downloads", tempId);
+        return Paths.get("blobs", algorithm, prefix, hash);
     }
 }
@@ -1,10 +1,22 @@
 package com.dingdangmaoup.station.storage;
 
+import com.dingdangmaoup.station.storage.index.ImageReferenceGraph;
+import com.dingdangmaoup.station.storage.ingest.IngestWriter;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import com.dingdangmaoup.station.storage.scheduler.IoScheduler;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import com.dingdangmaoup.station.storage.segment.SegmentEntry;
+import com.dingdangmaoup.station.storage.segment.SegmentStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -12,34 +24,180 @@ import java.nio.file.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 /**
- * File-system-based implementation of ManifestStorage
- * Stores manifests in the directory structure:
- *
+ * File-system-based implementation of ManifestStorage.
+ * <p>
+ * Manifests are content-addressed in a {@link SegmentStore} under {@code <basePath>/segments/manifests}:
+ * <ul>
+ *   <li>{@code #manifest/<digest>}: the manifest bytes, stored once however many tags point at them</li>
+ *   <li>{@code #meta/<digest>}: sidecar with the content type</li>
+ *   <li>{@code #ref/<fullName>:<reference>}: pointer from a tag (or a digest pulled through a repository)
+ *   to a manifest digest</li>
+ * </ul>
+ * Pointers and sidecars are loaded into memory at startup, so resolving a tag, HEAD and metadata
+ * lookups need no disk I/O, and a read is a single positional read without rehashing the content.
+ * A manifest is dropped once the last pointer to it is deleted or moved to another digest.
+ * <p>
+ * Manifests left in the legacy one-file-per-reference layout are imported on startup.
  */
 @Slf4j
 @Component
 public class FileSystemManifestStorage implements ManifestStorage {
 
+    // Key namespaces within the segment store
+    private static final String MANIFEST_PREFIX = "#manifest/";
+    private static final String META_PREFIX = "#meta/";
+    private static final String REF_PREFIX = "#ref/";
+    private static final String DEFAULT_CONTENT_TYPE = "application/vnd.docker.distribution.manifest.v2+json";
+    private static final ObjectMapper JSON = new ObjectMapper();
+
     private final String basePath;
+    private final SegmentStore store;
+    private final double compactionMinGarbage;
+    private final ImageReferenceGraph imageGraph;
+    private final StorageSchedulers storageSchedulers;
+    private final IoScheduler ioScheduler;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    // "<fullName>:<reference>" -> digest
+    private final Map<String, String> references = new ConcurrentHashMap<>();
+    // digest -> keys of the references pointing at it
+    private final Map<String, Set<String>> referencedBy = new ConcurrentHashMap<>();
+    // digest -> what the sidecar and the content record say about it
+    private final Map<String, StoredManifest> manifests = new ConcurrentHashMap<>();
+    private final StorageUsage usage = new StorageUsage();
+    // Serializes pointer updates with the garbage collection of unreferenced manifests
+    private final Object writeLock = new Object();
+
+    private record StoredManifest(String contentType, long size, Instant createdAt) {
+    }
 
     public FileSystemManifestStorage(
-            @Value("${station.storage.base-path:/data/station}") String basePath) {
+            @Value("${station.storage.base-path:/data/station}") String basePath,
+            @Value("${station.storage.segments.segment-size:64MB}") DataSize segmentSize,
+            @Value("${station.storage.segments.compaction-min-garbage:0.5}") double compactionMinGarbage,
+            IngestWriter ingestWriter,
+            ImageReferenceGraph imageGraph,
+            StorageSchedulers storageSchedulers,
+            IoScheduler ioScheduler) {
         this.basePath = basePath;
-        initializeDirectories();
+        this.storageSchedulers = storageSchedulers;
+        this.ioScheduler = ioScheduler;
+        this.compactionMinGarbage = compactionMinGarbage;
+        this.imageGraph = imageGraph;
+        this.store = SegmentStore.open(Paths.get(basePath, "segments", "manifests"), segmentSize.toBytes(),
+                ingestWriter.getDurability() != IngestWriter.Durability.NONE);
+        importLegacyManifests();
+        loadIndex();
     }
 
-    private void initializeDirectories() {
-        try {
-            Path manifestsPath = Paths.get(basePath, "manifests");
-            Files.createDirectories(manifestsPath);
-            log.info("Initialized manifest storage at: {}", manifestsPath);
+    /**
+     * Move manifests from the legacy {@code manifests/<fullName>/<reference>.json} files into
+     * the segment store. The reference is recovered from the sanitized file name, which is
+     * lossless for tags and for digests ({@code sha256_abc...}).
+     */
+    private void importLegacyManifests() {
+        Path manifestsPath = Paths.get(basePath, "manifests");
+        if (!Files.isDirectory(manifestsPath)) {
+            return;
+        }
+
+        int imported = 0;
+        try (Stream<Path> files = Files.walk(manifestsPath)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".json")).toList()) {
+                Path relative = manifestsPath.relativize(file);
+                if (relative.getParent() == null) {
+                    continue;
+                }
+                String fullName = relative.getParent().toString().replace(relative.getFileSystem().getSeparator(), "/");
+                String fileName = relative.getFileName().toString();
+                String reference = legacyReference(fileName.substring(0, fileName.length() - ".json".length()));
+
+                if (!store.contains(refKey(fullName, reference))) {
+                    importManifest(fullName, reference, Files.readAllBytes(file));
+                }
+                Files.delete(file);
+                imported++;
+            }
         } catch (IOException e) {
-            log.error("Failed to initialize manifest storage directories", e);
-            throw new StorageException("Failed to initialize manifest storage", e);
+            throw new StorageException("Failed to import legacy manifests", e);
+        }
+
+        if (imported > 0) {
+            log.info("Imported {} manifests from {} into the segment store", imported, manifestsPath);
+        }
+    }
+
+    private void importManifest(String fullName, String reference, byte[] content) {
+        String digest = isDigest(reference) ? reference : calculateDigest(content);
+        if (!store.contains(MANIFEST_PREFIX + digest)) {
+            store.put(MANIFEST_PREFIX + digest, content);
+        }
+        if (!store.contains(META_PREFIX + digest)) {
+            store.put(META_PREFIX + digest, detectContentType(content).getBytes(StandardCharsets.UTF_8));
+        }
+        store.put(refKey(fullName, reference), digest.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Load sidecars and pointers into memory. Records left behind by a crash between the writes
+     * of a save or a delete (pointers to missing manifests, manifests nothing points to) are dropped.
+     */
+    private void loadIndex() {
+        List<String> keys = List.copyOf(store.keys());
+        for (String key : keys) {
+            if (!key.startsWith(META_PREFIX)) {
+                continue;
+            }
+            String digest = key.substring(META_PREFIX.length());
+            Optional<SegmentEntry> content = store.entry(MANIFEST_PREFIX + digest);
+            Optional<byte[]> sidecar = store.get(key);
+            if (content.isPresent() && sidecar.isPresent()) {
+                manifests.put(digest, new StoredManifest(new String(sidecar.get(), StandardCharsets.UTF_8),
+                        content.get().length(), Instant.ofEpochMilli(content.get().timestamp())));
+            }
+        }
+        for (String key : keys) {
+            if (!key.startsWith(REF_PREFIX)) {
+                continue;
+            }
+            Optional<byte[]> pointer = store.get(key);
+            String digest = pointer.map(value -> new String(value, StandardCharsets.UTF_8)).orElse(null);
+            if (digest != null && manifests.containsKey(digest)) {
+                link(key.substring(REF_PREFIX.length()), digest);
+            } else {
+                store.delete(key);
+            }
+        }
+
+        List<String> unreferenced = new ArrayList<>(manifests.keySet());
+        unreferenced.removeIf(referencedBy::containsKey);
+        unreferenced.forEach(this::dropManifest);
+        for (String key : keys) {
+            if (key.startsWith(MANIFEST_PREFIX) && !manifests.containsKey(key.substring(MANIFEST_PREFIX.length()))) {
+                store.delete(key);
+            } else if (key.startsWith(META_PREFIX) && !manifests.containsKey(key.substring(META_PREFIX.length()))) {
+                store.delete(key);
+            }
+        }
+        recalculateUsage();
+
+        // One more read per manifest, to parse the blobs it references
+        manifests.forEach((digest, manifest) -> store.get(MANIFEST_PREFIX + digest)
+                .ifPresent(content -> imageGraph.addManifest(digest, content, manifest.createdAt().toEpochMilli())));
+
+        if (!manifests.isEmpty()) {
+            log.info("Loaded manifest index: {} manifests, {} references", manifests.size(), references.size());
         }
     }
 
@@ -47,160 +205,335 @@ public class FileSystemManifestStorage implements ManifestStorage {
     public Mono<ManifestMetadata> saveManifest(String fullName, String reference, String content,
                                                String digest, String contentType) {
         return Mono.fromCallable(() -> {
-            Path manifestPath = getManifestPath(fullName, reference);
-
-            Files.createDirectories(manifestPath.getParent());
-
             byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
-            Files.write(manifestPath, contentBytes,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            String manifestDigest = digest != null ? digest : calculateDigest(contentBytes);
+            String type = contentType != null ? contentType : detectContentType(contentBytes);
+
+            StoredManifest manifest;
+            synchronized (writeLock) {
+                manifest = manifests.get(manifestDigest);
+                if (manifest == null) {
+                    // Content and sidecar go first, so a pointer never refers to a missing manifest
+                    SegmentEntry entry = store.put(MANIFEST_PREFIX + manifestDigest, contentBytes);
+                    store.put(META_PREFIX + manifestDigest, type.getBytes(StandardCharsets.UTF_8));
+                    manifest = new StoredManifest(type, contentBytes.length, Instant.ofEpochMilli(entry.timestamp()));
+                    manifests.put(manifestDigest, manifest);
+                    imageGraph.addManifest(manifestDigest, contentBytes, entry.timestamp());
+                    usage.added(contentBytes.length);
+                }
+
+                String key = key(fullName, reference);
+                String previous = references.get(key);
+                if (!manifestDigest.equals(previous)) {
+                    store.put(REF_PREFIX + key, manifestDigest.getBytes(StandardCharsets.UTF_8));
+                    link(key, manifestDigest);
+                    if (previous != null) {
+                        unlink(key, previous);
+                        dropIfUnreferenced(previous);
+                    }
+                }
+            }
 
-            long size = contentBytes.length;
-            log.info("Saved manifest {}:{} to {} ({} bytes)", fullName, reference, manifestPath, size);
+            log.info("Saved manifest {}:{} -> {} ({} bytes)", fullName, reference, manifestDigest, manifest.size());
 
             return ManifestMetadata.builder()
                     .fullName(fullName)
                     .reference(reference)
-                    .digest(digest)
-                    .contentType(contentType)
-                    .size(size)
-                    .createdAt(Instant.now())
+                    .digest(manifestDigest)
+                    .contentType(manifest.contentType())
+                    .size(manifest.size())
+                    .createdAt(manifest.createdAt())
                     .lastAccessedAt(Instant.now())
                     .build();
-        }).subscribeOn(Schedulers.boundedElastic())
+        }).subscribeOn(storageSchedulers.blocking())
                 .onErrorMap(e -> new StorageException("Failed to save manifest", e));
     }
 
     @Override
     public Mono<Optional<ManifestData>> getManifest(String fullName, String reference) {
         return Mono.fromCallable(() -> {
-            Path manifestPath = getManifestPath(fullName, reference);
-
-            if (!Files.exists(manifestPath)) {
+            String digest = references.get(key(fullName, reference));
+            StoredManifest manifest = digest != null ? manifests.get(digest) : null;
+            Optional<byte[]> stored = manifest != null ? store.get(MANIFEST_PREFIX + digest) : Optional.empty();
+            if (stored.isEmpty()) {
                 log.debug("Manifest not found: {}:{}", fullName, reference);
                 return Optional.<ManifestData>empty();
             }
 
-            byte[] contentBytes = Files.readAllBytes(manifestPath);
-            String content = new String(contentBytes, StandardCharsets.UTF_8);
-
-            String digest = calculateDigest(contentBytes);
-
-            log.debug("Read manifest {}:{} from {} ({} bytes)",
-                    fullName, reference, manifestPath, contentBytes.length);
+            byte[] contentBytes = stored.get();
+            imageGraph.recordAccess(digest);
+            log.debug("Read manifest {}:{} ({} bytes)", fullName, reference, contentBytes.length);
 
             return Optional.of(ManifestData.builder()
                     .fullName(fullName)
                     .reference(reference)
-                    .content(content)
+                    .content(new String(contentBytes, StandardCharsets.UTF_8))
                     .digest(digest)
+                    .contentType(manifest.contentType())
                     .size((long) contentBytes.length)
                     .build());
-        }).subscribeOn(Schedulers.boundedElastic())
+        }).subscribeOn(storageSchedulers.blocking())
                 .onErrorMap(e -> new StorageException("Failed to read manifest", e));
     }
 
     @Override
     public Mono<Boolean> exists(String fullName, String reference) {
-        return Mono.fromCallable(() ->
-                Files.exists(getManifestPath(fullName, reference))
-        ).subscribeOn(Schedulers.boundedElastic());
+        return Mono.fromSupplier(() -> references.containsKey(key(fullName, reference)));
     }
 
     @Override
     public Mono<ManifestMetadata> getMetadata(String fullName, String reference) {
         return Mono.fromCallable(() -> {
-            Path manifestPath = getManifestPath(fullName, reference);
-
-            if (!Files.exists(manifestPath)) {
+            String digest = references.get(key(fullName, reference));
+            StoredManifest manifest = digest != null ? manifests.get(digest) : null;
+            if (manifest == null) {
                 throw new StorageException("Manifest not found: " + fullName + ":" + reference);
             }
 
-            long size = Files.size(manifestPath);
-            Instant lastModified = Instant.ofEpochMilli(
-                    Files.getLastModifiedTime(manifestPath).toMillis());
-
             return ManifestMetadata.builder()
                     .fullName(fullName)
                     .reference(reference)
-                    .size(size)
-                    .createdAt(lastModified)
+                    .digest(digest)
+                    .contentType(manifest.contentType())
+                    .size(manifest.size())
+                    .createdAt(manifest.createdAt())
                     .lastAccessedAt(Instant.now())
                     .build();
-        }).subscribeOn(Schedulers.boundedElastic())
-                .onErrorMap(e -> new StorageException("Failed to get manifest metadata", e));
+        }).onErrorMap(e -> !(e instanceof StorageException),
+                e -> new StorageException("Failed to get manifest metadata", e));
     }
 
+    /**
+     * Delete a reference; the manifest itself goes with its last reference
+     */
     @Override
     public Mono<Boolean> delete(String fullName, String reference) {
         return Mono.fromCallable(() -> {
-            Path manifestPath = getManifestPath(fullName, reference);
-            boolean deleted = Files.deleteIfExists(manifestPath);
-
-            if (deleted) {
-                log.info("Deleted manifest: {}:{}", fullName, reference);
+            String key = key(fullName, reference);
+            synchronized (writeLock) {
+                String digest = references.remove(key);
+                if (digest == null) {
+                    return false;
+                }
+                unlink(key, digest);
+                store.delete(REF_PREFIX + key);
+                dropIfUnreferenced(digest);
             }
-
-            return deleted;
-        }).subscribeOn(Schedulers.boundedElastic())
+            log.info("Deleted manifest: {}:{}", fullName, reference);
+            return true;
+        }).subscribeOn(storageSchedulers.blocking())
                 .onErrorMap(e -> new StorageException("Failed to delete manifest", e));
     }
 
     @Override
     public Mono<Long> getCount() {
-        return Mono.fromCallable(() -> {
-            Path manifestsPath = Paths.get(basePath, "manifests");
-            if (!Files.exists(manifestsPath)) {
-                return 0L;
-            }
-
-            return Files.walk(manifestsPath)
-                    .filter(path -> path.toString().endsWith(".json"))
-                    .count();
-        }).subscribeOn(Schedulers.boundedElastic())
-                .onErrorReturn(0L);
+        return Mono.fromSupplier(usage::getCount);
     }
 
     @Override
     public Mono<Long> getTotalSize() {
+        return Mono.fromSupplier(usage::getBytes);
+    }
+
+    /**
+     * Repositories a manifest is cached under: those with a tag or digest reference to it, and
+     * those of the manifest lists that include it
+     */
+    public Set<String> repositories(String digest) {
+        Set<String> repositories = new HashSet<>();
+        collectRepositories(digest, repositories, 0);
+        return repositories;
+    }
+
+    private void collectRepositories(String digest, Set<String> repositories, int depth) {
+        Set<String> keys = referencedBy.get(digest);
+        if (keys != null) {
+            for (String key : keys) {
+                repositories.add(key.substring(0, key.indexOf(':')));
+            }
+        }
+        // Lists only nest one level in practice; the bound guards against malformed cycles
+        if (depth < 2) {
+            for (String parent : imageGraph.referrers(digest)) {
+                collectRepositories(parent, repositories, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Evict a manifest with every reference pointing at it. Manifest lists and indexes left
+     * without any stored child manifest go with it.
+     *
+     * @return bytes freed
+     */
+    public Mono<Long> evictManifest(String digest) {
         return Mono.fromCallable(() -> {
-            Path manifestsPath = Paths.get(basePath, "manifests");
-            if (!Files.exists(manifestsPath)) {
-                return 0L;
-            }
-
-            return Files.walk(manifestsPath)
-                    .filter(path -> path.toString().endsWith(".json"))
-                    .mapToLong(path -> {
-                        try {
-                            return Files.size(path);
-                        } catch (IOException e) {
-                            log.warn("Failed to get size of file: {}", path, e);
-                            return 0L;
-                        }
-                    })
-                    .sum();
-        }).subscribeOn(Schedulers.boundedElastic())
-                .onErrorReturn(0L);
+            synchronized (writeLock) {
+                return evictLocked(digest);
+            }
+        }).subscribeOn(storageSchedulers.blocking())
+                .onErrorMap(e -> new StorageException("Failed to evict manifest " + digest, e));
     }
 
     /**
-     * Get the file path for a manifest
-     * Format: /basePath/manifests/{namespace}/{name}/{reference}.json
-     * Example: /data/station/manifests/library/nginx/latest.json
-     * Example: /data/station/manifests/library/nginx/sha256_abc123.json (when reference is a digest)
+     * Running count and bytes of unique manifests, maintained on save and delete
      */
-    private Path getManifestPath(String fullName, String reference) {
-        String safeReference = sanitizeFilename(reference);
-        return Paths.get(basePath, "manifests", fullName, safeReference + ".json");
+    public StorageUsage getUsage() {
+        return usage;
     }
 
     /**
-     * Sanitize filename to remove potentially dangerous characters
+     * Reset the usage counters from the in-memory index. Nothing needs scanning since the
+     * index is rebuilt from the segments themselves.
      */
-    private String sanitizeFilename(String filename) {
-        return filename.replaceAll("[^a-zA-Z0-9._-]", "_");
+    public void reconcileUsage() {
+        recalculateUsage();
+    }
+
+    /**
+     * Reclaim segments that are mostly overwritten or deleted records. Each rewrite is background
+     * I/O paced to the background bandwidth, on the blocking pool rather than the scheduler thread.
+     */
+    @Scheduled(fixedDelayString = "${station.storage.segments.compaction-interval:10m}",
+            initialDelayString = "${station.storage.segments.compaction-interval:10m}")
+    public void compactSegments() {
+        if (!compacting.compareAndSet(false, true)) {
+            log.debug("Manifest segment compaction already running");
+            return;
+        }
+        Flux.fromIterable(store.compactionCandidates(compactionMinGarbage))
+                .concatMap(segmentId -> ioScheduler.schedule(
+                                Mono.fromCallable(() -> store.compactSegment(segmentId))
+                                        .subscribeOn(storageSchedulers.blocking()),
+                                IoPriority.BACKGROUND)
+                        .delayUntil(scanned -> ioScheduler.pace(Math.max(scanned, 0), IoPriority.BACKGROUND)))
+                .filter(scanned -> scanned >= 0)
+                .count()
+                .doFinally(signal -> compacting.set(false))
+                .subscribe(
+                        compacted -> {
+                            if (compacted > 0) {
+                                log.info("Compacted {} manifest segments", compacted);
+                            }
+                        },
+                        error -> log.error("Manifest segment compaction failed", error));
+    }
+
+    @PreDestroy
+    public void close() {
+        store.close();
+    }
+
+    private long evictLocked(String digest) {
+        StoredManifest manifest = manifests.get(digest);
+        if (manifest == null) {
+            return 0;
+        }
+        Set<String> parents = imageGraph.referrers(digest);
+
+        Set<String> keys = Optional.ofNullable(referencedBy.remove(digest)).map(Set::copyOf).orElse(Set.of());
+        for (String key : keys) {
+            references.remove(key);
+            store.delete(REF_PREFIX + key);
+        }
+        dropManifest(digest);
+        log.info("Evicted manifest {} ({} references)", digest, keys.size());
+
+        long freed = manifest.size();
+        for (String parent : parents) {
+            if (imageGraph.children(parent).stream().noneMatch(manifests::containsKey)) {
+                freed += evictLocked(parent);
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Drop a manifest no reference points to anymore. Caller holds the write lock.
+     */
+    private void dropIfUnreferenced(String digest) {
+        if (!referencedBy.containsKey(digest)) {
+            dropManifest(digest);
+        }
+    }
+
+    private void link(String key, String digest) {
+        references.put(key, digest);
+        referencedBy.computeIfAbsent(digest, d -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    private void unlink(String key, String digest) {
+        referencedBy.computeIfPresent(digest, (d, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private void dropManifest(String digest) {
+        StoredManifest manifest = manifests.remove(digest);
+        // Sidecar before content: the reverse of the save order
+        store.delete(META_PREFIX + digest);
+        store.delete(MANIFEST_PREFIX + digest);
+        imageGraph.removeManifest(digest);
+        if (manifest != null) {
+            usage.removed(manifest.size());
+            log.debug("Dropped unreferenced manifest {}", digest);
+        }
+    }
+
+    private void recalculateUsage() {
+        // Saves and drops update the counters under the write lock
+        synchronized (writeLock) {
+            long bytes = 0;
+            for (StoredManifest manifest : manifests.values()) {
+                bytes += manifest.size();
+            }
+            usage.reset(manifests.size(), bytes);
+        }
+    }
+
+    /**
+     * Index key of a reference, e.g. {@code library/nginx:latest} or
+     * {@code library/nginx:sha256:abc123...}. Repository names cannot contain ':'.
+     */
+    private static String key(String fullName, String reference) {
+        return fullName + ":" + reference;
+    }
+
+    private static String refKey(String fullName, String reference) {
+        return REF_PREFIX + key(fullName, reference);
+    }
+
+    private static boolean isDigest(String reference) {
+        return reference.matches("sha(256|384|512):[0-9a-f]+");
+    }
+
+    /**
+     * Reverse the legacy file name sanitization for digest references ({@code sha256_abc} -> {@code sha256:abc});
+     * tags only consist of characters the sanitization kept
+     */
+    private static String legacyReference(String safeReference) {
+        int underscore = safeReference.indexOf('_');
+        if (underscore > 0 && safeReference.substring(0, underscore).matches("sha(256|384|512)")) {
+            return safeReference.substring(0, underscore) + ":" + safeReference.substring(underscore + 1);
+        }
+        return safeReference;
+    }
+
+    /**
+     * Content type of a manifest stored without one: its {@code mediaType} field, which every
+     * schema 2 manifest and list carries, falling back to the schema 2 image manifest type
+     */
+    private static String detectContentType(byte[] content) {
+        try {
+            JsonNode mediaType = JSON.readTree(content).get("mediaType");
+            if (mediaType != null && mediaType.isTextual() && !mediaType.asText().isBlank()) {
+                return mediaType.asText();
+            }
+        } catch (IOException e) {
+            log.debug("Manifest is not valid JSON, assuming {}", DEFAULT_CONTENT_TYPE);
+        }
+        return DEFAULT_CONTENT_TYPE;
     }
 
     /**
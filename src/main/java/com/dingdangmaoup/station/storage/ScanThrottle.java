@@ -0,0 +1,40 @@
+package com.dingdangmaoup.station.storage;
+
+/**
+ * Limits a background directory scan to a number of files per second, so reconciling
+ * millions of files does not compete with request I/O. Not thread-safe: one per scan.
+ */
+public class ScanThrottle {
+
+    private final int filesPerSecond;
+    private long windowStart = System.currentTimeMillis();
+    private int inWindow;
+
+    public ScanThrottle(int filesPerSecond) {
+        this.filesPerSecond = filesPerSecond;
+    }
+
+    public static ScanThrottle unlimited() {
+        return new ScanThrottle(0);
+    }
+
+    /**
+     * Account for one file, sleeping if the current second's budget is used up
+     */
+    public void acquire() {
+        if (filesPerSecond <= 0 || ++inWindow < filesPerSecond) {
+            return;
+        }
+
+        long elapsed = System.currentTimeMillis() - windowStart;
+        if (elapsed < 1000) {
+            try {
+                Thread.sleep(1000 - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        windowStart = System.currentTimeMillis();
+        inWindow = 0;
+    }
+}
@@ -0,0 +1,79 @@
+package com.dingdangmaoup.station.storage;
+
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically re-scans storage to correct drift in the incrementally maintained counters
+ * (and the blob index) caused by crashes or files changed outside the cache.
+ * The scan is throttled and runs on the blocking pool, never on the scheduler thread.
+ */
+@Slf4j
+@Component
+public class StorageReconciler {
+
+    private final FileSystemBlobStorage blobStorage;
+    private final FileSystemManifestStorage manifestStorage;
+    private final StorageSchedulers storageSchedulers;
+    private final int filesPerSecond;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public StorageReconciler(
+            FileSystemBlobStorage blobStorage,
+            FileSystemManifestStorage manifestStorage,
+            StorageSchedulers storageSchedulers,
+            @Value("${station.storage.reconcile.files-per-second:5000}") int filesPerSecond) {
+        this.blobStorage = blobStorage;
+        this.manifestStorage = manifestStorage;
+        this.storageSchedulers = storageSchedulers;
+        this.filesPerSecond = filesPerSecond;
+    }
+
+    /**
+     * Manifest counters start at zero; count them once the application is up
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        reconcile();
+    }
+
+    @Scheduled(fixedDelayString = "${station.storage.reconcile.interval:6h}",
+            initialDelayString = "${station.storage.reconcile.interval:6h}")
+    public void scheduledReconcile() {
+        reconcile();
+    }
+
+    public void reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            log.debug("Storage reconcile already running");
+            return;
+        }
+
+        Mono.fromRunnable(this::runReconcile)
+                .subscribeOn(storageSchedulers.blocking())
+                .doFinally(signal -> running.set(false))
+                .subscribe(
+                        v -> { },
+                        error -> log.error("Storage reconcile failed", error));
+    }
+
+    private void runReconcile() {
+        long start = System.currentTimeMillis();
+
+        manifestStorage.reconcileUsage();
+        int corrected = blobStorage.reconcileIndex(new ScanThrottle(filesPerSecond));
+
+        log.info("Storage reconcile completed in {} ms: {} blob index entries corrected, "
+                        + "{} manifests ({} bytes)",
+                System.currentTimeMillis() - start, corrected,
+                manifestStorage.getUsage().getCount(), manifestStorage.getUsage().getBytes());
+    }
+}
@@ -0,0 +1,43 @@
+package com.dingdangmaoup.station.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running object and byte counters for a store, updated on save and delete
+ * and periodically corrected by {@link StorageReconciler}
+ */
+public class StorageUsage {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void added(long size) {
+        count.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    public void removed(long size) {
+        count.decrementAndGet();
+        bytes.addAndGet(-size);
+    }
+
+    public void replaced(long oldSize, long newSize) {
+        bytes.addAndGet(newSize - oldSize);
+    }
+
+    /**
+     * Overwrite the counters with the result of a full scan
+     */
+    public void reset(long count, long bytes) {
+        this.count.set(count);
+        this.bytes.set(bytes);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
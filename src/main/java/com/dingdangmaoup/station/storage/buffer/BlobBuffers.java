@@ -0,0 +1,140 @@
+package com.dingdangmaoup.station.storage.buffer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers for blob data read from disk or received from peers.
+ * <p>
+ * Chunks are allocated from Netty's shared allocator ({@code ByteBufAllocator.DEFAULT}, pooled or
+ * adaptive depending on the Netty version), the one the HTTP server writes responses with, so a
+ * chunk read from disk is already a pooled direct buffer: no heap allocation per chunk and no copy
+ * into a direct buffer when it is written to the socket. Pooled buffers must be released; the
+ * response writer does that for everything it sends, any other consumer has to release (and
+ * release on discard) itself.
+ * <p>
+ * The chunk size depends on the size of the blob: small blobs are read in small chunks so they do
+ * not pin large pool runs, large layers in large chunks to cut per-chunk overhead.
+ */
+@Slf4j
+@Component
+public class BlobBuffers {
+
+    /**
+     * Largest chunk worth allocating from the pool: the pooled allocator's chunk size with its default
+     * settings. Larger allocations are served unpooled by either allocator.
+     */
+    static final int MAX_POOLED_CHUNK = PooledByteBufAllocator.defaultPageSize() << PooledByteBufAllocator.defaultMaxOrder();
+
+    private final DataBufferFactory bufferFactory;
+    private final boolean pooled;
+    private final long smallBlobThreshold;
+    private final int smallChunkSize;
+    private final int chunkSize;
+    private final long largeBlobThreshold;
+    private final int largeChunkSize;
+
+    public BlobBuffers(
+            MeterRegistry meterRegistry,
+            @Value("${station.storage.buffers.pooled:true}") boolean pooled,
+            @Value("${station.storage.blob-chunk-size:65536}") int chunkSize,
+            @Value("${station.storage.buffers.small-blob-threshold:1MB}") DataSize smallBlobThreshold,
+            @Value("${station.storage.buffers.small-chunk-size:16KB}") DataSize smallChunkSize,
+            @Value("${station.storage.buffers.large-blob-threshold:64MB}") DataSize largeBlobThreshold,
+            @Value("${station.storage.buffers.large-chunk-size:1MB}") DataSize largeChunkSize) {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        this.pooled = pooled;
+        this.bufferFactory = pooled
+                ? new NettyDataBufferFactory(allocator)
+                : DefaultDataBufferFactory.sharedInstance;
+
+        int maxPooled = pooled ? MAX_POOLED_CHUNK : Integer.MAX_VALUE;
+        this.chunkSize = capped("station.storage.blob-chunk-size", chunkSize, maxPooled);
+        this.smallChunkSize = capped("station.storage.buffers.small-chunk-size",
+                (int) smallChunkSize.toBytes(), maxPooled);
+        this.largeChunkSize = capped("station.storage.buffers.large-chunk-size",
+                (int) largeChunkSize.toBytes(), maxPooled);
+        this.smallBlobThreshold = smallBlobThreshold.toBytes();
+        this.largeBlobThreshold = largeBlobThreshold.toBytes();
+
+        if (allocator instanceof ByteBufAllocatorMetricProvider provider) {
+            ByteBufAllocatorMetric metric = provider.metric();
+            Gauge.builder("station.buffers.direct.bytes", metric, ByteBufAllocatorMetric::usedDirectMemory)
+                    .description("Direct memory held by the shared Netty buffer pool")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            Gauge.builder("station.buffers.heap.bytes", metric, ByteBufAllocatorMetric::usedHeapMemory)
+                    .description("Heap memory held by the shared Netty buffer pool")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+
+        log.info("Blob buffers: {}, chunks {} / {} / {} bytes for blobs below {} / below {} / larger",
+                pooled ? allocator.getClass().getSimpleName() : "unpooled heap", this.smallChunkSize, this.chunkSize,
+                this.largeChunkSize, smallBlobThreshold, largeBlobThreshold);
+    }
+
+    public DataBufferFactory bufferFactory() {
+        return bufferFactory;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * Chunk size used when the blob size is unknown
+     */
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Chunk size for reading a blob (or range) of the given size
+     */
+    public int chunkSize(long blobSize) {
+        if (blobSize < 0) {
+            return chunkSize;
+        }
+        if (blobSize < smallBlobThreshold) {
+            // No point in allocating more than the blob itself
+            return (int) Math.max(1, Math.min(smallChunkSize, blobSize));
+        }
+        return blobSize >= largeBlobThreshold ? largeChunkSize : chunkSize;
+    }
+
+    /**
+     * Copy bytes into a buffer from the pool; the caller owns the returned buffer and must release it
+     */
+    public DataBuffer copyOf(ByteBuffer bytes) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(bytes.remaining());
+        buffer.write(bytes);
+        return buffer;
+    }
+
+    /**
+     * Larger allocations than a pool chunk bypass the pool entirely, which would defeat it
+     */
+    private static int capped(String name, int size, int maxPooled) {
+        if (size > maxPooled) {
+            log.warn("{} of {} bytes exceeds the buffer pool chunk size, using {} bytes",
+                    name, size, maxPooled);
+            return maxPooled;
+        }
+        return Math.max(1, size);
+    }
+}
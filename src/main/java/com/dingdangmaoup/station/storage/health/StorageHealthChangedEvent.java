@@ -0,0 +1,7 @@
+package com.dingdangmaoup.station.storage.health;
+
+/**
+ * Published when local storage becomes degraded or recovers
+ */
+public record StorageHealthChangedEvent(boolean degraded) {
+}
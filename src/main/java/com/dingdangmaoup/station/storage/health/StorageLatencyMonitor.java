@@ -0,0 +1,138 @@
+package com.dingdangmaoup.station.storage.health;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks how long local storage operations take and flags the node as degraded when reads slow down.
+ * <p>
+ * Every operation is timed ({@code station.storage.latency}, tagged by operation); reads are timed
+ * to their first byte, which is where a slow disk shows. A moving average of read latency above
+ * {@code read-latency-threshold} marks storage degraded: reads of blobs peers also hold are served
+ * from those peers, background I/O is shed and the health check reports {@code DEGRADED}.
+ * <p>
+ * Works like a circuit breaker: once degraded, local reads mostly stop, so after {@code cooldown}
+ * the state is cleared and reads go local again; if the disk is still slow the next
+ * {@code min-samples} reads degrade it again.
+ */
+@Slf4j
+@Component
+public class StorageLatencyMonitor {
+
+    private static final double ALPHA = 0.2;
+
+    public enum Operation {
+        READ,
+        DELETE
+    }
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final long thresholdNanos;
+    private final int minSamples;
+    private final long cooldownNanos;
+    private final Map<Operation, Timer> timers = new EnumMap<>(Operation.class);
+    private final AtomicBoolean degraded = new AtomicBoolean(false);
+    private volatile long degradedSince;
+    // Moving average of read latency and the samples it is based on, guarded by this
+    private double readAverageNanos;
+    private int readSamples;
+
+    public StorageLatencyMonitor(
+            ApplicationEventPublisher eventPublisher,
+            MeterRegistry meterRegistry,
+            @Value("${station.storage.degraded.read-latency-threshold:250ms}") Duration readLatencyThreshold,
+            @Value("${station.storage.degraded.min-samples:20}") int minSamples,
+            @Value("${station.storage.degraded.cooldown:30s}") Duration cooldown) {
+        this.eventPublisher = eventPublisher;
+        this.thresholdNanos = readLatencyThreshold.toNanos();
+        this.minSamples = Math.max(1, minSamples);
+        this.cooldownNanos = cooldown.toNanos();
+
+        for (Operation operation : Operation.values()) {
+            timers.put(operation, Timer.builder("station.storage.latency")
+                    .tag("operation", operation.name().toLowerCase())
+                    .description("Local storage operation latency; reads to their first byte")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("station.storage.degraded", degraded, flag -> flag.get() ? 1 : 0)
+                .description("Whether local storage is degraded and reads are offloaded to peers")
+                .register(meterRegistry);
+    }
+
+    public boolean isDegraded() {
+        return degraded.get();
+    }
+
+    /**
+     * Moving average of read latency to first byte
+     */
+    public synchronized Duration getReadLatency() {
+        return Duration.ofNanos((long) readAverageNanos);
+    }
+
+    public void record(Operation operation, long nanos) {
+        timers.get(operation).record(nanos, TimeUnit.NANOSECONDS);
+        if (operation != Operation.READ) {
+            return;
+        }
+        boolean exceeded;
+        synchronized (this) {
+            readAverageNanos = readSamples == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * readAverageNanos;
+            readSamples++;
+            exceeded = readSamples >= minSamples && readAverageNanos > thresholdNanos;
+        }
+        if (exceeded && degraded.compareAndSet(false, true)) {
+            degradedSince = System.nanoTime();
+            log.warn("Storage degraded: read latency {} ms above {} ms, offloading reads to peers",
+                    TimeUnit.NANOSECONDS.toMillis((long) readAverageNanos), TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+            eventPublisher.publishEvent(new StorageHealthChangedEvent(true));
+        }
+    }
+
+    /**
+     * Time a read to its first buffer
+     */
+    public <T> Flux<T> timeRead(Flux<T> read) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return read.doOnNext(item -> {
+                if (first.compareAndSet(true, false)) {
+                    record(Operation.READ, System.nanoTime() - start);
+                }
+            });
+        });
+    }
+
+    /**
+     * Clear a degraded state that has lasted the cooldown, letting reads probe the disk again
+     */
+    @Scheduled(fixedDelayString = "${station.storage.degraded.check-interval:5s}")
+    public void checkCooldown() {
+        if (!degraded.get() || System.nanoTime() - degradedSince < cooldownNanos) {
+            return;
+        }
+        synchronized (this) {
+            readAverageNanos = 0;
+            readSamples = 0;
+        }
+        if (degraded.compareAndSet(true, false)) {
+            log.info("Storage degraded state cleared after cooldown, serving reads locally again");
+            eventPublisher.publishEvent(new StorageHealthChangedEvent(false));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.dingdangmaoup.station.storage.index;
+
+import com.dingdangmaoup.station.cache.eviction.policy.TinyLfuAdmission;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recent request frequency of every blob, stored or not, in one TinyLFU sketch.
+ * <p>
+ * Counts reads and commits of indexed blobs, plus requests for blobs that are not stored yet,
+ * so a blob evicted and fetched again comes back with its history. Eviction admission uses it
+ * to pick between a new blob and a resident one, ingest to tell hot downloads from one-off pulls.
+ */
+@Component
+public class BlobFrequency {
+
+    private final TinyLfuAdmission sketch;
+
+    public BlobFrequency(BlobIndex blobIndex,
+                         @Value("${station.eviction.sketch-capacity:100000}") int sketchCapacity) {
+        this.sketch = new TinyLfuAdmission(sketchCapacity);
+        blobIndex.addAccessListener(entry -> sketch.increment(entry.getDigest()));
+    }
+
+    /**
+     * Count a request for a blob that is not served from storage, e.g. a cache miss
+     */
+    public void recordRequest(String digest) {
+        sketch.increment(digest);
+    }
+
+    /**
+     * Estimated recent requests, saturating at 15
+     */
+    public int frequency(String digest) {
+        return sketch.frequency(digest);
+    }
+
+    /**
+     * Whether the candidate is worth keeping over the victim
+     */
+    public boolean admit(String candidate, String victim) {
+        return sketch.admit(candidate, victim);
+    }
+}
@@ -0,0 +1,408 @@
+package com.dingdangmaoup.station.storage.index;
+
+import com.dingdangmaoup.station.storage.StorageUsage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Memory-resident index of stored blobs: digest to size, creation time, last access, hit count
+ * and verified flag. Existence and metadata lookups, and eviction ordering, are served from
+ * here instead of stat calls on the blocking pool.
+ * <p>
+ * Persistence is a periodic snapshot plus an append-only log of adds and removes since the
+ * last snapshot. Access times and hit counts are only persisted with snapshots; losing a few
+ * minutes of them in a crash is harmless. A snapshot rotates the log and then writes the index
+ * without holding up puts and removes; the rotated log is kept until the snapshot is in place.
+ */
+@Slf4j
+@Component
+public class BlobIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x53424958; // "SBIX"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final byte OP_ADD = 'A';
+    private static final byte OP_REMOVE = 'D';
+
+    private final Map<String, BlobIndexEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final StorageUsage usage = new StorageUsage();
+    // Dense array of entries for O(1) random sampling by eviction policies; guarded by itself
+    private final List<BlobIndexEntry> slots = new ArrayList<>();
+    private final List<Consumer<BlobIndexEntry>> accessListeners = new CopyOnWriteArrayList<>();
+    private final Path snapshotFile;
+    private final Path logFile;
+    // Log of the changes before the last rotation, until a snapshot that covers them is written
+    private final Path rotatedLogFile;
+    private final Object logMonitor = new Object();
+    private final Object snapshotMonitor = new Object();
+    private DataOutputStream logOut;
+
+    public BlobIndex(@Value("${station.storage.base-path:/data/station}") String basePath) {
+        Path indexDir = Paths.get(basePath, "index");
+        this.snapshotFile = indexDir.resolve("blobs.snapshot");
+        this.logFile = indexDir.resolve("blobs.log");
+        this.rotatedLogFile = indexDir.resolve("blobs.log.1");
+    }
+
+    /**
+     * Load the persisted index. Returns false if there is nothing to load (first start,
+     * or the snapshot is unreadable), in which case the caller should rebuild it.
+     */
+    public boolean load() {
+        boolean hasSnapshot = Files.exists(snapshotFile);
+        if (!hasSnapshot && !Files.exists(logFile) && !Files.exists(rotatedLogFile)) {
+            return false;
+        }
+
+        try {
+            if (hasSnapshot) {
+                readSnapshot();
+            }
+            // A crash between a rotation and its snapshot leaves the older changes in the rotated log
+            int replayed = replayLog(rotatedLogFile) + replayLog(logFile);
+            rebuildSlots();
+            recalculateUsage();
+            log.info("Loaded blob index: {} blobs ({} log records replayed)", entries.size(), replayed);
+        } catch (IOException e) {
+            log.warn("Blob index is unreadable, it will be rebuilt: {}", e.getMessage());
+            entries.clear();
+            return false;
+        }
+
+        // Fold the replayed log into a fresh snapshot, so appends never follow a torn record
+        dirty.set(true);
+        snapshot();
+        return true;
+    }
+
+    /**
+     * Replace the whole index, e.g. after a rebuild from disk, and persist it as a fresh snapshot
+     */
+    public void replaceAll(Collection<BlobIndexEntry> rebuilt) {
+        entries.clear();
+        rebuilt.forEach(entry -> entries.put(entry.getDigest(), entry));
+        rebuildSlots();
+        recalculateUsage();
+        dirty.set(true);
+        snapshot();
+    }
+
+    public Optional<BlobIndexEntry> get(String digest) {
+        return Optional.ofNullable(entries.get(digest));
+    }
+
+    public boolean contains(String digest) {
+        return entries.containsKey(digest);
+    }
+
+    public void put(BlobIndexEntry entry) {
+        BlobIndexEntry previous;
+        synchronized (slots) {
+            previous = entries.put(entry.getDigest(), entry);
+            if (previous == null) {
+                entry.slot = slots.size();
+                slots.add(entry);
+                usage.added(entry.getSize());
+            } else {
+                entry.slot = previous.slot;
+                slots.set(entry.slot, entry);
+                usage.replaced(previous.getSize(), entry.getSize());
+            }
+        }
+
+        if (previous == null) {
+            accessListeners.forEach(listener -> listener.accept(entry));
+        }
+        dirty.set(true);
+        appendLog(OP_ADD, entry);
+    }
+
+    public void remove(String digest) {
+        BlobIndexEntry removed;
+        synchronized (slots) {
+            removed = entries.remove(digest);
+            if (removed != null) {
+                // Swap-remove keeps the slot array dense
+                BlobIndexEntry last = slots.remove(slots.size() - 1);
+                if (last != removed) {
+                    last.slot = removed.slot;
+                    slots.set(removed.slot, last);
+                }
+                usage.removed(removed.getSize());
+            }
+        }
+
+        if (removed != null) {
+            dirty.set(true);
+            appendLog(OP_REMOVE, new BlobIndexEntry(digest, 0, 0, 0, 0, false));
+        }
+    }
+
+    /**
+     * Record a read of the blob, for eviction ordering
+     */
+    public void recordAccess(String digest) {
+        BlobIndexEntry entry = entries.get(digest);
+        if (entry != null) {
+            entry.recordAccess(System.currentTimeMillis());
+            dirty.set(true);
+            accessListeners.forEach(listener -> listener.accept(entry));
+        }
+    }
+
+    /**
+     * Register a callback for blob reads and newly indexed blobs, e.g. to feed a frequency sketch
+     */
+    public void addAccessListener(Consumer<BlobIndexEntry> listener) {
+        accessListeners.add(listener);
+    }
+
+    /**
+     * Pick up to {@code count} entries uniformly at random (with replacement).
+     * Lets eviction policies approximate a global ordering without sorting every blob.
+     */
+    public List<BlobIndexEntry> sample(int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        synchronized (slots) {
+            if (slots.isEmpty()) {
+                return List.of();
+            }
+            List<BlobIndexEntry> sample = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sample.add(slots.get(random.nextInt(slots.size())));
+            }
+            return sample;
+        }
+    }
+
+    /**
+     * Live view of all entries
+     */
+    public Collection<BlobIndexEntry> entries() {
+        return entries.values();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Running blob count and bytes, maintained on put and remove
+     */
+    public StorageUsage getUsage() {
+        return usage;
+    }
+
+    private void rebuildSlots() {
+        synchronized (slots) {
+            slots.clear();
+            for (BlobIndexEntry entry : entries.values()) {
+                entry.slot = slots.size();
+                slots.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Recompute the usage counters from the entries. Puts and removes update the counters under the
+     * same lock, so none of their deltas is lost to the reset.
+     */
+    public void recalculateUsage() {
+        synchronized (slots) {
+            long bytes = 0;
+            for (BlobIndexEntry entry : slots) {
+                bytes += entry.getSize();
+            }
+            usage.reset(slots.size(), bytes);
+        }
+    }
+
+    /**
+     * Write a snapshot of the index and drop the log it covers.
+     * <p>
+     * Only the log rotation holds the log monitor. A change is in the map before it is appended,
+     * so everything in the rotated log is seen by the snapshot; changes made while the snapshot
+     * iterates go to the new log, and replaying them on top of a snapshot that already has them
+     * is harmless.
+     */
+    public void snapshot() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+
+        synchronized (snapshotMonitor) {
+            try {
+                Files.createDirectories(snapshotFile.getParent());
+                synchronized (logMonitor) {
+                    rotateLog();
+                }
+                Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+                int written = writeSnapshot(tempFile);
+                Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(rotatedLogFile);
+                log.debug("Wrote blob index snapshot: {} blobs", written);
+            } catch (IOException e) {
+                dirty.set(true);
+                log.error("Failed to write blob index snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * Move the log aside and start a new one. Caller holds the log monitor.
+     */
+    private void rotateLog() throws IOException {
+        closeLog();
+        if (Files.exists(logFile)) {
+            if (Files.exists(rotatedLogFile)) {
+                // The last snapshot failed: its rotated log still counts, keep the records in order
+                try (OutputStream out = Files.newOutputStream(rotatedLogFile, StandardOpenOption.APPEND)) {
+                    Files.copy(logFile, out);
+                }
+                Files.delete(logFile);
+            } else {
+                Files.move(logFile, rotatedLogFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        openLog(false);
+    }
+
+    @PreDestroy
+    public void close() {
+        snapshot();
+        synchronized (logMonitor) {
+            closeLog();
+        }
+    }
+
+    private int writeSnapshot(Path file) throws IOException {
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            for (BlobIndexEntry entry : entries.values()) {
+                out.writeBoolean(true);
+                out.writeUTF(entry.getDigest());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getCreatedAt());
+                out.writeLong(entry.getLastAccess());
+                out.writeLong(entry.getHits());
+                out.writeBoolean(entry.isVerified());
+                count++;
+            }
+            out.writeBoolean(false);
+        }
+        return count;
+    }
+
+    private void readSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized snapshot format: " + snapshotFile);
+            }
+            while (in.readBoolean()) {
+                String digest = in.readUTF();
+                entries.put(digest, new BlobIndexEntry(digest, in.readLong(), in.readLong(),
+                        in.readLong(), in.readLong(), in.readBoolean()));
+            }
+        }
+    }
+
+    /**
+     * Apply log records written since the snapshot. A torn record at the tail (crash mid-append)
+     * ends the replay; the blob it describes is simply re-fetched on the next miss.
+     */
+    private int replayLog(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int op = in.read();
+                if (op == -1) {
+                    break;
+                }
+                String digest = in.readUTF();
+                if (op == OP_ADD) {
+                    long size = in.readLong();
+                    long createdAt = in.readLong();
+                    boolean verified = in.readBoolean();
+                    entries.put(digest, new BlobIndexEntry(digest, size, createdAt, createdAt, 0, verified));
+                } else if (op == OP_REMOVE) {
+                    entries.remove(digest);
+                } else {
+                    log.warn("Corrupt blob index log record, stopping replay after {} records", replayed);
+                    break;
+                }
+                replayed++;
+            }
+        } catch (EOFException e) {
+            log.warn("Blob index log ends with a partial record, ignoring it");
+        }
+        return replayed;
+    }
+
+    private void appendLog(byte op, BlobIndexEntry entry) {
+        synchronized (logMonitor) {
+            try {
+                if (logOut == null) {
+                    openLog(true);
+                }
+                logOut.writeByte(op);
+                logOut.writeUTF(entry.getDigest());
+                if (op == OP_ADD) {
+                    logOut.writeLong(entry.getSize());
+                    logOut.writeLong(entry.getCreatedAt());
+                    logOut.writeBoolean(entry.isVerified());
+                }
+                logOut.flush();
+            } catch (IOException e) {
+                // The next snapshot still captures the change
+                log.warn("Failed to append to blob index log: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void openLog(boolean append) throws IOException {
+        Files.createDirectories(logFile.getParent());
+        logOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(logFile.toFile(), append)));
+    }
+
+    private void closeLog() {
+        if (logOut == null) {
+            return;
+        }
+        try {
+            logOut.close();
+        } catch (IOException e) {
+            log.warn("Failed to close blob index log", e);
+        }
+        logOut = null;
+    }
+}
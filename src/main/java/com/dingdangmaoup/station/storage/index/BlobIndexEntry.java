@@ -0,0 +1,85 @@
+package com.dingdangmaoup.station.storage.index;
+
+import com.dingdangmaoup.station.storage.BlobMetadata;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * In-memory record of a stored blob. Times are epoch milliseconds, kept as primitives
+ * so millions of entries stay compact.
+ */
+@Getter
+public class BlobIndexEntry {
+
+    private static final AtomicLongFieldUpdater<BlobIndexEntry> HITS =
+            AtomicLongFieldUpdater.newUpdater(BlobIndexEntry.class, "hits");
+    private static final AtomicLongFieldUpdater<BlobIndexEntry> COLD_HITS =
+            AtomicLongFieldUpdater.newUpdater(BlobIndexEntry.class, "coldHits");
+
+    private final String digest;
+    private final long size;
+    private final long createdAt;
+    private final boolean verified;
+    private volatile long lastAccess;
+    private volatile long hits;
+
+    // Eviction policy state, not persisted
+    private volatile double priority;
+
+    // Reads served from the cold tier since the blob last changed tier, not persisted
+    private volatile long coldHits;
+
+    // Position in the index's sampling array, guarded by the index
+    @Getter(AccessLevel.NONE)
+    int slot;
+
+    public BlobIndexEntry(String digest, long size, long createdAt, long lastAccess, long hits, boolean verified) {
+        this.digest = digest;
+        this.size = size;
+        this.createdAt = createdAt;
+        this.lastAccess = lastAccess;
+        this.hits = hits;
+        this.verified = verified;
+    }
+
+    /**
+     * Set the policy-defined eviction priority (e.g. GDSF's H value)
+     */
+    public void setPriority(double priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Count a read served from the cold tier
+     *
+     * @return cold tier reads since the blob last changed tier
+     */
+    public long recordColdHit() {
+        return COLD_HITS.incrementAndGet(this);
+    }
+
+    /**
+     * Start counting cold tier reads afresh, once the blob has moved between tiers
+     */
+    public void resetColdHits() {
+        coldHits = 0;
+    }
+
+    void recordAccess(long now) {
+        lastAccess = now;
+        HITS.incrementAndGet(this);
+    }
+
+    public BlobMetadata toMetadata() {
+        return BlobMetadata.builder()
+                .digest(digest)
+                .size(size)
+                .createdAt(Instant.ofEpochMilli(createdAt))
+                .lastAccessedAt(Instant.ofEpochMilli(lastAccess))
+                .verified(verified)
+                .build();
+    }
+}
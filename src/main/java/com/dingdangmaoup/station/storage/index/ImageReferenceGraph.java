@@ -0,0 +1,210 @@
+package com.dingdangmaoup.station.storage.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Which stored manifests reference which blobs and child manifests.
+ * <p>
+ * Image manifests point at their config and layer blobs; manifest lists and OCI indexes point at
+ * their per-platform manifests. The reverse edges give every blob its referencing manifests, so
+ * eviction can tell orphan blobs (no cached manifest needs them) from layers shared by several
+ * images, and remove a whole image together with the layers only it uses.
+ * <p>
+ * Fed by the manifest storage as manifests are stored and dropped; nothing is persisted, the
+ * graph is rebuilt from the stored manifests on startup.
+ */
+@Slf4j
+@Component
+public class ImageReferenceGraph {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Map<String, ManifestNode> manifests = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> parents = new ConcurrentHashMap<>();
+    // Image manifests, i.e. everything but lists and indexes, for sampling
+    private final SampledDigests images = new SampledDigests();
+    private final List<Consumer<String>> unreferencedListeners = new CopyOnWriteArrayList<>();
+
+    private static final class ManifestNode {
+
+        private final boolean index;
+        private final List<String> children;
+        private volatile long lastAccess;
+
+        private ManifestNode(boolean index, List<String> children, long lastAccess) {
+            this.index = index;
+            this.children = children;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Add a stored manifest and its outgoing references
+     *
+     * @param storedAt when the manifest was stored, epoch milliseconds
+     */
+    public synchronized void addManifest(String digest, byte[] content, long storedAt) {
+        if (manifests.containsKey(digest)) {
+            return;
+        }
+        ManifestNode node = parse(digest, content, storedAt);
+        manifests.put(digest, node);
+        if (!node.index) {
+            images.add(digest);
+        }
+        for (String child : node.children) {
+            parents.computeIfAbsent(child, key -> ConcurrentHashMap.newKeySet()).add(digest);
+        }
+    }
+
+    /**
+     * Remove a dropped manifest; the blobs it referenced lose one reference each
+     */
+    public synchronized void removeManifest(String digest) {
+        ManifestNode node = manifests.remove(digest);
+        if (node == null) {
+            return;
+        }
+        images.remove(digest);
+        for (String child : node.children) {
+            Set<String> referrers = parents.get(child);
+            if (referrers != null) {
+                referrers.remove(digest);
+                if (referrers.isEmpty()) {
+                    parents.remove(child);
+                    unreferencedListeners.forEach(listener -> listener.accept(child));
+                }
+            }
+        }
+    }
+
+    /**
+     * Register a callback for blobs and manifests that lose their last referencing manifest,
+     * e.g. to track orphans without scanning the blob index
+     */
+    public void addUnreferencedListener(Consumer<String> listener) {
+        unreferencedListeners.add(listener);
+    }
+
+    /**
+     * Record a read of a stored manifest, which keeps its image warm
+     */
+    public void recordAccess(String digest) {
+        ManifestNode node = manifests.get(digest);
+        if (node != null) {
+            node.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    public boolean containsManifest(String digest) {
+        return manifests.containsKey(digest);
+    }
+
+    /**
+     * Whether any stored manifest references the blob or manifest
+     */
+    public boolean isReferenced(String digest) {
+        Set<String> referrers = parents.get(digest);
+        return referrers != null && !referrers.isEmpty();
+    }
+
+    /**
+     * Stored manifests referencing the blob or manifest
+     */
+    public Set<String> referrers(String digest) {
+        Set<String> referrers = parents.get(digest);
+        return referrers != null ? Set.copyOf(referrers) : Set.of();
+    }
+
+    /**
+     * Blobs (for an image manifest) or child manifests (for a list or index) the manifest references
+     */
+    public List<String> children(String digest) {
+        ManifestNode node = manifests.get(digest);
+        return node != null ? node.children : List.of();
+    }
+
+    public boolean isIndex(String digest) {
+        ManifestNode node = manifests.get(digest);
+        return node != null && node.index;
+    }
+
+    /**
+     * When the manifest was stored or last read from storage, epoch milliseconds, or 0 if unknown
+     */
+    public long lastAccess(String digest) {
+        ManifestNode node = manifests.get(digest);
+        return node != null ? node.lastAccess : 0;
+    }
+
+    /**
+     * Digests of the stored image manifests, i.e. everything but lists and indexes
+     */
+    public List<String> images() {
+        List<String> images = new ArrayList<>();
+        manifests.forEach((digest, node) -> {
+            if (!node.index) {
+                images.add(digest);
+            }
+        });
+        return images;
+    }
+
+    /**
+     * Up to {@code count} distinct stored image manifests picked at random
+     */
+    public List<String> sampleImages(int count) {
+        return images.sample(count);
+    }
+
+    public int size() {
+        return manifests.size();
+    }
+
+    private static ManifestNode parse(String digest, byte[] content, long storedAt) {
+        List<String> children = new ArrayList<>();
+        boolean index = false;
+        try {
+            JsonNode root = JSON.readTree(content);
+            if (root.has("manifests")) {
+                // Manifest list / OCI index
+                index = true;
+                root.get("manifests").forEach(child -> addDigest(children, child.get("digest")));
+            } else if (root.has("fsLayers")) {
+                // Schema 1
+                root.get("fsLayers").forEach(layer -> addDigest(children, layer.get("blobSum")));
+            } else {
+                JsonNode config = root.get("config");
+                if (config != null) {
+                    addDigest(children, config.get("digest"));
+                }
+                JsonNode layers = root.get("layers");
+                if (layers != null) {
+                    layers.forEach(layer -> addDigest(children, layer.get("digest")));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot parse manifest {}, it references no blobs: {}", digest, e.getMessage());
+        }
+        return new ManifestNode(index, List.copyOf(children), storedAt);
+    }
+
+    private static void addDigest(List<String> children, JsonNode digest) {
+        // Schema 1 repeats layers; a reference counts once
+        if (digest != null && digest.isTextual() && !children.contains(digest.asText())) {
+            children.add(digest.asText());
+        }
+    }
+}
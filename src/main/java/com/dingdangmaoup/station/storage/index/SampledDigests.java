@@ -0,0 +1,78 @@
+package com.dingdangmaoup.station.storage.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A set of digests that can be sampled uniformly at random without copying it.
+ * <p>
+ * Like the slots of {@link BlobIndex}, the digests sit in a dense array and removal swaps the last
+ * one into the freed slot, so add, remove and each sampled digest are O(1).
+ */
+public class SampledDigests {
+
+    private final List<String> slots = new ArrayList<>();
+    private final Map<String, Integer> slotOf = new HashMap<>();
+
+    /**
+     * @return false if the digest was already present
+     */
+    public synchronized boolean add(String digest) {
+        if (slotOf.containsKey(digest)) {
+            return false;
+        }
+        slotOf.put(digest, slots.size());
+        slots.add(digest);
+        return true;
+    }
+
+    /**
+     * @return false if the digest was not present
+     */
+    public synchronized boolean remove(String digest) {
+        Integer slot = slotOf.remove(digest);
+        if (slot == null) {
+            return false;
+        }
+        String last = slots.remove(slots.size() - 1);
+        if (slot < slots.size()) {
+            slots.set(slot, last);
+            slotOf.put(last, slot);
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(String digest) {
+        return slotOf.containsKey(digest);
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Up to {@code count} distinct digests picked at random; all of them if there are no more
+     */
+    public synchronized List<String> sample(int count) {
+        if (slots.size() <= count) {
+            return new ArrayList<>(slots);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> sample = new ArrayList<>(count);
+        // Partial Fisher-Yates over a window of the slots; the order of the set does not matter
+        for (int i = 0; i < count; i++) {
+            int pick = i + random.nextInt(slots.size() - i);
+            String digest = slots.get(pick);
+            String swapped = slots.get(i);
+            slots.set(i, digest);
+            slots.set(pick, swapped);
+            slotOf.put(digest, i);
+            slotOf.put(swapped, pick);
+            sample.add(digest);
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,276 @@
+package com.dingdangmaoup.station.storage.inflight;
+
+import com.dingdangmaoup.station.cache.eviction.DiskSpaceGuard;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.BlobStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A blob download shared by every request for the same digest on this node.
+ * <p>
+ * One upstream stream is persisted through {@link BlobStorage#saveBlobStreaming}; any number of readers
+ * attach at any time and tail it. The most recent bytes are kept in a bounded in-memory replay buffer,
+ * readers that fall behind it read from the growing temp file, and once committed from the stored blob.
+ * <p>
+ * The replay buffer holds the ingested buffers themselves, not copies: readers get retained slices of
+ * them, so a pooled chunk goes back to the pool once it has left the window and every reader that
+ * sliced it has released its slice.
+ */
+@Slf4j
+public class InFlightBlob {
+
+    private final String digest;
+    private final BlobStorage blobStorage;
+    private final DiskSpaceGuard diskSpaceGuard;
+    private final long replayBufferBytes;
+    private final int chunkSize;
+    private final DataBufferFactory bufferFactory;
+    private final NettyDataBufferFactory sliceFactory;
+
+    private final Sinks.One<Long> sizeSink = Sinks.one();
+    private final Sinks.Many<Long> progressSink = Sinks.many().multicast().directBestEffort();
+    private final Sinks.Empty<Void> completionSink = Sinks.empty();
+
+    // Guarded by itself: a chunk must not be released between a reader finding it and retaining a slice
+    private final Deque<Chunk> replay = new ArrayDeque<>();
+    private long replayBytes;
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile Path partialFile;
+    private volatile boolean committed;
+    // Guarded by replay
+    private boolean replayClosed;
+
+    InFlightBlob(String digest, BlobStorage blobStorage, DiskSpaceGuard diskSpaceGuard,
+                 long replayBufferBytes, DataBufferFactory bufferFactory, int chunkSize) {
+        this.digest = digest;
+        this.blobStorage = blobStorage;
+        this.diskSpaceGuard = diskSpaceGuard;
+        this.replayBufferBytes = replayBufferBytes;
+        this.bufferFactory = bufferFactory;
+        this.sliceFactory = bufferFactory instanceof NettyDataBufferFactory netty
+                ? netty
+                : new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+        this.chunkSize = chunkSize;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Size advertised by the upstream source (-1 if unknown), emitted once the source is opened
+     */
+    public Mono<Long> size() {
+        return sizeSink.asMono();
+    }
+
+    /**
+     * Completes once the blob has been committed to storage, or errors if the download failed
+     */
+    public Mono<Void> completion() {
+        return completionSink.asMono();
+    }
+
+    /**
+     * Persist the upstream stream. Called once, by the request that started the download.
+     * A blob of known size only starts writing once its space is reserved above the disk headroom.
+     */
+    public Mono<Void> ingest(BlobStream upstream) {
+        sizeSink.tryEmitValue(upstream.getSize());
+        return diskSpaceGuard.reserve(upstream.getSize())
+                .flatMapMany(reservation -> blobStorage
+                        .saveBlobStreaming(digest, upstream.getData(), file -> partialFile = file)
+                        .doOnNext(buffer -> reservation.written(buffer.readableByteCount()))
+                        .doOnNext(this::append)
+                        .doFinally(signal -> reservation.release()))
+                .then()
+                .doOnSuccess(v -> committed = true);
+    }
+
+    /**
+     * Read [offset, offset + length) as the bytes become available.
+     * A length of {@link Long#MAX_VALUE} reads until the end of the blob.
+     */
+    public Flux<DataBuffer> read(long offset, long length) {
+        long end = length == Long.MAX_VALUE ? Long.MAX_VALUE : offset + length;
+        AtomicLong position = new AtomicLong(offset);
+
+        // Progress ticks carry the absolute number of bytes written; a missed tick is covered by the next one,
+        // and the final watermark is re-read after the download terminates
+        Flux<Long> watermarks = Flux.concat(
+                Mono.fromSupplier(written::get),
+                progressSink.asFlux().onBackpressureLatest(),
+                Mono.fromSupplier(written::get));
+
+        return watermarks
+                .takeWhile(watermark -> position.get() < end)
+                .concatMap(watermark -> {
+                    long from = position.get();
+                    long to = Math.min(watermark, end);
+                    if (to <= from) {
+                        return Flux.empty();
+                    }
+                    position.set(to);
+                    return slice(from, to);
+                });
+    }
+
+    void fail(Throwable error) {
+        sizeSink.tryEmitError(error);
+        progressSink.tryEmitError(error);
+        completionSink.tryEmitError(error);
+        clearReplay();
+    }
+
+    void complete() {
+        // An upstream that never opened leaves the size unresolved; treat it as a failed download
+        sizeSink.tryEmitError(new IllegalStateException("Download of " + digest + " produced no data"));
+        progressSink.tryEmitComplete();
+        completionSink.tryEmitEmpty();
+        clearReplay();
+    }
+
+    /**
+     * Record a buffer that has just been written to the temp file; the replay buffer takes it over
+     */
+    private void append(DataBuffer buffer) {
+        int length = buffer.readableByteCount();
+        long offset = written.get();
+        List<Chunk> evicted = new ArrayList<>();
+
+        synchronized (replay) {
+            if (replayClosed) {
+                // A late buffer after fail() or complete() has nobody left to replay to
+                evicted.add(new Chunk(offset, buffer, length));
+            } else {
+                replay.addLast(new Chunk(offset, buffer, length));
+                replayBytes += length;
+                while (replayBytes > replayBufferBytes && replay.size() > 1) {
+                    Chunk chunk = replay.pollFirst();
+                    replayBytes -= chunk.length;
+                    evicted.add(chunk);
+                }
+            }
+        }
+        evicted.forEach(chunk -> DataBufferUtils.release(chunk.buffer));
+
+        written.addAndGet(length);
+        progressSink.tryEmitNext(offset + length);
+    }
+
+    private void clearReplay() {
+        List<Chunk> evicted;
+        synchronized (replay) {
+            replayClosed = true;
+            evicted = new ArrayList<>(replay);
+            replay.clear();
+            replayBytes = 0;
+        }
+        evicted.forEach(chunk -> DataBufferUtils.release(chunk.buffer));
+    }
+
+    /**
+     * Emit [from, to) from the replay buffer, the temp file or the committed blob
+     */
+    private Flux<DataBuffer> slice(long from, long to) {
+        List<DataBuffer> buffered = sliceFromMemory(from, to);
+        if (buffered != null) {
+            return Flux.fromIterable(buffered)
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        }
+
+        long length = to - from;
+        Path file = partialFile;
+        if (committed || file == null) {
+            return completion().thenMany(Flux.defer(() -> blobStorage.getBlob(digest, from, length)));
+        }
+
+        Flux<DataBuffer> fromFile = DataBufferUtils.readAsynchronousFileChannel(
+                () -> AsynchronousFileChannel.open(file, StandardOpenOption.READ),
+                from, bufferFactory, chunkSize);
+        return DataBufferUtils.takeUntilByteCount(fromFile, length)
+                // The temp file was renamed by the commit in the meantime
+                .onErrorResume(NoSuchFileException.class,
+                        e -> completion().thenMany(Flux.defer(() -> blobStorage.getBlob(digest, from, length))));
+    }
+
+    /**
+     * Retained slices of the replay buffer chunks covering [from, to), or null if part of the range is no
+     * longer buffered. The caller owns the slices.
+     */
+    private List<DataBuffer> sliceFromMemory(long from, long to) {
+        List<DataBuffer> buffers = new ArrayList<>();
+        long expected = from;
+
+        synchronized (replay) {
+            for (Chunk chunk : replay) {
+                long chunkEnd = chunk.offset + chunk.length;
+                if (chunkEnd <= expected) {
+                    continue;
+                }
+                if (chunk.offset > expected) {
+                    break;
+                }
+
+                int start = (int) (expected - chunk.offset);
+                int end = (int) (Math.min(chunkEnd, to) - chunk.offset);
+                buffers.add(retainedSlice(chunk.buffer, start, end - start));
+                expected = chunk.offset + end;
+
+                if (expected >= to) {
+                    return buffers;
+                }
+            }
+        }
+        buffers.forEach(DataBufferUtils::release);
+        return null;
+    }
+
+    /**
+     * A slice of the readable bytes of a replay chunk that stays valid after the chunk is released.
+     * Pooled chunks are Netty buffers and are sliced with their reference count raised; anything else
+     * is an unpooled heap buffer that the garbage collector keeps alive for as long as a view uses it.
+     */
+    private DataBuffer retainedSlice(DataBuffer buffer, int index, int length) {
+        if (buffer instanceof NettyDataBuffer netty) {
+            ByteBuf byteBuf = netty.getNativeBuffer();
+            return sliceFactory.wrap(byteBuf.retainedSlice(byteBuf.readerIndex() + index, length));
+        }
+        try (DataBuffer.ByteBufferIterator views = buffer.readableByteBuffers()) {
+            ByteBuffer view = views.next();
+            if (!views.hasNext()) {
+                return DefaultDataBufferFactory.sharedInstance.wrap(view.slice(view.position() + index, length));
+            }
+        }
+        // Backed by several byte buffers: copy the range out
+        ByteBuffer range = ByteBuffer.allocate(length);
+        buffer.toByteBuffer(buffer.readPosition() + index, range, 0, length);
+        return DefaultDataBufferFactory.sharedInstance.wrap(range);
+    }
+
+    private record Chunk(long offset, DataBuffer buffer, int length) {
+    }
+}
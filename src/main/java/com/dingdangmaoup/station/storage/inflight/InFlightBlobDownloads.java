@@ -0,0 +1,97 @@
+package com.dingdangmaoup.station.storage.inflight;
+
+import com.dingdangmaoup.station.cache.eviction.DiskSpaceGuard;
+import com.dingdangmaoup.station.metrics.NodeMetrics;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.buffer.BlobBuffers;
+import com.dingdangmaoup.station.storage.index.BlobFrequency;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Node-local single-flight registry for blob downloads.
+ * The first miss for a digest starts the download; concurrent misses attach to the same
+ * {@link InFlightBlob} instead of fetching (and locking) the blob again.
+ */
+@Slf4j
+@Component
+public class InFlightBlobDownloads {
+
+    private final Map<String, InFlightBlob> downloads = new ConcurrentHashMap<>();
+    private final BlobStorage blobStorage;
+    private final DiskSpaceGuard diskSpaceGuard;
+    private final NodeMetrics nodeMetrics;
+    private final long replayBufferBytes;
+    private final BlobBuffers blobBuffers;
+    private final BlobFrequency blobFrequency;
+
+    public InFlightBlobDownloads(
+            BlobStorage blobStorage,
+            DiskSpaceGuard diskSpaceGuard,
+            NodeMetrics nodeMetrics,
+            BlobBuffers blobBuffers,
+            BlobFrequency blobFrequency,
+            @Value("${station.storage.inflight.replay-buffer-size:8MB}") DataSize replayBufferSize) {
+        this.blobStorage = blobStorage;
+        this.diskSpaceGuard = diskSpaceGuard;
+        this.nodeMetrics = nodeMetrics;
+        this.replayBufferBytes = replayBufferSize.toBytes();
+        this.blobBuffers = blobBuffers;
+        this.blobFrequency = blobFrequency;
+    }
+
+    /**
+     * Get the in-flight download for a digest, starting it if there is none.
+     * The download runs detached from the requests reading it, so a client disconnecting
+     * does not abort the fill for everyone else.
+     *
+     * @param digest     the blob digest
+     * @param downloader invoked only when a new download starts; must feed the blob through
+     *                   {@link InFlightBlob#ingest} and complete once the blob is committed
+     */
+    public InFlightBlob join(String digest, Function<InFlightBlob, Mono<?>> downloader) {
+        blobFrequency.recordRequest(digest);
+        InFlightBlob existing = downloads.get(digest);
+        if (existing != null) {
+            log.debug("Attaching to in-flight download of blob {}", digest);
+            nodeMetrics.recordCoalescedRequest();
+            return existing;
+        }
+
+        InFlightBlob created = new InFlightBlob(digest, blobStorage, diskSpaceGuard, replayBufferBytes,
+                blobBuffers.bufferFactory(), blobBuffers.chunkSize());
+        InFlightBlob raced = downloads.putIfAbsent(digest, created);
+        if (raced != null) {
+            log.debug("Attaching to in-flight download of blob {}", digest);
+            nodeMetrics.recordCoalescedRequest();
+            return raced;
+        }
+
+        log.debug("Starting shared download of blob {}", digest);
+        Mono.defer(() -> downloader.apply(created))
+                .then()
+                .doFinally(signal -> downloads.remove(digest, created))
+                .subscribe(
+                        v -> { },
+                        error -> {
+                            log.warn("Shared download of blob {} failed: {}", digest, error.getMessage());
+                            created.fail(error);
+                        },
+                        created::complete);
+        return created;
+    }
+
+    /**
+     * Number of downloads currently in progress
+     */
+    public int size() {
+        return downloads.size();
+    }
+}
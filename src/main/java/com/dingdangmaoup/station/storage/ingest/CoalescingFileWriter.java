@@ -0,0 +1,132 @@
+package com.dingdangmaoup.station.storage.ingest;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Per-ingest write state: copies incoming buffers into a staging buffer and writes it out only
+ * when it is full, so the file sees a sequence of equally sized, aligned writes however small
+ * the network buffers are. Source buffers are handed back once all of their bytes are on file.
+ * <p>
+ * For a channel opened with direct I/O every write must be a whole number of blocks: the final,
+ * partial write is padded with zeros and the file truncated back to the real length afterwards.
+ */
+final class CoalescingFileWriter {
+
+    private static final byte[] ZEROS = new byte[IngestWriter.ALIGNMENT];
+
+    private final FileChannel channel;
+    private final ByteBuffer staging;
+    private final boolean direct;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private long received;
+    private long written;
+    private boolean closed;
+
+    private record Pending(DataBuffer buffer, long end) {
+    }
+
+    CoalescingFileWriter(FileChannel channel, ByteBuffer staging, boolean direct) {
+        this.channel = channel;
+        this.staging = staging;
+        this.direct = direct;
+    }
+
+    /**
+     * Stage a buffer, writing out the staging buffer whenever it fills up
+     *
+     * @return the source buffers that are now fully written, in order
+     */
+    synchronized List<DataBuffer> accept(DataBuffer buffer) {
+        if (closed) {
+            DataBufferUtils.release(buffer);
+            throw new StorageException("Blob write was aborted");
+        }
+        received += buffer.readableByteCount();
+        pending.add(new Pending(buffer, received));
+
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            while (iterator.hasNext()) {
+                ByteBuffer source = iterator.next();
+                while (source.hasRemaining()) {
+                    int length = Math.min(staging.remaining(), source.remaining());
+                    staging.put(staging.position(), source, source.position(), length);
+                    staging.position(staging.position() + length);
+                    source.position(source.position() + length);
+                    if (!staging.hasRemaining()) {
+                        flush();
+                    }
+                }
+            }
+        }
+        return drainWritten();
+    }
+
+    /**
+     * Write out whatever is still staged
+     *
+     * @return the remaining source buffers
+     */
+    synchronized List<DataBuffer> finish() {
+        flush();
+        return drainWritten();
+    }
+
+    /**
+     * Release source buffers that were never handed back (on error or cancel)
+     *
+     * @return the staging buffer, for reuse
+     */
+    synchronized ByteBuffer close() {
+        closed = true;
+        pending.forEach(p -> DataBufferUtils.release(p.buffer()));
+        pending.clear();
+        return staging.clear();
+    }
+
+    private void flush() {
+        if (closed) {
+            throw new StorageException("Blob write was aborted");
+        }
+        staging.flip();
+        long end = written + staging.remaining();
+        int partial = staging.remaining() % IngestWriter.ALIGNMENT;
+        if (direct && partial != 0) {
+            // Staging buffers are a multiple of the alignment, so only the last write can get here
+            int padding = IngestWriter.ALIGNMENT - partial;
+            staging.limit(staging.limit() + padding);
+            staging.put(staging.limit() - padding, ZEROS, 0, padding);
+        }
+        try {
+            long position = written;
+            while (staging.hasRemaining()) {
+                position += channel.write(staging, position);
+            }
+            if (position > end) {
+                channel.truncate(end);
+            }
+            written = end;
+        } catch (IOException e) {
+            throw new StorageException("Failed to write blob data", e);
+        } finally {
+            staging.clear();
+        }
+    }
+
+    private List<DataBuffer> drainWritten() {
+        List<DataBuffer> done = new ArrayList<>();
+        while (!pending.isEmpty() && pending.peekFirst().end() <= written) {
+            done.add(pending.pollFirst().buffer());
+        }
+        return done;
+    }
+}
@@ -0,0 +1,142 @@
+package com.dingdangmaoup.station.storage.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches fsync requests from concurrent ingests. Requests arriving within one window are grouped
+ * by filesystem: each filesystem's syncs run back to back on one thread, so their journal commits
+ * coalesce, while different filesystems (storage roots on separate disks) are synced concurrently.
+ * A directory shared by several commits is synced once for all of them.
+ */
+@Slf4j
+final class GroupCommitter {
+
+    private final long windowNanos;
+    private final Scheduler scheduler = Schedulers.newSingle("station-group-commit", true);
+    private final Scheduler syncScheduler;
+    private final List<Request> queue = new ArrayList<>();
+    // Filesystem of each directory synced or holding a synced file; the set of directories is small and fixed
+    private final Map<Path, Object> fileStores = new ConcurrentHashMap<>();
+    private boolean scheduled;
+
+    /**
+     * @param target    the channel or directory to sync
+     * @param directory the directory holding the file, or the directory itself, to tell which
+     *                  filesystem the target is on
+     */
+    private record Request(Object target, Path directory, MonoSink<Void> sink) {
+    }
+
+    GroupCommitter(Duration window, Scheduler syncScheduler) {
+        this.windowNanos = window.toNanos();
+        this.syncScheduler = syncScheduler;
+    }
+
+    Mono<Void> syncFile(FileChannel channel, Path file) {
+        return submit(channel, file.getParent());
+    }
+
+    Mono<Void> syncDirectory(Path directory) {
+        return submit(directory, directory);
+    }
+
+    void dispose() {
+        scheduler.dispose();
+    }
+
+    private Mono<Void> submit(Object target, Path directory) {
+        return Mono.create(sink -> {
+            synchronized (queue) {
+                queue.add(new Request(target, directory, sink));
+                if (!scheduled) {
+                    scheduled = true;
+                    scheduler.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        });
+    }
+
+    private void flush() {
+        List<Request> batch;
+        synchronized (queue) {
+            batch = new ArrayList<>(queue);
+            queue.clear();
+            scheduled = false;
+        }
+
+        // Directories are deduplicated by path; file channels are distinct per ingest
+        Map<Object, Set<Object>> targetsByFileStore = new LinkedHashMap<>();
+        for (Request request : batch) {
+            targetsByFileStore.computeIfAbsent(fileStore(request.directory()), store -> new LinkedHashSet<>())
+                    .add(request.target());
+        }
+
+        Map<Object, IOException> failures = new ConcurrentHashMap<>();
+        Flux.fromIterable(targetsByFileStore.values())
+                .flatMap(targets -> Mono.fromRunnable(() -> syncAll(targets, failures)).subscribeOn(syncScheduler))
+                .then()
+                .subscribe(null,
+                        error -> batch.forEach(request -> request.sink().error(error)),
+                        () -> {
+                            log.trace("Group commit synced {} filesystems for {} requests",
+                                    targetsByFileStore.size(), batch.size());
+                            for (Request request : batch) {
+                                IOException failure = failures.get(request.target());
+                                if (failure != null) {
+                                    request.sink().error(failure);
+                                } else {
+                                    request.sink().success();
+                                }
+                            }
+                        });
+    }
+
+    /**
+     * Sync the targets on one filesystem back to back
+     */
+    private static void syncAll(Set<Object> targets, Map<Object, IOException> failures) {
+        for (Object target : targets) {
+            try {
+                if (target instanceof FileChannel channel) {
+                    channel.force(false);
+                } else {
+                    IngestWriter.forceDirectory((Path) target);
+                }
+            } catch (IOException e) {
+                failures.put(target, e);
+            }
+        }
+    }
+
+    /**
+     * The filesystem a directory is on, or the directory itself if that cannot be told
+     */
+    private Object fileStore(Path directory) {
+        return fileStores.computeIfAbsent(directory, dir -> {
+            try {
+                return Files.getFileStore(dir);
+            } catch (IOException e) {
+                return dir;
+            }
+        });
+    }
+}
@@ -0,0 +1,204 @@
+package com.dingdangmaoup.station.storage.ingest;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import com.sun.nio.file.ExtendedOpenOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes incoming blob streams to disk and applies the configured durability.
+ * <p>
+ * Network buffers are coalesced into {@code write-buffer-size} writes, aligned to the filesystem
+ * block size, through a small pool of direct staging buffers. Durability decides what happens
+ * at commit:
+ * <ul>
+ *   <li>{@code none}: no fsync, the page cache flushes on its own schedule</li>
+ *   <li>{@code fsync}: each blob's data and its directory entry are synced before it is committed</li>
+ *   <li>{@code group-commit}: like fsync, but syncs from concurrent ingests are batched</li>
+ * </ul>
+ * With {@code direct-io} enabled, files the caller opens for direct I/O are written with
+ * {@code O_DIRECT}, bypassing the page cache, so one-off layers do not push hot ones out of it.
+ * Filesystems without direct I/O support (tmpfs, some network filesystems) fall back to buffered
+ * writes.
+ */
+@Slf4j
+@Component
+public class IngestWriter {
+
+    // Block alignment of staging buffers and writes; a multiple of common logical block sizes, as direct I/O needs
+    static final int ALIGNMENT = 4096;
+    private static final int MAX_POOLED_BUFFERS = 32;
+
+    public enum Durability {
+        NONE,
+        FSYNC,
+        GROUP_COMMIT
+    }
+
+    private final int bufferSize;
+    private final Durability durability;
+    private final GroupCommitter groupCommitter;
+    private final StorageSchedulers storageSchedulers;
+    // Cleared if a filesystem turns out not to support direct I/O
+    private volatile boolean directIo;
+    private final Queue<ByteBuffer> stagingPool = new ConcurrentLinkedQueue<>();
+
+    public IngestWriter(
+            @Value("${station.storage.ingest.write-buffer-size:1MB}") DataSize writeBufferSize,
+            @Value("${station.storage.ingest.durability:none}") Durability durability,
+            @Value("${station.storage.ingest.group-commit-window:5ms}") Duration groupCommitWindow,
+            @Value("${station.storage.ingest.direct-io:false}") boolean directIo,
+            StorageSchedulers storageSchedulers) {
+        long aligned = (writeBufferSize.toBytes() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        this.bufferSize = (int) Math.max(ALIGNMENT, aligned);
+        this.durability = durability;
+        this.storageSchedulers = storageSchedulers;
+        this.directIo = directIo;
+        this.groupCommitter = durability == Durability.GROUP_COMMIT
+                ? new GroupCommitter(groupCommitWindow, storageSchedulers.blocking())
+                : null;
+
+        log.info("Blob ingest: {} byte writes, durability={}, direct I/O={}", bufferSize, durability, directIo);
+    }
+
+    /**
+     * Write a stream to the channel from position 0, issuing the (blocking) writes on the given
+     * scheduler, e.g. the one dedicated to the target disk. Each source buffer is emitted
+     * (unreleased) once its bytes have been written, so the caller owns and must release them;
+     * everything emitted so far is readable from the file.
+     */
+    public Flux<DataBuffer> write(Flux<DataBuffer> data, FileChannel channel, Scheduler scheduler) {
+        return write(data, channel, false, scheduler);
+    }
+
+    /**
+     * Like {@link #write(Flux, FileChannel, Scheduler)}, for a channel that may have been opened
+     * with direct I/O by {@link #open}
+     */
+    public Flux<DataBuffer> write(Flux<DataBuffer> data, FileChannel channel, boolean direct, Scheduler scheduler) {
+        return Flux.defer(() -> {
+            CoalescingFileWriter writer = new CoalescingFileWriter(channel, acquireStaging(), direct);
+            // Writes block, so they must not run on the thread delivering network buffers
+            return data.publishOn(scheduler)
+                    .concatMapIterable(writer::accept)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(writer.finish())))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .doFinally(signal -> releaseStaging(writer.close()));
+        });
+    }
+
+    /**
+     * Make a written file's data durable, according to the durability mode
+     *
+     * @param file the file the channel writes, to batch group commits by filesystem
+     */
+    public Mono<Void> syncFile(FileChannel channel, Path file) {
+        return switch (durability) {
+            case NONE -> Mono.empty();
+            case FSYNC -> Mono.<Void>fromRunnable(() -> {
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    throw new StorageException("Failed to sync blob data", e);
+                }
+            }).subscribeOn(storageSchedulers.blocking());
+            case GROUP_COMMIT -> groupCommitter.syncFile(channel, file)
+                    .onErrorMap(IOException.class, e -> new StorageException("Failed to sync blob data", e));
+        };
+    }
+
+    /**
+     * Make a rename into the directory durable, according to the durability mode
+     */
+    public Mono<Void> syncDirectory(Path directory) {
+        return switch (durability) {
+            case NONE -> Mono.empty();
+            case FSYNC -> Mono.<Void>fromRunnable(() -> {
+                try {
+                    forceDirectory(directory);
+                } catch (IOException e) {
+                    throw new StorageException("Failed to sync directory " + directory, e);
+                }
+            }).subscribeOn(storageSchedulers.blocking());
+            case GROUP_COMMIT -> groupCommitter.syncDirectory(directory)
+                    .onErrorMap(IOException.class, e -> new StorageException("Failed to sync directory " + directory, e));
+        };
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public boolean isDirectIo() {
+        return directIo;
+    }
+
+    /**
+     * Create a new file to ingest into, with direct I/O if requested and supported
+     */
+    public FileChannel open(Path file, boolean direct) throws IOException {
+        if (direct && directIo) {
+            try {
+                if (ALIGNMENT % Files.getFileStore(file.getParent()).getBlockSize() != 0) {
+                    throw new IOException("block size does not divide " + ALIGNMENT);
+                }
+                return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                        ExtendedOpenOption.DIRECT);
+            } catch (IOException | UnsupportedOperationException e) {
+                log.warn("Direct I/O not supported for {}, ingesting with buffered writes: {}",
+                        file.getParent(), e.getMessage());
+                directIo = false;
+                // The failed open may have created the file already
+                Files.deleteIfExists(file);
+            }
+        }
+        return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (groupCommitter != null) {
+            groupCommitter.dispose();
+        }
+    }
+
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private ByteBuffer acquireStaging() {
+        ByteBuffer buffer = stagingPool.poll();
+        // Aligned to the block size, as direct I/O requires of the memory it writes from
+        return buffer != null
+                ? buffer
+                : ByteBuffer.allocateDirect(bufferSize + ALIGNMENT).alignedSlice(ALIGNMENT).limit(bufferSize).slice();
+    }
+
+    private void releaseStaging(ByteBuffer buffer) {
+        // The size check races, so the pool may briefly overshoot; that only costs memory
+        if (stagingPool.size() < MAX_POOLED_BUFFERS) {
+            stagingPool.offer(buffer);
+        }
+    }
+}
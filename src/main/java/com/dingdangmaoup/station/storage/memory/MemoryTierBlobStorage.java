@@ -0,0 +1,275 @@
+package com.dingdangmaoup.station.storage.memory;
+
+import com.dingdangmaoup.station.storage.BlobMetadata;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.FileSystemBlobStorage;
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.index.BlobFrequency;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Memory tier in front of the filesystem store for small, hot blobs.
+ * <p>
+ * Resident blobs are held in off-heap direct buffers and served as read-only slices, so a hit costs
+ * no file open, read or copy. The tier is bounded by a byte budget; Caffeine's W-TinyLFU decides
+ * which blobs stay once it is full. A blob is only loaded after it has been read {@code min-hits}
+ * times according to the shared {@link BlobFrequency} sketch, so one-off pulls never displace
+ * resident blobs. Every read path counts, including zero-copy responses and ranges: a blob that is
+ * due is loaded in the background while the read that triggered it is served from disk.
+ * <p>
+ * Everything else, including writes, delegates to {@link FileSystemBlobStorage}.
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "station.storage.memory.enabled", havingValue = "true")
+public class MemoryTierBlobStorage implements BlobStorage {
+
+    private final FileSystemBlobStorage delegate;
+    private final BlobIndex blobIndex;
+    private final Cache<String, ByteBuffer> resident;
+    private final BlobFrequency blobFrequency;
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final long maxBlobBytes;
+    private final int minHits;
+    private final int chunkSize;
+    private final DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    private final Counter hits;
+    private final Counter misses;
+
+    public MemoryTierBlobStorage(
+            FileSystemBlobStorage delegate,
+            BlobIndex blobIndex,
+            BlobFrequency blobFrequency,
+            MeterRegistry meterRegistry,
+            @Value("${station.storage.memory.max-size:2GB}") DataSize maxSize,
+            @Value("${station.storage.memory.max-blob-size:16MB}") DataSize maxBlobSize,
+            @Value("${station.storage.memory.min-hits:2}") int minHits,
+            @Value("${station.storage.blob-chunk-size:65536}") int chunkSize) {
+        this.delegate = delegate;
+        this.blobIndex = blobIndex;
+        this.maxBlobBytes = maxBlobSize.toBytes();
+        this.minHits = minHits;
+        this.chunkSize = chunkSize;
+        this.blobFrequency = blobFrequency;
+        this.resident = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String digest, ByteBuffer buffer) -> buffer.capacity())
+                .build();
+
+        this.hits = Counter.builder("station.storage.memory.requests")
+                .tag("result", "hit")
+                .description("Blob reads served by the memory tier")
+                .register(meterRegistry);
+        this.misses = Counter.builder("station.storage.memory.requests")
+                .tag("result", "miss")
+                .description("Blob reads that went to disk")
+                .register(meterRegistry);
+        Gauge.builder("station.storage.memory.bytes", resident, cache -> cache.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0))
+                        .orElse(0L))
+                .description("Bytes held by the memory tier")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        log.info("Blob memory tier enabled: budget={}, max blob size={}, admitted after {} reads",
+                maxSize, maxBlobSize, minHits);
+    }
+
+    @Override
+    public Mono<BlobMetadata> saveBlob(String digest, Flux<DataBuffer> data) {
+        return delegate.saveBlob(digest, data);
+    }
+
+    @Override
+    public Flux<DataBuffer> saveBlobStreaming(String digest, Flux<DataBuffer> data,
+                                              Consumer<Path> partialFileListener) {
+        return delegate.saveBlobStreaming(digest, data, partialFileListener);
+    }
+
+    @Override
+    public Flux<DataBuffer> getBlob(String digest) {
+        return Flux.defer(() -> {
+            ByteBuffer buffer = resident.getIfPresent(digest);
+            if (buffer != null) {
+                hits.increment();
+                blobIndex.recordAccess(digest);
+                return slices(buffer, 0, buffer.capacity());
+            }
+
+            misses.increment();
+            if (shouldLoad(digest)) {
+                return load(digest);
+            }
+            return delegate.getBlob(digest);
+        });
+    }
+
+    @Override
+    public Flux<DataBuffer> getBlob(String digest, long offset, long length) {
+        return Flux.defer(() -> {
+            ByteBuffer buffer = resident.getIfPresent(digest);
+            if (buffer == null) {
+                misses.increment();
+                loadInBackgroundIfDue(digest);
+                return delegate.getBlob(digest, offset, length);
+            }
+
+            hits.increment();
+            if (offset == 0) {
+                blobIndex.recordAccess(digest);
+            }
+            int start = (int) Math.min(offset, buffer.capacity());
+            // "To the end" arrives as Long.MAX_VALUE, so compare before adding
+            int end = length >= buffer.capacity() - start ? buffer.capacity() : (int) (start + length);
+            return slices(buffer, start, end);
+        });
+    }
+
+    /**
+     * Resident blobs report no file, so the response writer streams them from memory
+     * instead of issuing sendfile against the page cache. This is the path most full reads
+     * take, so it is where most blobs become due for loading.
+     */
+    @Override
+    public Mono<Path> getBlobFile(String digest) {
+        return Mono.defer(() -> {
+            if (resident.getIfPresent(digest) != null) {
+                return Mono.<Path>empty();
+            }
+            misses.increment();
+            loadInBackgroundIfDue(digest);
+            return delegate.getBlobFile(digest);
+        });
+    }
+
+    @Override
+    public StorageException blobFileMissing(String digest, Throwable cause) {
+        return delegate.blobFileMissing(digest, cause);
+    }
+
+    @Override
+    public Mono<Boolean> exists(String digest) {
+        return delegate.exists(digest);
+    }
+
+    @Override
+    public Mono<BlobMetadata> getMetadata(String digest) {
+        return delegate.getMetadata(digest);
+    }
+
+    @Override
+    public Mono<Boolean> delete(String digest) {
+        return Mono.fromRunnable(() -> resident.invalidate(digest))
+                .then(delegate.delete(digest));
+    }
+
+    @Override
+    public Mono<Long> getTotalSize() {
+        return delegate.getTotalSize();
+    }
+
+    @Override
+    public Mono<Long> getAvailableSpace() {
+        return delegate.getAvailableSpace();
+    }
+
+    private boolean shouldLoad(String digest) {
+        return blobIndex.get(digest)
+                .map(entry -> entry.getSize() <= maxBlobBytes && blobFrequency.frequency(digest) >= minHits)
+                .orElse(false);
+    }
+
+    /**
+     * Load a blob that has become due while the current read is served from disk
+     */
+    private void loadInBackgroundIfDue(String digest) {
+        if (!shouldLoad(digest) || !loading.add(digest)) {
+            return;
+        }
+        readResident(digest)
+                .contextWrite(IoPriority.BACKGROUND.context())
+                .doFinally(signal -> loading.remove(digest))
+                .subscribe(
+                        buffer -> { },
+                        error -> log.warn("Failed to load blob {} into the memory tier: {}", digest, error.getMessage()));
+    }
+
+    /**
+     * Read the blob from disk into a direct buffer, make it resident and serve it from there.
+     * Concurrent first reads of the same blob go to disk rather than waiting for the load.
+     */
+    private Flux<DataBuffer> load(String digest) {
+        if (!loading.add(digest)) {
+            return delegate.getBlob(digest);
+        }
+
+        return readResident(digest)
+                .doFinally(signal -> loading.remove(digest))
+                .flatMapMany(buffer -> slices(buffer, 0, buffer.capacity()));
+    }
+
+    /**
+     * Read a blob into a read-only direct buffer and make it resident
+     */
+    private Mono<ByteBuffer> readResident(String digest) {
+        return DataBufferUtils.join(delegate.getBlob(digest))
+                .map(joined -> {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(joined.readableByteCount());
+                        try (DataBuffer.ByteBufferIterator iterator = joined.readableByteBuffers()) {
+                            while (iterator.hasNext()) {
+                                buffer.put(iterator.next());
+                            }
+                        }
+                        buffer.flip();
+                        return buffer.asReadOnlyBuffer();
+                    } finally {
+                        DataBufferUtils.release(joined);
+                    }
+                })
+                .doOnNext(buffer -> {
+                    resident.put(digest, buffer);
+                    log.debug("Loaded blob {} into the memory tier ({} bytes)", digest, buffer.capacity());
+                });
+    }
+
+    /**
+     * Chunk [start, end) of a resident buffer into read-only views; nothing is copied
+     */
+    private Flux<DataBuffer> slices(ByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            return Flux.empty();
+        }
+        int count = (end - start + chunkSize - 1) / chunkSize;
+        return Flux.range(0, count)
+                .map(i -> {
+                    int from = start + i * chunkSize;
+                    int to = Math.min(from + chunkSize, end);
+                    return bufferFactory.wrap(buffer.slice(from, to - from));
+                });
+    }
+}
@@ -0,0 +1,430 @@
+package com.dingdangmaoup.station.storage.objectstore;
+
+import com.dingdangmaoup.station.config.properties.ObjectStoreProperties;
+import com.dingdangmaoup.station.storage.BlobMetadata;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.BlobStream;
+import com.dingdangmaoup.station.storage.DigestVerifier;
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.buffer.BlobBuffers;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Fallback;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.checksums.RequestChecksumCalculation;
+import software.amazon.awssdk.core.checksums.ResponseChecksumValidation;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blob storage in an S3-compatible object store, shared by all nodes of the cluster.
+ * <p>
+ * Sits between local disk and Docker Hub: a node that misses locally and at its peers looks here
+ * before going upstream, and blobs committed locally are written back (see {@link ObjectStoreWriteBack}),
+ * so a freshly scheduled node warms at LAN speed and Docker Hub egress does not grow with the node count.
+ * <p>
+ * Blobs are keyed by digest under {@code prefix}. Uploads are multipart with {@code upload-concurrency}
+ * parts in flight; downloads fetch {@code range-size} byte ranges, {@code download-concurrency} at a
+ * time, and emit them in order. Streamed uploads are hashed and aborted before completion if the
+ * content does not match the digest, so a corrupt blob never becomes visible to other nodes.
+ * Parts are sent straight from the buffers they arrived in, without copying them into a part-sized
+ * array first.
+ * <p>
+ * Registered as a fallback bean: plain {@code BlobStorage} injection points keep getting the local store.
+ */
+@Slf4j
+@Fallback
+@Component
+@ConditionalOnProperty(name = "station.storage.object-store.enabled", havingValue = "true")
+public class ObjectStoreBlobStorage implements BlobStorage {
+
+    private final S3AsyncClient client;
+    private final BlobBuffers blobBuffers;
+    private final String bucket;
+    private final String prefix;
+    private final boolean createBucket;
+    private final long partSize;
+    private final int uploadConcurrency;
+    private final long rangeSize;
+    private final int downloadConcurrency;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter uploadedBytes;
+    private final Counter downloadedBytes;
+
+    public ObjectStoreBlobStorage(
+            ObjectStoreProperties properties,
+            BlobBuffers blobBuffers,
+            MeterRegistry meterRegistry) {
+        this.client = newClient(properties);
+        this.blobBuffers = blobBuffers;
+        this.bucket = properties.getBucket();
+        this.prefix = properties.getPrefix();
+        this.createBucket = properties.isCreateBucket();
+        this.partSize = properties.getPartSize().toBytes();
+        this.uploadConcurrency = Math.max(1, properties.getUploadConcurrency());
+        this.rangeSize = properties.getRangeSize().toBytes();
+        this.downloadConcurrency = Math.max(1, properties.getDownloadConcurrency());
+
+        this.hits = Counter.builder("station.storage.object-store.requests")
+                .tag("result", "hit")
+                .description("Blob lookups found in the object store")
+                .register(meterRegistry);
+        this.misses = Counter.builder("station.storage.object-store.requests")
+                .tag("result", "miss")
+                .description("Blob lookups not found in the object store")
+                .register(meterRegistry);
+        this.uploadedBytes = Counter.builder("station.storage.object-store.bytes")
+                .tag("direction", "upload")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.downloadedBytes = Counter.builder("station.storage.object-store.bytes")
+                .tag("direction", "download")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        log.info("Object store enabled: bucket={}, endpoint={}, parts of {} x{}, ranges of {} x{}",
+                bucket, StringUtils.hasText(properties.getEndpoint()) ? properties.getEndpoint() : "aws",
+                properties.getPartSize(), uploadConcurrency, properties.getRangeSize(), downloadConcurrency);
+    }
+
+    private static S3AsyncClient newClient(ObjectStoreProperties properties) {
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                .region(Region.of(properties.getRegion()))
+                .forcePathStyle(properties.isPathStyle())
+                // Not every S3-compatible store accepts the default trailing checksums
+                .requestChecksumCalculation(RequestChecksumCalculation.WHEN_REQUIRED)
+                .responseChecksumValidation(ResponseChecksumValidation.WHEN_REQUIRED)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(properties.getMaxConnections()));
+        if (StringUtils.hasText(properties.getEndpoint())) {
+            builder.endpointOverride(URI.create(properties.getEndpoint()));
+        }
+        if (StringUtils.hasText(properties.getAccessKey())) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(
+                    AwsBasicCredentials.create(properties.getAccessKey(), properties.getSecretKey())));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check the bucket is reachable, creating it if configured to
+     */
+    @PostConstruct
+    public void checkBucket() {
+        try {
+            client.headBucket(request -> request.bucket(bucket)).join();
+        } catch (CompletionException e) {
+            if (createBucket && isNotFound(e)) {
+                client.createBucket(request -> request.bucket(bucket)).join();
+                log.info("Created object store bucket {}", bucket);
+            } else {
+                // Not fatal: lookups fall through to Docker Hub until the store is reachable
+                log.warn("Object store bucket {} is not reachable: {}", bucket, e.getCause().getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
+
+    /**
+     * Open a blob for ingest into local storage, or empty if the object store does not have it
+     * or cannot be reached
+     */
+    public Mono<Optional<BlobStream>> open(String digest) {
+        return head(digest)
+                .map(head -> {
+                    if (head.isEmpty()) {
+                        misses.increment();
+                        return Optional.<BlobStream>empty();
+                    }
+                    hits.increment();
+                    long size = head.get().contentLength();
+                    return Optional.of(BlobStream.builder()
+                            .size(size)
+                            .data(read(key(digest), 0, size))
+                            .build());
+                })
+                .onErrorResume(error -> {
+                    log.warn("Object store lookup failed for blob {}: {}", digest, error.getMessage());
+                    return Mono.just(Optional.empty());
+                });
+    }
+
+    @Override
+    public Mono<BlobMetadata> saveBlob(String digest, Flux<DataBuffer> data) {
+        return Mono.defer(() -> {
+            DigestVerifier verifier = new DigestVerifier(digest);
+            return multipartUpload(key(digest), joinParts(data.doOnNext(verifier::update)), verifier::verify)
+                    .map(size -> metadata(digest, size, Instant.now()));
+        });
+    }
+
+    /**
+     * Upload a blob that has already been verified, e.g. read back from local storage. Blobs up to
+     * the part size go up in one request; larger ones part by part, pulling the stream as parts
+     * are sent, so only {@code upload-concurrency} parts are held in memory at a time.
+     */
+    public Mono<BlobMetadata> upload(String digest, Flux<DataBuffer> data, long size) {
+        String key = key(digest);
+        Mono<Long> upload;
+        if (size <= partSize) {
+            upload = data.collectList()
+                    .map(Part::of)
+                    .flatMap(part -> putObject(key, part.body(), part.length())
+                            .doFinally(signal -> part.release())
+                            .thenReturn(part.length()))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        } else {
+            upload = multipartUpload(key, joinParts(data), () -> { });
+        }
+        return upload.map(bytes -> metadata(digest, bytes, Instant.now()));
+    }
+
+    @Override
+    public Flux<DataBuffer> getBlob(String digest) {
+        return head(digest).flatMapMany(head -> head.isPresent()
+                ? read(key(digest), 0, head.get().contentLength())
+                : Flux.error(new StorageException("Blob not found in object store: " + digest)));
+    }
+
+    @Override
+    public Flux<DataBuffer> getBlob(String digest, long offset, long length) {
+        return head(digest).flatMapMany(head -> {
+            if (head.isEmpty()) {
+                return Flux.error(new StorageException("Blob not found in object store: " + digest));
+            }
+            long size = head.get().contentLength();
+            long start = Math.min(offset, size);
+            return read(key(digest), start, Math.min(length, size - start));
+        });
+    }
+
+    @Override
+    public Mono<Boolean> exists(String digest) {
+        return head(digest).map(Optional::isPresent);
+    }
+
+    @Override
+    public Mono<BlobMetadata> getMetadata(String digest) {
+        return head(digest).map(head -> head
+                .map(response -> metadata(digest, response.contentLength(), response.lastModified()))
+                .orElseThrow(() -> new StorageException("Blob not found in object store: " + digest)));
+    }
+
+    @Override
+    public Mono<Boolean> delete(String digest) {
+        return head(digest).flatMap(head -> head.isEmpty()
+                ? Mono.just(false)
+                : Mono.fromFuture(() -> client.deleteObject(request -> request.bucket(bucket).key(key(digest))))
+                        .doOnNext(response -> log.info("Deleted blob {} from object store", digest))
+                        .thenReturn(true));
+    }
+
+    @Override
+    public Mono<Long> getTotalSize() {
+        return Flux.from(client.listObjectsV2Paginator(request -> request.bucket(bucket).prefix(prefix)).contents())
+                .map(S3Object::size)
+                .reduce(0L, Long::sum);
+    }
+
+    @Override
+    public Mono<Long> getAvailableSpace() {
+        // Object stores grow on demand
+        return Mono.just(Long.MAX_VALUE);
+    }
+
+    private String key(String digest) {
+        return prefix + digest.replace(':', '/');
+    }
+
+    private Mono<Optional<HeadObjectResponse>> head(String digest) {
+        return Mono.fromFuture(() -> client.headObject(request -> request.bucket(bucket).key(key(digest))))
+                .map(Optional::of)
+                .onErrorResume(ObjectStoreBlobStorage::isNotFound, error -> Mono.just(Optional.empty()));
+    }
+
+    /**
+     * Read a byte range as consecutive ranged GETs, several in flight, emitted in order
+     */
+    private Flux<DataBuffer> read(String key, long offset, long length) {
+        if (length <= 0) {
+            return Flux.empty();
+        }
+        int ranges = (int) ((length + rangeSize - 1) / rangeSize);
+        return Flux.range(0, ranges)
+                .flatMapSequential(range -> {
+                    long first = offset + range * rangeSize;
+                    long last = Math.min(offset + length, first + rangeSize) - 1;
+                    return readRange(key, first, last);
+                }, downloadConcurrency)
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    private Flux<DataBuffer> readRange(String key, long first, long last) {
+        return Mono.fromFuture(() -> client.getObject(
+                        request -> request.bucket(bucket).key(key).range("bytes=" + first + "-" + last),
+                        AsyncResponseTransformer.<GetObjectResponse>toPublisher()))
+                .flatMapMany(Flux::from)
+                .map(bytes -> {
+                    downloadedBytes.increment(bytes.remaining());
+                    return blobBuffers.copyOf(bytes);
+                });
+    }
+
+    /**
+     * Upload parts in parallel and complete the upload once all are stored. The check runs before
+     * completion; if it throws, or anything fails or is cancelled, the upload is aborted.
+     */
+    private Mono<Long> multipartUpload(String key, Flux<Part> parts, Runnable beforeComplete) {
+        return Mono.fromFuture(() -> client.createMultipartUpload(request -> request.bucket(bucket).key(key)))
+                .flatMap(created -> {
+                    String uploadId = created.uploadId();
+                    AtomicLong bytes = new AtomicLong();
+                    // Parts reach the mapper one at a time, in order
+                    AtomicInteger partNumbers = new AtomicInteger();
+                    return parts
+                            .flatMapSequential(part -> {
+                                bytes.addAndGet(part.length());
+                                return uploadPart(key, uploadId, partNumbers.incrementAndGet(), part);
+                            }, uploadConcurrency)
+                            .doOnDiscard(Part.class, Part::release)
+                            .collectList()
+                            .flatMap(completed -> {
+                                beforeComplete.run();
+                                if (completed.isEmpty()) {
+                                    // Empty blob; a multipart upload needs at least one part
+                                    return abort(key, uploadId).then(putObject(key, AsyncRequestBody.empty(), 0));
+                                }
+                                return complete(key, uploadId, completed);
+                            })
+                            .onErrorResume(error -> abort(key, uploadId).then(Mono.error(error)))
+                            .doOnCancel(() -> abort(key, uploadId).subscribe())
+                            .then(Mono.fromSupplier(bytes::get));
+                })
+                .onErrorMap(error -> !(error instanceof StorageException),
+                        error -> new StorageException("Failed to upload " + key + " to object store", error));
+    }
+
+    private Mono<CompletedPart> uploadPart(String key, String uploadId, int partNumber, Part part) {
+        return Mono.fromFuture(() -> client.uploadPart(request -> request.bucket(bucket).key(key)
+                                .uploadId(uploadId).partNumber(partNumber).contentLength(part.length()),
+                        part.body()))
+                .doOnNext(response -> uploadedBytes.increment(part.length()))
+                .map(response -> CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build())
+                .doFinally(signal -> part.release());
+    }
+
+    private Mono<Void> complete(String key, String uploadId, List<CompletedPart> parts) {
+        return Mono.fromFuture(() -> client.completeMultipartUpload(request -> request.bucket(bucket).key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(upload -> upload.parts(parts))))
+                .then();
+    }
+
+    private Mono<Void> abort(String key, String uploadId) {
+        return Mono.fromFuture(() -> client.abortMultipartUpload(request -> request.bucket(bucket).key(key)
+                        .uploadId(uploadId)))
+                .then()
+                .onErrorResume(error -> {
+                    log.warn("Failed to abort upload of {}: {}", key, error.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> putObject(String key, AsyncRequestBody body, long length) {
+        return Mono.fromFuture(() -> client.putObject(request -> request.bucket(bucket).key(key).contentLength(length), body))
+                .doOnNext(response -> uploadedBytes.increment(length))
+                .then();
+    }
+
+    /**
+     * Group a blob stream into parts of at least the part size; the last part may be smaller
+     */
+    private Flux<Part> joinParts(Flux<DataBuffer> data) {
+        return Flux.defer(() -> {
+            AtomicLong pending = new AtomicLong();
+            return data
+                    .bufferUntil(buffer -> {
+                        if (pending.addAndGet(buffer.readableByteCount()) < partSize) {
+                            return false;
+                        }
+                        pending.set(0);
+                        return true;
+                    })
+                    .map(Part::of)
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        });
+    }
+
+    /**
+     * The buffers making up one upload part, owned by the upload until the part has been sent
+     */
+    private record Part(List<DataBuffer> buffers, long length) {
+
+        static Part of(List<DataBuffer> buffers) {
+            return new Part(buffers, buffers.stream().mapToLong(DataBuffer::readableByteCount).sum());
+        }
+
+        /**
+         * The part's bytes as views of its buffers, taken afresh on every subscription so the
+         * client can retry the request
+         */
+        AsyncRequestBody body() {
+            return AsyncRequestBody.fromPublisher(Flux.fromIterable(buffers)
+                    .concatMap(buffer -> Flux.using(buffer::readableByteBuffers,
+                            iterator -> Flux.fromIterable(() -> iterator),
+                            DataBuffer.ByteBufferIterator::close)));
+        }
+
+        void release() {
+            buffers.forEach(DataBufferUtils::release);
+        }
+    }
+
+    private static BlobMetadata metadata(String digest, long size, Instant createdAt) {
+        return BlobMetadata.builder()
+                .digest(digest)
+                .size(size)
+                .createdAt(createdAt)
+                .lastAccessedAt(createdAt)
+                .verified(true)
+                .build();
+    }
+
+    private static boolean isNotFound(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof S3Exception s3 && s3.statusCode() == 404;
+    }
+}
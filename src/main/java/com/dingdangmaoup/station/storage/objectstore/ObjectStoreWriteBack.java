@@ -0,0 +1,118 @@
+package com.dingdangmaoup.station.storage.objectstore;
+
+import com.dingdangmaoup.station.config.properties.ObjectStoreProperties;
+import com.dingdangmaoup.station.storage.BlobCommittedEvent;
+import com.dingdangmaoup.station.storage.BlobMetadata;
+import com.dingdangmaoup.station.storage.FileSystemBlobStorage;
+import com.dingdangmaoup.station.storage.scheduler.IoPriority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes blobs committed to local storage back to the shared object store, off the request path.
+ * <p>
+ * Every commit is queued; blobs the object store already has (typically ones this node just pulled
+ * from it) are skipped after a HEAD. At most {@code write-back-concurrency} blobs upload at once,
+ * each read from local storage at background I/O priority and only as fast as its parts are sent,
+ * so write-back stays a trickle next to client reads.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = {"station.storage.object-store.enabled", "station.storage.object-store.write-back"},
+        havingValue = "true")
+public class ObjectStoreWriteBack {
+
+    private final ObjectStoreBlobStorage objectStore;
+    private final FileSystemBlobStorage localStorage;
+    private final int concurrency;
+    private final Sinks.Many<BlobCommittedEvent> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Counter uploaded;
+    private final Counter present;
+    private final Counter failed;
+    private Disposable subscription;
+
+    public ObjectStoreWriteBack(
+            ObjectStoreBlobStorage objectStore,
+            FileSystemBlobStorage localStorage,
+            ObjectStoreProperties properties,
+            MeterRegistry meterRegistry) {
+        this.objectStore = objectStore;
+        this.localStorage = localStorage;
+        this.concurrency = Math.max(1, properties.getWriteBackConcurrency());
+
+        this.uploaded = Counter.builder("station.storage.object-store.write-backs")
+                .tag("result", "uploaded")
+                .description("Committed blobs uploaded to the object store")
+                .register(meterRegistry);
+        this.present = Counter.builder("station.storage.object-store.write-backs")
+                .tag("result", "present")
+                .description("Committed blobs the object store already had")
+                .register(meterRegistry);
+        this.failed = Counter.builder("station.storage.object-store.write-backs")
+                .tag("result", "failed")
+                .description("Committed blobs that could not be uploaded")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        subscription = queue.asFlux()
+                .flatMap(this::writeBack, concurrency)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        queue.tryEmitComplete();
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    @EventListener
+    public void onBlobCommitted(BlobCommittedEvent event) {
+        if (pending.add(event.digest())) {
+            // Commits arrive from many threads; retry briefly when another emission is in progress
+            queue.emitNext(event, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+        }
+    }
+
+    private Mono<Void> writeBack(BlobCommittedEvent event) {
+        String digest = event.digest();
+        return objectStore.exists(digest)
+                .flatMap(exists -> {
+                    if (exists) {
+                        present.increment();
+                        return Mono.<BlobMetadata>empty();
+                    }
+                    // Read through the I/O scheduler, so client reads of the same disk go first
+                    return objectStore.upload(digest, localStorage.getBlob(digest), event.size())
+                            .doOnNext(metadata -> {
+                                uploaded.increment();
+                                log.debug("Wrote blob {} back to the object store ({} bytes)", digest, metadata.getSize());
+                            });
+                })
+                .contextWrite(IoPriority.BACKGROUND.context())
+                .onErrorResume(error -> {
+                    failed.increment();
+                    log.warn("Failed to write blob {} back to the object store: {}", digest, error.getMessage());
+                    return Mono.empty();
+                })
+                .doFinally(signal -> pending.remove(digest))
+                .then();
+    }
+}
@@ -0,0 +1,350 @@
+package com.dingdangmaoup.station.storage.placement;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Spreads blobs over one or more storage roots (JBOD).
+ * <p>
+ * Placement is weighted rendezvous hashing on the digest: every root gets a score scaled by its
+ * capacity and the blob goes to the highest-scoring healthy root. Disks fill in proportion to
+ * their size, adding a disk moves only the blobs that now score highest on it, and a failed
+ * disk's blobs fall through to each blob's next-best root.
+ * <p>
+ * Each root has its own I/O scheduler, so a slow or failing disk cannot starve the others.
+ * Roots are probed on I/O errors and periodically; a failed root is taken out of placement and
+ * the blobs homed on it are dropped from the index, to be re-fetched on their next request.
+ * A recovered root is put back, and the reconciler re-indexes whatever survived on it.
+ * <p>
+ * Without {@code station.storage.blob-roots} there is a single root at the base path,
+ * which is the classic single-disk layout.
+ * <p>
+ * Roots listed in {@code station.storage.cold-roots} form a cold tier: new blobs are always placed
+ * on the hot roots, and only the {@link com.dingdangmaoup.station.storage.tier.TierMigrator}
+ * moves blobs between the tiers. Lookups and deletes cover both tiers, hot roots first.
+ */
+@Slf4j
+@Component
+public class BlobPlacement {
+
+    private static final String PROBE_FILE = ".probe";
+
+    private final List<StorageRoot> roots;
+    private final BlobIndex blobIndex;
+    private final StorageSchedulers storageSchedulers;
+
+    public BlobPlacement(
+            @Value("${station.storage.base-path:/data/station}") String basePath,
+            @Value("${station.storage.temp-dir:${station.storage.base-path}/temp}") String tempDir,
+            @Value("${station.storage.blob-roots:}") List<String> blobRoots,
+            @Value("${station.storage.cold-roots:}") List<String> coldRoots,
+            @Value("${station.storage.threads-per-root:16}") int threadsPerRoot,
+            BlobIndex blobIndex,
+            StorageSchedulers storageSchedulers) {
+        this.blobIndex = blobIndex;
+        this.storageSchedulers = storageSchedulers;
+
+        List<String> configured = trimmed(blobRoots);
+        List<String> coldConfigured = trimmed(coldRoots);
+        List<StorageRoot> created = new ArrayList<>();
+        if (configured.isEmpty()) {
+            created.add(new StorageRoot(0, Paths.get(basePath), Paths.get(tempDir, "downloads"),
+                    1, storageSchedulers.blocking(), StorageTier.HOT));
+        } else {
+            for (String path : configured) {
+                created.add(createRoot(created.size(), Paths.get(path), StorageTier.HOT, threadsPerRoot));
+            }
+        }
+        for (String path : coldConfigured) {
+            created.add(createRoot(created.size(), Paths.get(path), StorageTier.COLD, threadsPerRoot));
+        }
+        this.roots = List.copyOf(created);
+    }
+
+    private StorageRoot createRoot(int id, Path path, StorageTier tier, int threadsPerRoot) {
+        Path temp = path.resolve("temp").resolve("downloads");
+        try {
+            Files.createDirectories(path.resolve("blobs"));
+            Files.createDirectories(temp);
+        } catch (IOException e) {
+            throw new StorageException("Failed to initialize storage root " + path, e);
+        }
+        Scheduler scheduler = storageSchedulers.newScheduler(
+                (tier == StorageTier.COLD ? "station-cold-" : "station-disk-") + id, threadsPerRoot);
+        StorageRoot root = new StorageRoot(id, path, temp, capacityWeight(path), scheduler, tier);
+        log.info("Storage root {}: {} ({}, weight {})", id, path, tier, String.format("%.1f", root.getWeight()));
+        return root;
+    }
+
+    private static List<String> trimmed(List<String> paths) {
+        return paths.stream()
+                .map(String::trim)
+                .filter(path -> !path.isEmpty())
+                .toList();
+    }
+
+    public List<StorageRoot> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Whether cold roots are configured
+     */
+    public boolean isTiered() {
+        return roots.stream().anyMatch(root -> root.getTier() == StorageTier.COLD);
+    }
+
+    /**
+     * The healthy hot root a new copy of the blob is written to
+     */
+    public StorageRoot place(String digest) {
+        return rank(digest, StorageTier.HOT).getFirst();
+    }
+
+    /**
+     * Healthy roots in the blob's preference order, hot tier before cold tier
+     *
+     * @throws StorageException if no root is healthy
+     */
+    public List<StorageRoot> rank(String digest) {
+        List<StorageRoot> ranked = ranked(digest, null);
+        if (ranked.isEmpty()) {
+            throw new StorageException("No healthy storage root");
+        }
+        return ranked;
+    }
+
+    /**
+     * Healthy roots of one tier in the blob's preference order
+     *
+     * @throws StorageException if no root of the tier is healthy
+     */
+    public List<StorageRoot> rank(String digest, StorageTier tier) {
+        List<StorageRoot> ranked = ranked(digest, tier);
+        if (ranked.isEmpty()) {
+            throw new StorageException("No healthy " + tier.name().toLowerCase() + " storage root");
+        }
+        return ranked;
+    }
+
+    private List<StorageRoot> ranked(String digest, StorageTier tier) {
+        long key = key(digest);
+        List<StorageRoot> ranked = new ArrayList<>(roots.size());
+        for (StorageRoot root : roots) {
+            if (root.isHealthy() && (tier == null || root.getTier() == tier)) {
+                ranked.add(root);
+            }
+        }
+        if (ranked.size() > 1) {
+            ranked.sort(Comparator.comparing(StorageRoot::getTier)
+                    .thenComparing(Comparator.comparingDouble((StorageRoot root) -> score(root, key)).reversed()));
+        }
+        return ranked;
+    }
+
+    /**
+     * Scheduler for I/O on the blob's preferred root
+     */
+    public Scheduler scheduler(String digest) {
+        if (roots.size() == 1) {
+            return roots.getFirst().getScheduler();
+        }
+        try {
+            return place(digest).getScheduler();
+        } catch (StorageException e) {
+            return storageSchedulers.blocking();
+        }
+    }
+
+    /**
+     * Report a failed I/O on a root. Anything but a missing file gets the root probed,
+     * and it is taken out of placement if the probe fails too.
+     */
+    public void reportError(StorageRoot root, Throwable error) {
+        if (roots.size() == 1 || !root.isHealthy() || !isIoFailure(error)) {
+            return;
+        }
+        Mono.fromRunnable(() -> {
+                    if (!probe(root)) {
+                        markFailed(root);
+                    }
+                })
+                .subscribeOn(storageSchedulers.blocking())
+                .subscribe();
+    }
+
+    /**
+     * Probe every root, failing unresponsive ones and restoring recovered ones
+     */
+    @Scheduled(fixedDelayString = "${station.storage.root-check-interval:30s}")
+    public void checkRoots() {
+        if (roots.size() == 1) {
+            return;
+        }
+        for (StorageRoot root : roots) {
+            boolean ok = probe(root);
+            if (!ok && root.isHealthy()) {
+                markFailed(root);
+            } else if (ok && !root.isHealthy()) {
+                root.setHealthy(true);
+                log.warn("Storage root {} recovered, placing blobs on it again", root);
+            }
+        }
+    }
+
+    /**
+     * Usable bytes across healthy roots, counting each filesystem once
+     */
+    public long getAvailableSpace() throws IOException {
+        Set<FileStore> stores = new HashSet<>();
+        long available = 0;
+        for (StorageRoot root : roots) {
+            if (!root.isHealthy()) {
+                continue;
+            }
+            FileStore store = Files.getFileStore(root.getPath());
+            if (stores.add(store)) {
+                available += store.getUsableSpace();
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Filesystem usage of a tier's healthy roots in percent, counting each filesystem once
+     */
+    public double getUsagePercent(StorageTier tier) throws IOException {
+        Set<FileStore> stores = new HashSet<>();
+        long total = 0;
+        long usable = 0;
+        for (StorageRoot root : roots) {
+            if (!root.isHealthy() || root.getTier() != tier) {
+                continue;
+            }
+            FileStore store = Files.getFileStore(root.getPath());
+            if (stores.add(store)) {
+                total += store.getTotalSpace();
+                usable += store.getUsableSpace();
+            }
+        }
+        return total > 0 ? (double) (total - usable) / total * 100 : 0;
+    }
+
+    /**
+     * Temp directories of all roots, for orphan cleanup
+     */
+    public List<Path> getTempDirectories() {
+        return roots.stream().map(StorageRoot::getTempDirectory).distinct().toList();
+    }
+
+    private void markFailed(StorageRoot root) {
+        root.setHealthy(false);
+
+        // Drop blobs whose home is this root; copies written elsewhere while it was down stay indexed
+        int dropped = 0;
+        for (BlobIndexEntry entry : blobIndex.entries()) {
+            if (home(entry.getDigest(), root.getTier()) == root) {
+                blobIndex.remove(entry.getDigest());
+                dropped++;
+            }
+        }
+        log.error("Storage root {} failed, taken out of placement; {} blobs dropped from the index",
+                root, dropped);
+    }
+
+    /**
+     * The root of a tier a blob is placed on when every root is healthy
+     */
+    private StorageRoot home(String digest, StorageTier tier) {
+        long key = key(digest);
+        return roots.stream()
+                .filter(root -> root.getTier() == tier)
+                .max(Comparator.comparingDouble(root -> score(root, key)))
+                .orElseThrow();
+    }
+
+    private boolean probe(StorageRoot root) {
+        Path probe = root.getTempDirectory().resolve(PROBE_FILE);
+        try {
+            Files.write(probe, new byte[]{1});
+            Files.delete(probe);
+            return true;
+        } catch (IOException | SecurityException e) {
+            log.warn("Storage root {} probe failed: {}", root, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean isIoFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoSuchFileException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double capacityWeight(Path path) {
+        try {
+            // Weight in GB, so the score math stays in a comfortable range
+            return Math.max(1, Files.getFileStore(path).getTotalSpace() / (double) (1L << 30));
+        } catch (IOException e) {
+            log.warn("Cannot read capacity of {}, weighting it as 1GB", path);
+            return 1;
+        }
+    }
+
+    /**
+     * Weighted rendezvous score: weight / -ln(u) with u uniform in (0, 1)
+     */
+    static double score(StorageRoot root, long key) {
+        long hash = mix(key ^ root.getSeed());
+        double uniform = ((hash >>> 11) + 0.5) * 0x1.0p-53;
+        return root.getWeight() / -Math.log(uniform);
+    }
+
+    static long key(String digest) {
+        // Content digests are already uniformly distributed: use the leading 64 bits of the hash
+        int colonIndex = digest.indexOf(':');
+        String hash = digest.substring(colonIndex + 1);
+        if (hash.length() >= 16) {
+            try {
+                return Long.parseUnsignedLong(hash, 0, 16, 16);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return mix(digest.hashCode());
+    }
+
+    static long mix(long value) {
+        // SplitMix64 finalizer
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,50 @@
+package com.dingdangmaoup.station.storage.placement;
+
+import lombok.Getter;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.file.Path;
+
+/**
+ * One blob directory tree, typically one physical disk. Blobs live under
+ * {@code <path>/blobs/<algorithm>/<prefix>/<hash>} and are staged in a temp directory on the
+ * same filesystem, so the commit rename stays atomic.
+ */
+@Getter
+public class StorageRoot {
+
+    private final int id;
+    private final Path path;
+    private final Path tempDirectory;
+    private final double weight;
+    private final long seed;
+    private final Scheduler scheduler;
+    private final StorageTier tier;
+    private volatile boolean healthy = true;
+
+    StorageRoot(int id, Path path, Path tempDirectory, double weight, Scheduler scheduler, StorageTier tier) {
+        this.id = id;
+        this.path = path;
+        this.tempDirectory = tempDirectory;
+        this.weight = weight;
+        this.seed = BlobPlacement.mix(path.toAbsolutePath().toString().hashCode());
+        this.scheduler = scheduler;
+        this.tier = tier;
+    }
+
+    /**
+     * Resolve a path relative to the root, e.g. {@code blobs/sha256/ab/ab12...}
+     */
+    public Path resolve(Path relative) {
+        return path.resolve(relative);
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,10 @@
+package com.dingdangmaoup.station.storage.placement;
+
+/**
+ * Storage class of a root: new and frequently read blobs live on the hot tier (e.g. NVMe),
+ * blobs demoted for lack of use on the cold tier (e.g. a large HDD or SAN volume)
+ */
+public enum StorageTier {
+    HOT,
+    COLD
+}
@@ -0,0 +1,31 @@
+package com.dingdangmaoup.station.storage.scheduler;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Priority class of storage I/O, highest first.
+ * <p>
+ * Carried in the Reactor context, so a caller marks a whole pipeline, e.g. an eviction run, with
+ * {@code .contextWrite(IoPriority.BACKGROUND.context())} and every storage call inside it is
+ * scheduled in that class without the storage API taking a priority argument.
+ */
+public enum IoPriority {
+
+    FOREGROUND,
+    INGEST,
+    BACKGROUND;
+
+    private static final String CONTEXT_KEY = IoPriority.class.getName();
+
+    public Context context() {
+        return Context.of(CONTEXT_KEY, this);
+    }
+
+    /**
+     * The priority set on the pipeline, or the fallback if none is
+     */
+    public static IoPriority from(ContextView context, IoPriority fallback) {
+        return context.getOrDefault(CONTEXT_KEY, fallback);
+    }
+}
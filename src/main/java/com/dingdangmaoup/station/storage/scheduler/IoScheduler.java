@@ -0,0 +1,301 @@
+package com.dingdangmaoup.station.storage.scheduler;
+
+import com.dingdangmaoup.station.config.properties.StorageIoProperties;
+import com.dingdangmaoup.station.config.properties.StorageIoProperties.IoClass;
+import com.dingdangmaoup.station.storage.health.StorageHealthChangedEvent;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control for storage I/O by {@link IoPriority}.
+ * <p>
+ * Each class has an optional concurrency limit and bandwidth limit. Waiting operations are admitted
+ * strictly by priority: nothing of a lower class starts while a higher class has operations
+ * waiting. On top of that, background work yields while {@code background-yield-threshold}
+ * foreground operations are in flight, for at most {@code max-yield}, so eviction walks and
+ * migrations back off while clients are pulling instead of competing for the disks with them.
+ * While storage is degraded (see {@link StorageLatencyMonitor}) background work is shed entirely
+ * and waits for the disks to recover, however long it has been waiting.
+ * <p>
+ * An admitted operation holds its slot until it terminates or is cancelled, and an ingest stream
+ * for the whole transfer. A blob read holds it only for the open and first chunk: the rest moves at
+ * the pace the client takes it, and a slow client must not keep background work yielding.
+ */
+@Slf4j
+@Component
+public class IoScheduler {
+
+    private final Map<IoPriority, IoClassState> classes = new EnumMap<>(IoPriority.class);
+    private final int backgroundYieldThreshold;
+    private final Duration maxYield;
+    private final StorageLatencyMonitor latencyMonitor;
+
+    public IoScheduler(StorageIoProperties properties, StorageLatencyMonitor latencyMonitor, MeterRegistry meterRegistry) {
+        this.latencyMonitor = latencyMonitor;
+        this.backgroundYieldThreshold = properties.getBackgroundYieldThreshold();
+        this.maxYield = properties.getMaxYield();
+        classes.put(IoPriority.FOREGROUND, new IoClassState(properties.getForeground()));
+        classes.put(IoPriority.INGEST, new IoClassState(properties.getIngest()));
+        classes.put(IoPriority.BACKGROUND, new IoClassState(properties.getBackground()));
+
+        classes.forEach((priority, state) -> {
+            String name = priority.name().toLowerCase();
+            Gauge.builder("station.storage.io.active", state, s -> s.active)
+                    .tag("class", name)
+                    .description("Storage operations in flight")
+                    .register(meterRegistry);
+            Gauge.builder("station.storage.io.waiting", state, s -> s.waiting.size())
+                    .tag("class", name)
+                    .description("Storage operations waiting for admission")
+                    .register(meterRegistry);
+            log.info("I/O class {}: max concurrency {}, bandwidth {}", name,
+                    state.maxConcurrency > 0 ? state.maxConcurrency : "unlimited",
+                    state.bandwidth != null ? state.bandwidth.bytesPerSecond + " B/s" : "unlimited");
+        });
+    }
+
+    /**
+     * Run an operation in the pipeline's priority class, or the fallback class if it sets none
+     */
+    public <T> Mono<T> schedule(Mono<T> operation, IoPriority fallback) {
+        return Mono.deferContextual(context -> admit(IoPriority.from(context, fallback))
+                .flatMap(permit -> operation.doFinally(signal -> permit.release())));
+    }
+
+    /**
+     * Run a streaming operation in the pipeline's priority class, or the fallback class if it sets none
+     */
+    public <T> Flux<T> schedule(Flux<T> operation, IoPriority fallback) {
+        return Flux.deferContextual(context -> admit(IoPriority.from(context, fallback))
+                .flatMapMany(permit -> operation.doFinally(signal -> permit.release())));
+    }
+
+    /**
+     * Run a blob transfer in the pipeline's priority class, paced to the class bandwidth
+     */
+    public Flux<DataBuffer> transfer(Flux<DataBuffer> data, IoPriority fallback) {
+        return Flux.deferContextual(context -> {
+            IoPriority priority = IoPriority.from(context, fallback);
+            return admit(priority).flatMapMany(permit -> paced(data, priority)
+                    .doFinally(signal -> permit.release()));
+        });
+    }
+
+    /**
+     * Run a blob read in the pipeline's priority class, paced to the class bandwidth. The slot is
+     * released once the first chunk is read, when the open and the seek have hit the disk.
+     */
+    public Flux<DataBuffer> read(Flux<DataBuffer> data, IoPriority fallback) {
+        return Flux.deferContextual(context -> {
+            IoPriority priority = IoPriority.from(context, fallback);
+            return admit(priority).flatMapMany(permit -> paced(data, priority)
+                    .doOnNext(buffer -> permit.release())
+                    .doFinally(signal -> permit.release()));
+        });
+    }
+
+    /**
+     * Wait until {@code bytes} moved outside a buffer stream (e.g. a file-to-file copy) fit the
+     * bandwidth of the pipeline's priority class. Admission is still up to {@link #schedule}.
+     */
+    public Mono<Void> pace(long bytes, IoPriority fallback) {
+        return Mono.deferContextual(context -> {
+            Bandwidth bandwidth = classes.get(IoPriority.from(context, fallback)).bandwidth;
+            return bandwidth == null ? Mono.empty() : bandwidth.pace(bytes);
+        });
+    }
+
+    private Flux<DataBuffer> paced(Flux<DataBuffer> data, IoPriority priority) {
+        Bandwidth bandwidth = classes.get(priority).bandwidth;
+        return bandwidth == null ? data : data.delayUntil(buffer -> bandwidth.pace(buffer.readableByteCount()));
+    }
+
+    private Mono<Permit> admit(IoPriority priority) {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(priority, sink);
+            sink.onCancel(() -> cancel(waiter));
+            boolean admitted;
+            synchronized (this) {
+                if (waiter.cancelled) {
+                    return;
+                }
+                IoClassState state = classes.get(priority);
+                admitted = state.waiting.isEmpty() && canAdmit(priority, waiter.since);
+                if (admitted) {
+                    state.active++;
+                    waiter.permit = new Permit(priority);
+                } else {
+                    state.waiting.add(waiter);
+                }
+            }
+            if (admitted) {
+                sink.success(waiter.permit);
+            } else if (priority == IoPriority.BACKGROUND) {
+                // Re-check once the longest yield has passed, in case no foreground operation finishes by then
+                Mono.delay(maxYield).subscribe(tick -> dispatch());
+            }
+        });
+    }
+
+    /**
+     * Whether an operation of the class may start now. Caller holds the lock.
+     */
+    private boolean canAdmit(IoPriority priority, long waitingSince) {
+        IoClassState state = classes.get(priority);
+        if (state.maxConcurrency > 0 && state.active >= state.maxConcurrency) {
+            return false;
+        }
+        for (IoPriority higher : IoPriority.values()) {
+            if (higher == priority) {
+                break;
+            }
+            if (!classes.get(higher).waiting.isEmpty()) {
+                return false;
+            }
+        }
+        if (priority != IoPriority.BACKGROUND) {
+            return true;
+        }
+        if (latencyMonitor.isDegraded()) {
+            return false;
+        }
+        return backgroundYieldThreshold <= 0
+                || classes.get(IoPriority.FOREGROUND).active < backgroundYieldThreshold
+                || System.nanoTime() - waitingSince >= maxYield.toNanos();
+    }
+
+    @EventListener
+    public void onStorageHealthChanged(StorageHealthChangedEvent event) {
+        if (!event.degraded()) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Admit waiting operations, highest class first
+     */
+    private void dispatch() {
+        List<Waiter> admitted = new ArrayList<>();
+        synchronized (this) {
+            for (IoPriority priority : IoPriority.values()) {
+                IoClassState state = classes.get(priority);
+                while (!state.waiting.isEmpty() && canAdmit(priority, state.waiting.peek().since)) {
+                    Waiter waiter = state.waiting.poll();
+                    state.active++;
+                    waiter.permit = new Permit(priority);
+                    admitted.add(waiter);
+                }
+            }
+        }
+        admitted.forEach(waiter -> waiter.sink.success(waiter.permit));
+    }
+
+    private void cancel(Waiter waiter) {
+        Permit granted;
+        synchronized (this) {
+            waiter.cancelled = true;
+            if (classes.get(waiter.priority).waiting.remove(waiter)) {
+                granted = null;
+            } else {
+                granted = waiter.permit;
+            }
+        }
+        if (granted != null) {
+            // Admitted concurrently with the cancel; the permit was never delivered
+            granted.release();
+        } else {
+            dispatch();
+        }
+    }
+
+    private static final class IoClassState {
+
+        private final int maxConcurrency;
+        private final Bandwidth bandwidth;
+        private final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+        private int active;
+
+        private IoClassState(IoClass limits) {
+            this.maxConcurrency = limits.getMaxConcurrency();
+            this.bandwidth = limits.getBandwidth() != null && limits.getBandwidth().toBytes() > 0
+                    ? new Bandwidth(limits.getBandwidth().toBytes())
+                    : null;
+        }
+    }
+
+    private static final class Waiter {
+
+        private final IoPriority priority;
+        private final MonoSink<Permit> sink;
+        private final long since = System.nanoTime();
+        // Guarded by the scheduler lock
+        private Permit permit;
+        private boolean cancelled;
+
+        private Waiter(IoPriority priority, MonoSink<Permit> sink) {
+            this.priority = priority;
+            this.sink = sink;
+        }
+    }
+
+    private final class Permit {
+
+        private final IoPriority priority;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(IoPriority priority) {
+            this.priority = priority;
+        }
+
+        private void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            synchronized (IoScheduler.this) {
+                classes.get(priority).active--;
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * Spaces out transfers so a class stays at its byte rate; a chunk waits for the bytes
+     * of the chunks before it to have been "spent"
+     */
+    private static final class Bandwidth {
+
+        private final long bytesPerSecond;
+        private long nextFree = System.nanoTime();
+
+        private Bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        private Mono<Void> pace(long bytes) {
+            long delay;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFree);
+                nextFree = start + bytes * 1_000_000_000L / bytesPerSecond;
+                delay = start - now;
+            }
+            return delay > 0 ? Mono.delay(Duration.ofNanos(delay)).then() : Mono.empty();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.dingdangmaoup.station.storage.scheduler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A scheduler reporting how many tasks wait for a thread, how long they wait and how long they run.
+ * <p>
+ * Tags: {@code scheduler} (the scheduler name). Delayed and periodic tasks are passed through
+ * unmeasured; storage I/O is only ever scheduled immediately.
+ */
+class MeteredScheduler implements Scheduler {
+
+    private final Scheduler delegate;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Timer waitTimer;
+    private final Timer executionTimer;
+
+    MeteredScheduler(Scheduler delegate, String name, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+
+        Gauge.builder("station.storage.scheduler.queued", queued, AtomicInteger::get)
+                .tag("scheduler", name)
+                .description("Storage tasks waiting for a thread")
+                .register(meterRegistry);
+        Gauge.builder("station.storage.scheduler.active", active, AtomicInteger::get)
+                .tag("scheduler", name)
+                .description("Storage tasks running")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("station.storage.scheduler.wait")
+                .tag("scheduler", name)
+                .description("Time storage tasks spend queued before they run")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.executionTimer = Timer.builder("station.storage.scheduler.execution")
+                .tag("scheduler", name)
+                .description("Time storage tasks take to run")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        return submit(task, delegate::schedule);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+        return delegate.schedule(task, delay, unit);
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return delegate.schedulePeriodically(task, initialDelay, period, unit);
+    }
+
+    @Override
+    public Worker createWorker() {
+        return new MeteredWorker(delegate.createWorker());
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public void dispose() {
+        delegate.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return delegate.isDisposed();
+    }
+
+    private Disposable submit(Runnable task, Function<Runnable, Disposable> scheduler) {
+        MeteredTask metered = new MeteredTask(task);
+        queued.incrementAndGet();
+        try {
+            Disposable scheduled = scheduler.apply(metered);
+            return new Disposable() {
+                @Override
+                public void dispose() {
+                    metered.cancel();
+                    scheduled.dispose();
+                }
+
+                @Override
+                public boolean isDisposed() {
+                    return scheduled.isDisposed();
+                }
+            };
+        } catch (RejectedExecutionException e) {
+            metered.cancel();
+            throw e;
+        }
+    }
+
+    private final class MeteredWorker implements Worker {
+
+        private final Worker worker;
+
+        private MeteredWorker(Worker worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task) {
+            return submit(task, worker::schedule);
+        }
+
+        @Override
+        public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+            return worker.schedule(task, delay, unit);
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            return worker.schedulePeriodically(task, initialDelay, period, unit);
+        }
+
+        @Override
+        public void dispose() {
+            worker.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return worker.isDisposed();
+        }
+    }
+
+    private final class MeteredTask implements Runnable {
+
+        private final Runnable task;
+        private final long submittedAt = System.nanoTime();
+        // Set once the task leaves the queue, by running or by being cancelled
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        private MeteredTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!dequeued.compareAndSet(false, true)) {
+                return;
+            }
+            queued.decrementAndGet();
+            long start = System.nanoTime();
+            waitTimer.record(start - submittedAt, TimeUnit.NANOSECONDS);
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+                executionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void cancel() {
+            if (dequeued.compareAndSet(false, true)) {
+                queued.decrementAndGet();
+            }
+        }
+    }
+}
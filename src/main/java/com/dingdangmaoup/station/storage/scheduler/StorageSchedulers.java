@@ -0,0 +1,90 @@
+package com.dingdangmaoup.station.storage.scheduler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * Schedulers for blocking filesystem work, so reactive pipelines never block an event loop.
+ * <p>
+ * The execution mode decides what runs the blocking calls:
+ * <ul>
+ *   <li>{@code bounded-elastic}: platform thread pools, the shared bounded elastic scheduler and
+ *   {@code threads-per-root} threads per blob root. Throughput is capped by the pool sizes.</li>
+ *   <li>{@code virtual-threads}: a virtual thread per task. Blocked file I/O parks the virtual
+ *   thread instead of holding a pool slot, so thousands of concurrent small reads scale with
+ *   the disks rather than with a thread cap.</li>
+ * </ul>
+ * Every scheduler handed out is metered: {@code station.storage.scheduler.queued},
+ * {@code .active}, {@code .wait} and {@code .execution}, tagged with the scheduler name.
+ */
+@Slf4j
+@Component
+public class StorageSchedulers {
+
+    public enum ExecutionMode {
+        BOUNDED_ELASTIC,
+        VIRTUAL_THREADS
+    }
+
+    private final ExecutionMode mode;
+    private final MeterRegistry meterRegistry;
+    private final Scheduler blocking;
+    private final List<Scheduler> owned = new CopyOnWriteArrayList<>();
+
+    public StorageSchedulers(
+            @Value("${station.storage.execution-mode:bounded-elastic}") ExecutionMode mode,
+            MeterRegistry meterRegistry) {
+        this.mode = mode;
+        this.meterRegistry = meterRegistry;
+        this.blocking = mode == ExecutionMode.VIRTUAL_THREADS
+                ? metered(virtualThreads("station-storage"), "storage")
+                : new MeteredScheduler(Schedulers.boundedElastic(), "storage", meterRegistry);
+
+        log.info("Storage execution mode: {}", mode);
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Shared scheduler for blocking storage calls that are not tied to one blob root
+     */
+    public Scheduler blocking() {
+        return blocking;
+    }
+
+    /**
+     * A dedicated scheduler for one disk; in bounded elastic mode it has {@code threads} threads
+     */
+    public Scheduler newScheduler(String name, int threads) {
+        Scheduler scheduler = mode == ExecutionMode.VIRTUAL_THREADS
+                ? virtualThreads(name)
+                : Schedulers.newBoundedElastic(threads, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, name);
+        return metered(scheduler, name);
+    }
+
+    @PreDestroy
+    public void close() {
+        owned.forEach(Scheduler::dispose);
+    }
+
+    private Scheduler metered(Scheduler scheduler, String name) {
+        owned.add(scheduler);
+        return new MeteredScheduler(scheduler, name, meterRegistry);
+    }
+
+    private static Scheduler virtualThreads(String name) {
+        return Schedulers.fromExecutorService(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory()), name);
+    }
+}
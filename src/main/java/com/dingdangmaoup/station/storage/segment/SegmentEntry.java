@@ -0,0 +1,17 @@
+package com.dingdangmaoup.station.storage.segment;
+
+/**
+ * Location of a live object in a {@link SegmentStore}
+ *
+ * @param segmentId    segment file holding the record
+ * @param offset       start of the record within the segment
+ * @param recordLength length of the whole record (header, key and value)
+ * @param length       length of the value
+ * @param timestamp    when the value was written, epoch milliseconds
+ */
+public record SegmentEntry(long segmentId, long offset, int recordLength, int length, long timestamp) {
+
+    long valueOffset() {
+        return offset + recordLength - length;
+    }
+}
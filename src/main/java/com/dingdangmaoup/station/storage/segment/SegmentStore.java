@@ -0,0 +1,557 @@
+package com.dingdangmaoup.station.storage.segment;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.StorageUsage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Log-structured store for small objects.
+ * <p>
+ * Objects are appended as records to large segment files; an in-memory index maps each key to
+ * its latest record, so a read is one positional read from an already-open file, and existence
+ * and size checks touch no disk at all. Overwrites and deletes (tombstones) leave garbage behind
+ * in older segments, which {@link #compact} reclaims by copying the live records of mostly-dead
+ * segments forward and deleting them.
+ * <p>
+ * Record layout: {@code magic(4) crc(4) op(1) timestamp(8) keyLength(2) valueLength(4) key value},
+ * the CRC-32C covering everything after itself. On open the segments are scanned in order to
+ * rebuild the index; only the last one can end in a torn record, which is truncated away.
+ * Sealed segments are replayed header by header to keep startup fast, so the checksum of a value
+ * is verified whenever it is read instead, by {@link #get} and by compaction before it copies a
+ * record forward (the copy gets a fresh checksum, which would otherwise launder a corrupt value).
+ */
+@Slf4j
+public class SegmentStore implements Closeable {
+
+    private static final int RECORD_MAGIC = 0x53454731; // "SEG1"
+    private static final byte OP_PUT = 'P';
+    private static final byte OP_DELETE = 'D';
+    private static final int HEADER_SIZE = 23;
+    private static final int CRC_OFFSET = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean syncOnWrite;
+    private final Map<String, SegmentEntry> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final StorageUsage usage = new StorageUsage();
+    // Serializes appends and index updates; reads take no lock
+    private final Object writeLock = new Object();
+    private Segment active;
+
+    private SegmentStore(Path directory, long segmentSize, boolean syncOnWrite) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    /**
+     * Open (or create) the store in a directory and rebuild its index from the segments
+     *
+     * @param segmentSize size at which the active segment is sealed and a new one started
+     * @param syncOnWrite fsync the active segment after every append
+     */
+    public static SegmentStore open(Path directory, long segmentSize, boolean syncOnWrite) {
+        SegmentStore store = new SegmentStore(directory, segmentSize, syncOnWrite);
+        try {
+            Files.createDirectories(directory);
+            store.load();
+        } catch (IOException e) {
+            store.close();
+            throw new StorageException("Failed to open segment store " + directory, e);
+        }
+        return store;
+    }
+
+    public Optional<SegmentEntry> entry(String key) {
+        return Optional.ofNullable(index.get(key));
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Live view of the stored keys
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Read an object's value, checking it against the record's checksum
+     *
+     * @throws StorageException if the record is corrupt
+     */
+    public Optional<byte[]> get(String key) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            SegmentEntry entry = index.get(key);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            Segment segment = segments.get(entry.segmentId());
+            if (segment == null) {
+                // Compacted away between the index lookup and now; the index already points elsewhere
+                continue;
+            }
+            try {
+                return Optional.of(segment.readValue(entry));
+            } catch (ClosedChannelException e) {
+                // Same race, caught during the read
+            } catch (IOException e) {
+                throw new StorageException("Failed to read " + key + " from " + segment.path, e);
+            }
+        }
+        throw new StorageException("Failed to read " + key + ": moved by compaction during every attempt");
+    }
+
+    /**
+     * Store a value, replacing any previous value of the key
+     */
+    public SegmentEntry put(String key, byte[] value) {
+        byte[] keyBytes = encodeKey(key);
+        synchronized (writeLock) {
+            SegmentEntry entry = append(OP_PUT, System.currentTimeMillis(), keyBytes, value);
+            SegmentEntry previous = index.put(key, entry);
+            if (previous == null) {
+                usage.added(value.length);
+            } else {
+                markGarbage(previous.segmentId(), previous.recordLength());
+                usage.replaced(previous.length(), value.length);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Remove a key by appending a tombstone
+     *
+     * @return true if the key was present
+     */
+    public boolean delete(String key) {
+        byte[] keyBytes = encodeKey(key);
+        synchronized (writeLock) {
+            SegmentEntry previous = index.remove(key);
+            if (previous == null) {
+                return false;
+            }
+            SegmentEntry tombstone = append(OP_DELETE, System.currentTimeMillis(), keyBytes, new byte[0]);
+            markGarbage(previous.segmentId(), previous.recordLength());
+            markGarbage(tombstone.segmentId(), tombstone.recordLength());
+            usage.removed(previous.length());
+            return true;
+        }
+    }
+
+    /**
+     * Live object count and value bytes
+     */
+    public StorageUsage getUsage() {
+        return usage;
+    }
+
+    /**
+     * Recompute the usage counters from the index
+     */
+    public void recalculateUsage() {
+        long bytes = 0;
+        long count = 0;
+        for (SegmentEntry entry : index.values()) {
+            bytes += entry.length();
+            count++;
+        }
+        usage.reset(count, bytes);
+    }
+
+    /**
+     * Bytes taken by segment files, live and garbage
+     */
+    public long getDiskBytes() {
+        return segments.values().stream().mapToLong(segment -> segment.size.get()).sum();
+    }
+
+    /**
+     * Rewrite sealed segments whose garbage share has reached {@code minGarbageRatio}
+     *
+     * @return number of segments reclaimed
+     */
+    public int compact(double minGarbageRatio) {
+        int compacted = 0;
+        for (long segmentId : compactionCandidates(minGarbageRatio)) {
+            if (compactSegment(segmentId) >= 0) {
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Sealed segments whose garbage share has reached {@code minGarbageRatio}, oldest first, so
+     * callers can schedule and pace the rewrite of each one
+     */
+    public List<Long> compactionCandidates(double minGarbageRatio) {
+        List<Long> candidates = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.size.get() > 0
+                    && segment.garbage.get() >= segment.size.get() * minGarbageRatio) {
+                candidates.add(segment.id);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Copy the live records of a sealed segment forward and delete it
+     *
+     * @return bytes of the segment scanned, or -1 if it is gone or could not be compacted
+     */
+    public long compactSegment(long segmentId) {
+        Segment segment = segments.get(segmentId);
+        if (segment == null || segment == active) {
+            return -1;
+        }
+        try {
+            long size = segment.size.get();
+            compactSegment(segment);
+            return size;
+        } catch (IOException | StorageException e) {
+            log.error("Failed to compact segment {}", segment.path, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.close(segment == active);
+            }
+            segments.clear();
+            active = null;
+        }
+    }
+
+    private void load() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        Collections.sort(ids);
+
+        int records = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = Segment.open(segmentPath(ids.get(i)), ids.get(i), false);
+            segments.put(segment.id, segment);
+            records += replay(segment, last);
+            if (last && segment.size.get() < segmentSize) {
+                active = segment;
+            }
+        }
+        recalculateUsage();
+
+        if (!ids.isEmpty()) {
+            log.info("Opened segment store {}: {} segments, {} records, {} live objects",
+                    directory, ids.size(), records, index.size());
+        }
+    }
+
+    /**
+     * Apply a segment's records to the index. Values are only checksummed in the last segment,
+     * the only one that can have been cut off mid-append; sealed segments are read header by header.
+     */
+    private int replay(Segment segment, boolean last) throws IOException {
+        long fileSize = segment.channel.size();
+        long position = 0;
+        int records = 0;
+
+        while (position < fileSize) {
+            Header header = readHeader(segment.channel, position, fileSize);
+            if (header == null || (last && !checksumMatches(segment.channel, position, header))) {
+                if (last) {
+                    log.warn("Truncating torn tail of segment {} at {} ({} bytes)",
+                            segment.path, position, fileSize - position);
+                    segment.channel.truncate(position);
+                } else {
+                    log.warn("Corrupt record in segment {} at {}, ignoring the rest of it", segment.path, position);
+                    segment.garbage.addAndGet(fileSize - position);
+                    position = fileSize;
+                }
+                break;
+            }
+
+            int recordLength = header.recordLength();
+            SegmentEntry previous;
+            if (header.op() == OP_PUT) {
+                previous = index.put(header.key(), new SegmentEntry(segment.id, position, recordLength,
+                        header.valueLength(), header.timestamp()));
+            } else {
+                previous = index.remove(header.key());
+                segment.garbage.addAndGet(recordLength);
+            }
+            if (previous != null) {
+                markGarbage(previous.segmentId(), previous.recordLength());
+            }
+            position += recordLength;
+            records++;
+        }
+        segment.size.set(Math.min(position, fileSize));
+        return records;
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        boolean hasOlder = segments.firstKey() < segment.id;
+        long size = segment.size.get();
+        long position = 0;
+        int moved = 0;
+
+        while (position < size) {
+            Header header = readHeader(segment.channel, position, size);
+            if (header == null) {
+                break;
+            }
+            long recordStart = position;
+            position += header.recordLength();
+
+            if (header.op() == OP_PUT) {
+                SegmentEntry current = index.get(header.key());
+                if (current == null || current.segmentId() != segment.id || current.offset() != recordStart) {
+                    continue;
+                }
+                // A corrupt record fails the compaction and keeps the segment: reads of it keep failing
+                // loudly instead of a fresh checksum hiding the damage
+                byte[] value = segment.readValue(current);
+                synchronized (writeLock) {
+                    // Re-check under the lock: a concurrent put or delete wins over the copy
+                    if (index.get(header.key()) == current) {
+                        index.put(header.key(), append(OP_PUT, header.timestamp(), encodeKey(header.key()), value));
+                        moved++;
+                    }
+                }
+            } else if (hasOlder && !index.containsKey(header.key())) {
+                // The tombstone still shadows a put in an older segment; carry it forward
+                synchronized (writeLock) {
+                    if (!index.containsKey(header.key())) {
+                        SegmentEntry tombstone = append(OP_DELETE, header.timestamp(), encodeKey(header.key()), new byte[0]);
+                        markGarbage(tombstone.segmentId(), tombstone.recordLength());
+                    }
+                }
+            }
+        }
+
+        // The copies must be durable before their originals go away
+        synchronized (writeLock) {
+            if (active != null) {
+                active.channel.force(false);
+            }
+        }
+        segments.remove(segment.id);
+        segment.close(false);
+        Files.deleteIfExists(segment.path);
+        log.info("Compacted segment {}: {} live records moved, {} bytes reclaimed",
+                segment.path, moved, size);
+    }
+
+    /**
+     * Append a record to the active segment, starting a new one if it is full. Caller holds the write lock.
+     */
+    private SegmentEntry append(byte op, long timestamp, byte[] keyBytes, byte[] value) {
+        int recordLength = HEADER_SIZE + keyBytes.length + value.length;
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(RECORD_MAGIC)
+                .putInt(0)
+                .put(op)
+                .putLong(timestamp)
+                .putShort((short) keyBytes.length)
+                .putInt(value.length)
+                .put(keyBytes)
+                .put(value);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), CRC_OFFSET, recordLength - CRC_OFFSET);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        try {
+            if (active == null || (active.size.get() > 0 && active.size.get() + recordLength > segmentSize)) {
+                roll();
+            }
+            long offset = active.size.get();
+            while (record.hasRemaining()) {
+                active.channel.write(record, offset + record.position());
+            }
+            active.size.addAndGet(recordLength);
+            if (syncOnWrite) {
+                active.channel.force(false);
+            }
+            return new SegmentEntry(active.id, offset, recordLength, value.length, timestamp);
+        } catch (IOException e) {
+            throw new StorageException("Failed to append to segment store " + directory, e);
+        }
+    }
+
+    private void roll() throws IOException {
+        long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = Segment.open(segmentPath(id), id, true);
+        if (active != null) {
+            active.channel.force(false);
+        }
+        segments.put(id, segment);
+        active = segment;
+        log.debug("Started segment {}", segment.path);
+    }
+
+    private void markGarbage(long segmentId, long bytes) {
+        Segment segment = segments.get(segmentId);
+        if (segment != null) {
+            segment.garbage.addAndGet(bytes);
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%016d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encodeKey(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new StorageException("Segment store key too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private record Header(byte op, long timestamp, String key, int keyLength, int valueLength, int crc) {
+
+        int recordLength() {
+            return HEADER_SIZE + keyLength + valueLength;
+        }
+    }
+
+    /**
+     * Read the record header and key at a position, or null if there is no complete, sane record there
+     */
+    private static Header readHeader(FileChannel channel, long position, long limit) throws IOException {
+        if (limit - position < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header, position)) {
+            return null;
+        }
+        header.flip();
+        if (header.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        int crc = header.getInt();
+        byte op = header.get();
+        long timestamp = header.getLong();
+        int keyLength = Short.toUnsignedInt(header.getShort());
+        int valueLength = header.getInt();
+        if ((op != OP_PUT && op != OP_DELETE) || valueLength < 0
+                || position + HEADER_SIZE + keyLength + valueLength > limit) {
+            return null;
+        }
+
+        ByteBuffer key = ByteBuffer.allocate(keyLength);
+        if (!readFully(channel, key, position + HEADER_SIZE)) {
+            return null;
+        }
+        return new Header(op, timestamp, new String(key.array(), StandardCharsets.UTF_8),
+                keyLength, valueLength, crc);
+    }
+
+    private static boolean checksumMatches(FileChannel channel, long position, Header header) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(header.recordLength() - CRC_OFFSET);
+        if (!readFully(channel, body, position + CRC_OFFSET)) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(body.array());
+        return (int) crc.getValue() == header.crc();
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong garbage = new AtomicLong();
+
+        private Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        static Segment open(Path path, long id, boolean create) throws IOException {
+            FileChannel channel = create
+                    ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, path, channel);
+        }
+
+        /**
+         * Read a record whole and return its value once the checksum matches
+         */
+        byte[] readValue(SegmentEntry entry) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(entry.recordLength());
+            if (!readFully(channel, record, entry.offset())) {
+                throw new EOFException("Segment " + path + " ends before " + (entry.offset() + entry.recordLength()));
+            }
+            byte[] bytes = record.array();
+            CRC32C crc = new CRC32C();
+            crc.update(bytes, CRC_OFFSET, bytes.length - CRC_OFFSET);
+            if (record.getInt(0) != RECORD_MAGIC || record.getInt(4) != (int) crc.getValue()) {
+                throw new StorageException("Corrupt record in segment " + path + " at " + entry.offset());
+            }
+            return Arrays.copyOfRange(bytes, bytes.length - entry.length(), bytes.length);
+        }
+
+        void close(boolean sync) {
+            try {
+                if (sync) {
+                    channel.force(false);
+                }
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close segment {}", path, e);
+            }
+        }
+    }
+}
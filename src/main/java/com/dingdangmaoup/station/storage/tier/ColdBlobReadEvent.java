@@ -0,0 +1,7 @@
+package com.dingdangmaoup.station.storage.tier;
+
+/**
+ * Published when a blob is read from a cold-tier root, making it a promotion candidate
+ */
+public record ColdBlobReadEvent(String digest) {
+}
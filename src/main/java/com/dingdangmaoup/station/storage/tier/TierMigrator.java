@@ -0,0 +1,222 @@
+package com.dingdangmaoup.station.storage.tier;
+
+import com.dingdangmaoup.station.storage.BlobCommittedEvent;
+import com.dingdangmaoup.station.storage.FileSystemBlobStorage;
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import com.dingdangmaoup.station.storage.placement.BlobPlacement;
+import com.dingdangmaoup.station.storage.placement.StorageTier;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves blobs between the hot and cold storage tiers.
+ * <p>
+ * When the hot tier's filesystems fill past {@code high-watermark}, the least frequently read
+ * blobs are demoted to the cold tier until usage is back at {@code low-watermark}; they stay
+ * cached, only eviction deletes. A read served from the cold tier promotes the blob back once it
+ * has been read {@code promote-min-hits} times since it was demoted, in the background, so the
+ * read itself never waits.
+ * <p>
+ * Does nothing unless {@code station.storage.cold-roots} is configured.
+ */
+@Slf4j
+@Component
+public class TierMigrator {
+
+    private static final int MAX_EMPTY_SAMPLES = 64;
+
+    private final FileSystemBlobStorage blobStorage;
+    private final BlobPlacement blobPlacement;
+    private final BlobIndex blobIndex;
+    private final StorageSchedulers storageSchedulers;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long promoteMinHits;
+    private final int sampleSize;
+    private final long minIdleMillis;
+    private final AtomicBoolean demoting = new AtomicBoolean(false);
+    private final Set<String> promoting = ConcurrentHashMap.newKeySet();
+    private final Counter demotions;
+    private final Counter promotions;
+
+    public TierMigrator(
+            FileSystemBlobStorage blobStorage,
+            BlobPlacement blobPlacement,
+            BlobIndex blobIndex,
+            StorageSchedulers storageSchedulers,
+            MeterRegistry meterRegistry,
+            @Value("${station.storage.tiering.high-watermark:85}") int highWatermark,
+            @Value("${station.storage.tiering.low-watermark:75}") int lowWatermark,
+            @Value("${station.storage.tiering.promote-min-hits:2}") long promoteMinHits,
+            @Value("${station.storage.tiering.min-idle:10m}") Duration minIdle,
+            @Value("${station.eviction.sample-size:16}") int sampleSize) {
+        this.blobStorage = blobStorage;
+        this.blobPlacement = blobPlacement;
+        this.blobIndex = blobIndex;
+        this.storageSchedulers = storageSchedulers;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.promoteMinHits = promoteMinHits;
+        this.minIdleMillis = minIdle.toMillis();
+        this.sampleSize = Math.max(1, sampleSize);
+
+        this.demotions = Counter.builder("station.storage.tier.migrations")
+                .tag("direction", "demote")
+                .description("Blobs moved from the hot to the cold tier")
+                .register(meterRegistry);
+        this.promotions = Counter.builder("station.storage.tier.migrations")
+                .tag("direction", "promote")
+                .description("Blobs moved from the cold to the hot tier")
+                .register(meterRegistry);
+
+        if (blobPlacement.isTiered()) {
+            log.info("Storage tiering enabled: demote at {}% hot tier usage down to {}%, promote after {} reads",
+                    highWatermark, lowWatermark, promoteMinHits);
+        }
+    }
+
+    @EventListener
+    public void onBlobCommitted(BlobCommittedEvent event) {
+        checkHotTier();
+    }
+
+    /**
+     * Promote a blob read from the cold tier once it has proven popular, unless the hot tier
+     * is itself under pressure
+     */
+    @EventListener
+    public void onColdBlobRead(ColdBlobReadEvent event) {
+        String digest = event.digest();
+        Optional<BlobIndexEntry> entry = blobIndex.get(digest);
+        // Only reads since the blob was demoted count: its lifetime hits are what made it hot before
+        if (entry.isEmpty() || entry.get().recordColdHit() < promoteMinHits || !promoting.add(digest)) {
+            return;
+        }
+
+        Mono.fromCallable(() -> hotUsage() < lowWatermark)
+                .flatMap(room -> room ? blobStorage.migrate(digest, StorageTier.HOT) : Mono.just(false))
+                .subscribeOn(storageSchedulers.blocking())
+                .doFinally(signal -> promoting.remove(digest))
+                .subscribe(
+                        moved -> {
+                            if (moved) {
+                                promotions.increment();
+                                log.debug("Promoted blob {} to the hot tier", digest);
+                            }
+                        },
+                        error -> log.warn("Failed to promote blob {}: {}", digest, error.getMessage()));
+    }
+
+    /**
+     * Safety-net check between commits
+     */
+    @Scheduled(fixedDelayString = "${station.storage.tiering.check-interval:1m}")
+    public void checkHotTier() {
+        if (!blobPlacement.isTiered() || !demoting.compareAndSet(false, true)) {
+            return;
+        }
+
+        Mono.fromCallable(this::hotUsage)
+                .flatMap(usage -> {
+                    if (usage <= highWatermark) {
+                        return Mono.just(0);
+                    }
+                    log.info("Hot tier usage {}% above {}%, demoting blobs to the cold tier",
+                            String.format("%.1f", usage), highWatermark);
+                    return demote();
+                })
+                .subscribeOn(storageSchedulers.blocking())
+                .doFinally(signal -> demoting.set(false))
+                .subscribe(
+                        demoted -> {
+                            if (demoted > 0) {
+                                log.info("Demoted {} blobs to the cold tier", demoted);
+                            }
+                        },
+                        error -> log.error("Hot tier demotion failed", error));
+    }
+
+    /**
+     * Demote blobs until the hot tier is at the low watermark, or no progress can be made
+     *
+     * @return number of blobs demoted
+     */
+    private Mono<Integer> demote() {
+        AtomicInteger demoted = new AtomicInteger();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger emptySamples = new AtomicInteger();
+        // Samples can keep hitting blobs that are already cold or packed; bound the work per run
+        int maxAttempts = Math.min(blobIndex.size(), 100_000) + 1;
+
+        Mono<Boolean> demoteOne = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            if (hotUsage() <= lowWatermark) {
+                return Mono.just(false);
+            }
+            BlobIndexEntry victim = selectDemotion();
+            if (victim == null) {
+                // Everything sampled is cold, packed or recently read; give up after a while
+                return Mono.just(emptySamples.incrementAndGet() < MAX_EMPTY_SAMPLES);
+            }
+            emptySamples.set(0);
+            return blobStorage.migrate(victim.getDigest(), StorageTier.COLD)
+                    .doOnNext(moved -> {
+                        if (moved) {
+                            demoted.incrementAndGet();
+                            demotions.increment();
+                        }
+                    })
+                    .onErrorResume(error -> {
+                        log.warn("Failed to demote blob {}: {}", victim.getDigest(), error.getMessage());
+                        return Mono.just(false);
+                    })
+                    .thenReturn(true);
+        });
+
+        return demoteOne
+                .repeat(() -> attempts.get() < maxAttempts)
+                .takeWhile(progressed -> progressed)
+                .then(Mono.fromSupplier(demoted::get));
+    }
+
+    /**
+     * The least read hot blob among a random sample, oldest access first on ties.
+     * Blobs read within {@code min-idle} are left where they are.
+     */
+    private BlobIndexEntry selectDemotion() {
+        long now = System.currentTimeMillis();
+        return blobIndex.sample(sampleSize).stream()
+                .distinct()
+                .filter(entry -> now - entry.getLastAccess() >= minIdleMillis)
+                .filter(entry -> blobStorage.tierOf(entry.getDigest()).orElse(null) == StorageTier.HOT)
+                .min(Comparator.comparingLong(BlobIndexEntry::getHits)
+                        .thenComparingLong(BlobIndexEntry::getLastAccess))
+                .orElse(null);
+    }
+
+    private double hotUsage() {
+        try {
+            return blobPlacement.getUsagePercent(StorageTier.HOT);
+        } catch (IOException e) {
+            throw new StorageException("Failed to read hot tier usage", e);
+        }
+    }
+}
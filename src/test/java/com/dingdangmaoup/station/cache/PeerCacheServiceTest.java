@@ -0,0 +1,62 @@
+package com.dingdangmaoup.station.cache;
+
+import com.dingdangmaoup.station.grpc.HealthCheckResponse;
+import com.dingdangmaoup.station.node.discovery.NodeInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test ordering of peers by their reported health
+ */
+class PeerCacheServiceTest {
+
+    private final PeerCacheService service = new PeerCacheService(null, null, null, null);
+
+    @Test
+    void testRank_byStatus() {
+        service.updatePeerStatus("healthy", HealthCheckResponse.Status.HEALTHY);
+        service.updatePeerStatus("degraded", HealthCheckResponse.Status.DEGRADED);
+        service.updatePeerStatus("unhealthy", HealthCheckResponse.Status.UNHEALTHY);
+        service.updatePeerStatus("draining", HealthCheckResponse.Status.DRAINING);
+
+        assertEquals(0, service.rank(node("healthy")));
+        assertEquals(0, service.rank(node("never-polled")));
+        assertEquals(1, service.rank(node("degraded")));
+        assertEquals(2, service.rank(node("unhealthy")));
+        assertEquals(2, service.rank(node("draining")));
+    }
+
+    @Test
+    void testOrderByHealth_keepsHashOrderWithinGroup() {
+        service.updatePeerStatus("a", HealthCheckResponse.Status.DEGRADED);
+        service.updatePeerStatus("b", HealthCheckResponse.Status.UNHEALTHY);
+        service.updatePeerStatus("c", HealthCheckResponse.Status.HEALTHY);
+
+        List<NodeInfo> ordered = service.orderByHealth(List.of(node("a"), node("b"), node("c"), node("d")));
+
+        assertEquals(List.of("c", "d", "a", "b"), ordered.stream().map(NodeInfo::getNodeId).toList());
+    }
+
+    @Test
+    void testRecoveredPeer_movesBackToFront() {
+        service.updatePeerStatus("a", HealthCheckResponse.Status.DEGRADED);
+        assertEquals(1, service.rank(node("a")));
+
+        service.updatePeerStatus("a", HealthCheckResponse.Status.HEALTHY);
+
+        assertEquals(0, service.rank(node("a")));
+    }
+
+    private static NodeInfo node(String nodeId) {
+        return NodeInfo.builder()
+                .nodeId(nodeId)
+                .host("10.0.0.1")
+                .grpcPort(50051)
+                .httpPort(5000)
+                .status(NodeInfo.NodeStatus.HEALTHY)
+                .build();
+    }
+}
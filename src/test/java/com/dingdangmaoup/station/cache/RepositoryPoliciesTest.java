@@ -0,0 +1,118 @@
+package com.dingdangmaoup.station.cache;
+
+import com.dingdangmaoup.station.config.properties.CacheProperties;
+import com.dingdangmaoup.station.config.properties.CacheProperties.RepositoryPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test repository glob matching and rule resolution of repository policies
+ */
+class RepositoryPoliciesTest {
+
+    @Test
+    void testCompile_singleStarStaysWithinOneSegment() {
+        Pattern pattern = RepositoryPolicies.compile("library/*");
+
+        assertTrue(pattern.matcher("library/nginx").matches());
+        assertTrue(pattern.matcher("library/").matches());
+        assertFalse(pattern.matcher("library/nginx/alpine").matches());
+        assertFalse(pattern.matcher("other/nginx").matches());
+    }
+
+    @Test
+    void testCompile_doubleStarSpansSegments() {
+        Pattern pattern = RepositoryPolicies.compile("ci/**");
+
+        assertTrue(pattern.matcher("ci/app").matches());
+        assertTrue(pattern.matcher("ci/team/app").matches());
+        assertFalse(pattern.matcher("cd/team/app").matches());
+
+        Pattern anywhere = RepositoryPolicies.compile("**/cache");
+        assertTrue(anywhere.matcher("ci/team/cache").matches());
+        assertFalse(anywhere.matcher("ci/team/cache-old").matches());
+    }
+
+    @Test
+    void testCompile_questionMarkMatchesOneCharacterOfASegment() {
+        Pattern pattern = RepositoryPolicies.compile("app-v?");
+
+        assertTrue(pattern.matcher("app-v1").matches());
+        assertFalse(pattern.matcher("app-v10").matches());
+        assertFalse(pattern.matcher("app-v/").matches());
+    }
+
+    @Test
+    void testCompile_quotesRegexCharacters() {
+        Pattern pattern = RepositoryPolicies.compile("my.registry/app+(x)");
+
+        assertTrue(pattern.matcher("my.registry/app+(x)").matches());
+        assertFalse(pattern.matcher("myxregistry/app+(x)").matches());
+        assertFalse(pattern.matcher("my.registry/appp(x)").matches());
+    }
+
+    @Test
+    void testPolicyFor_firstMatchingRuleWins() {
+        RepositoryPolicy team = policy("ci/team/*", true, null);
+        RepositoryPolicy ci = policy("ci/**", false, Duration.ofDays(7));
+        RepositoryPolicy shadowed = policy("ci/team/app", false, Duration.ofDays(1));
+        RepositoryPolicies policies = policies(team, ci, shadowed);
+
+        assertSame(team, policies.policyFor("ci/team/app").orElseThrow());
+        assertSame(ci, policies.policyFor("ci/other/app").orElseThrow());
+        assertTrue(policies.policyFor("library/nginx").isEmpty());
+        // Memoized lookups give the same answer
+        assertSame(team, policies.policyFor("ci/team/app").orElseThrow());
+    }
+
+    @Test
+    void testPolicyFor_sharedContentPrefersAPinningRule() {
+        RepositoryPolicy ci = policy("ci/**", false, Duration.ofDays(7));
+        RepositoryPolicy base = policy("library/*", true, null);
+        RepositoryPolicies policies = policies(ci, base);
+
+        assertSame(base, policies.policyFor(List.of("ci/app", "library/alpine")).orElseThrow());
+        assertSame(ci, policies.policyFor(List.of("other/app", "ci/app")).orElseThrow());
+        assertTrue(policies.isPinned(List.of("ci/app", "library/alpine")));
+        assertFalse(policies.isPinned(List.of("ci/app")));
+    }
+
+    @Test
+    void testTtlOverrides() {
+        RepositoryPolicy ci = policy("ci/**", false, null);
+        ci.setLocalTtl(Duration.ofMinutes(1));
+        RepositoryPolicies policies = policies(ci);
+
+        assertEquals(Optional.of(Duration.ofMinutes(1)), policies.localTtl(CacheKey.forManifest("ci/app", "latest")));
+        assertTrue(policies.redisTtl(CacheKey.forManifest("ci/app", "latest")).isEmpty());
+        assertTrue(policies.localTtl(CacheKey.forManifest("library/nginx", "latest")).isEmpty());
+    }
+
+    @Test
+    void testBlankPattern_isIgnored() {
+        RepositoryPolicies policies = policies(policy(" ", true, null));
+
+        assertTrue(policies.isEmpty());
+        assertTrue(policies.policyFor("anything").isEmpty());
+    }
+
+    private static RepositoryPolicies policies(RepositoryPolicy... rules) {
+        CacheProperties properties = new CacheProperties();
+        properties.setPolicies(List.of(rules));
+        return new RepositoryPolicies(properties);
+    }
+
+    private static RepositoryPolicy policy(String pattern, boolean pinned, Duration maxAge) {
+        RepositoryPolicy policy = new RepositoryPolicy();
+        policy.setPattern(pattern);
+        policy.setPinned(pinned);
+        policy.setMaxAge(maxAge);
+        return policy;
+    }
+}
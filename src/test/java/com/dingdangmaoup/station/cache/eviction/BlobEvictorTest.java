@@ -0,0 +1,165 @@
+package com.dingdangmaoup.station.cache.eviction;
+
+import com.dingdangmaoup.station.cache.RepositoryPolicies;
+import com.dingdangmaoup.station.config.properties.CacheProperties;
+import com.dingdangmaoup.station.config.properties.EvictionProperties;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.FileSystemManifestStorage;
+import com.dingdangmaoup.station.storage.index.BlobFrequency;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import com.dingdangmaoup.station.storage.index.ImageReferenceGraph;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test image-aware eviction: orphans first, whole images, shared layers and TinyLFU admission between images
+ */
+class BlobEvictorTest {
+
+    private static final long OLD = 1_000;
+
+    @TempDir
+    private Path basePath;
+
+    private BlobIndex blobIndex;
+    private BlobFrequency blobFrequency;
+    private ImageReferenceGraph imageGraph;
+    private BlobEvictor evictor;
+
+    @BeforeEach
+    void setUp() {
+        blobIndex = new BlobIndex(basePath.toString());
+        blobFrequency = new BlobFrequency(blobIndex, 1_000);
+        imageGraph = new ImageReferenceGraph();
+
+        BlobStorage blobStorage = mock(BlobStorage.class);
+        when(blobStorage.delete(anyString())).thenAnswer(invocation -> Mono.fromSupplier(() -> {
+            String digest = invocation.getArgument(0);
+            boolean stored = blobIndex.contains(digest);
+            blobIndex.remove(digest);
+            return stored;
+        }));
+        FileSystemManifestStorage manifestStorage = mock(FileSystemManifestStorage.class);
+        when(manifestStorage.repositories(anyString())).thenReturn(Set.of("library/app"));
+        when(manifestStorage.evictManifest(anyString())).thenAnswer(invocation -> Mono.fromSupplier(() -> {
+            imageGraph.removeManifest(invocation.getArgument(0));
+            return 0L;
+        }));
+
+        EvictionProperties properties = new EvictionProperties();
+        properties.setPolicy(EvictionProperties.Policy.LRU);
+        properties.setImageAware(true);
+        properties.setAdmission(EvictionProperties.Admission.TINY_LFU);
+        properties.setGracePeriod(Duration.ZERO);
+        evictor = new BlobEvictor(blobStorage, blobIndex, manifestStorage, imageGraph,
+                new RepositoryPolicies(new CacheProperties()), blobFrequency, properties);
+    }
+
+    @Test
+    void testImageAdmission_rejectsNewImageRequestedLessThanTheColdestOne() {
+        storeImage("resident", OLD);
+        // Pulled often in the past, but not lately: the coldest image by recency
+        request("sha256:resident-layer", 5);
+        storeImage("new", System.currentTimeMillis());
+
+        long freed = evictor.evict(1, "sha256:new-layer").block();
+
+        assertEquals(200, freed);
+        assertFalse(imageGraph.containsManifest("sha256:new"));
+        assertFalse(blobIndex.contains("sha256:new-layer"));
+        assertTrue(imageGraph.containsManifest("sha256:resident"));
+        assertTrue(blobIndex.contains("sha256:resident-layer"));
+    }
+
+    @Test
+    void testImageAdmission_admitsNewImageRequestedMoreThanTheColdestOne() {
+        storeImage("resident", OLD);
+        storeImage("new", System.currentTimeMillis());
+        request("sha256:new-layer", 5);
+
+        long freed = evictor.evict(1, "sha256:new-layer").block();
+
+        assertEquals(200, freed);
+        assertFalse(imageGraph.containsManifest("sha256:resident"));
+        assertTrue(imageGraph.containsManifest("sha256:new"));
+        assertTrue(blobIndex.contains("sha256:new-layer"));
+    }
+
+    @Test
+    void testImageAdmission_withoutCandidateEvictsTheColdestImage() {
+        storeImage("resident", OLD);
+        request("sha256:resident-layer", 5);
+        storeImage("new", System.currentTimeMillis());
+
+        evictor.evict(1, null).block();
+
+        assertFalse(imageGraph.containsManifest("sha256:resident"));
+        assertTrue(imageGraph.containsManifest("sha256:new"));
+    }
+
+    @Test
+    void testImageAware_evictsOrphansBeforeImages() {
+        storeImage("resident", OLD);
+        // Newer than every image, but no cached manifest needs it
+        long now = System.currentTimeMillis();
+        blobIndex.put(new BlobIndexEntry("sha256:orphan", 100, now, now, 0, true));
+
+        long freed = evictor.evict(1, null).block();
+
+        assertEquals(100, freed);
+        assertFalse(blobIndex.contains("sha256:orphan"));
+        assertTrue(imageGraph.containsManifest("sha256:resident"));
+        assertTrue(blobIndex.contains("sha256:resident-layer"));
+    }
+
+    @Test
+    void testImageAware_keepsLayersSharedWithAnotherImage() {
+        blobIndex.put(new BlobIndexEntry("sha256:base", 100, OLD, OLD, 0, true));
+        storeImage("old", OLD, "sha256:base");
+        storeImage("new", System.currentTimeMillis(), "sha256:base");
+
+        long freed = evictor.evict(1, null).block();
+
+        assertEquals(200, freed);
+        assertFalse(imageGraph.containsManifest("sha256:old"));
+        assertFalse(blobIndex.contains("sha256:old-layer"));
+        assertTrue(blobIndex.contains("sha256:base"));
+        assertEquals(Set.of("sha256:new"), imageGraph.referrers("sha256:base"));
+    }
+
+    /**
+     * An image of a config and a layer blob of 100 bytes each, plus already indexed shared layers
+     */
+    private void storeImage(String name, long storedAt, String... sharedLayers) {
+        String config = "sha256:" + name + "-config";
+        String layer = "sha256:" + name + "-layer";
+        blobIndex.put(new BlobIndexEntry(config, 100, storedAt, storedAt, 0, true));
+        blobIndex.put(new BlobIndexEntry(layer, 100, storedAt, storedAt, 0, true));
+        StringBuilder layers = new StringBuilder();
+        for (String shared : sharedLayers) {
+            layers.append("{\"digest\":\"").append(shared).append("\"},");
+        }
+        String manifest = "{\"schemaVersion\":2,\"config\":{\"digest\":\"" + config + "\"},"
+                + "\"layers\":[" + layers + "{\"digest\":\"" + layer + "\"}]}";
+        imageGraph.addManifest("sha256:" + name, manifest.getBytes(StandardCharsets.UTF_8), storedAt);
+    }
+
+    private void request(String digest, int times) {
+        for (int i = 0; i < times; i++) {
+            blobFrequency.recordRequest(digest);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.dingdangmaoup.station.cache.eviction;
+
+import com.dingdangmaoup.station.config.properties.EvictionProperties;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.StorageException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test admission of downloads against reserved disk headroom
+ */
+class DiskSpaceGuardTest {
+
+    private static final long GB = DataSize.ofGigabytes(1).toBytes();
+
+    private final AtomicLong available = new AtomicLong(10 * GB);
+    private DiskSpaceGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        BlobStorage blobStorage = mock(BlobStorage.class);
+        when(blobStorage.getAvailableSpace()).thenAnswer(invocation -> Mono.just(available.get()));
+
+        EvictionProperties properties = new EvictionProperties();
+        properties.setEnabled(false);
+        properties.setReservedHeadroom(DataSize.ofGigabytes(2));
+        guard = new DiskSpaceGuard(blobStorage, null, properties);
+    }
+
+    @Test
+    void testOverlappingReservations_doNotCountWrittenBytesTwice() {
+        DiskSpaceGuard.Reservation first = guard.reserve(5 * GB).block();
+        assertNotNull(first);
+
+        // 4 GB of the first download land on disk and leave the available space
+        write(first, 4 * GB);
+        assertEquals(GB, guard.getReservedBytes());
+
+        // 1 GB still reserved + 3 GB + 2 GB headroom fits in the 6 GB left
+        DiskSpaceGuard.Reservation second = guard.reserve(3 * GB).block();
+        assertNotNull(second);
+        assertEquals(4 * GB, guard.getReservedBytes());
+
+        first.release();
+        second.release();
+        assertEquals(0, guard.getReservedBytes());
+    }
+
+    @Test
+    void testOverlappingReservations_rejectedWhenTheyDoNotFit() {
+        DiskSpaceGuard.Reservation first = guard.reserve(5 * GB).block();
+        assertNotNull(first);
+        write(first, GB);
+
+        // 4 GB still reserved + 4 GB + 2 GB headroom exceeds the 9 GB left
+        assertThrows(StorageException.class, () -> guard.reserve(4 * GB).block());
+        assertEquals(4 * GB, guard.getReservedBytes());
+    }
+
+    @Test
+    void testWrittenBeyondReservation_neverGoesNegative() {
+        DiskSpaceGuard.Reservation reservation = guard.reserve(GB).block();
+        assertNotNull(reservation);
+
+        write(reservation, 2 * GB);
+        assertEquals(0, guard.getReservedBytes());
+
+        reservation.release();
+        reservation.release();
+        assertEquals(0, guard.getReservedBytes());
+    }
+
+    @Test
+    void testUnknownSize_reservesNothing() {
+        DiskSpaceGuard.Reservation reservation = guard.reserve(-1).block();
+        assertNotNull(reservation);
+
+        write(reservation, GB);
+
+        assertEquals(0, guard.getReservedBytes());
+    }
+
+    private void write(DiskSpaceGuard.Reservation reservation, long bytes) {
+        available.addAndGet(-bytes);
+        reservation.written(bytes);
+    }
+}
@@ -0,0 +1,51 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test frequency decay and victim selection of the aged LFU policy
+ */
+class AgedLfuPolicyTest {
+
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+    private static final long NOW = 100 * HOUR;
+
+    private final AgedLfuPolicy policy = new AgedLfuPolicy(Duration.ofHours(1));
+
+    @Test
+    void testAgedFrequency_halvesEveryHalfLife() {
+        BlobIndexEntry entry = entry("sha256:a", NOW - HOUR, 3);
+
+        assertEquals(2.0, policy.agedFrequency(entry, NOW), 1e-9);
+        assertEquals(1.0, policy.agedFrequency(entry, NOW + HOUR), 1e-9);
+        // An access in the future (clock skew) does not inflate the count
+        assertEquals(4.0, policy.agedFrequency(entry, NOW - 2 * HOUR), 1e-9);
+    }
+
+    @Test
+    void testSelectVictim_leastFrequentlyUsed() {
+        BlobIndexEntry frequent = entry("sha256:frequent", NOW, 50);
+        BlobIndexEntry rare = entry("sha256:rare", NOW, 1);
+
+        assertSame(rare, policy.selectVictim(List.of(frequent, rare), NOW));
+    }
+
+    @Test
+    void testSelectVictim_onceHotBlobDecaysBelowARecentOne() {
+        // 100 hits five half-lives ago count for about 3, below 10 recent ones
+        BlobIndexEntry onceHot = entry("sha256:once-hot", NOW - 5 * HOUR, 99);
+        BlobIndexEntry warm = entry("sha256:warm", NOW, 9);
+
+        assertSame(onceHot, policy.selectVictim(List.of(warm, onceHot), NOW));
+    }
+
+    private static BlobIndexEntry entry(String digest, long lastAccess, long hits) {
+        return new BlobIndexEntry(digest, 1024, 0, lastAccess, hits, true);
+    }
+}
@@ -0,0 +1,54 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test size-aware priorities and inflation of the GDSF policy
+ */
+class GdsfPolicyTest {
+
+    private final GdsfPolicy policy = new GdsfPolicy();
+
+    @Test
+    void testSelectVictim_largeBlobGoesBeforeSmallOneWithEqualHits() {
+        BlobIndexEntry config = entry("sha256:config", 1024, 9);
+        BlobIndexEntry layer = entry("sha256:layer", 5L * 1024 * 1024 * 1024, 9);
+        policy.onAccess(config);
+        policy.onAccess(layer);
+
+        assertSame(layer, policy.selectVictim(List.of(config, layer), 0));
+    }
+
+    @Test
+    void testSelectVictim_neverAccessedEntriesRankByFrequencyPerByte() {
+        BlobIndexEntry small = entry("sha256:small", 100, 0);
+        BlobIndexEntry large = entry("sha256:large", 10_000, 0);
+
+        assertSame(large, policy.selectVictim(List.of(small, large), 0));
+    }
+
+    @Test
+    void testInflation_agesOutBlobsNotAccessedSinceEarlierEvictions() {
+        BlobIndexEntry stale = entry("sha256:stale", 1, 0);
+        policy.onAccess(stale);
+        BlobIndexEntry victim = entry("sha256:victim", 1, 4);
+        policy.onAccess(victim);
+        policy.onEvicted(victim);
+
+        // A fresh access starts from the victim's priority, above the stale blob's
+        BlobIndexEntry fresh = entry("sha256:fresh", 100, 0);
+        policy.onAccess(fresh);
+
+        assertEquals(5.01, fresh.getPriority(), 1e-9);
+        assertSame(stale, policy.selectVictim(List.of(stale, fresh), 0));
+    }
+
+    private static BlobIndexEntry entry(String digest, long size, long hits) {
+        return new BlobIndexEntry(digest, size, 0, 0, hits, true);
+    }
+}
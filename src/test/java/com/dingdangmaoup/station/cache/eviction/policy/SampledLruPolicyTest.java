@@ -0,0 +1,34 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test victim selection of the sampled LRU policy
+ */
+class SampledLruPolicyTest {
+
+    private final SampledLruPolicy policy = new SampledLruPolicy();
+
+    @Test
+    void testSelectVictim_leastRecentlyAccessed() {
+        BlobIndexEntry recent = entry("sha256:recent", 3_000, 100);
+        BlobIndexEntry oldest = entry("sha256:oldest", 1_000, 0);
+        BlobIndexEntry popular = entry("sha256:popular", 2_000, 1_000);
+
+        assertSame(oldest, policy.selectVictim(List.of(recent, oldest, popular), 10_000));
+    }
+
+    @Test
+    void testSelectVictim_emptySample() {
+        assertNull(policy.selectVictim(List.of(), 10_000));
+    }
+
+    private static BlobIndexEntry entry(String digest, long lastAccess, long hits) {
+        return new BlobIndexEntry(digest, 1024, 0, lastAccess, hits, true);
+    }
+}
@@ -0,0 +1,60 @@
+package com.dingdangmaoup.station.cache.eviction.policy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test counting, saturation, ageing and admission of the TinyLFU sketch
+ */
+class TinyLfuAdmissionTest {
+
+    private final TinyLfuAdmission admission = new TinyLfuAdmission(64);
+
+    @Test
+    void testFrequency_countsIncrements() {
+        increment("sha256:a", 3);
+
+        assertEquals(3, admission.frequency("sha256:a"));
+        assertEquals(0, admission.frequency("sha256:b"));
+    }
+
+    @Test
+    void testFrequency_saturatesAtFifteen() {
+        increment("sha256:a", 40);
+
+        assertEquals(15, admission.frequency("sha256:a"));
+    }
+
+    @Test
+    void testAdmit_onlyMoreFrequentCandidates() {
+        increment("sha256:hot", 5);
+        increment("sha256:warm", 2);
+        increment("sha256:also-warm", 2);
+
+        assertTrue(admission.admit("sha256:hot", "sha256:warm"));
+        assertFalse(admission.admit("sha256:warm", "sha256:hot"));
+        // A tie keeps the resident blob
+        assertFalse(admission.admit("sha256:warm", "sha256:also-warm"));
+        assertFalse(admission.admit("sha256:one-off", "sha256:warm"));
+    }
+
+    @Test
+    void testReset_halvesCountsAfterTenAdditionsPerCounter() {
+        increment("sha256:hot", 10);
+        assertEquals(10, admission.frequency("sha256:hot"));
+
+        // 64 expected blobs give 128 counters per row, so the sketch ages after 1280 additions
+        for (int i = 0; i < 1270; i++) {
+            admission.increment("sha256:key-" + i);
+        }
+
+        assertTrue(admission.frequency("sha256:hot") < 10);
+    }
+
+    private void increment(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            admission.increment(key);
+        }
+    }
+}
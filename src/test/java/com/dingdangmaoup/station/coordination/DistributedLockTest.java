@@ -0,0 +1,208 @@
+package com.dingdangmaoup.station.coordination;
+
+import com.dingdangmaoup.station.config.properties.CoordinationProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the Redis lease scripts, the renewal watchdog and release notification against Redis
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DistributedLockTest {
+
+    private static final Duration TTL = Duration.ofSeconds(1);
+    private static final Duration RENEW_INTERVAL = Duration.ofMillis(200);
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>("redis:7.4.2-alpine")
+            .withExposedPorts(6379);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static ReactiveStringRedisTemplate redisTemplate;
+    private static DistributedLock node1;
+    private static DistributedLock node2;
+
+    private final String lockKey = "blob:sha256:" + UUID.randomUUID();
+
+    @BeforeAll
+    static void setUp() {
+        connectionFactory = new LettuceConnectionFactory(REDIS.getHost(), REDIS.getMappedPort(6379));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+
+        node1 = newLock("node-1");
+        node2 = newLock("node-2");
+    }
+
+    @AfterAll
+    static void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void testAcquire_excludesOtherNodesAndIncrementsFencingToken() {
+        LockLease first = node1.acquireLease(lockKey).block();
+        assertNotNull(first);
+        assertNull(node2.acquireLease(lockKey).block());
+
+        assertTrue(node1.release(first).block());
+        LockLease second = node2.acquireLease(lockKey).block();
+
+        assertNotNull(second);
+        assertTrue(second.getFencingToken() > first.getFencingToken());
+        assertTrue(node2.release(second).block());
+    }
+
+    @Test
+    void testAcquire_excludedByALockTakenWithTheLegacyFormat() {
+        // A node that predates leases stores only its node id under the same key
+        assertTrue(redisTemplate.opsForValue().setIfAbsent("lock:" + lockKey, "legacy-node", TTL).block());
+
+        assertNull(node1.acquireLease(lockKey).block());
+        assertFalse(node1.releaseLock(lockKey).block());
+
+        redisTemplate.delete("lock:" + lockKey).block();
+        LockLease lease = node1.acquireLease(lockKey).block();
+        assertNotNull(lease);
+        assertTrue(node1.release(lease).block());
+    }
+
+    @Test
+    void testRelease_expiredLeaseDoesNotDeleteTheNewHolder() {
+        LockLease stale = node1.acquireLease(lockKey).block();
+        assertNotNull(stale);
+        // Let the lease expire without renewal and another node take the lock over
+        redisTemplate.delete("lock:" + lockKey).block();
+        LockLease current = node2.acquireLease(lockKey).block();
+        assertNotNull(current);
+
+        assertFalse(node1.release(stale).block());
+        assertFalse(node1.renew(stale).block());
+        assertThrows(DistributedLock.LockException.class, () -> node1.checkLease(stale).block());
+        assertTrue(stale.isLost());
+
+        node2.checkLease(current).block();
+        assertTrue(node2.release(current).block());
+    }
+
+    @Test
+    void testRenew_extendsTheTtl() throws InterruptedException {
+        LockLease lease = node1.acquireLease(lockKey).block();
+        assertNotNull(lease);
+
+        Thread.sleep(TTL.toMillis() / 2);
+        assertTrue(node1.renew(lease).block());
+        Thread.sleep(TTL.toMillis() * 3 / 4);
+
+        // Without the renewal the lease would have expired by now
+        node1.checkLease(lease).block();
+        assertTrue(node1.release(lease).block());
+    }
+
+    @Test
+    void testWatchdog_keepsTheLeaseAliveWhileTheActionRuns() {
+        AtomicReference<LockLease> held = new AtomicReference<>();
+
+        String result = node1.withLease(lockKey, lease -> {
+                    held.set(lease);
+                    return Mono.delay(TTL.multipliedBy(3))
+                            .then(node1.checkLease(lease))
+                            .thenReturn("done");
+                })
+                .block(Duration.ofSeconds(10));
+
+        assertEquals("done", result);
+        assertFalse(held.get().isLost());
+        // Released once the action completed
+        assertFalse(redisTemplate.hasKey("lock:" + lockKey).delayElement(Duration.ofMillis(100)).block());
+    }
+
+    @Test
+    void testWatchdog_marksALeaseTakenOverAsLost() {
+        Boolean lost = node1.withLease(lockKey, lease -> redisTemplate
+                        .delete("lock:" + lockKey)
+                        .then(Mono.delay(RENEW_INTERVAL.multipliedBy(3)))
+                        .then(Mono.fromSupplier(lease::isLost)))
+                .block(Duration.ofSeconds(10));
+
+        assertTrue(lost);
+    }
+
+    @Test
+    void testCheckLease_failsTheCommitOfALostLease() {
+        Mono<String> commit = node1.withLease(lockKey, lease -> redisTemplate
+                .delete("lock:" + lockKey)
+                .then(node1.checkLease(lease))
+                .thenReturn("committed"));
+
+        assertThrows(DistributedLock.LockException.class, () -> commit.block(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void testAwaitRelease_completesOnRelease() {
+        LockLease lease = node1.acquireLease(lockKey).block();
+        assertNotNull(lease);
+
+        CompletableFuture<Void> released = node2.awaitRelease(lockKey).toFuture();
+        assertFalse(released.isDone());
+
+        node1.release(lease).block();
+        released.orTimeout(5, TimeUnit.SECONDS).join();
+    }
+
+    @Test
+    void testAwaitRelease_completesWhenTheLeaseExpires() {
+        LockLease lease = node1.acquireLease(lockKey).block();
+        assertNotNull(lease);
+
+        // No release is published for an expired lease; the waiter polls the lock instead
+        long start = System.nanoTime();
+        node2.awaitRelease(lockKey).block(Duration.ofSeconds(5));
+
+        assertTrue(System.nanoTime() - start >= TTL.toNanos() / 2);
+    }
+
+    @Test
+    void testWithLeaseOrAwait_waiterRunsAfterReleaseInsteadOfTakingTheLock() {
+        LockLease lease = node1.acquireLease(lockKey).block();
+        assertNotNull(lease);
+
+        CompletableFuture<String> waiter = node2.withLeaseOrAwait(lockKey,
+                        held -> Mono.just("fetched"),
+                        () -> Mono.just("from cache"))
+                .toFuture();
+        node1.release(lease).block();
+
+        assertEquals("from cache", waiter.orTimeout(5, TimeUnit.SECONDS).join());
+        assertFalse(redisTemplate.hasKey("lock:" + lockKey).block());
+    }
+
+    private static DistributedLock newLock(String nodeId) {
+        CoordinationProperties properties = new CoordinationProperties();
+        properties.getLock().setTtl(TTL);
+        properties.getLock().setRenewInterval(RENEW_INTERVAL);
+        properties.getLock().setWaitTimeout(Duration.ofSeconds(5));
+        properties.getLock().setReleaseWaitTimeout(Duration.ofSeconds(5));
+
+        DistributedLock lock = new DistributedLock(redisTemplate, properties);
+        ReflectionTestUtils.setField(lock, "nodeId", nodeId);
+        return lock;
+    }
+}
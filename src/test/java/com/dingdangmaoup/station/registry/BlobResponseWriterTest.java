@@ -0,0 +1,301 @@
+package com.dingdangmaoup.station.registry;
+
+import com.dingdangmaoup.station.config.properties.StorageIoProperties;
+import com.dingdangmaoup.station.storage.BlobMetadata;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
+import com.dingdangmaoup.station.storage.scheduler.IoScheduler;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test Range / 206 handling and zero-copy serving of blob responses
+ */
+class BlobResponseWriterTest {
+
+    private static final String DIGEST = "sha256:0123456789abcdef";
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    private final BlobResponseWriter writer = newWriter(new InMemoryBlobStorage());
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void testFullBlob_noRange() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST).build());
+
+        assertNotEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(10, response.getHeaders().getContentLength());
+        assertEquals("0123456789", response.getBodyAsString().block());
+    }
+
+    @Test
+    void testSingleRange_exactBytes() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .build());
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 2-5/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, response.getHeaders().getContentLength());
+        assertEquals("2345", response.getBodyAsString().block());
+    }
+
+    @Test
+    void testSuffixRange() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=-3")
+                .build());
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 7-9/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals("789", response.getBodyAsString().block());
+    }
+
+    @Test
+    void testUnsatisfiableRange() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=20-30")
+                .build());
+
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+        assertEquals("bytes */10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testMultipleRanges_multipartBody() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=0-1,8-9")
+                .build());
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertTrue(response.getHeaders().getContentType().toString().startsWith("multipart/byteranges"));
+
+        String body = response.getBodyAsString().block();
+        assertNotNull(body);
+        assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n"));
+        assertEquals(body.getBytes(StandardCharsets.US_ASCII).length, response.getHeaders().getContentLength());
+    }
+
+    @Test
+    void testOverlappingRanges_areCoalesced() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=0-3,2-5,4-4")
+                .build());
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 0-5/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals("012345", response.getBodyAsString().block());
+    }
+
+    @Test
+    void testDuplicateAndAdjacentRanges_areCoalesced() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=2-3,2-3,4-5")
+                .build());
+
+        assertEquals("bytes 2-5/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals("2345", response.getBodyAsString().block());
+    }
+
+    @Test
+    void testUnorderedRanges_areServedInAscendingOrder() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=8-9,0-1,-1")
+                .build());
+
+        String body = response.getBodyAsString().block();
+        assertNotNull(body);
+        assertTrue(body.indexOf("bytes 0-1/10") < body.indexOf("bytes 8-9/10"));
+        assertEquals(2, body.split("Content-Range").length - 1);
+        assertEquals(body.getBytes(StandardCharsets.US_ASCII).length, response.getHeaders().getContentLength());
+    }
+
+    @Test
+    void testTooManyRanges_servesFullBlob() {
+        byte[] content = new byte[100];
+        Arrays.fill(content, (byte) 'x');
+        StringBuilder range = new StringBuilder("bytes=");
+        for (int i = 0; i < 20; i++) {
+            range.append(i > 0 ? "," : "").append(i * 2).append('-').append(i * 2);
+        }
+        MockServerHttpResponse response = new MockServerHttpResponse();
+
+        writer.write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                        .header(HttpHeaders.RANGE, range.toString())
+                        .build(), response, DIGEST, content.length,
+                (offset, length) -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(
+                        Arrays.copyOfRange(content, (int) offset, (int) (offset + length)))))
+                .block();
+
+        assertNotEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals(100, response.getHeaders().getContentLength());
+        assertEquals(100, response.getBodyAsString().block().length());
+    }
+
+    @Test
+    void testIfRangeMismatch_servesFullBlob() {
+        MockServerHttpResponse response = write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST)
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, "\"sha256:other\"")
+                .build());
+
+        assertNotEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("0123456789", response.getBodyAsString().block());
+    }
+
+    @Test
+    void testZeroCopy_fileDeletedUnderServedDigest() throws IOException {
+        Path file = Files.write(directory.resolve("blob"), CONTENT);
+        FileBackedBlobStorage storage = new FileBackedBlobStorage(file);
+        BlobResponseWriter zeroCopyWriter = newWriter(storage);
+
+        ZeroCopyResponse served = new ZeroCopyResponse();
+        zeroCopyWriter.write(MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST).build(), served, DIGEST,
+                CONTENT.length).block();
+        assertEquals("0123456789", served.getBodyAsString().block());
+        assertTrue(storage.missing.isEmpty());
+
+        Files.delete(file);
+        ZeroCopyResponse response = new ZeroCopyResponse();
+
+        StorageException error = assertThrows(StorageException.class, () -> zeroCopyWriter.write(
+                MockServerHttpRequest.get("/v2/alpine/blobs/" + DIGEST).build(), response, DIGEST,
+                CONTENT.length).block());
+        assertInstanceOf(NoSuchFileException.class, error.getCause());
+        // Storage was told to forget the blob, and nothing was sent so the caller can fetch it instead
+        assertEquals(List.of(DIGEST), storage.missing);
+        assertFalse(response.isCommitted());
+    }
+
+    private static BlobResponseWriter newWriter(BlobStorage blobStorage) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        StorageLatencyMonitor latencyMonitor = new StorageLatencyMonitor(event -> { }, meterRegistry,
+                Duration.ofMillis(250), 20, Duration.ofSeconds(30));
+        IoScheduler ioScheduler = new IoScheduler(new StorageIoProperties(), latencyMonitor, meterRegistry);
+        StorageSchedulers storageSchedulers = new StorageSchedulers(StorageSchedulers.ExecutionMode.BOUNDED_ELASTIC,
+                meterRegistry);
+        return new BlobResponseWriter(blobStorage, true, ioScheduler, latencyMonitor, storageSchedulers);
+    }
+
+    private MockServerHttpResponse write(MockServerHttpRequest request) {
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        writer.write(request, response, DIGEST, CONTENT.length).block();
+        return response;
+    }
+
+    /**
+     * Minimal in-memory storage holding a single blob
+     */
+    private static class InMemoryBlobStorage implements BlobStorage {
+
+        private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+        @Override
+        public Mono<BlobMetadata> saveBlob(String digest, Flux<DataBuffer> data) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Flux<DataBuffer> getBlob(String digest) {
+            return Flux.defer(() -> Flux.just(bufferFactory.wrap(CONTENT.clone())));
+        }
+
+        @Override
+        public Flux<DataBuffer> getBlob(String digest, long offset, long length) {
+            int from = (int) Math.min(offset, CONTENT.length);
+            int to = (int) Math.min(CONTENT.length, offset + length);
+            return Flux.defer(() -> Flux.just(bufferFactory.wrap(Arrays.copyOfRange(CONTENT, from, to))));
+        }
+
+        @Override
+        public Mono<Boolean> exists(String digest) {
+            return Mono.just(true);
+        }
+
+        @Override
+        public Mono<BlobMetadata> getMetadata(String digest) {
+            return Mono.just(BlobMetadata.builder().digest(digest).size(CONTENT.length).build());
+        }
+
+        @Override
+        public Mono<Boolean> delete(String digest) {
+            return Mono.just(false);
+        }
+
+        @Override
+        public Mono<Long> getTotalSize() {
+            return Mono.just((long) CONTENT.length);
+        }
+
+        @Override
+        public Mono<Long> getAvailableSpace() {
+            return Mono.just(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Storage whose blob is a plain file, recording which blobs were reported missing
+     */
+    private static class FileBackedBlobStorage extends InMemoryBlobStorage {
+
+        private final Path file;
+        private final List<String> missing = new CopyOnWriteArrayList<>();
+
+        FileBackedBlobStorage(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public Mono<Path> getBlobFile(String digest) {
+            return Mono.just(file);
+        }
+
+        @Override
+        public StorageException blobFileMissing(String digest, Throwable cause) {
+            missing.add(digest);
+            return super.blobFileMissing(digest, cause);
+        }
+    }
+
+    /**
+     * Mock response that supports sendfile by reading the file into the body
+     */
+    private static class ZeroCopyResponse extends MockServerHttpResponse implements ZeroCopyHttpOutputMessage {
+
+        @Override
+        public Mono<Void> writeWith(Path file, long position, long count) {
+            return writeWith(Mono.fromCallable(() -> {
+                byte[] bytes = Files.readAllBytes(file);
+                return bufferFactory().wrap(Arrays.copyOfRange(bytes, (int) position, (int) (position + count)));
+            }));
+        }
+    }
+}
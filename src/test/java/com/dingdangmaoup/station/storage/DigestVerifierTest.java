@@ -0,0 +1,115 @@
+package com.dingdangmaoup.station.storage;
+
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test incremental hashing and verification of blob digests
+ */
+class DigestVerifierTest {
+
+    private static final byte[] CONTENT = "hello world".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testVerify_sha256() throws Exception {
+        assertMatches("sha256", "SHA-256");
+    }
+
+    @Test
+    void testVerify_sha384() throws Exception {
+        assertMatches("sha384", "SHA-384");
+    }
+
+    @Test
+    void testVerify_sha512() throws Exception {
+        assertMatches("sha512", "SHA-512");
+    }
+
+    @Test
+    void testVerify_knownSha256Digest() {
+        DigestVerifier verifier = new DigestVerifier(
+                "sha256:b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9");
+
+        verifier.update(DefaultDataBufferFactory.sharedInstance.wrap(CONTENT));
+
+        assertDoesNotThrow(verifier::verify);
+    }
+
+    @Test
+    void testVerify_upperCaseHexIsAccepted() throws Exception {
+        DigestVerifier verifier = new DigestVerifier("sha256:" + hash("SHA-256", CONTENT).toUpperCase());
+
+        verifier.update(DefaultDataBufferFactory.sharedInstance.wrap(CONTENT));
+
+        assertDoesNotThrow(verifier::verify);
+    }
+
+    @Test
+    void testVerify_rejectsMismatch() throws Exception {
+        DigestVerifier verifier = new DigestVerifier("sha256:" + hash("SHA-256", CONTENT));
+        byte[] tampered = CONTENT.clone();
+        tampered[0] ^= 1;
+
+        verifier.update(DefaultDataBufferFactory.sharedInstance.wrap(tampered));
+
+        StorageException error = assertThrows(StorageException.class, verifier::verify);
+        assertTrue(error.getMessage().contains("11 bytes"));
+    }
+
+    @Test
+    void testVerify_rejectsTruncatedContent() throws Exception {
+        DigestVerifier verifier = new DigestVerifier("sha512:" + hash("SHA-512", CONTENT));
+
+        verifier.update(DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(CONTENT, 0, 5)));
+
+        assertThrows(StorageException.class, verifier::verify);
+    }
+
+    @Test
+    void testUpdate_leavesTheReadPositionForTheWriter() throws Exception {
+        DigestVerifier verifier = new DigestVerifier("sha256:" + hash("SHA-256", CONTENT));
+        DataBuffer buffer = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT).allocateBuffer(CONTENT.length);
+        buffer.write(CONTENT);
+
+        verifier.update(buffer);
+
+        assertEquals(0, buffer.readPosition());
+        assertEquals(CONTENT.length, buffer.readableByteCount());
+        DataBufferUtils.release(buffer);
+        verifier.verify();
+    }
+
+    @Test
+    void testUnsupportedAlgorithm() {
+        assertThrows(StorageException.class, () -> new DigestVerifier("md5:d41d8cd98f00b204e9800998ecf8427e"));
+        assertThrows(IllegalArgumentException.class, () -> new DigestVerifier("no-algorithm"));
+    }
+
+    /**
+     * Hash the content in several buffers, as it arrives from the network
+     */
+    private static void assertMatches(String algorithm, String jcaName) throws Exception {
+        DigestVerifier verifier = new DigestVerifier(algorithm + ":" + hash(jcaName, CONTENT));
+
+        verifier.update(DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(CONTENT, 0, 6)));
+        verifier.update(DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(CONTENT, 6, 5)));
+
+        assertEquals(CONTENT.length, verifier.getBytes());
+        assertDoesNotThrow(verifier::verify);
+    }
+
+    private static String hash(String jcaName, byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance(jcaName).digest(content));
+    }
+}
@@ -0,0 +1,52 @@
+package com.dingdangmaoup.station.storage.buffer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test that blob chunks come from Netty's shared allocator as direct buffers
+ */
+class BlobBuffersTest {
+
+    private final BlobBuffers buffers = new BlobBuffers(new SimpleMeterRegistry(), true, 65536,
+            DataSize.ofMegabytes(1), DataSize.ofKilobytes(16), DataSize.ofMegabytes(64), DataSize.ofMegabytes(64));
+
+    @Test
+    void testFactory_handsOutDirectBuffers() {
+        DataBuffer buffer = buffers.bufferFactory().allocateBuffer(4096);
+        try {
+            NettyDataBuffer nettyBuffer = assertInstanceOf(NettyDataBuffer.class, buffer);
+            assertTrue(nettyBuffer.getNativeBuffer().isDirect());
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    @Test
+    void testCopyOf_isDirectAndHoldsTheBytes() {
+        DataBuffer buffer = buffers.copyOf(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        try {
+            assertTrue(assertInstanceOf(NettyDataBuffer.class, buffer).getNativeBuffer().isDirect());
+            assertEquals(3, buffer.readableByteCount());
+            assertEquals(2, buffer.getByte(1));
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    @Test
+    void testChunkSize_cappedAtPoolChunk() {
+        assertTrue(buffers.isPooled());
+        assertEquals(BlobBuffers.MAX_POOLED_CHUNK, buffers.chunkSize(DataSize.ofGigabytes(1).toBytes()));
+        assertEquals(16 * 1024, buffers.chunkSize(100 * 1024));
+        assertEquals(10, buffers.chunkSize(10));
+    }
+}
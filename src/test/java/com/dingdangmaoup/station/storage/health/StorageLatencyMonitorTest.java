@@ -0,0 +1,130 @@
+package com.dingdangmaoup.station.storage.health;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the degraded state transitions of the storage latency monitor
+ */
+class StorageLatencyMonitorTest {
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<StorageHealthChangedEvent> events = new ArrayList<>();
+
+    @Test
+    void testDegrades_onlyAfterMinSamples() {
+        StorageLatencyMonitor monitor = monitor(Duration.ofHours(1));
+
+        for (int i = 0; i < 19; i++) {
+            monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        }
+        assertFalse(monitor.isDegraded());
+        assertTrue(events.isEmpty());
+
+        monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        assertTrue(monitor.isDegraded());
+        assertEquals(List.of(new StorageHealthChangedEvent(true)), events);
+
+        // Further slow reads do not publish again
+        monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    void testStaysHealthy_belowThreshold() {
+        StorageLatencyMonitor monitor = monitor(Duration.ofHours(1));
+
+        for (int i = 0; i < 100; i++) {
+            monitor.record(StorageLatencyMonitor.Operation.READ, FAST);
+        }
+
+        assertFalse(monitor.isDegraded());
+        assertEquals(FAST, monitor.getReadLatency().toNanos(), TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+    @Test
+    void testSingleSlowRead_doesNotDegradeAWarmAverage() {
+        StorageLatencyMonitor monitor = monitor(Duration.ofHours(1));
+        for (int i = 0; i < 50; i++) {
+            monitor.record(StorageLatencyMonitor.Operation.READ, FAST);
+        }
+
+        monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+
+        assertFalse(monitor.isDegraded());
+    }
+
+    @Test
+    void testDeletes_doNotCountTowardReadLatency() {
+        StorageLatencyMonitor monitor = monitor(Duration.ofHours(1));
+
+        for (int i = 0; i < 50; i++) {
+            monitor.record(StorageLatencyMonitor.Operation.DELETE, SLOW);
+        }
+
+        assertFalse(monitor.isDegraded());
+        assertEquals(Duration.ZERO, monitor.getReadLatency());
+    }
+
+    @Test
+    void testCooldown_notElapsed_staysDegraded() {
+        StorageLatencyMonitor monitor = monitor(Duration.ofHours(1));
+        degrade(monitor);
+
+        monitor.checkCooldown();
+
+        assertTrue(monitor.isDegraded());
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    void testCooldown_elapsed_clearsAndResetsSamples() {
+        StorageLatencyMonitor monitor = monitor(Duration.ZERO);
+        degrade(monitor);
+
+        monitor.checkCooldown();
+
+        assertFalse(monitor.isDegraded());
+        assertEquals(List.of(new StorageHealthChangedEvent(true), new StorageHealthChangedEvent(false)), events);
+        assertEquals(Duration.ZERO, monitor.getReadLatency());
+
+        // Samples start over, so it takes min-samples slow reads to degrade again
+        for (int i = 0; i < 19; i++) {
+            monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        }
+        assertFalse(monitor.isDegraded());
+        monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        assertTrue(monitor.isDegraded());
+    }
+
+    @Test
+    void testCooldown_whenHealthy_doesNothing() {
+        StorageLatencyMonitor monitor = monitor(Duration.ZERO);
+
+        monitor.checkCooldown();
+
+        assertFalse(monitor.isDegraded());
+        assertTrue(events.isEmpty());
+    }
+
+    private StorageLatencyMonitor monitor(Duration cooldown) {
+        return new StorageLatencyMonitor(event -> events.add((StorageHealthChangedEvent) event),
+                new SimpleMeterRegistry(), Duration.ofMillis(250), 20, cooldown);
+    }
+
+    private static void degrade(StorageLatencyMonitor monitor) {
+        for (int i = 0; i < 20; i++) {
+            monitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        }
+        assertTrue(monitor.isDegraded());
+    }
+}
@@ -0,0 +1,199 @@
+package com.dingdangmaoup.station.storage.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test persistence of the blob index: snapshot plus append log, replay after a crash, and rebuild
+ */
+class BlobIndexTest {
+
+    @TempDir
+    private Path basePath;
+
+    @Test
+    void testLoad_nothingPersisted() {
+        BlobIndex index = newIndex();
+
+        assertFalse(index.load());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void testLoad_replaysLogWithoutSnapshot() {
+        BlobIndex crashed = newIndex();
+        crashed.put(entry("sha256:a", 100));
+        crashed.put(entry("sha256:b", 200));
+        crashed.remove("sha256:a");
+        // No snapshot and no close: the process died with only the log on disk
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+
+        assertFalse(index.contains("sha256:a"));
+        assertEquals(200, index.get("sha256:b").orElseThrow().getSize());
+        assertEquals(1, index.getUsage().getCount());
+        assertEquals(200, index.getUsage().getBytes());
+    }
+
+    @Test
+    void testLoad_appliesLogOnTopOfSnapshotInOrder() {
+        BlobIndex crashed = newIndex();
+        crashed.put(entry("sha256:a", 100));
+        crashed.put(entry("sha256:b", 200));
+        crashed.snapshot();
+        // Changes after the snapshot, some of them undoing or redoing snapshot state
+        crashed.remove("sha256:a");
+        crashed.put(entry("sha256:c", 300));
+        crashed.remove("sha256:c");
+        crashed.put(entry("sha256:c", 400));
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+
+        assertFalse(index.contains("sha256:a"));
+        assertTrue(index.contains("sha256:b"));
+        assertEquals(400, index.get("sha256:c").orElseThrow().getSize());
+        assertEquals(2, index.getUsage().getCount());
+        assertEquals(600, index.getUsage().getBytes());
+        assertEquals(2, index.sample(10).stream().map(BlobIndexEntry::getDigest).distinct().count());
+    }
+
+    @Test
+    void testSnapshot_keepsAccessStatistics() {
+        BlobIndex crashed = newIndex();
+        crashed.put(new BlobIndexEntry("sha256:a", 100, 1_000, 5_000, 7, true));
+        crashed.snapshot();
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+
+        BlobIndexEntry entry = index.get("sha256:a").orElseThrow();
+        assertEquals(1_000, entry.getCreatedAt());
+        assertEquals(5_000, entry.getLastAccess());
+        assertEquals(7, entry.getHits());
+        assertTrue(entry.isVerified());
+    }
+
+    @Test
+    void testLoad_tornLogTailKeepsEarlierRecords() throws IOException {
+        BlobIndex crashed = newIndex();
+        crashed.put(entry("sha256:a", 100));
+        crashed.put(entry("sha256:b", 200));
+        // A crash mid-append: the opcode and the start of the digest made it to disk
+        Files.write(logFile(), new byte[]{'A', 0, 71, 's', 'h', 'a'}, StandardOpenOption.APPEND);
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+        assertEquals(2, index.size());
+
+        // The replayed log was folded into a snapshot, so new appends do not follow the torn record
+        index.put(entry("sha256:c", 300));
+        BlobIndex reloaded = newIndex();
+        assertTrue(reloaded.load());
+        assertEquals(3, reloaded.size());
+    }
+
+    @Test
+    void testLoad_corruptRecordStopsReplay() throws IOException {
+        BlobIndex crashed = newIndex();
+        crashed.put(entry("sha256:a", 100));
+        Files.write(logFile(), new byte[]{'X', 0, 1, 'x'}, StandardOpenOption.APPEND);
+        crashed.put(entry("sha256:b", 200));
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+
+        assertTrue(index.contains("sha256:a"));
+        assertFalse(index.contains("sha256:b"));
+    }
+
+    @Test
+    void testLoad_replaysRotatedLogBeforeTheCurrentOne() throws IOException {
+        BlobIndex crashed = newIndex();
+        crashed.put(entry("sha256:a", 100));
+        crashed.put(entry("sha256:b", 200));
+        // The process died after a snapshot rotated the log but before the snapshot was in place
+        Files.move(logFile(), logFile().resolveSibling("blobs.log.1"));
+        BlobIndex restarted = newIndex();
+        restarted.put(entry("sha256:a", 150));
+        restarted.put(entry("sha256:c", 300));
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+
+        assertEquals(150, index.get("sha256:a").orElseThrow().getSize());
+        assertTrue(index.contains("sha256:b"));
+        assertTrue(index.contains("sha256:c"));
+        assertEquals(650, index.getUsage().getBytes());
+        // The snapshot taken on load covers both logs
+        assertFalse(Files.exists(logFile().resolveSibling("blobs.log.1")));
+    }
+
+    @Test
+    void testSnapshot_consecutiveSnapshotsKeepLaterChanges() {
+        BlobIndex crashed = newIndex();
+        crashed.put(entry("sha256:a", 100));
+        crashed.snapshot();
+        crashed.put(entry("sha256:b", 200));
+        crashed.snapshot();
+        crashed.remove("sha256:a");
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+
+        assertFalse(index.contains("sha256:a"));
+        assertTrue(index.contains("sha256:b"));
+        assertEquals(1, index.getUsage().getCount());
+    }
+
+    @Test
+    void testLoad_unreadableSnapshotAsksForARebuild() throws IOException {
+        Files.createDirectories(logFile().getParent());
+        Files.write(logFile().resolveSibling("blobs.snapshot"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        BlobIndex index = newIndex();
+
+        assertFalse(index.load());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void testReplaceAll_persistsTheRebuiltIndex() {
+        BlobIndex stale = newIndex();
+        stale.put(entry("sha256:gone", 100));
+        stale.close();
+
+        BlobIndex rebuilt = newIndex();
+        assertTrue(rebuilt.load());
+        rebuilt.replaceAll(List.of(entry("sha256:a", 100), entry("sha256:b", 200)));
+        assertEquals(300, rebuilt.getUsage().getBytes());
+
+        BlobIndex index = newIndex();
+        assertTrue(index.load());
+        assertFalse(index.contains("sha256:gone"));
+        assertTrue(index.contains("sha256:a"));
+        assertTrue(index.contains("sha256:b"));
+        assertEquals(2, index.getUsage().getCount());
+    }
+
+    private BlobIndex newIndex() {
+        return new BlobIndex(basePath.toString());
+    }
+
+    private Path logFile() {
+        return basePath.resolve("index").resolve("blobs.log");
+    }
+
+    private static BlobIndexEntry entry(String digest, long size) {
+        return new BlobIndexEntry(digest, size, 1_000, 1_000, 0, true);
+    }
+}
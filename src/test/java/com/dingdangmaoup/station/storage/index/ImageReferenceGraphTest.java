@@ -0,0 +1,131 @@
+package com.dingdangmaoup.station.storage.index;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test manifest parsing and reference tracking of the image reference graph
+ */
+class ImageReferenceGraphTest {
+
+    private ImageReferenceGraph graph;
+    private List<String> unreferenced;
+
+    @BeforeEach
+    void setUp() {
+        graph = new ImageReferenceGraph();
+        unreferenced = new ArrayList<>();
+        graph.addUnreferencedListener(unreferenced::add);
+    }
+
+    @Test
+    void testAddManifest_ociImageReferencesConfigAndLayers() {
+        add("sha256:image", """
+                {"schemaVersion":2,"mediaType":"application/vnd.oci.image.manifest.v1+json",
+                 "config":{"digest":"sha256:config"},
+                 "layers":[{"digest":"sha256:base"},{"digest":"sha256:app"}]}
+                """);
+
+        assertEquals(List.of("sha256:config", "sha256:base", "sha256:app"), graph.children("sha256:image"));
+        assertFalse(graph.isIndex("sha256:image"));
+        assertEquals(Set.of("sha256:image"), graph.referrers("sha256:base"));
+        assertEquals(List.of("sha256:image"), graph.images());
+    }
+
+    @Test
+    void testAddManifest_schema1CountsRepeatedLayersOnce() {
+        add("sha256:image", """
+                {"schemaVersion":1,"fsLayers":[{"blobSum":"sha256:empty"},{"blobSum":"sha256:base"},
+                 {"blobSum":"sha256:empty"}]}
+                """);
+
+        assertEquals(List.of("sha256:empty", "sha256:base"), graph.children("sha256:image"));
+        assertTrue(graph.isReferenced("sha256:empty"));
+    }
+
+    @Test
+    void testAddManifest_indexReferencesChildManifestsAndIsNoImage() {
+        add("sha256:index", """
+                {"schemaVersion":2,"manifests":[{"digest":"sha256:amd64"},{"digest":"sha256:arm64"}]}
+                """);
+
+        assertTrue(graph.isIndex("sha256:index"));
+        assertEquals(List.of("sha256:amd64", "sha256:arm64"), graph.children("sha256:index"));
+        assertTrue(graph.images().isEmpty());
+        assertTrue(graph.sampleImages(4).isEmpty());
+    }
+
+    @Test
+    void testAddManifest_unparseableReferencesNothing() {
+        add("sha256:broken", "not json");
+
+        assertTrue(graph.containsManifest("sha256:broken"));
+        assertTrue(graph.children("sha256:broken").isEmpty());
+    }
+
+    @Test
+    void testRemoveManifest_reportsOnlyChildrenLosingTheirLastReferrer() {
+        addImage("sha256:one", "sha256:base", "sha256:one-layer");
+        addImage("sha256:two", "sha256:base", "sha256:two-layer");
+
+        graph.removeManifest("sha256:one");
+
+        assertEquals(List.of("sha256:one-layer"), unreferenced);
+        assertTrue(graph.isReferenced("sha256:base"));
+        assertEquals(Set.of("sha256:two"), graph.referrers("sha256:base"));
+        assertEquals(List.of("sha256:two"), graph.sampleImages(4));
+    }
+
+    @Test
+    void testRemoveManifest_listenerCanCascadeThroughAnIndex() {
+        add("sha256:index", """
+                {"schemaVersion":2,"manifests":[{"digest":"sha256:amd64"},{"digest":"sha256:arm64"}]}
+                """);
+        addImage("sha256:amd64", "sha256:base", "sha256:amd64-layer");
+        addImage("sha256:arm64", "sha256:base", "sha256:arm64-layer");
+        // Like the manifest storage dropping child manifests nothing refers to any more
+        graph.addUnreferencedListener(digest -> {
+            if (graph.containsManifest(digest)) {
+                graph.removeManifest(digest);
+            }
+        });
+
+        graph.removeManifest("sha256:index");
+
+        assertEquals(0, graph.size());
+        assertTrue(unreferenced.containsAll(List.of("sha256:amd64", "sha256:arm64",
+                "sha256:base", "sha256:amd64-layer", "sha256:arm64-layer")));
+        // The shared base layer is reported once, when the second image goes
+        assertEquals(1, unreferenced.stream().filter("sha256:base"::equals).count());
+        assertFalse(graph.isReferenced("sha256:base"));
+    }
+
+    @Test
+    void testRemoveManifest_unknownDigestIsIgnored() {
+        addImage("sha256:image", "sha256:base");
+
+        graph.removeManifest("sha256:other");
+
+        assertTrue(unreferenced.isEmpty());
+        assertTrue(graph.isReferenced("sha256:base"));
+    }
+
+    private void addImage(String digest, String... layers) {
+        StringBuilder manifest = new StringBuilder("{\"schemaVersion\":2,\"layers\":[");
+        for (int i = 0; i < layers.length; i++) {
+            manifest.append(i > 0 ? "," : "").append("{\"digest\":\"").append(layers[i]).append("\"}");
+        }
+        add(digest, manifest.append("]}").toString());
+    }
+
+    private void add(String digest, String manifest) {
+        graph.addManifest(digest, manifest.getBytes(StandardCharsets.UTF_8), 1_000);
+    }
+}
@@ -0,0 +1,56 @@
+package com.dingdangmaoup.station.storage.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the dense slot array behind sampled digest sets
+ */
+class SampledDigestsTest {
+
+    @Test
+    void testSample_distinctAndPresentAfterRemovals() {
+        SampledDigests digests = new SampledDigests();
+        for (int i = 0; i < 100; i++) {
+            digests.add("sha256:" + i);
+        }
+        for (int i = 0; i < 100; i += 3) {
+            assertTrue(digests.remove("sha256:" + i));
+        }
+        assertEquals(66, digests.size());
+
+        for (int round = 0; round < 100; round++) {
+            List<String> sample = digests.sample(16);
+            assertEquals(16, new HashSet<>(sample).size());
+            sample.forEach(digest -> assertTrue(digests.contains(digest)));
+            // Sampling reorders the slots; removal must still find every digest
+            assertTrue(digests.remove(sample.getFirst()));
+            assertTrue(digests.add(sample.getFirst()));
+        }
+    }
+
+    @Test
+    void testSample_smallSetReturnsEverything() {
+        SampledDigests digests = new SampledDigests();
+        digests.add("sha256:a");
+        digests.add("sha256:b");
+
+        assertEquals(Set.of("sha256:a", "sha256:b"), new HashSet<>(digests.sample(16)));
+    }
+
+    @Test
+    void testAddRemove_reportChanges() {
+        SampledDigests digests = new SampledDigests();
+
+        assertTrue(digests.add("sha256:a"));
+        assertFalse(digests.add("sha256:a"));
+        assertTrue(digests.remove("sha256:a"));
+        assertFalse(digests.remove("sha256:a"));
+        assertTrue(digests.sample(4).isEmpty());
+    }
+}
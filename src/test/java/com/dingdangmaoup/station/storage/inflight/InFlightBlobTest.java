@@ -0,0 +1,268 @@
+package com.dingdangmaoup.station.storage.inflight;
+
+import com.dingdangmaoup.station.cache.eviction.DiskSpaceGuard;
+import com.dingdangmaoup.station.config.properties.EvictionProperties;
+import com.dingdangmaoup.station.metrics.NodeMetrics;
+import com.dingdangmaoup.station.storage.BlobMetadata;
+import com.dingdangmaoup.station.storage.BlobStorage;
+import com.dingdangmaoup.station.storage.BlobStream;
+import com.dingdangmaoup.station.storage.buffer.BlobBuffers;
+import com.dingdangmaoup.station.storage.index.BlobFrequency;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test sharing a download between readers that attach before, during and after it
+ */
+class InFlightBlobTest {
+
+    private static final String DIGEST = "sha256:3a6eb0790f39ac87c94f3856b2dd2c5d110e6811602261a9a923d3bb23adc8b7";
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+    private final StreamingBlobStorage storage = new StreamingBlobStorage();
+    private final DiskSpaceGuard diskSpaceGuard = new DiskSpaceGuard(storage, null, new EvictionProperties());
+    private final Sinks.Many<DataBuffer> upstream = Sinks.many().unicast().onBackpressureBuffer();
+    private final List<NettyDataBuffer> ingested = new ArrayList<>();
+
+    @Test
+    void testJoin_concurrentMissesShareOneDownload(@TempDir Path basePath) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InFlightBlobDownloads downloads = new InFlightBlobDownloads(storage, diskSpaceGuard,
+                new NodeMetrics(meterRegistry),
+                new BlobBuffers(meterRegistry, true, 65536, DataSize.ofMegabytes(1), DataSize.ofKilobytes(16),
+                        DataSize.ofMegabytes(64), DataSize.ofMegabytes(1)),
+                new BlobFrequency(new BlobIndex(basePath.toString()), 1000),
+                DataSize.ofMegabytes(8));
+        AtomicInteger started = new AtomicInteger();
+
+        InFlightBlob first = downloads.join(DIGEST, blob -> {
+            started.incrementAndGet();
+            return Mono.never();
+        });
+        InFlightBlob second = downloads.join(DIGEST, blob -> {
+            started.incrementAndGet();
+            return Mono.never();
+        });
+
+        assertSame(first, second);
+        assertEquals(1, started.get());
+        assertEquals(1, downloads.size());
+    }
+
+    @Test
+    void testReadersAttachedBeforeIngest_receiveEveryByte() {
+        InFlightBlob blob = newBlob(1024);
+        CompletableFuture<String> first = readAll(blob, 0, Long.MAX_VALUE);
+        CompletableFuture<String> second = readAll(blob, 6, 5);
+
+        blob.ingest(BlobStream.builder().size(11).data(upstream.asFlux()).build()).subscribe();
+        emit("hello ");
+        emit("world");
+        upstream.tryEmitComplete();
+        blob.complete();
+
+        assertEquals("hello world", first.orTimeout(5, TimeUnit.SECONDS).join());
+        assertEquals("world", second.join());
+    }
+
+    @Test
+    void testLateJoiner_readsRetainedSlicesOfTheReplayBuffer() {
+        InFlightBlob blob = newBlob(1024);
+        blob.ingest(BlobStream.builder().size(-1).data(upstream.asFlux()).build()).subscribe();
+        emit("abcd");
+        emit("efgh");
+
+        CompletableFuture<List<DataBuffer>> read = blob.read(2, 4).collectList().toFuture();
+        // A range reader completes on the next progress tick past its end
+        emit("ijkl");
+        List<DataBuffer> slices = read.orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertTrue(slices.stream().allMatch(NettyDataBuffer.class::isInstance));
+        // The reader's slices hold their own reference to the ingested chunks
+        assertEquals(2, ingested.get(0).getNativeBuffer().refCnt());
+        assertEquals("cdef", join(slices));
+        assertEquals(1, ingested.get(0).getNativeBuffer().refCnt());
+
+        upstream.tryEmitComplete();
+        blob.complete();
+
+        assertAllReleased();
+    }
+
+    @Test
+    void testEviction_releasesChunksThatLeaveTheWindow() {
+        InFlightBlob blob = newBlob(4);
+        blob.ingest(BlobStream.builder().size(-1).data(upstream.asFlux()).build()).subscribe();
+
+        emit("aaaa");
+        assertEquals(1, ingested.get(0).getNativeBuffer().refCnt());
+        emit("bbbb");
+        assertEquals(0, ingested.get(0).getNativeBuffer().refCnt());
+        assertEquals(1, ingested.get(1).getNativeBuffer().refCnt());
+
+        upstream.tryEmitComplete();
+        blob.complete();
+        assertAllReleased();
+    }
+
+    @Test
+    void testLateJoiner_behindTheWindow_readsTheCommittedBlob() {
+        InFlightBlob blob = newBlob(4);
+        blob.ingest(BlobStream.builder().size(-1).data(upstream.asFlux()).build()).subscribe();
+        emit("aaaa");
+        emit("bbbb");
+        emit("cccc");
+
+        CompletableFuture<String> late = readAll(blob, 0, Long.MAX_VALUE);
+        assertFalse(late.isDone());
+
+        upstream.tryEmitComplete();
+        blob.complete();
+
+        assertEquals("aaaabbbbcccc", late.orTimeout(5, TimeUnit.SECONDS).join());
+        assertAllReleased();
+    }
+
+    @Test
+    void testFailedDownload_releasesTheReplayBuffer() {
+        InFlightBlob blob = newBlob(1024);
+        blob.ingest(BlobStream.builder().size(-1).data(upstream.asFlux()).build()).subscribe(v -> { }, e -> { });
+        emit("abcd");
+        CompletableFuture<String> reader = readAll(blob, 0, Long.MAX_VALUE);
+
+        IllegalStateException failure = new IllegalStateException("upstream reset");
+        upstream.tryEmitError(failure);
+        blob.fail(failure);
+
+        assertThrows(Exception.class, () -> reader.orTimeout(5, TimeUnit.SECONDS).join());
+        assertAllReleased();
+    }
+
+    private InFlightBlob newBlob(long replayBufferBytes) {
+        return new InFlightBlob(DIGEST, storage, diskSpaceGuard, replayBufferBytes, bufferFactory, 16);
+    }
+
+    private void emit(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        NettyDataBuffer buffer = bufferFactory.allocateBuffer(bytes.length);
+        buffer.write(bytes);
+        ingested.add(buffer);
+        upstream.tryEmitNext(buffer);
+    }
+
+    private void assertAllReleased() {
+        for (NettyDataBuffer buffer : ingested) {
+            assertEquals(0, buffer.getNativeBuffer().refCnt());
+        }
+    }
+
+    private static CompletableFuture<String> readAll(InFlightBlob blob, long offset, long length) {
+        return blob.read(offset, length)
+                .collectList()
+                .map(InFlightBlobTest::join)
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .toFuture();
+    }
+
+    private static String join(List<DataBuffer> buffers) {
+        StringBuilder content = new StringBuilder();
+        for (DataBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(bytes), 0, bytes.length);
+            content.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+        buffers.forEach(DataBufferUtils::release);
+        return content.toString();
+    }
+
+    /**
+     * Passes the blob through to the caller as it arrives and keeps a copy once the stream ends
+     */
+    private static class StreamingBlobStorage implements BlobStorage {
+
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private volatile byte[] stored;
+
+        @Override
+        public Mono<BlobMetadata> saveBlob(String digest, Flux<DataBuffer> data) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Flux<DataBuffer> saveBlobStreaming(String digest, Flux<DataBuffer> data,
+                                                  Consumer<Path> partialFileListener) {
+            return data
+                    .doOnNext(buffer -> {
+                        byte[] bytes = new byte[buffer.readableByteCount()];
+                        buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(bytes), 0, bytes.length);
+                        received.writeBytes(bytes);
+                    })
+                    .doOnComplete(() -> stored = received.toByteArray());
+        }
+
+        @Override
+        public Flux<DataBuffer> getBlob(String digest) {
+            return getBlob(digest, 0, Long.MAX_VALUE);
+        }
+
+        @Override
+        public Flux<DataBuffer> getBlob(String digest, long offset, long length) {
+            return Flux.defer(() -> {
+                int from = (int) Math.min(offset, stored.length);
+                int to = (int) Math.min(stored.length, offset + Math.min(length, stored.length));
+                return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(stored, from, to)));
+            });
+        }
+
+        @Override
+        public Mono<Boolean> exists(String digest) {
+            return Mono.just(stored != null);
+        }
+
+        @Override
+        public Mono<BlobMetadata> getMetadata(String digest) {
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Boolean> delete(String digest) {
+            return Mono.just(false);
+        }
+
+        @Override
+        public Mono<Long> getTotalSize() {
+            return Mono.just(0L);
+        }
+
+        @Override
+        public Mono<Long> getAvailableSpace() {
+            return Mono.just(Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.dingdangmaoup.station.storage.ingest;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test write coalescing, direct I/O padding and buffer release of the ingest writer
+ */
+class CoalescingFileWriterTest {
+
+    private static final int STAGING = 2 * IngestWriter.ALIGNMENT;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+    private final List<NettyDataBuffer> sources = new ArrayList<>();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void testAccept_writesWholeAlignedStagingBuffers() throws IOException {
+        byte[] content = random(5 * STAGING + 1000);
+
+        try (RecordingChannel channel = open()) {
+            CoalescingFileWriter writer = new CoalescingFileWriter(channel, ByteBuffer.allocate(STAGING), false);
+            List<DataBuffer> done = new ArrayList<>();
+            // Network-sized buffers that do not line up with the staging buffer
+            for (int offset = 0; offset < content.length; offset += 1000) {
+                done.addAll(writer.accept(source(content, offset, Math.min(1000, content.length - offset))));
+            }
+
+            assertEquals(5, channel.writes.size());
+            for (int i = 0; i < channel.writes.size(); i++) {
+                assertEquals((long) i * STAGING, channel.writes.get(i)[0]);
+                assertEquals(STAGING, channel.writes.get(i)[1]);
+            }
+            // Only buffers whose bytes are all on file are handed back
+            assertEquals(5 * STAGING / 1000, done.size());
+
+            done.addAll(writer.finish());
+            assertEquals(sources.size(), done.size());
+            assertEquals(1000, channel.writes.getLast()[1]);
+            done.forEach(buffer -> assertNotEquals(0, ((NettyDataBuffer) buffer).getNativeBuffer().refCnt()));
+            done.forEach(DataBufferUtils::release);
+        }
+        assertArrayEquals(content, Files.readAllBytes(file()));
+    }
+
+    @Test
+    void testFinish_directPadsTheLastWriteAndTruncates() throws IOException {
+        byte[] content = random(STAGING + 1000);
+
+        try (RecordingChannel channel = open()) {
+            CoalescingFileWriter writer = new CoalescingFileWriter(channel, ByteBuffer.allocate(STAGING), true);
+            writer.accept(source(content, 0, content.length)).forEach(DataBufferUtils::release);
+            writer.finish().forEach(DataBufferUtils::release);
+
+            // Every write is a whole number of blocks at a block-aligned position
+            for (long[] write : channel.writes) {
+                assertEquals(0, write[0] % IngestWriter.ALIGNMENT);
+                assertEquals(0, write[1] % IngestWriter.ALIGNMENT);
+            }
+            assertEquals(IngestWriter.ALIGNMENT, channel.writes.getLast()[1]);
+            assertEquals(content.length, channel.size());
+        }
+        assertArrayEquals(content, Files.readAllBytes(file()));
+    }
+
+    @Test
+    void testFinish_bufferedDoesNotPad() throws IOException {
+        byte[] content = random(1000);
+
+        try (RecordingChannel channel = open()) {
+            CoalescingFileWriter writer = new CoalescingFileWriter(channel, ByteBuffer.allocate(STAGING), false);
+            writer.accept(source(content, 0, content.length));
+            writer.finish().forEach(DataBufferUtils::release);
+
+            assertEquals(1, channel.writes.size());
+            assertEquals(1000, channel.writes.getFirst()[1]);
+        }
+        assertArrayEquals(content, Files.readAllBytes(file()));
+    }
+
+    @Test
+    void testClose_releasesPendingBuffersAndRejectsLaterOnes() throws IOException {
+        byte[] content = random(3000);
+
+        try (RecordingChannel channel = open()) {
+            ByteBuffer staging = ByteBuffer.allocate(STAGING);
+            CoalescingFileWriter writer = new CoalescingFileWriter(channel, staging, false);
+            assertTrue(writer.accept(source(content, 0, 1000)).isEmpty());
+            assertTrue(writer.accept(source(content, 1000, 1000)).isEmpty());
+
+            ByteBuffer returned = writer.close();
+
+            assertSame(staging, returned);
+            assertEquals(0, returned.position());
+            assertAllReleased();
+            DataBuffer late = source(content, 2000, 1000);
+            assertThrows(StorageException.class, () -> writer.accept(late));
+            assertAllReleased();
+            assertTrue(channel.writes.isEmpty());
+        }
+    }
+
+    @Test
+    void testWrite_cancelReleasesStagedBuffers() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        IngestWriter ingestWriter = new IngestWriter(DataSize.ofBytes(STAGING), IngestWriter.Durability.NONE,
+                Duration.ofMillis(5), false,
+                new StorageSchedulers(StorageSchedulers.ExecutionMode.BOUNDED_ELASTIC, registry));
+        Sinks.Many<DataBuffer> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        byte[] content = random(STAGING + 1000);
+        List<DataBuffer> emitted = new ArrayList<>();
+
+        try (RecordingChannel channel = open()) {
+            Disposable subscription = ingestWriter.write(upstream.asFlux(), channel, Schedulers.immediate())
+                    .subscribe(emitted::add);
+            upstream.tryEmitNext(source(content, 0, STAGING));
+            upstream.tryEmitNext(source(content, STAGING, 1000));
+
+            // The first buffer was written and handed over; the second is only staged
+            assertEquals(1, emitted.size());
+            subscription.dispose();
+
+            assertEquals(1, ((NettyDataBuffer) emitted.getFirst()).getNativeBuffer().refCnt());
+            assertEquals(0, sources.getLast().getNativeBuffer().refCnt());
+            emitted.forEach(DataBufferUtils::release);
+        }
+        assertAllReleased();
+    }
+
+    private RecordingChannel open() throws IOException {
+        return new RecordingChannel(FileChannel.open(file(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+    }
+
+    private Path file() {
+        return directory.resolve("blob");
+    }
+
+    private DataBuffer source(byte[] content, int offset, int length) {
+        NettyDataBuffer buffer = bufferFactory.allocateBuffer(length);
+        buffer.write(content, offset, length);
+        sources.add(buffer);
+        return buffer;
+    }
+
+    private void assertAllReleased() {
+        for (NettyDataBuffer buffer : sources) {
+            assertEquals(0, buffer.getNativeBuffer().refCnt());
+        }
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Records the position and length of each positional write
+     */
+    private static class RecordingChannel extends FileChannel {
+
+        private final FileChannel delegate;
+        private final List<long[]> writes = new ArrayList<>();
+
+        RecordingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            long offered = src.remaining();
+            int written = delegate.write(src, position);
+            // A short write would split one logical write in two; files on local disks do not do that
+            assertEquals(offered, written);
+            writes.add(new long[]{position, written});
+            return written;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.dingdangmaoup.station.storage.objectstore;
+
+import com.dingdangmaoup.station.config.properties.ObjectStoreProperties;
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.buffer.BlobBuffers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.Flux;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the object store backend against MinIO
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ObjectStoreBlobStorageTest {
+
+    @Container
+    private static final GenericContainer<?> MINIO = new GenericContainer<>("minio/minio:RELEASE.2025-04-22T22-12-26Z")
+            .withCommand("server", "/data")
+            .withEnv("MINIO_ROOT_USER", "station")
+            .withEnv("MINIO_ROOT_PASSWORD", "station-secret")
+            .withExposedPorts(9000)
+            .waitingFor(Wait.forHttp("/minio/health/live").forPort(9000));
+
+    private static ObjectStoreBlobStorage storage;
+
+    @BeforeAll
+    static void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObjectStoreProperties properties = new ObjectStoreProperties();
+        properties.setEndpoint("http://" + MINIO.getHost() + ":" + MINIO.getMappedPort(9000));
+        properties.setAccessKey("station");
+        properties.setSecretKey("station-secret");
+        properties.setCreateBucket(true);
+        // Smallest part size S3 accepts, so a few MB exercise the multipart and ranged paths
+        properties.setPartSize(DataSize.ofMegabytes(5));
+        properties.setRangeSize(DataSize.ofMegabytes(1));
+
+        BlobBuffers blobBuffers = new BlobBuffers(meterRegistry, false, 65536, DataSize.ofMegabytes(1),
+                DataSize.ofKilobytes(16), DataSize.ofMegabytes(64), DataSize.ofMegabytes(1));
+        storage = new ObjectStoreBlobStorage(properties, blobBuffers, meterRegistry);
+        storage.checkBucket();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    void testMultipartSave_readsBackInRanges() {
+        byte[] content = randomBytes(12 * 1024 * 1024 + 123);
+        String digest = digestOf(content);
+
+        assertEquals(content.length, storage.saveBlob(digest, chunks(content)).block().getSize());
+
+        assertTrue(storage.exists(digest).block());
+        assertEquals(content.length, storage.getMetadata(digest).block().getSize());
+        assertArrayEquals(content, read(storage.getBlob(digest)));
+        assertArrayEquals(Arrays.copyOfRange(content, 1_000_000, 3_500_000),
+                read(storage.getBlob(digest, 1_000_000, 2_500_000)));
+    }
+
+    @Test
+    void testDigestMismatch_abortsUpload() {
+        byte[] content = randomBytes(64 * 1024);
+        String digest = digestOf(randomBytes(16));
+
+        assertThrows(StorageException.class, () -> storage.saveBlob(digest, chunks(content)).block());
+        assertFalse(storage.exists(digest).block());
+    }
+
+    @Test
+    void testEmptyBlob() {
+        String digest = digestOf(new byte[0]);
+
+        assertEquals(0, storage.saveBlob(digest, Flux.empty()).block().getSize());
+
+        assertEquals(0, storage.getMetadata(digest).block().getSize());
+        assertArrayEquals(new byte[0], read(storage.getBlob(digest)));
+    }
+
+    @Test
+    void testUpload_sendsPooledBuffersAndReleasesThem() {
+        NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+        for (int size : new int[]{4096, 11 * 1024 * 1024}) {
+            byte[] content = randomBytes(size);
+            String digest = digestOf(content);
+            List<NettyDataBuffer> sent = new ArrayList<>();
+            Flux<DataBuffer> data = chunks(content).map(chunk -> {
+                NettyDataBuffer buffer = bufferFactory.allocateBuffer(chunk.readableByteCount());
+                buffer.write(chunk);
+                sent.add(buffer);
+                return buffer;
+            });
+
+            assertEquals(size, storage.upload(digest, data, size).block().getSize());
+
+            assertArrayEquals(content, read(storage.getBlob(digest)));
+            for (NettyDataBuffer buffer : sent) {
+                assertEquals(0, buffer.getNativeBuffer().refCnt());
+            }
+        }
+    }
+
+    @Test
+    void testOpen_missingBlob() {
+        assertTrue(storage.open(digestOf(randomBytes(8))).block().isEmpty());
+        assertFalse(storage.delete(digestOf(randomBytes(8))).block());
+    }
+
+    private static Flux<DataBuffer> chunks(byte[] content) {
+        int chunkSize = 64 * 1024;
+        return Flux.range(0, (content.length + chunkSize - 1) / chunkSize)
+                .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(content,
+                        i * chunkSize, Math.min(content.length, (i + 1) * chunkSize))));
+    }
+
+    private static byte[] read(Flux<DataBuffer> data) {
+        return DataBufferUtils.join(data)
+                .map(buffer -> {
+                    byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    DataBufferUtils.release(buffer);
+                    return bytes;
+                })
+                .defaultIfEmpty(new byte[0])
+                .block();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String digestOf(byte[] content) {
+        try {
+            return "sha256:" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
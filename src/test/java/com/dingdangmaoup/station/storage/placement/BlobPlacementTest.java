@@ -0,0 +1,259 @@
+package com.dingdangmaoup.station.storage.placement;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import com.dingdangmaoup.station.storage.index.BlobIndex;
+import com.dingdangmaoup.station.storage.index.BlobIndexEntry;
+import com.dingdangmaoup.station.storage.scheduler.StorageSchedulers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test weighted rendezvous placement over storage roots, and taking failed roots out of it
+ */
+class BlobPlacementTest {
+
+    @TempDir
+    private Path basePath;
+
+    private StorageSchedulers storageSchedulers;
+    private BlobIndex blobIndex;
+
+    @BeforeEach
+    void setUp() {
+        storageSchedulers = new StorageSchedulers(StorageSchedulers.ExecutionMode.BOUNDED_ELASTIC,
+                new SimpleMeterRegistry());
+        blobIndex = new BlobIndex(basePath.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        storageSchedulers.close();
+    }
+
+    @Test
+    void testKey_leadingSixtyFourBitsOfTheHash() {
+        String hash = "00000000000000ff" + "ab".repeat(24);
+
+        assertEquals(0xffL, BlobPlacement.key("sha256:" + hash));
+        // The algorithm does not move a blob
+        assertEquals(BlobPlacement.key("sha256:" + hash), BlobPlacement.key("sha512:" + hash));
+        assertEquals(-1L, BlobPlacement.key("sha256:" + "f".repeat(64)));
+    }
+
+    @Test
+    void testKey_shortOrNonHexDigestIsMixed() {
+        assertEquals(BlobPlacement.mix("sha256:abc".hashCode()), BlobPlacement.key("sha256:abc"));
+        String notHex = "sha256:" + "z".repeat(64);
+        assertEquals(BlobPlacement.mix(notHex.hashCode()), BlobPlacement.key(notHex));
+    }
+
+    @Test
+    void testMix_distinctAndAvalanching() {
+        Set<Long> mixed = new HashSet<>();
+        long flippedBits = 0;
+        for (long value = 0; value < 10_000; value++) {
+            mixed.add(BlobPlacement.mix(value));
+            flippedBits += Long.bitCount(BlobPlacement.mix(value) ^ BlobPlacement.mix(value ^ 1));
+        }
+
+        assertEquals(10_000, mixed.size());
+        // A one-bit change in the input flips about half of the output bits
+        double average = flippedBits / 10_000.0;
+        assertTrue(average > 28 && average < 36, "flipped " + average + " bits on average");
+    }
+
+    @Test
+    void testScore_winsInProportionToWeight() {
+        StorageRoot small = root(0, "small", 1);
+        StorageRoot large = root(1, "large", 3);
+
+        int largeWins = 0;
+        for (long i = 0; i < 20_000; i++) {
+            long key = BlobPlacement.mix(i);
+            if (BlobPlacement.score(large, key) > BlobPlacement.score(small, key)) {
+                largeWins++;
+            }
+        }
+
+        assertEquals(0.75, largeWins / 20_000.0, 0.02);
+    }
+
+    @Test
+    void testScore_positiveAndDeterministic() {
+        StorageRoot root = root(0, "disk", 2);
+
+        for (long i = 0; i < 1_000; i++) {
+            long key = BlobPlacement.mix(i);
+            double score = BlobPlacement.score(root, key);
+            assertTrue(score > 0 && Double.isFinite(score));
+            assertEquals(score, BlobPlacement.score(root, key), 0);
+        }
+    }
+
+    @Test
+    void testPlace_highestScoringRootAndSpreadOverRoots() throws IOException {
+        BlobPlacement placement = placement(3, 0);
+
+        Map<StorageRoot, Integer> placed = new HashMap<>();
+        for (int i = 0; i < 3_000; i++) {
+            String digest = digest(i);
+            List<StorageRoot> ranked = placement.rank(digest);
+            long key = BlobPlacement.key(digest);
+            for (int r = 1; r < ranked.size(); r++) {
+                assertTrue(BlobPlacement.score(ranked.get(r - 1), key) >= BlobPlacement.score(ranked.get(r), key));
+            }
+            assertSame(ranked.getFirst(), placement.place(digest));
+            placed.merge(placement.place(digest), 1, Integer::sum);
+        }
+
+        // Roots on the same filesystem weigh the same, so each gets about a third
+        assertEquals(3, placed.size());
+        placed.values().forEach(count -> assertTrue(count > 800, "placed " + count + " of 3000"));
+    }
+
+    @Test
+    void testPlace_newBlobsStayOnHotRoots() throws IOException {
+        BlobPlacement placement = placement(2, 2);
+
+        assertTrue(placement.isTiered());
+        for (int i = 0; i < 200; i++) {
+            List<StorageRoot> ranked = placement.rank(digest(i));
+            assertEquals(StorageTier.HOT, placement.place(digest(i)).getTier());
+            assertEquals(List.of(StorageTier.HOT, StorageTier.HOT, StorageTier.COLD, StorageTier.COLD),
+                    ranked.stream().map(StorageRoot::getTier).toList());
+        }
+    }
+
+    @Test
+    void testFailedRoot_blobsFallThroughToTheirNextRootUntilRecovery() throws IOException {
+        BlobPlacement placement = placement(3, 0);
+        String digest = digest(1);
+        List<StorageRoot> ranked = placement.rank(digest);
+        StorageRoot home = ranked.getFirst();
+
+        breakRoot(home);
+        placement.checkRoots();
+
+        assertFalse(home.isHealthy());
+        assertSame(ranked.get(1), placement.place(digest));
+        assertEquals(ranked.subList(1, 3), placement.rank(digest));
+
+        repairRoot(home);
+        placement.checkRoots();
+
+        assertTrue(home.isHealthy());
+        assertSame(home, placement.place(digest));
+    }
+
+    @Test
+    void testFailedRoot_dropsOnlyTheBlobsHomedOnIt() throws IOException {
+        BlobPlacement placement = placement(3, 0);
+        StorageRoot failing = placement.getRoots().getFirst();
+        Set<String> homedOnFailing = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            String digest = digest(i);
+            blobIndex.put(new BlobIndexEntry(digest, 100, 0, 0, 0, true));
+            if (placement.place(digest) == failing) {
+                homedOnFailing.add(digest);
+            }
+        }
+        assertFalse(homedOnFailing.isEmpty());
+
+        breakRoot(failing);
+        placement.checkRoots();
+
+        assertEquals(300 - homedOnFailing.size(), blobIndex.size());
+        for (int i = 0; i < 300; i++) {
+            String digest = digest(i);
+            assertEquals(!homedOnFailing.contains(digest), blobIndex.contains(digest));
+        }
+
+        // Recovery puts the root back; re-indexing what survived on it is up to the reconciler
+        repairRoot(failing);
+        placement.checkRoots();
+        assertTrue(failing.isHealthy());
+        assertEquals(300 - homedOnFailing.size(), blobIndex.size());
+    }
+
+    @Test
+    void testFailedRoot_noneHealthyLeft() throws IOException {
+        BlobPlacement placement = placement(2, 0);
+        for (StorageRoot root : placement.getRoots()) {
+            breakRoot(root);
+        }
+        placement.checkRoots();
+
+        assertThrows(StorageException.class, () -> placement.rank(digest(1)));
+        assertThrows(StorageException.class, () -> placement.place(digest(1)));
+        assertSame(storageSchedulers.blocking(), placement.scheduler(digest(1)));
+    }
+
+    @Test
+    void testReportError_missingFileDoesNotFailTheRoot() throws IOException {
+        BlobPlacement placement = placement(2, 0);
+        StorageRoot root = placement.getRoots().getFirst();
+        breakRoot(root);
+
+        placement.reportError(root, new NoSuchFileException("blob"));
+
+        assertTrue(root.isHealthy());
+    }
+
+    private BlobPlacement placement(int hotRoots, int coldRoots) {
+        List<String> hot = new ArrayList<>();
+        for (int i = 0; i < hotRoots; i++) {
+            hot.add(basePath.resolve("hot-" + i).toString());
+        }
+        List<String> cold = new ArrayList<>();
+        for (int i = 0; i < coldRoots; i++) {
+            cold.add(basePath.resolve("cold-" + i).toString());
+        }
+        return new BlobPlacement(basePath.toString(), basePath.resolve("temp").toString(), hot, cold, 2,
+                blobIndex, storageSchedulers);
+    }
+
+    private StorageRoot root(int id, String name, double weight) {
+        Path path = basePath.resolve(name);
+        return new StorageRoot(id, path, path.resolve("temp"), weight, null, StorageTier.HOT);
+    }
+
+    /**
+     * Remove the root's temp directory, so its probe fails
+     */
+    private static void breakRoot(StorageRoot root) throws IOException {
+        Files.delete(root.getTempDirectory());
+    }
+
+    private static void repairRoot(StorageRoot root) throws IOException {
+        Files.createDirectories(root.getTempDirectory());
+    }
+
+    private static String digest(int i) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            return "sha256:" + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.dingdangmaoup.station.storage.scheduler;
+
+import com.dingdangmaoup.station.config.properties.StorageIoProperties;
+import com.dingdangmaoup.station.storage.health.StorageHealthChangedEvent;
+import com.dingdangmaoup.station.storage.health.StorageLatencyMonitor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test admission by priority class, concurrency and bandwidth limits, background yielding and shedding
+ */
+class IoSchedulerTest {
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final StorageIoProperties properties = new StorageIoProperties();
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Sinks.Empty<Void>> gates = new HashMap<>();
+    private final List<Disposable> subscriptions = new ArrayList<>();
+    private StorageLatencyMonitor latencyMonitor;
+
+    @BeforeEach
+    void setUp() {
+        latencyMonitor = new StorageLatencyMonitor(event -> { }, new SimpleMeterRegistry(),
+                Duration.ofMillis(250), 20, Duration.ZERO);
+    }
+
+    @AfterEach
+    void tearDown() {
+        subscriptions.forEach(Disposable::dispose);
+    }
+
+    @Test
+    void testPriority_lowerClassWaitsBehindAWaitingHigherClass() {
+        properties.setForeground(new StorageIoProperties.IoClass(1, null));
+        IoScheduler scheduler = scheduler();
+
+        run(scheduler, "foreground-1", IoPriority.FOREGROUND);
+        run(scheduler, "foreground-2", IoPriority.FOREGROUND);
+        // Ingest has no limit of its own, but a foreground operation is waiting
+        run(scheduler, "ingest", IoPriority.INGEST);
+        assertEquals(List.of("foreground-1"), started);
+
+        finish("foreground-1");
+
+        assertEquals(List.of("foreground-1", "foreground-2", "ingest"), started);
+    }
+
+    @Test
+    void testPriority_fromContextOverridesFallback() {
+        properties.setForeground(new StorageIoProperties.IoClass(1, null));
+        IoScheduler scheduler = scheduler();
+        run(scheduler, "foreground-1", IoPriority.FOREGROUND);
+        run(scheduler, "foreground-2", IoPriority.FOREGROUND);
+
+        Sinks.Empty<Void> gate = Sinks.empty();
+        subscriptions.add(scheduler.schedule(Mono.defer(() -> {
+                    started.add("marked-ingest");
+                    return gate.asMono();
+                }), IoPriority.FOREGROUND)
+                .contextWrite(IoPriority.INGEST.context())
+                .subscribe());
+
+        // Queued behind the waiting foreground operation, not behind the busy foreground slot
+        assertEquals(List.of("foreground-1"), started);
+        finish("foreground-1");
+        assertEquals(List.of("foreground-1", "foreground-2", "marked-ingest"), started);
+    }
+
+    @Test
+    void testConcurrency_limitsEachClassOnItsOwn() {
+        properties.setBackground(new StorageIoProperties.IoClass(2, null));
+        properties.setBackgroundYieldThreshold(0);
+        IoScheduler scheduler = scheduler();
+
+        run(scheduler, "background-1", IoPriority.BACKGROUND);
+        run(scheduler, "background-2", IoPriority.BACKGROUND);
+        run(scheduler, "background-3", IoPriority.BACKGROUND);
+        run(scheduler, "foreground", IoPriority.FOREGROUND);
+        assertEquals(List.of("background-1", "background-2", "foreground"), started);
+
+        finish("background-2");
+
+        assertEquals(List.of("background-1", "background-2", "foreground", "background-3"), started);
+    }
+
+    @Test
+    void testConcurrency_cancelledOperationReleasesItsSlot() {
+        properties.setBackground(new StorageIoProperties.IoClass(1, null));
+        properties.setBackgroundYieldThreshold(0);
+        IoScheduler scheduler = scheduler();
+
+        run(scheduler, "background-1", IoPriority.BACKGROUND);
+        run(scheduler, "background-2", IoPriority.BACKGROUND);
+        subscriptions.getFirst().dispose();
+
+        assertEquals(List.of("background-1", "background-2"), started);
+    }
+
+    @Test
+    void testBandwidth_pacesToTheClassRate() {
+        properties.setBackground(new StorageIoProperties.IoClass(0, DataSize.ofKilobytes(512)));
+        IoScheduler scheduler = scheduler();
+
+        long start = System.nanoTime();
+        // The first 256 KB go at once, the next two wait half a second each for the bytes before them
+        scheduler.pace(DataSize.ofKilobytes(256).toBytes(), IoPriority.BACKGROUND)
+                .then(scheduler.pace(DataSize.ofKilobytes(256).toBytes(), IoPriority.BACKGROUND))
+                .then(scheduler.pace(1, IoPriority.BACKGROUND))
+                .block(Duration.ofSeconds(5));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 900, "paced for " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testBandwidth_transferPacesEveryChunk() {
+        properties.setIngest(new StorageIoProperties.IoClass(0, DataSize.ofKilobytes(64)));
+        IoScheduler scheduler = scheduler();
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> chunks = Flux.range(0, 3).map(i -> factory.wrap(new byte[16 * 1024]));
+
+        long start = System.nanoTime();
+        Long bytes = scheduler.transfer(chunks, IoPriority.INGEST)
+                .map(buffer -> (long) buffer.readableByteCount())
+                .reduce(0L, Long::sum)
+                .block(Duration.ofSeconds(5));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(48L * 1024, bytes);
+        // The second and third chunk each wait a quarter of a second
+        assertTrue(elapsedMillis >= 450, "paced for " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testBandwidth_unlimitedClassIsNotPaced() {
+        IoScheduler scheduler = scheduler();
+
+        long start = System.nanoTime();
+        scheduler.pace(DataSize.ofGigabytes(1).toBytes(), IoPriority.FOREGROUND)
+                .then(scheduler.pace(DataSize.ofGigabytes(1).toBytes(), IoPriority.FOREGROUND))
+                .block(Duration.ofSeconds(5));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void testRead_releasesSlotOnTheFirstChunk() {
+        properties.setForeground(new StorageIoProperties.IoClass(1, null));
+        IoScheduler scheduler = scheduler();
+        DefaultDataBufferFactory factory = DefaultDataBufferFactory.sharedInstance;
+        Sinks.Many<DataBuffer> client = Sinks.many().unicast().onBackpressureBuffer();
+
+        subscriptions.add(scheduler.read(client.asFlux(), IoPriority.FOREGROUND).subscribe());
+        run(scheduler, "foreground", IoPriority.FOREGROUND);
+        assertTrue(started.isEmpty());
+
+        // The read is still streaming, but the disk has done its part
+        client.tryEmitNext(factory.wrap(new byte[1]));
+
+        assertEquals(List.of("foreground"), started);
+    }
+
+    @Test
+    void testYield_backgroundWaitsWhileForegroundIsBusy() {
+        properties.setBackgroundYieldThreshold(2);
+        properties.setMaxYield(Duration.ofMinutes(1));
+        IoScheduler scheduler = scheduler();
+
+        run(scheduler, "foreground-1", IoPriority.FOREGROUND);
+        run(scheduler, "foreground-2", IoPriority.FOREGROUND);
+        run(scheduler, "background", IoPriority.BACKGROUND);
+        assertEquals(List.of("foreground-1", "foreground-2"), started);
+
+        finish("foreground-1");
+
+        assertEquals(List.of("foreground-1", "foreground-2", "background"), started);
+    }
+
+    @Test
+    void testYield_backgroundAdmittedAfterMaxYield() throws InterruptedException {
+        properties.setBackgroundYieldThreshold(1);
+        properties.setMaxYield(Duration.ofMillis(200));
+        IoScheduler scheduler = scheduler();
+
+        run(scheduler, "foreground", IoPriority.FOREGROUND);
+        run(scheduler, "background", IoPriority.BACKGROUND);
+        assertFalse(started.contains("background"));
+
+        // The foreground operation never finishes, so only the yield limit lets eviction through
+        awaitStarted("background", Duration.ofSeconds(2));
+    }
+
+    @Test
+    void testDegraded_shedsBackgroundUntilRecovery() throws InterruptedException {
+        properties.setBackgroundYieldThreshold(0);
+        properties.setMaxYield(Duration.ofMillis(50));
+        IoScheduler scheduler = scheduler();
+        for (int i = 0; i < 20; i++) {
+            latencyMonitor.record(StorageLatencyMonitor.Operation.READ, SLOW);
+        }
+        assertTrue(latencyMonitor.isDegraded());
+
+        run(scheduler, "background", IoPriority.BACKGROUND);
+        run(scheduler, "foreground", IoPriority.FOREGROUND);
+        // Well past the longest yield: shedding is not bounded by it
+        Thread.sleep(300);
+        assertEquals(List.of("foreground"), started);
+
+        latencyMonitor.checkCooldown();
+        scheduler.onStorageHealthChanged(new StorageHealthChangedEvent(false));
+
+        assertEquals(List.of("foreground", "background"), started);
+    }
+
+    private IoScheduler scheduler() {
+        return new IoScheduler(properties, latencyMonitor, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Schedule an operation that records its start and runs until {@link #finish}ed
+     */
+    private void run(IoScheduler scheduler, String name, IoPriority priority) {
+        Sinks.Empty<Void> gate = Sinks.empty();
+        gates.put(name, gate);
+        subscriptions.add(scheduler.schedule(Mono.defer(() -> {
+            started.add(name);
+            return gate.asMono();
+        }), priority).subscribe());
+    }
+
+    private void finish(String name) {
+        gates.get(name).tryEmitEmpty();
+    }
+
+    private void awaitStarted(String name, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!started.contains(name)) {
+            assertTrue(System.nanoTime() < deadline, name + " was never admitted");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.dingdangmaoup.station.storage.segment;
+
+import com.dingdangmaoup.station.storage.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test replay, torn-tail recovery, checksums and compaction of the segment store
+ */
+class SegmentStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void testReplay_restoresLatestValuesAndDeletes() {
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            store.put("a", bytes("one"));
+            store.put("b", bytes("two"));
+            store.put("a", bytes("three"));
+            store.delete("b");
+        }
+
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            assertEquals("three", string(store.get("a")));
+            assertFalse(store.contains("b"));
+            assertEquals(1, store.getUsage().getCount());
+            assertEquals(5, store.getUsage().getBytes());
+        }
+    }
+
+    @Test
+    void testTornTail_isTruncatedAndAppendsContinue() throws IOException {
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            store.put("a", bytes("one"));
+            store.put("b", bytes("two"));
+        }
+        Path segment = onlySegment();
+        long intact = Files.size(segment);
+        // A record cut off mid-append: a valid magic, then nothing else
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x53, 0x45, 0x47, 0x31, 1, 2, 3}));
+        }
+
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            assertEquals(intact, Files.size(segment));
+            assertEquals("one", string(store.get("a")));
+            assertEquals("two", string(store.get("b")));
+            store.put("c", bytes("four"));
+        }
+
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            assertEquals("four", string(store.get("c")));
+        }
+    }
+
+    @Test
+    void testTornTail_withBadChecksumIsTruncated() throws IOException {
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            store.put("a", bytes("one"));
+            store.put("b", bytes("two"));
+        }
+        Path segment = onlySegment();
+        // Complete length, but the last value byte never made it to disk
+        flipLastByte(segment);
+
+        try (SegmentStore store = SegmentStore.open(directory, 1024, false)) {
+            assertEquals("one", string(store.get("a")));
+            assertFalse(store.contains("b"));
+        }
+    }
+
+    @Test
+    void testGet_rejectsCorruptValueInSealedSegment() throws IOException {
+        try (SegmentStore store = SegmentStore.open(directory, 64, false)) {
+            store.put("a", bytes("0123456789"));
+            // Rolls: "a" is now in a sealed segment, replayed without checksums
+            store.put("b", new byte[64]);
+        }
+        flipLastByte(segmentPaths().getFirst());
+
+        try (SegmentStore store = SegmentStore.open(directory, 64, false)) {
+            assertTrue(store.contains("a"));
+            assertThrows(StorageException.class, () -> store.get("a"));
+
+            // Compaction must not copy it forward under a fresh checksum
+            store.delete("b");
+            store.compact(0.0);
+            assertThrows(StorageException.class, () -> store.get("a"));
+        }
+    }
+
+    @Test
+    void testCompaction_movesLiveRecordsAndReclaimsSegments() {
+        try (SegmentStore store = SegmentStore.open(directory, 128, false)) {
+            for (int i = 0; i < 20; i++) {
+                store.put("key-" + i, bytes("value-" + i));
+            }
+            for (int i = 0; i < 20; i += 2) {
+                store.delete("key-" + i);
+            }
+            long before = store.getDiskBytes();
+
+            assertTrue(store.compact(0.3) > 0);
+
+            assertTrue(store.getDiskBytes() < before);
+            for (int i = 1; i < 20; i += 2) {
+                assertEquals("value-" + i, string(store.get("key-" + i)));
+            }
+        }
+
+        try (SegmentStore store = SegmentStore.open(directory, 128, false)) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i % 2 == 1, store.contains("key-" + i));
+            }
+        }
+    }
+
+    @Test
+    void testCompaction_carriesTombstonesForwardOverOlderPuts() {
+        try (SegmentStore store = SegmentStore.open(directory, 128, false)) {
+            // Segment 1: k (34 bytes) and a (84 bytes), mostly live
+            store.put("k", new byte[10]);
+            store.put("a", new byte[60]);
+            // Segment 2: c and the tombstone of k; then c's tombstone rolls into segment 3
+            store.put("c", new byte[60]);
+            store.delete("k");
+            store.delete("c");
+
+            // Only segment 2 is garbage enough; its tombstone still shadows k's put in segment 1
+            assertEquals(1, store.compact(0.5));
+        }
+
+        try (SegmentStore store = SegmentStore.open(directory, 128, false)) {
+            assertFalse(store.contains("k"));
+            assertFalse(store.contains("c"));
+            assertTrue(store.contains("a"));
+        }
+    }
+
+    @Test
+    void testCompactSegment_oneCandidateAtATime() {
+        try (SegmentStore store = SegmentStore.open(directory, 128, false)) {
+            store.put("k", new byte[10]);
+            store.put("a", new byte[60]);
+            store.put("c", new byte[60]);
+            store.delete("k");
+            store.delete("c");
+
+            List<Long> candidates = store.compactionCandidates(0.5);
+            assertEquals(1, candidates.size());
+            assertTrue(store.compactSegment(candidates.getFirst()) > 0);
+            // Already reclaimed: nothing left to scan
+            assertEquals(-1, store.compactSegment(candidates.getFirst()));
+            assertFalse(store.compactionCandidates(0.5).contains(candidates.getFirst()));
+            assertTrue(store.contains("a"));
+        }
+    }
+
+    @Test
+    void testCompaction_racingPutsAndDeletesKeepsTheLatestWrite() throws InterruptedException {
+        Map<String, Optional<String>> expected = new HashMap<>();
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<Throwable> compactionFailure = new AtomicReference<>();
+
+        try (SegmentStore store = SegmentStore.open(directory, 512, false)) {
+            Thread compactor = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        store.compact(0.2);
+                    }
+                } catch (Throwable e) {
+                    compactionFailure.set(e);
+                }
+            });
+            compactor.start();
+
+            Random random = new Random(42);
+            for (int i = 0; i < 5_000; i++) {
+                String key = "key-" + random.nextInt(50);
+                if (random.nextInt(4) == 0) {
+                    store.delete(key);
+                    expected.put(key, Optional.empty());
+                } else {
+                    String value = "value-" + i;
+                    store.put(key, bytes(value));
+                    expected.put(key, Optional.of(value));
+                }
+            }
+            done.set(true);
+            compactor.join();
+
+            assertNull(compactionFailure.get());
+            assertMatches(expected, store);
+        }
+
+        try (SegmentStore store = SegmentStore.open(directory, 512, false)) {
+            assertMatches(expected, store);
+        }
+    }
+
+    private static void assertMatches(Map<String, Optional<String>> expected, SegmentStore store) {
+        expected.forEach((key, value) ->
+                assertEquals(value, store.get(key).map(bytes -> new String(bytes, StandardCharsets.UTF_8)), key));
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segmentPaths();
+        assertEquals(1, segments.size());
+        return segments.getFirst();
+    }
+
+    private List<Path> segmentPaths() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+
+    private static void flipLastByte(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = channel.size() - 1;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, position);
+            last.put(0, (byte) ~last.get(0));
+            last.rewind();
+            channel.write(last, position);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(Optional<byte[]> value) {
+        return value.map(bytes -> new String(bytes, StandardCharsets.UTF_8)).orElse(null);
+    }
+}